@@ -0,0 +1,94 @@
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.jmh)
+}
+
+group = "idv.neo.ffmpeg.media.player.benchmark"
+version = "1.0.0"
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+kotlin {
+    compilerOptions {
+        jvmTarget = org.jetbrains.kotlin.gradle.dsl.JvmTarget.JVM_11
+    }
+}
+
+dependencies {
+    implementation(project(":shared"))
+    implementation(libs.org.bytedeco.javacv.platform)
+    implementation(libs.org.bytedeco.ffmpeg.platform.gpl)
+
+    // :shared keeps JavaFX as an implementation detail; the FX conversion benchmark needs it directly.
+    val javafxVersion = "17.0.10"
+    val javafxPlatform = System.getProperty("os.name").lowercase().let { os ->
+        when {
+            os.contains("win") -> "win"
+            os.contains("mac") -> if (System.getProperty("os.arch") == "aarch64") "mac-aarch64" else "mac"
+            else -> "linux"
+        }
+    }
+    jmh("org.openjfx:javafx-base:$javafxVersion:$javafxPlatform")
+    jmh("org.openjfx:javafx-graphics:$javafxVersion:$javafxPlatform")
+}
+
+// ./gradlew :benchmark:jmh                      -> all benchmarks, throughput + gc profiler
+// ./gradlew :benchmark:jmh -Pjmh.includes=BgrToBgra -> a subset (regex on the benchmark name)
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    benchmarkMode.set(listOf("thrpt"))
+    timeUnit.set("s")
+    warmupIterations.set(3)
+    warmup.set("2s")
+    iterations.set(5)
+    timeOnIteration.set("2s")
+    fork.set(1)
+    profilers.set(listOf("gc"))
+    resultFormat.set("JSON")
+    (project.findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+}
+
+// ./gradlew :benchmark:playbackBenchmark [-Pplayback.args="--codecs h264 --resolutions 1080p"]
+// End-to-end runs of every player engine against generated clips; see PlaybackBenchmark for options.
+tasks.register<JavaExec>("playbackBenchmark") {
+    group = "benchmark"
+    description = "Plays synthetic clips with each player engine headlessly and writes the results as JSON."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("idv.neo.ffmpeg.media.player.benchmark.playback.PlaybackBenchmark")
+    jvmArgs("-Djava.awt.headless=true")
+    (project.findProperty("playback.args") as String?)?.let { args(it.trim().split(Regex("\\s+"))) }
+}
+
+// ./gradlew :benchmark:avSyncCheck [-PavSync.args="--duration 300 --max-abs-offset-ms 60"]
+// Measures the A/V offset of every engine on a flash-and-beep clip; fails when a threshold is exceeded.
+tasks.register<JavaExec>("avSyncCheck") {
+    group = "verification"
+    description = "Measures audio/video sync of each player engine and fails if offset or drift exceed the limits."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("idv.neo.ffmpeg.media.player.benchmark.sync.AvSyncRig")
+    (project.findProperty("avSync.args") as String?)?.let { args(it.trim().split(Regex("\\s+"))) }
+}
+
+// ./gradlew :benchmark:batchDecodeScaling [-PbatchDecode.args="--resolution 1080p --duration 120"]
+// Decodes all-intra and long-GOP clips with BatchDecoder at increasing worker counts.
+tasks.register<JavaExec>("batchDecodeScaling") {
+    group = "benchmark"
+    description = "Measures how BatchDecoder throughput scales with the number of workers."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("idv.neo.ffmpeg.media.player.benchmark.batch.BatchDecodeScaling")
+    jvmArgs("-Djava.awt.headless=true")
+    (project.findProperty("batchDecode.args") as String?)?.let { args(it.trim().split(Regex("\\s+"))) }
+}
+
+// ./gradlew :benchmark:presentationJudder [-PpresentationJudder.args="--fps 60 --duration 20"]
+// Measures how late frame deadlines are met with Thread.sleep versus PresentationScheduler.
+tasks.register<JavaExec>("presentationJudder") {
+    group = "benchmark"
+    description = "Compares deadline lateness of Thread.sleep and PresentationScheduler at a fixed frame rate."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("idv.neo.ffmpeg.media.player.benchmark.present.PresentationJudder")
+    (project.findProperty("presentationJudder.args") as String?)?.let { args(it.trim().split(Regex("\\s+"))) }
+}
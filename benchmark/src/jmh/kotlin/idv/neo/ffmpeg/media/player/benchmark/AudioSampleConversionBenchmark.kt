@@ -0,0 +1,37 @@
+package idv.neo.ffmpeg.media.player.benchmark
+
+import idv.neo.ffmpeg.media.player.core.AudioSampleConverter
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.nio.ShortBuffer
+
+/**
+ * The S16 short-to-byte conversion done for every audio frame before SourceDataLine.write().
+ * 1024 and 2048 samples per channel match typical AAC and MP3/Opus frame sizes.
+ */
+@State(Scope.Benchmark)
+open class AudioSampleConversionBenchmark {
+    @Param("1024", "2048") @JvmField var samplesPerChannel: Int = 0
+    @Param("1", "2", "6") @JvmField var channels: Int = 0
+    @Param("true", "false") @JvmField var bigEndian: Boolean = false
+
+    private lateinit var samples: ShortBuffer
+    private lateinit var reusableOut: ByteArray
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        samples = FrameFixtures.interleavedSamples(samplesPerChannel, channels)
+        reusableOut = ByteArray(samples.remaining() * 2)
+    }
+
+    /** What the players do today: a new array per audio frame. */
+    @Benchmark
+    fun toPcm16BytesAllocating(): ByteArray = AudioSampleConverter.toPcm16Bytes(samples, bigEndian)
+
+    @Benchmark
+    fun toPcm16BytesReusedBuffer(): Int = AudioSampleConverter.toPcm16Bytes(samples, bigEndian, reusableOut)
+}
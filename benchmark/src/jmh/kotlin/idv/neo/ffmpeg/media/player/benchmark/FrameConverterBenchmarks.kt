@@ -0,0 +1,98 @@
+package idv.neo.ffmpeg.media.player.benchmark
+
+import androidx.compose.ui.graphics.ImageBitmap
+import idv.neo.ffmpeg.media.player.core.UniversalFrameConverter
+import javafx.application.Platform
+import org.bytedeco.javacv.Frame
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.awt.image.BufferedImage
+import java.nio.ByteBuffer
+
+// One state class per public entry point of UniversalFrameConverter. Each covers the pixel
+// formats that entry point actually handles, at 360p..4K, with packed and padded strides.
+
+@State(Scope.Benchmark)
+open class BufferedImageConversionBenchmark {
+    @Param("BGR24", "BGRA", "RGBA", "ARGB") @JvmField var pixelFormat: String = ""
+    @Param("360p", "720p", "1080p", "2160p") @JvmField var resolution: String = ""
+    @Param("false", "true") @JvmField var padded: Boolean = false
+
+    private lateinit var frame: Frame
+    private var avPixelFormat = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        frame = FrameFixtures.videoFrame(pixelFormat, resolution, padded)
+        avPixelFormat = FrameFixtures.avPixelFormat(pixelFormat)
+    }
+
+    @Benchmark
+    fun convertToBufferedImage(): BufferedImage? = UniversalFrameConverter.convertToBufferedImage(frame, avPixelFormat)
+}
+
+@State(Scope.Benchmark)
+open class ImageBitmapConversionBenchmark {
+    // AV_PIX_FMT_ARGB is not supported by the ImageBitmap path.
+    @Param("BGR24", "BGRA", "RGBA") @JvmField var pixelFormat: String = ""
+    @Param("360p", "720p", "1080p", "2160p") @JvmField var resolution: String = ""
+    @Param("false", "true") @JvmField var padded: Boolean = false
+
+    private lateinit var frame: Frame
+    private var avPixelFormat = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        frame = FrameFixtures.videoFrame(pixelFormat, resolution, padded)
+        avPixelFormat = FrameFixtures.avPixelFormat(pixelFormat)
+    }
+
+    @Benchmark
+    fun convertToImageBitmap(): ImageBitmap? = UniversalFrameConverter.convertToImageBitmap(frame, avPixelFormat)
+}
+
+@State(Scope.Benchmark)
+open class BgrToBgraBenchmark {
+    @Param("360p", "720p", "1080p", "2160p") @JvmField var resolution: String = ""
+    @Param("false", "true") @JvmField var padded: Boolean = false
+
+    private lateinit var frame: Frame
+    private lateinit var buffer: ByteBuffer
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        frame = FrameFixtures.videoFrame("BGR24", resolution, padded)
+        buffer = frame.image[0] as ByteBuffer
+    }
+
+    @Benchmark
+    fun convertBgrToBgra(): ByteArray? =
+        UniversalFrameConverter.convertBgrToBgra(buffer, frame.imageWidth, frame.imageHeight, frame.imageStride)
+}
+
+@State(Scope.Benchmark)
+open class FxImageConversionBenchmark {
+    // JavaFXFrameConverter picks its path from the channel count: 3 (BGR24) or 4 (BGRA).
+    @Param("BGR24", "BGRA") @JvmField var pixelFormat: String = ""
+    @Param("360p", "720p", "1080p", "2160p") @JvmField var resolution: String = ""
+    @Param("false", "true") @JvmField var padded: Boolean = false
+
+    private lateinit var frame: Frame
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        try {
+            Platform.startup {}
+        } catch (e: IllegalStateException) {
+            // Toolkit already running in this fork.
+        }
+        frame = FrameFixtures.videoFrame(pixelFormat, resolution, padded)
+    }
+
+    @Benchmark
+    fun convertToFxImage(): javafx.scene.image.Image? = UniversalFrameConverter.convertToFxImage(frame)
+}
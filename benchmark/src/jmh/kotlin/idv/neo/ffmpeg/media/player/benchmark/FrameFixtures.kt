@@ -0,0 +1,66 @@
+package idv.neo.ffmpeg.media.player.benchmark
+
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.Frame
+import java.nio.ByteBuffer
+import java.nio.ShortBuffer
+import kotlin.random.Random
+
+/**
+ * Deterministic input frames for the converter and audio benchmarks.
+ *
+ * "Padded" frames use the row layout FFmpeg decoders typically produce: each row is
+ * rounded up to a 64-byte boundary after 32 bytes of slack, so stride != width * bytesPerPixel.
+ */
+internal object FrameFixtures {
+
+    fun dimensions(resolution: String): Pair<Int, Int> = when (resolution) {
+        "360p" -> 640 to 360
+        "720p" -> 1280 to 720
+        "1080p" -> 1920 to 1080
+        "2160p" -> 3840 to 2160
+        else -> throw IllegalArgumentException("Unknown resolution: $resolution")
+    }
+
+    fun avPixelFormat(pixelFormat: String): Int = when (pixelFormat) {
+        "BGR24" -> avutil.AV_PIX_FMT_BGR24
+        "BGRA" -> avutil.AV_PIX_FMT_BGRA
+        "RGBA" -> avutil.AV_PIX_FMT_RGBA
+        "ARGB" -> avutil.AV_PIX_FMT_ARGB
+        else -> throw IllegalArgumentException("Unknown pixel format: $pixelFormat")
+    }
+
+    fun bytesPerPixel(pixelFormat: String): Int = if (pixelFormat == "BGR24") 3 else 4
+
+    fun stride(width: Int, bytesPerPixel: Int, padded: Boolean): Int {
+        val packed = width * bytesPerPixel
+        return if (padded) (packed + 32 + 63) / 64 * 64 else packed
+    }
+
+    fun videoFrame(pixelFormat: String, resolution: String, padded: Boolean): Frame {
+        val (width, height) = dimensions(resolution)
+        val bpp = bytesPerPixel(pixelFormat)
+        val stride = stride(width, bpp, padded)
+        // Built by hand rather than with Frame(w, h, depth, channels, stride) so that no JavaCPP
+        // native allocation is involved and the fixtures work without loading FFmpeg.
+        val bytes = ByteArray(stride * height)
+        Random(42).nextBytes(bytes)
+        val buffer = ByteBuffer.allocateDirect(bytes.size)
+        buffer.put(bytes)
+        buffer.rewind()
+        return Frame().apply {
+            imageWidth = width
+            imageHeight = height
+            imageDepth = Frame.DEPTH_UBYTE
+            imageChannels = bpp
+            imageStride = stride
+            image = arrayOf(buffer)
+        }
+    }
+
+    fun interleavedSamples(samplesPerChannel: Int, channels: Int): ShortBuffer {
+        val random = Random(7)
+        val samples = ShortArray(samplesPerChannel * channels) { random.nextInt(Short.MIN_VALUE.toInt(), Short.MAX_VALUE + 1).toShort() }
+        return ShortBuffer.wrap(samples)
+    }
+}
@@ -0,0 +1,94 @@
+package idv.neo.ffmpeg.media.player.benchmark.batch
+
+import idv.neo.ffmpeg.media.player.benchmark.playback.ClipCodec
+import idv.neo.ffmpeg.media.player.benchmark.playback.ClipSpec
+import idv.neo.ffmpeg.media.player.benchmark.playback.JsonWriter
+import idv.neo.ffmpeg.media.player.benchmark.playback.SyntheticClipGenerator
+import idv.neo.ffmpeg.media.player.core.batch.BatchDecodeOptions
+import idv.neo.ffmpeg.media.player.core.batch.BatchDecoder
+import java.io.File
+import java.time.Instant
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Logger
+import kotlin.system.exitProcess
+
+/**
+ * Scaling check for [BatchDecoder]: decodes an all-intra and a long-GOP clip with 1, 2, 4, ...
+ * workers up to the core count and reports frames per second and the speed-up over one worker.
+ *
+ * ```
+ * ./gradlew :benchmark:batchDecodeScaling -PbatchDecode.args="--resolution 1080p --duration 120"
+ * ```
+ *
+ * Options (defaults in brackets):
+ * - `--resolution` clip size [1080p]
+ * - `--duration` clip length in seconds [120]
+ * - `--long-gop` GOP size of the long-GOP clip [120]; keep at least two GOPs per core
+ * - `--ordered` deliver through the reorder buffer [false]
+ * - `--clips` clip cache directory [build/playback-clips]
+ * - `--out` result file [build/batch-decode/batch-decode-<timestamp>.json]
+ */
+object BatchDecodeScaling {
+    private val LOG = Logger.getLogger(BatchDecodeScaling::class.java.name)
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        System.setProperty("java.awt.headless", "true")
+        val options = parseOptions(args)
+        val (width, height) = ClipSpec.dimensionsOf(options["--resolution"] ?: "1080p")
+        val duration = options["--duration"]?.toInt() ?: 120
+        val longGop = options["--long-gop"]?.toInt() ?: 120
+        val ordered = options["--ordered"]?.toBoolean() ?: false
+        val outputFile = File(options["--out"] ?: "build/batch-decode/batch-decode-${System.currentTimeMillis()}.json")
+        val generator = SyntheticClipGenerator(File(options["--clips"] ?: "build/playback-clips"))
+
+        val cores = Runtime.getRuntime().availableProcessors()
+        val workerCounts = generateSequence(1) { it * 2 }.takeWhile { it < cores }.toList() + cores
+        val results = listOf(1, longGop).map { gop ->
+            val clip = generator.clipFor(ClipSpec(ClipCodec.H264, width, height, gopSize = gop, durationSeconds = duration, withAudio = false))
+            var baseline = 0.0
+            val runs = workerCounts.map { workers ->
+                val fps = measure(clip, workers, ordered)
+                if (workers == 1) baseline = fps
+                val speedup = if (baseline > 0) fps / baseline else 0.0
+                LOG.info(String.format("%s: %2d workers %8.1f fps  x%.2f (efficiency %.0f%%)", clip.name, workers, fps, speedup, 100 * speedup / workers))
+                linkedMapOf<String, Any?>("workers" to workers, "framesPerSecond" to fps, "speedup" to speedup)
+            }
+            linkedMapOf<String, Any?>("clip" to clip.name, "gopSize" to gop, "runs" to runs)
+        }
+
+        outputFile.parentFile?.mkdirs()
+        outputFile.writeText(JsonWriter.write(linkedMapOf(
+            "timestamp" to Instant.now().toString(),
+            "cores" to cores,
+            "ordered" to ordered,
+            "clips" to results
+        )) + "\n")
+        LOG.info("Wrote batch decode results to ${outputFile.absolutePath}")
+    }
+
+    private fun measure(clip: File, workers: Int, ordered: Boolean): Double {
+        val checksum = AtomicLong()
+        BatchDecoder(workers).use { decoder ->
+            // A cheap read of each frame, so delivery is not optimized away and costs about the same.
+            val result = decoder.decode(clip.absolutePath, BatchDecodeOptions(ordered = ordered)) { frame ->
+                checksum.addAndGet(frame.timestamp)
+            }
+            return result.frames * 1000.0 / result.elapsedMillis.coerceAtLeast(1)
+        }
+    }
+
+    private fun parseOptions(args: Array<String>): Map<String, String> {
+        val known = setOf("--resolution", "--duration", "--long-gop", "--ordered", "--clips", "--out")
+        if (args.size % 2 != 0) usage("Every option needs a value")
+        return args.toList().chunked(2).associate { (key, value) ->
+            if (key !in known) usage("Unknown option '$key'")
+            key to value
+        }
+    }
+
+    private fun usage(message: String): Nothing {
+        System.err.println(message)
+        exitProcess(2)
+    }
+}
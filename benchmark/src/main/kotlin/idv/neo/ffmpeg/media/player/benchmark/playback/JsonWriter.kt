@@ -0,0 +1,62 @@
+package idv.neo.ffmpeg.media.player.benchmark.playback
+
+/**
+ * Minimal JSON serializer for the result file: maps, lists, strings, numbers, booleans and null.
+ * Keeps the benchmark module free of a JSON dependency.
+ */
+internal object JsonWriter {
+
+    fun write(value: Any?): String = StringBuilder().also { append(it, value, 0) }.toString()
+
+    private fun append(sb: StringBuilder, value: Any?, indent: Int) {
+        when (value) {
+            null -> sb.append("null")
+            is String -> appendString(sb, value)
+            is Boolean -> sb.append(value)
+            is Double -> sb.append(if (value.isFinite()) value.toString() else "null")
+            is Float -> append(sb, value.toDouble(), indent)
+            is Number -> sb.append(value)
+            is Enum<*> -> appendString(sb, value.name)
+            is Map<*, *> -> appendContainer(sb, value.entries, '{', '}', indent) { entry, level ->
+                appendString(sb, entry.key.toString())
+                sb.append(": ")
+                append(sb, entry.value, level)
+            }
+            is Iterable<*> -> appendContainer(sb, value.toList(), '[', ']', indent) { item, level -> append(sb, item, level) }
+            else -> appendString(sb, value.toString())
+        }
+    }
+
+    private inline fun <T> appendContainer(
+        sb: StringBuilder, items: Collection<T>, open: Char, close: Char, indent: Int, appendItem: (T, Int) -> Unit
+    ) {
+        if (items.isEmpty()) {
+            sb.append(open).append(close)
+            return
+        }
+        sb.append(open).append('\n')
+        items.forEachIndexed { i, item ->
+            repeat(indent + 1) { sb.append("  ") }
+            appendItem(item, indent + 1)
+            if (i < items.size - 1) sb.append(',')
+            sb.append('\n')
+        }
+        repeat(indent) { sb.append("  ") }
+        sb.append(close)
+    }
+
+    private fun appendString(sb: StringBuilder, s: String) {
+        sb.append('"')
+        for (c in s) {
+            when (c) {
+                '"' -> sb.append("\\\"")
+                '\\' -> sb.append("\\\\")
+                '\n' -> sb.append("\\n")
+                '\r' -> sb.append("\\r")
+                '\t' -> sb.append("\\t")
+                else -> if (c < ' ') sb.append(String.format("\\u%04x", c.code)) else sb.append(c)
+            }
+        }
+        sb.append('"')
+    }
+}
@@ -0,0 +1,158 @@
+package idv.neo.ffmpeg.media.player.benchmark.playback
+
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.time.Instant
+import java.util.logging.Level
+import java.util.logging.Logger
+import kotlin.system.exitProcess
+
+/**
+ * End-to-end playback benchmark: generates synthetic clips locally, plays each one with every
+ * engine without a window and writes the measurements as JSON.
+ *
+ * ```
+ * ./gradlew :benchmark:playbackBenchmark -Pplayback.args="--codecs h264,vp9 --resolutions 1080p"
+ * ```
+ *
+ * Options (defaults in brackets):
+ * - `--codecs` h264,hevc,vp9 [all]
+ * - `--resolutions` 360p,480p,720p,1080p,2160p [720p,1080p]
+ * - `--gops` GOP sizes in frames [12,120]
+ * - `--duration` clip length in seconds [10]
+ * - `--fps` clip frame rate [30]
+ * - `--engines` UNIVERSAL_JVM,JAVAFX_SWING,JAVAFX_SWING_COMPOSE [all]
+ * - `--repeat` runs per engine and clip [1]
+ * - `--no-audio` clips without an audio track, so every engine runs on the system clock
+ * - `--no-convert` count frames without converting them to BufferedImage
+ * - `--clips` clip cache directory [build/playback-clips]
+ * - `--out` result file [build/playback-results/playback-<timestamp>.json]
+ */
+object PlaybackBenchmark {
+    private val LOG = Logger.getLogger(PlaybackBenchmark::class.java.name)
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        System.setProperty("java.awt.headless", "true")
+        val options = try {
+            Options.parse(args)
+        } catch (e: IllegalArgumentException) {
+            System.err.println(e.message)
+            exitProcess(2)
+        }
+
+        val generator = SyntheticClipGenerator(options.clipDirectory)
+        val results = mutableListOf<Map<String, Any?>>()
+        for (spec in options.clipSpecs()) {
+            val clipFile = try {
+                generator.clipFor(spec)
+            } catch (e: Exception) {
+                LOG.log(Level.WARNING, "Skipping ${spec.fileName}: could not encode it.", e)
+                results += linkedMapOf("codec" to spec.codec, "resolution" to spec.resolutionLabel,
+                    "gopSize" to spec.gopSize, "error" to "Clip generation failed: $e")
+                continue
+            }
+            for (engine in options.engines) {
+                repeat(options.repeat) { iteration ->
+                    val timeoutMillis = spec.durationSeconds * 1000L * 3 + 30_000L
+                    val result = PlaybackRun(engine, spec, clipFile, options.convertFrames, timeoutMillis).execute()
+                    results += result.toJson() + ("iteration" to iteration)
+                }
+            }
+        }
+
+        val report = linkedMapOf(
+            "timestamp" to Instant.now().toString(),
+            "environment" to environment(),
+            "options" to linkedMapOf(
+                "convertFrames" to options.convertFrames,
+                "withAudio" to options.withAudio,
+                "repeat" to options.repeat
+            ),
+            "runs" to results
+        )
+        options.outputFile.parentFile?.mkdirs()
+        options.outputFile.writeText(JsonWriter.write(report) + "\n")
+        LOG.info("Wrote ${results.size} results to ${options.outputFile.absolutePath}")
+        // Player worker pools are not all daemon threads; do not let them keep the JVM alive.
+        exitProcess(0)
+    }
+
+    private fun environment(): Map<String, Any?> {
+        val runtime = ManagementFactory.getRuntimeMXBean()
+        return linkedMapOf(
+            "javaVersion" to System.getProperty("java.version"),
+            "javaVendor" to System.getProperty("java.vendor"),
+            "vmName" to runtime.vmName,
+            "osName" to System.getProperty("os.name"),
+            "osArch" to System.getProperty("os.arch"),
+            "availableProcessors" to Runtime.getRuntime().availableProcessors(),
+            "maxHeapBytes" to Runtime.getRuntime().maxMemory(),
+            "jvmArguments" to runtime.inputArguments
+        )
+    }
+
+    private class Options(
+        val codecs: List<ClipCodec>,
+        val resolutions: List<String>,
+        val gops: List<Int>,
+        val durationSeconds: Int,
+        val frameRate: Int,
+        val engines: List<PlayerEngine>,
+        val repeat: Int,
+        val withAudio: Boolean,
+        val convertFrames: Boolean,
+        val clipDirectory: File,
+        val outputFile: File
+    ) {
+        fun clipSpecs(): List<ClipSpec> = codecs.flatMap { codec ->
+            resolutions.flatMap { label ->
+                val (width, height) = ClipSpec.dimensionsOf(label)
+                gops.map { gop -> ClipSpec(codec, width, height, gop, frameRate, durationSeconds, withAudio) }
+            }
+        }
+
+        companion object {
+            fun parse(args: Array<String>): Options {
+                val values = mutableMapOf<String, String>()
+                val flags = mutableSetOf<String>()
+                var i = 0
+                while (i < args.size) {
+                    val arg = args[i]
+                    require(arg.startsWith("--")) { "Unexpected argument '$arg'" }
+                    if (arg == "--no-audio" || arg == "--no-convert") {
+                        flags += arg
+                    } else {
+                        require(i + 1 < args.size) { "Missing value for $arg" }
+                        values[arg] = args[++i]
+                    }
+                    i++
+                }
+                fun list(key: String, default: String) = (values.remove(key) ?: default).split(',').map { it.trim() }.filter { it.isNotEmpty() }
+
+                val resolutions = list("--resolutions", "720p,1080p").onEach { ClipSpec.dimensionsOf(it) }
+                val options = Options(
+                    codecs = list("--codecs", "h264,hevc,vp9").map { name ->
+                        ClipCodec.entries.firstOrNull { it.name.equals(name, ignoreCase = true) }
+                            ?: throw IllegalArgumentException("Unknown codec '$name', expected one of ${ClipCodec.entries}")
+                    },
+                    resolutions = resolutions,
+                    gops = list("--gops", "12,120").map { it.toIntOrNull()?.takeIf { g -> g > 0 } ?: throw IllegalArgumentException("Bad GOP size '$it'") },
+                    durationSeconds = values.remove("--duration")?.toInt() ?: 10,
+                    frameRate = values.remove("--fps")?.toInt() ?: 30,
+                    engines = list("--engines", PlayerEngine.entries.joinToString(",")).map { name ->
+                        PlayerEngine.entries.firstOrNull { it.name.equals(name, ignoreCase = true) }
+                            ?: throw IllegalArgumentException("Unknown engine '$name', expected one of ${PlayerEngine.entries}")
+                    },
+                    repeat = values.remove("--repeat")?.toInt() ?: 1,
+                    withAudio = "--no-audio" !in flags,
+                    convertFrames = "--no-convert" !in flags,
+                    clipDirectory = File(values.remove("--clips") ?: "build/playback-clips"),
+                    outputFile = File(values.remove("--out") ?: "build/playback-results/playback-${System.currentTimeMillis()}.json")
+                )
+                require(values.isEmpty()) { "Unknown option(s) ${values.keys}" }
+                return options
+            }
+        }
+    }
+}
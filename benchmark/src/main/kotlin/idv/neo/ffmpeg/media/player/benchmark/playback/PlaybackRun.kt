@@ -0,0 +1,181 @@
+package idv.neo.ffmpeg.media.player.benchmark.playback
+
+import idv.neo.ffmpeg.media.player.core.UniversalFrameConverter
+import idv.neo.ffmpeg.media.player.core.stats.StageLatencySnapshot
+import org.bytedeco.javacv.Frame
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Logger
+
+/**
+ * Measurements of one engine playing one clip from start to end of media.
+ */
+data class PlaybackRunResult(
+    val engine: PlayerEngine,
+    val clip: ClipSpec,
+    val completed: Boolean,
+    val error: String?,
+    val timeToFirstFrameMillis: Double?,
+    val framesPresented: Int,
+    val framesDropped: Int,
+    val sustainedFps: Double?,
+    val wallTimeMillis: Double,
+    val cpuTimePerFrameMicros: Double?,
+    val peakHeapBytes: Long,
+    val peakJavacppBytes: Long,
+    val peakDirectBytes: Long,
+    val peakRssBytes: Long,
+    val conversionFailures: Int,
+    val stageLatencies: List<StageLatencySnapshot>
+) {
+    fun toJson(): Map<String, Any?> = linkedMapOf(
+        "engine" to engine,
+        "codec" to clip.codec,
+        "resolution" to clip.resolutionLabel,
+        "width" to clip.width,
+        "height" to clip.height,
+        "gopSize" to clip.gopSize,
+        "frameRate" to clip.frameRate,
+        "durationSeconds" to clip.durationSeconds,
+        "withAudio" to clip.withAudio,
+        "completed" to completed,
+        "error" to error,
+        "timeToFirstFrameMillis" to timeToFirstFrameMillis,
+        "framesExpected" to clip.frameCount,
+        "framesPresented" to framesPresented,
+        "framesDropped" to framesDropped,
+        "sustainedFps" to sustainedFps,
+        "wallTimeMillis" to wallTimeMillis,
+        "cpuTimePerFrameMicros" to cpuTimePerFrameMicros,
+        "peakHeapBytes" to peakHeapBytes,
+        "peakJavacppBytes" to peakJavacppBytes,
+        "peakDirectBytes" to peakDirectBytes,
+        "peakRssBytes" to peakRssBytes,
+        "conversionFailures" to conversionFailures,
+        "stageLatencies" to stageLatencies.filter { it.count > 0 }.map {
+            linkedMapOf(
+                "stage" to it.stage,
+                "count" to it.count,
+                "meanMicros" to it.meanMicros,
+                "p50Micros" to it.p50Micros,
+                "p99Micros" to it.p99Micros,
+                "maxMicros" to it.maxMicros
+            )
+        }
+    )
+
+    fun summary(): String = String.format(
+        "%-22s %-5s %6s gop%-4d ttff=%7.1fms fps=%6.2f dropped=%4d cpu/frame=%8.1fus heap=%5dMB rss=%5dMB%s",
+        engine, clip.codec, clip.resolutionLabel, clip.gopSize,
+        timeToFirstFrameMillis ?: Double.NaN, sustainedFps ?: Double.NaN, framesDropped,
+        cpuTimePerFrameMicros ?: Double.NaN, peakHeapBytes shr 20, peakRssBytes shr 20,
+        if (error != null) " error=$error" else if (!completed) " (timed out)" else ""
+    )
+}
+
+/**
+ * Plays [clipFile] once with [engine] and measures it.
+ *
+ * Every presented frame is counted in the video callback. With [convertFrames] the callback also
+ * converts the frame to a BufferedImage like the Swing application does, so the conversion cost is
+ * part of the engine's pipeline; no window is shown. A frame of the clip that never reaches the
+ * callback is counted as dropped.
+ */
+class PlaybackRun(
+    private val engine: PlayerEngine,
+    private val clip: ClipSpec,
+    private val clipFile: File,
+    private val convertFrames: Boolean,
+    private val timeoutMillis: Long
+) {
+    private val framesPresented = AtomicInteger()
+    private val conversionFailures = AtomicInteger()
+    private val firstFrameNanos = AtomicLong()
+    private val lastFrameNanos = AtomicLong()
+    private val endOfMedia = CountDownLatch(1)
+    @Volatile private var pixelFormat = -1
+    @Volatile private var error: String? = null
+
+    private val listener = object : PlaybackListener {
+        override fun onVideoDimensions(width: Int, height: Int, pixelFormat: Int) {
+            this@PlaybackRun.pixelFormat = pixelFormat
+        }
+
+        override fun onPlaybackStarted() {}
+
+        override fun onVideoFrame(frame: Frame) {
+            if (convertFrames && UniversalFrameConverter.convertToBufferedImage(frame, pixelFormat) == null) {
+                conversionFailures.incrementAndGet()
+            }
+            val now = System.nanoTime()
+            firstFrameNanos.compareAndSet(0L, now)
+            lastFrameNanos.set(now)
+            framesPresented.incrementAndGet()
+        }
+
+        override fun onEndOfMedia() = endOfMedia.countDown()
+
+        override fun onError(message: String, e: Exception?) {
+            error = if (e != null) "$message: $e" else message
+            endOfMedia.countDown()
+        }
+    }
+
+    fun execute(): PlaybackRunResult {
+        System.gc()
+        val sampler = ResourceSampler()
+        val session = engine.open(listener)
+        sampler.start()
+        val startNanos = System.nanoTime()
+        session.start(clipFile.absolutePath)
+        val completed = endOfMedia.await(timeoutMillis, TimeUnit.MILLISECONDS) && error == null
+        awaitQueueDrained()
+        val endNanos = System.nanoTime()
+        val cpuNanos = sampler.stop()
+        val stageLatencies = session.stats.stageLatencies
+        session.release()
+
+        val presented = framesPresented.get()
+        val first = firstFrameNanos.get()
+        val last = lastFrameNanos.get()
+        return PlaybackRunResult(
+            engine = engine,
+            clip = clip,
+            completed = completed,
+            error = error,
+            timeToFirstFrameMillis = if (first != 0L) (first - startNanos) / 1e6 else null,
+            framesPresented = presented,
+            framesDropped = (clip.frameCount - presented).coerceAtLeast(0),
+            sustainedFps = if (presented > 1 && last > first) (presented - 1) * 1e9 / (last - first) else null,
+            wallTimeMillis = (endNanos - startNanos) / 1e6,
+            cpuTimePerFrameMicros = if (presented > 0 && cpuNanos >= 0) cpuNanos / 1e3 / presented else null,
+            peakHeapBytes = sampler.peakHeapBytes(),
+            peakJavacppBytes = sampler.peakJavacppBytes,
+            peakDirectBytes = sampler.peakDirectBytes,
+            peakRssBytes = sampler.peakRssBytes,
+            conversionFailures = conversionFailures.get(),
+            stageLatencies = stageLatencies
+        ).also { LOG.info(it.summary()) }
+    }
+
+    // End of media is reported when the grabber runs dry; frames already queued are still being
+    // presented. Wait until the callback has been quiet for a moment.
+    private fun awaitQueueDrained() {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS)
+        while (System.nanoTime() < deadline) {
+            val last = lastFrameNanos.get()
+            if (last != 0L && System.nanoTime() - last > TimeUnit.MILLISECONDS.toNanos(DRAIN_QUIET_MILLIS)) return
+            if (last == 0L && error != null) return
+            Thread.sleep(20)
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(PlaybackRun::class.java.name)
+        private const val DRAIN_QUIET_MILLIS = 500L
+        private const val DRAIN_TIMEOUT_MILLIS = 5_000L
+    }
+}
@@ -0,0 +1,115 @@
+package idv.neo.ffmpeg.media.player.benchmark.playback
+
+import idv.neo.ffmpeg.media.player.core.JavaFxSwingComposeFFmpegPlayer
+import idv.neo.ffmpeg.media.player.core.PlayerEvent
+import idv.neo.ffmpeg.media.player.core.memory.FrameHandle
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.JavaFxSwingFFmpegPlayer
+import org.bytedeco.javacv.UniversalJVMFFmpegPlayer
+import java.nio.ShortBuffer
+import javax.sound.sampled.SourceDataLine
+
+/**
+ * What the harness observes from a player, whichever engine it is.
+ */
+interface PlaybackListener {
+    fun onVideoDimensions(width: Int, height: Int, pixelFormat: Int)
+    fun onPlaybackStarted()
+    fun onVideoFrame(frame: Frame)
+    fun onEndOfMedia()
+    fun onError(message: String, e: Exception?)
+}
+
+/**
+ * Replaces an engine's own audio write: receives each decoded audio frame together with the line
+ * the engine opened, and must write the samples to it (see AudioSampleConverter).
+ */
+fun interface AudioSink {
+    fun write(samples: ShortBuffer, line: SourceDataLine, frame: Frame)
+}
+
+/**
+ * One player instance driven by the harness. [release] ends playback and frees everything the
+ * engine holds; the session is not reused afterwards.
+ */
+interface EngineSession {
+    val stats: PlayerStats
+    fun start(mediaPath: String)
+    fun release()
+}
+
+/**
+ * The three player engines in :shared, each adapted to [EngineSession].
+ */
+enum class PlayerEngine {
+    UNIVERSAL_JVM {
+        override fun open(listener: PlaybackListener, audioSink: AudioSink?): EngineSession {
+            val player = UniversalJVMFFmpegPlayer.Builder(
+                { frame, _ -> listener.onVideoFrame(frame.frame) },
+                object : UniversalJVMFFmpegPlayer.PlayerEventCallback {
+                    override fun onVideoDimensionsDetected(width: Int, height: Int, pixelFormat: Int) =
+                        listener.onVideoDimensions(width, height, pixelFormat)
+                    override fun onPlaybackStarted() = listener.onPlaybackStarted()
+                    override fun onEndOfMedia() = listener.onEndOfMedia()
+                    override fun onError(errorMessage: String, e: Exception?) = listener.onError(errorMessage, e)
+                }
+            ).audioDataOutputCallback(audioSink?.let { sink ->
+                UniversalJVMFFmpegPlayer.AudioDataOutputCallback { samples, line, frame ->
+                    if (samples != null && line != null) sink.write(samples, line, frame.frame)
+                }
+            }).build()
+            return object : EngineSession {
+                override val stats get() = player.stats
+                override fun start(mediaPath: String) = player.start(mediaPath)
+                override fun release() = player.stop()
+            }
+        }
+    },
+    JAVAFX_SWING {
+        override fun open(listener: PlaybackListener, audioSink: AudioSink?): EngineSession {
+            val player = JavaFxSwingFFmpegPlayer.Builder(
+                { frame, _ -> listener.onVideoFrame(frame.frame) },
+                object : JavaFxSwingFFmpegPlayer.PlayerEventCallback {
+                    override fun onVideoDimensionsDetected(width: Int, height: Int, pixelFormat: Int) =
+                        listener.onVideoDimensions(width, height, pixelFormat)
+                    override fun onPlaybackStarted() = listener.onPlaybackStarted()
+                    override fun onEndOfMedia() = listener.onEndOfMedia()
+                    override fun onError(errorMessage: String, e: Exception?) = listener.onError(errorMessage, e)
+                }
+            ).audioDataOutputCallback(audioSink?.let { sink ->
+                JavaFxSwingFFmpegPlayer.AudioDataOutputCallback { samples, line, frame -> sink.write(samples, line, frame.frame) }
+            }).build()
+            return object : EngineSession {
+                override val stats: PlayerStats get() = player.stats
+                override fun start(mediaPath: String) = player.start(mediaPath)
+                override fun release() = player.stop()
+            }
+        }
+    },
+    JAVAFX_SWING_COMPOSE {
+        override fun open(listener: PlaybackListener, audioSink: AudioSink?): EngineSession {
+            val player = JavaFxSwingComposeFFmpegPlayer(
+                { frame, _ -> listener.onVideoFrame(frame.frame) },
+                { event ->
+                    when (event) {
+                        is PlayerEvent.VideoDimensionsDetected ->
+                            listener.onVideoDimensions(event.width, event.height, event.pixelFormat)
+                        PlayerEvent.PlaybackStarted -> listener.onPlaybackStarted()
+                        PlayerEvent.EndOfMedia -> listener.onEndOfMedia()
+                        is PlayerEvent.Error -> listener.onError(event.errorMessage, event.exception)
+                    }
+                },
+                audioSink?.let { sink -> { samples: ShortBuffer, line: SourceDataLine, frame: FrameHandle -> sink.write(samples, line, frame.frame) } }
+            )
+            return object : EngineSession {
+                override val stats get() = player.stats
+                override fun start(mediaPath: String) = player.start(mediaPath)
+                override fun release() = player.close()
+            }
+        }
+    };
+
+    /** Creates a player reporting to [listener]; with an [audioSink], the sink writes the audio. */
+    abstract fun open(listener: PlaybackListener, audioSink: AudioSink? = null): EngineSession
+}
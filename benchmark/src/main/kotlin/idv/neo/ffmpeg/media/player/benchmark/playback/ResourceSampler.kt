@@ -0,0 +1,75 @@
+package idv.neo.ffmpeg.media.player.benchmark.playback
+
+import org.bytedeco.javacpp.Pointer
+import java.lang.management.BufferPoolMXBean
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryPoolMXBean
+import java.lang.management.MemoryType
+
+/**
+ * Tracks process CPU time, heap and native memory across one playback run.
+ *
+ * Heap peaks come from the JVM's own per-pool peak counters, so short spikes between samples
+ * are not missed. Native memory has no such counter and is polled every [intervalMillis]:
+ * JavaCPP's tracked allocations (Pointer.totalBytes), direct NIO buffers, and the process RSS
+ * as JavaCPP reads it (Pointer.physicalBytes), which also covers FFmpeg's own av_malloc heap.
+ */
+class ResourceSampler(private val intervalMillis: Long = 20L) {
+
+    private val os = ManagementFactory.getOperatingSystemMXBean() as? com.sun.management.OperatingSystemMXBean
+    private val heapPools: List<MemoryPoolMXBean> =
+        ManagementFactory.getMemoryPoolMXBeans().filter { it.type == MemoryType.HEAP && it.isValid }
+    private val directPool: BufferPoolMXBean? =
+        ManagementFactory.getPlatformMXBeans(BufferPoolMXBean::class.java).firstOrNull { it.name == "direct" }
+
+    @Volatile private var running = false
+    private var thread: Thread? = null
+    private var startCpuNanos = 0L
+
+    @Volatile var peakJavacppBytes = 0L; private set
+    @Volatile var peakDirectBytes = 0L; private set
+    @Volatile var peakRssBytes = 0L; private set
+
+    fun start() {
+        heapPools.forEach { it.resetPeakUsage() }
+        startCpuNanos = processCpuNanos()
+        peakJavacppBytes = 0L
+        peakDirectBytes = 0L
+        peakRssBytes = 0L
+        running = true
+        thread = Thread({
+            while (running) {
+                sample()
+                try {
+                    Thread.sleep(intervalMillis)
+                } catch (e: InterruptedException) {
+                    break
+                }
+            }
+        }, "PlaybackBenchmark-Sampler").apply {
+            isDaemon = true
+            start()
+        }
+    }
+
+    /** Stops sampling and returns the process CPU time consumed since [start]. */
+    fun stop(): Long {
+        running = false
+        thread?.interrupt()
+        thread?.join(1000)
+        thread = null
+        sample()
+        return processCpuNanos() - startCpuNanos
+    }
+
+    /** Sum of the per-pool heap peaks since [start]; an upper bound on the true combined peak. */
+    fun peakHeapBytes(): Long = heapPools.sumOf { it.peakUsage?.used ?: 0L }
+
+    private fun sample() {
+        peakJavacppBytes = maxOf(peakJavacppBytes, Pointer.totalBytes())
+        peakDirectBytes = maxOf(peakDirectBytes, directPool?.memoryUsed ?: 0L)
+        peakRssBytes = maxOf(peakRssBytes, Pointer.physicalBytes())
+    }
+
+    private fun processCpuNanos(): Long = os?.processCpuTime ?: -1L
+}
@@ -0,0 +1,169 @@
+package idv.neo.ffmpeg.media.player.benchmark.playback
+
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameRecorder
+import org.bytedeco.javacv.Frame
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ShortBuffer
+import java.util.logging.Logger
+import kotlin.math.PI
+import kotlin.math.sin
+
+enum class ClipCodec(val avCodecId: Int, val encoderOptions: Map<String, String>) {
+    H264(avcodec.AV_CODEC_ID_H264, mapOf("preset" to "ultrafast")),
+    HEVC(avcodec.AV_CODEC_ID_HEVC, mapOf("preset" to "ultrafast")),
+    VP9(avcodec.AV_CODEC_ID_VP9, mapOf("deadline" to "realtime", "cpu-used" to "8"));
+}
+
+enum class ClipContent {
+    /** Moving diagonal bands and a continuous 440 Hz tone. */
+    MOVING_PATTERN,
+
+    /**
+     * A/V sync calibration: black frames with one white frame every [ClipSpec.FLASH_INTERVAL_SECONDS],
+     * and silence with a 1 kHz beep starting on the same timestamp as each flash.
+     */
+    FLASH_BEEP
+}
+
+/**
+ * One synthetic test clip, muxed as Matroska so all three codecs share one container.
+ */
+data class ClipSpec(
+    val codec: ClipCodec,
+    val width: Int,
+    val height: Int,
+    val gopSize: Int,
+    val frameRate: Int = 30,
+    val durationSeconds: Int = 10,
+    val withAudio: Boolean = true,
+    val content: ClipContent = ClipContent.MOVING_PATTERN
+) {
+    val frameCount: Int get() = frameRate * durationSeconds
+    val resolutionLabel: String get() = "${height}p"
+    val fileName: String
+        get() = (if (content == ClipContent.MOVING_PATTERN) "" else content.name.lowercase().replace('_', '-') + "-") +
+                "${codec.name.lowercase()}-${width}x$height-gop$gopSize-${frameRate}fps-${durationSeconds}s" +
+                (if (withAudio) "" else "-noaudio") + ".mkv"
+
+    companion object {
+        const val FLASH_INTERVAL_SECONDS = 1
+        const val BEEP_MILLIS = 50
+
+        private val RESOLUTIONS = mapOf(
+            "360p" to (640 to 360),
+            "480p" to (854 to 480),
+            "720p" to (1280 to 720),
+            "1080p" to (1920 to 1080),
+            "2160p" to (3840 to 2160)
+        )
+
+        fun dimensionsOf(label: String): Pair<Int, Int> =
+            RESOLUTIONS[label] ?: throw IllegalArgumentException("Unknown resolution '$label', expected one of ${RESOLUTIONS.keys}")
+    }
+}
+
+/**
+ * Encodes [ClipSpec]s with FFmpegFrameRecorder into a cache directory. A clip that already exists
+ * is reused, so repeated benchmark runs decode byte-identical input.
+ */
+class SyntheticClipGenerator(private val clipDirectory: File) {
+
+    fun clipFor(spec: ClipSpec): File {
+        val file = File(clipDirectory, spec.fileName)
+        if (file.isFile && file.length() > 0) return file
+        clipDirectory.mkdirs()
+        val partial = File(clipDirectory, spec.fileName + ".part")
+        LOG.info("Generating ${file.name} (${spec.frameCount} frames)...")
+        try {
+            encode(spec, partial)
+        } catch (e: Exception) {
+            partial.delete()
+            throw e
+        }
+        if (!partial.renameTo(file)) throw IllegalStateException("Could not move ${partial.name} to ${file.name}")
+        return file
+    }
+
+    private fun encode(spec: ClipSpec, target: File) {
+        val audioChannels = if (spec.withAudio) AUDIO_CHANNELS else 0
+        FFmpegFrameRecorder(target, spec.width, spec.height, audioChannels).use { recorder ->
+            recorder.format = "matroska"
+            recorder.videoCodec = spec.codec.avCodecId
+            recorder.pixelFormat = avutil.AV_PIX_FMT_YUV420P
+            recorder.frameRate = spec.frameRate.toDouble()
+            recorder.gopSize = spec.gopSize
+            recorder.videoBitrate = spec.width * spec.height * spec.frameRate / 10
+            spec.codec.encoderOptions.forEach { (key, value) -> recorder.setVideoOption(key, value) }
+            if (spec.withAudio) {
+                recorder.audioCodec = avcodec.AV_CODEC_ID_AAC
+                recorder.sampleRate = AUDIO_SAMPLE_RATE
+                recorder.audioBitrate = 128_000
+            }
+            recorder.start()
+
+            val samplesPerFrame = AUDIO_SAMPLE_RATE / spec.frameRate
+            val samples = ShortBuffer.allocate(samplesPerFrame * AUDIO_CHANNELS)
+            var sampleClock = 0L
+            Frame(spec.width, spec.height, Frame.DEPTH_UBYTE, 3).use { frame ->
+                val image = frame.image[0] as ByteBuffer
+                for (index in 0 until spec.frameCount) {
+                    when (spec.content) {
+                        ClipContent.MOVING_PATTERN -> paintPattern(image, frame.imageStride, spec.width, spec.height, index)
+                        ClipContent.FLASH_BEEP -> paintFlash(image, index % (spec.frameRate * ClipSpec.FLASH_INTERVAL_SECONDS) == 0)
+                    }
+                    frame.timestamp = index * 1_000_000L / spec.frameRate
+                    recorder.record(frame, avutil.AV_PIX_FMT_BGR24)
+                    if (spec.withAudio) {
+                        samples.clear()
+                        for (i in 0 until samplesPerFrame) {
+                            val value = sample(spec.content, sampleClock++)
+                            repeat(AUDIO_CHANNELS) { samples.put(value) }
+                        }
+                        samples.flip()
+                        recorder.recordSamples(AUDIO_SAMPLE_RATE, AUDIO_CHANNELS, samples)
+                    }
+                }
+            }
+            recorder.stop()
+        }
+    }
+
+    private fun sample(content: ClipContent, sampleIndex: Long): Short = when (content) {
+        ClipContent.MOVING_PATTERN -> (sin(2.0 * PI * TONE_HZ * sampleIndex / AUDIO_SAMPLE_RATE) * 8000).toInt().toShort()
+        ClipContent.FLASH_BEEP -> {
+            val inPeriod = sampleIndex % (AUDIO_SAMPLE_RATE.toLong() * ClipSpec.FLASH_INTERVAL_SECONDS)
+            if (inPeriod < AUDIO_SAMPLE_RATE * ClipSpec.BEEP_MILLIS / 1000) {
+                (sin(2.0 * PI * BEEP_HZ * inPeriod / AUDIO_SAMPLE_RATE) * 16000).toInt().toShort()
+            } else 0
+        }
+    }
+
+    private fun paintFlash(image: ByteBuffer, white: Boolean) {
+        val value: Byte = if (white) -1 else 0
+        for (p in 0 until image.capacity()) image.put(p, value)
+    }
+
+    // Diagonal bands that move every frame, so inter prediction has real motion to encode.
+    private fun paintPattern(image: ByteBuffer, stride: Int, width: Int, height: Int, index: Int) {
+        for (y in 0 until height) {
+            var p = y * stride
+            for (x in 0 until width) {
+                image.put(p, (x + index * 4 xor y).toByte())
+                image.put(p + 1, (y + index * 2).toByte())
+                image.put(p + 2, (x - y + index * 3).toByte())
+                p += 3
+            }
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(SyntheticClipGenerator::class.java.name)
+        const val AUDIO_SAMPLE_RATE = 48_000
+        const val AUDIO_CHANNELS = 2
+        private const val TONE_HZ = 440.0
+        private const val BEEP_HZ = 1000.0
+    }
+}
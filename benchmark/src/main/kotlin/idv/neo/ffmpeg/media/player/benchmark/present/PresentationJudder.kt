@@ -0,0 +1,106 @@
+package idv.neo.ffmpeg.media.player.benchmark.present
+
+import idv.neo.ffmpeg.media.player.benchmark.playback.JsonWriter
+import idv.neo.ffmpeg.media.player.core.present.PresentationScheduler
+import idv.neo.ffmpeg.media.player.core.stats.LatencyHistogram
+import java.io.File
+import java.time.Instant
+import java.util.logging.Logger
+import kotlin.math.abs
+import kotlin.system.exitProcess
+
+/**
+ * Compares how precisely each way of waiting hits a steady train of frame deadlines: the
+ * millisecond Thread.sleep the players used, Thread.sleep(ms, nanos), and [PresentationScheduler]
+ * with and without its spin tail. Reports percentiles of the timing error (how far from its
+ * deadline, early or late, each wait returned) and how many frames missed by more than 1 ms.
+ * No decoding is involved, so this isolates the timer.
+ *
+ * ```
+ * ./gradlew :benchmark:presentationJudder -PpresentationJudder.args="--fps 60 --duration 20"
+ * ```
+ *
+ * Options (defaults in brackets):
+ * - `--fps` deadline rate [60]
+ * - `--duration` seconds per strategy [10]
+ * - `--spin-tail-us` spin tail of the scheduler [200]
+ * - `--out` result file [build/presentation/presentation-judder-<timestamp>.json]
+ */
+object PresentationJudder {
+    private val LOG = Logger.getLogger(PresentationJudder::class.java.name)
+    private const val MISS_THRESHOLD_NANOS = 1_000_000L
+
+    private enum class Strategy { SLEEP_MILLIS, SLEEP_NANOS, SCHEDULER_NO_SPIN, SCHEDULER }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val options = parseOptions(args)
+        val fps = options["--fps"]?.toDouble() ?: 60.0
+        val duration = options["--duration"]?.toInt() ?: 10
+        val spinTailNanos = (options["--spin-tail-us"]?.toLong() ?: 200L) * 1000L
+        val outputFile = File(options["--out"] ?: "build/presentation/presentation-judder-${System.currentTimeMillis()}.json")
+        val intervalNanos = (1_000_000_000 / fps).toLong()
+        val frames = (fps * duration).toInt()
+
+        val results = Strategy.entries.map { strategy ->
+            val histogram = LatencyHistogram()
+            var missedFrames = 0
+            val wait: (Long) -> Unit = when (strategy) {
+                Strategy.SLEEP_MILLIS -> { deadline -> sleepUntil(deadline, nanosPrecision = false) }
+                Strategy.SLEEP_NANOS -> { deadline -> sleepUntil(deadline, nanosPrecision = true) }
+                Strategy.SCHEDULER_NO_SPIN -> PresentationScheduler(0L).let { { deadline -> it.awaitDeadline(deadline) } }
+                Strategy.SCHEDULER -> PresentationScheduler(spinTailNanos).let { { deadline -> it.awaitDeadline(deadline) } }
+            }
+            val start = System.nanoTime() + intervalNanos
+            for (i in 0 until frames) {
+                val deadline = start + i * intervalNanos
+                wait(deadline)
+                val error = abs(System.nanoTime() - deadline)
+                histogram.record(error)
+                if (error > MISS_THRESHOLD_NANOS) missedFrames++
+            }
+            val s = histogram.snapshot()
+            LOG.info(String.format("%-17s error p50 %6d us  p99 %6d us  max %6d us  missed by >1ms %5.1f%%", strategy,
+                s.percentileNanos(50.0) / 1000, s.percentileNanos(99.0) / 1000, s.maxNanos / 1000, 100.0 * missedFrames / frames))
+            linkedMapOf<String, Any?>(
+                "strategy" to strategy.name,
+                "frames" to frames,
+                "p50Micros" to s.percentileNanos(50.0) / 1000,
+                "p99Micros" to s.percentileNanos(99.0) / 1000,
+                "maxMicros" to s.maxNanos / 1000,
+                "missedBy1msPercent" to 100.0 * missedFrames / frames
+            )
+        }
+
+        outputFile.parentFile?.mkdirs()
+        outputFile.writeText(JsonWriter.write(linkedMapOf(
+            "timestamp" to Instant.now().toString(),
+            "fps" to fps,
+            "spinTailMicros" to spinTailNanos / 1000,
+            "strategies" to results
+        )) + "\n")
+        LOG.info("Wrote presentation judder results to ${outputFile.absolutePath}")
+    }
+
+    // The players' previous wait: the remaining time rounded down to (or split into) a sleep.
+    private fun sleepUntil(deadlineNanos: Long, nanosPrecision: Boolean) {
+        val remaining = deadlineNanos - System.nanoTime()
+        if (remaining <= 0) return
+        if (nanosPrecision) Thread.sleep(remaining / 1_000_000, (remaining % 1_000_000).toInt())
+        else if (remaining >= 1_000_000) Thread.sleep(remaining / 1_000_000)
+    }
+
+    private fun parseOptions(args: Array<String>): Map<String, String> {
+        val known = setOf("--fps", "--duration", "--spin-tail-us", "--out")
+        if (args.size % 2 != 0) usage("Every option needs a value")
+        return args.toList().chunked(2).associate { (key, value) ->
+            if (key !in known) usage("Unknown option '$key'")
+            key to value
+        }
+    }
+
+    private fun usage(message: String): Nothing {
+        System.err.println(message)
+        exitProcess(2)
+    }
+}
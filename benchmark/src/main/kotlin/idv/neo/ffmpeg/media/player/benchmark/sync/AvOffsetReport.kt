@@ -0,0 +1,123 @@
+package idv.neo.ffmpeg.media.player.benchmark.sync
+
+import idv.neo.ffmpeg.media.player.benchmark.playback.ClipSpec
+import idv.neo.ffmpeg.media.player.benchmark.playback.PlayerEngine
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.sqrt
+
+/**
+ * A/V offset distribution of one engine run.
+ *
+ * Flashes and beeps are paired by calibration period (their timestamps round to the same
+ * multiple of [ClipSpec.FLASH_INTERVAL_SECONDS]). The offset of a pair is beep time minus flash
+ * time, so a positive value means audio is late. Drift is the least-squares slope of the offset
+ * over the run.
+ */
+class AvOffsetReport(
+    val engine: PlayerEngine,
+    flashes: Collection<Onset>,
+    beeps: Collection<Onset>,
+    val error: String?
+) {
+    /** (seconds since the first paired flash, offset in ms), in playback order. */
+    val samples: List<Pair<Double, Double>>
+    val unmatchedFlashes: Int
+    val unmatchedBeeps: Int
+
+    init {
+        val flashByPeriod = flashes.associateBy { periodOf(it.ptsMicros) }
+        val beepByPeriod = beeps.associateBy { periodOf(it.ptsMicros) }
+        val paired = flashByPeriod.keys.intersect(beepByPeriod.keys).sorted()
+        val origin = paired.firstOrNull()?.let { flashByPeriod.getValue(it).nanos } ?: 0L
+        samples = paired.map { period ->
+            val flash = flashByPeriod.getValue(period)
+            val beep = beepByPeriod.getValue(period)
+            (flash.nanos - origin) / 1e9 to (beep.nanos - flash.nanos) / 1e6
+        }
+        unmatchedFlashes = flashByPeriod.size - paired.size
+        unmatchedBeeps = beepByPeriod.size - paired.size
+    }
+
+    private val sortedOffsets = samples.map { it.second }.sorted()
+    val count: Int get() = samples.size
+    val meanMillis: Double = if (count == 0) Double.NaN else sortedOffsets.average()
+    val stdDevMillis: Double =
+        if (count < 2) Double.NaN else sqrt(sortedOffsets.sumOf { (it - meanMillis) * (it - meanMillis) } / (count - 1))
+    val maxAbsMillis: Double = sortedOffsets.maxOfOrNull { abs(it) } ?: Double.NaN
+    val driftMillisPerMinute: Double = slopePerMinute()
+
+    fun percentile(p: Double): Double {
+        if (count == 0) return Double.NaN
+        val rank = ceil(p / 100.0 * count).toInt().coerceIn(1, count)
+        return sortedOffsets[rank - 1]
+    }
+
+    /** Percentile of the absolute offset; the threshold check uses p99. */
+    fun absPercentile(p: Double): Double {
+        if (count == 0) return Double.NaN
+        val sortedAbs = sortedOffsets.map { abs(it) }.sorted()
+        return sortedAbs[ceil(p / 100.0 * count).toInt().coerceIn(1, count) - 1]
+    }
+
+    /** Returns why this run fails the thresholds, or an empty list if it passes. */
+    fun violations(maxAbsOffsetMillis: Double, maxDriftMillisPerMinute: Double): List<String> {
+        if (error != null) return listOf("playback failed: $error")
+        if (count == 0) return listOf("no flash/beep pairs were measured")
+        val result = mutableListOf<String>()
+        val p99 = absPercentile(99.0)
+        if (p99 > maxAbsOffsetMillis) result += String.format("p99 |offset| %.1f ms > %.1f ms", p99, maxAbsOffsetMillis)
+        if (abs(driftMillisPerMinute) > maxDriftMillisPerMinute) {
+            result += String.format("drift %.2f ms/min exceeds +/-%.2f ms/min", driftMillisPerMinute, maxDriftMillisPerMinute)
+        }
+        return result
+    }
+
+    fun summary(): String = String.format(
+        "%-22s pairs=%5d mean=%7.1fms sd=%6.1fms p1=%7.1fms p50=%7.1fms p99=%7.1fms max|off|=%7.1fms drift=%6.2fms/min%s",
+        engine, count, meanMillis, stdDevMillis, percentile(1.0), percentile(50.0), percentile(99.0),
+        maxAbsMillis, driftMillisPerMinute, if (error != null) " error=$error" else ""
+    )
+
+    fun toJson(maxAbsOffsetMillis: Double, maxDriftMillisPerMinute: Double): Map<String, Any?> = linkedMapOf(
+        "engine" to engine,
+        "error" to error,
+        "pairs" to count,
+        "unmatchedFlashes" to unmatchedFlashes,
+        "unmatchedBeeps" to unmatchedBeeps,
+        "meanMillis" to meanMillis,
+        "stdDevMillis" to stdDevMillis,
+        "minMillis" to sortedOffsets.firstOrNull(),
+        "p1Millis" to percentile(1.0),
+        "p5Millis" to percentile(5.0),
+        "p50Millis" to percentile(50.0),
+        "p95Millis" to percentile(95.0),
+        "p99Millis" to percentile(99.0),
+        "maxMillis" to sortedOffsets.lastOrNull(),
+        "p99AbsMillis" to absPercentile(99.0),
+        "driftMillisPerMinute" to driftMillisPerMinute,
+        "histogram10Millis" to histogram(10.0),
+        "violations" to violations(maxAbsOffsetMillis, maxDriftMillisPerMinute),
+        "samples" to samples.map { listOf(it.first, it.second) }
+    )
+
+    // Bucket lower bound (ms) -> count.
+    private fun histogram(bucketMillis: Double): Map<String, Int> =
+        sortedOffsets.groupingBy { (Math.floor(it / bucketMillis) * bucketMillis).toInt().toString() }.eachCount()
+
+    private fun slopePerMinute(): Double {
+        if (count < 2) return Double.NaN
+        val meanT = samples.sumOf { it.first } / count
+        val meanO = samples.sumOf { it.second } / count
+        var covariance = 0.0
+        var variance = 0.0
+        for ((t, o) in samples) {
+            covariance += (t - meanT) * (o - meanO)
+            variance += (t - meanT) * (t - meanT)
+        }
+        return if (variance == 0.0) Double.NaN else covariance / variance * 60.0
+    }
+
+    private fun periodOf(ptsMicros: Long): Long =
+        Math.round(ptsMicros / (ClipSpec.FLASH_INTERVAL_SECONDS * 1_000_000.0))
+}
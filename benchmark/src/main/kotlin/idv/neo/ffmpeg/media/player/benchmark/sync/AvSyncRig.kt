@@ -0,0 +1,116 @@
+package idv.neo.ffmpeg.media.player.benchmark.sync
+
+import idv.neo.ffmpeg.media.player.benchmark.playback.ClipCodec
+import idv.neo.ffmpeg.media.player.benchmark.playback.ClipContent
+import idv.neo.ffmpeg.media.player.benchmark.playback.ClipSpec
+import idv.neo.ffmpeg.media.player.benchmark.playback.JsonWriter
+import idv.neo.ffmpeg.media.player.benchmark.playback.PlaybackListener
+import idv.neo.ffmpeg.media.player.benchmark.playback.PlayerEngine
+import idv.neo.ffmpeg.media.player.benchmark.playback.SyntheticClipGenerator
+import org.bytedeco.javacv.Frame
+import java.io.File
+import java.time.Instant
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import java.util.logging.Logger
+import kotlin.system.exitProcess
+
+/**
+ * A/V sync accuracy rig. Plays a flash-and-beep calibration clip through each engine with
+ * instrumented sinks (see [FlashDetector] and [BeepOnsetSink]) and reports the distribution of
+ * the audio-minus-video offset. Needs a working audio output device.
+ *
+ * ```
+ * ./gradlew :benchmark:avSyncCheck -PavSync.args="--duration 300 --max-abs-offset-ms 60"
+ * ```
+ *
+ * Options (defaults in brackets):
+ * - `--duration` clip length in seconds [1800]
+ * - `--engines` UNIVERSAL_JVM,JAVAFX_SWING,JAVAFX_SWING_COMPOSE [all]
+ * - `--max-abs-offset-ms` limit for the p99 absolute offset [100]
+ * - `--max-drift-ms-per-min` limit for the offset drift [2]
+ * - `--clips` clip cache directory [build/playback-clips]
+ * - `--out` result file [build/av-sync/av-sync-<timestamp>.json]
+ *
+ * Exits with status 1 if any engine exceeds a threshold, so the Gradle task fails the build.
+ */
+object AvSyncRig {
+    private val LOG = Logger.getLogger(AvSyncRig::class.java.name)
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        System.setProperty("java.awt.headless", "true")
+        val options = parseOptions(args)
+        val duration = options["--duration"]?.toInt() ?: 1800
+        val maxAbsOffset = options["--max-abs-offset-ms"]?.toDouble() ?: 100.0
+        val maxDrift = options["--max-drift-ms-per-min"]?.toDouble() ?: 2.0
+        val engines = options["--engines"]?.split(',')?.map { name ->
+            PlayerEngine.entries.firstOrNull { it.name.equals(name.trim(), ignoreCase = true) } ?: usage("Unknown engine '$name'")
+        } ?: PlayerEngine.entries
+        val outputFile = File(options["--out"] ?: "build/av-sync/av-sync-${System.currentTimeMillis()}.json")
+
+        // Small frames keep a 30-minute clip quick to encode and cheap to decode, so decode time
+        // does not hide the sync behaviour being measured.
+        val spec = ClipSpec(ClipCodec.H264, 320, 240, gopSize = 30, frameRate = 30,
+            durationSeconds = duration, withAudio = true, content = ClipContent.FLASH_BEEP)
+        val clip = SyntheticClipGenerator(File(options["--clips"] ?: "build/playback-clips")).clipFor(spec)
+
+        val reports = engines.map { engine -> measure(engine, clip, duration) }
+        val failures = reports.associate { it.engine to it.violations(maxAbsOffset, maxDrift) }.filterValues { it.isNotEmpty() }
+
+        outputFile.parentFile?.mkdirs()
+        outputFile.writeText(JsonWriter.write(linkedMapOf(
+            "timestamp" to Instant.now().toString(),
+            "clip" to clip.name,
+            "durationSeconds" to duration,
+            "maxAbsOffsetMillis" to maxAbsOffset,
+            "maxDriftMillisPerMinute" to maxDrift,
+            "passed" to failures.isEmpty(),
+            "engines" to reports.map { it.toJson(maxAbsOffset, maxDrift) }
+        )) + "\n")
+        LOG.info("Wrote A/V sync report to ${outputFile.absolutePath}")
+
+        failures.forEach { (engine, reasons) -> LOG.severe("A/V sync check FAILED for $engine: ${reasons.joinToString("; ")}") }
+        exitProcess(if (failures.isEmpty()) 0 else 1)
+    }
+
+    private fun measure(engine: PlayerEngine, clip: File, durationSeconds: Int): AvOffsetReport {
+        val flashes = FlashDetector()
+        val beeps = BeepOnsetSink()
+        val finished = CountDownLatch(1)
+        val error = AtomicReference<String?>()
+        val session = engine.open(object : PlaybackListener {
+            override fun onVideoDimensions(width: Int, height: Int, pixelFormat: Int) {}
+            override fun onPlaybackStarted() {}
+            override fun onVideoFrame(frame: Frame) = flashes.onVideoFrame(frame)
+            override fun onEndOfMedia() = finished.countDown()
+            override fun onError(message: String, e: Exception?) {
+                error.compareAndSet(null, if (e != null) "$message: $e" else message)
+                finished.countDown()
+            }
+        }, beeps)
+
+        LOG.info("Measuring $engine for ${durationSeconds}s...")
+        session.start(clip.absolutePath)
+        if (!finished.await(durationSeconds * 2L + 60L, TimeUnit.SECONDS)) error.compareAndSet(null, "timed out")
+        // Let the queued tail of the clip play out before stopping.
+        Thread.sleep(1000)
+        session.release()
+        return AvOffsetReport(engine, flashes.onsets, beeps.onsets, error.get()).also { LOG.info(it.summary()) }
+    }
+
+    private fun parseOptions(args: Array<String>): Map<String, String> {
+        val known = setOf("--duration", "--engines", "--max-abs-offset-ms", "--max-drift-ms-per-min", "--clips", "--out")
+        if (args.size % 2 != 0) usage("Every option needs a value")
+        return args.toList().chunked(2).associate { (key, value) ->
+            if (key !in known) usage("Unknown option '$key'")
+            key to value
+        }
+    }
+
+    private fun usage(message: String): Nothing {
+        System.err.println(message)
+        exitProcess(2)
+    }
+}
@@ -0,0 +1,112 @@
+package idv.neo.ffmpeg.media.player.benchmark.sync
+
+import idv.neo.ffmpeg.media.player.benchmark.playback.AudioSink
+import idv.neo.ffmpeg.media.player.core.AudioSampleConverter
+import org.bytedeco.javacv.Frame
+import java.nio.ByteBuffer
+import java.nio.ShortBuffer
+import java.util.concurrent.ConcurrentLinkedQueue
+import javax.sound.sampled.SourceDataLine
+import kotlin.math.abs
+
+/**
+ * A calibration event seen by a sink: the media timestamp it carries and the System.nanoTime()
+ * at which it reached the user (frame handed to the video callback, beep leaving the speaker).
+ */
+data class Onset(val ptsMicros: Long, val nanos: Long)
+
+/**
+ * Video side of the rig. Called from the engine's video callback; records the presentation time
+ * of every black-to-white transition of the FLASH_BEEP clip.
+ */
+class FlashDetector {
+    val onsets = ConcurrentLinkedQueue<Onset>()
+    private var previousBright = false
+
+    fun onVideoFrame(frame: Frame) {
+        val now = System.nanoTime()
+        val bright = meanLuma(frame) > BRIGHT_THRESHOLD
+        if (bright && !previousBright) onsets += Onset(frame.timestamp, now)
+        previousBright = bright
+    }
+
+    // Average of a handful of bytes along the middle row. The clip is either all black or all
+    // white, so this is enough and works for any packed 8-bit pixel format.
+    private fun meanLuma(frame: Frame): Int {
+        val image = frame.image?.getOrNull(0) as? ByteBuffer ?: return 0
+        val rowStart = (frame.imageHeight / 2) * frame.imageStride
+        val rowBytes = frame.imageWidth * frame.imageChannels
+        if (rowBytes <= 0 || rowStart + rowBytes > image.capacity()) return 0
+        var sum = 0
+        for (i in 0 until SAMPLE_POINTS) sum += image.get(rowStart + i * rowBytes / SAMPLE_POINTS).toInt() and 0xFF
+        return sum / SAMPLE_POINTS
+    }
+
+    private companion object {
+        const val SAMPLE_POINTS = 16
+        const val BRIGHT_THRESHOLD = 128
+    }
+}
+
+/**
+ * Audio side of the rig. Installed as the engine's [AudioSink], so it performs the engine's line
+ * write itself, and timestamps each beep onset at the line's write position: after a buffer is
+ * written, an onset at frame `f` of the line becomes audible `(f - longFramePosition) / sampleRate`
+ * seconds later.
+ *
+ * All writes reach the line through this sink, so the number of frames written so far is the
+ * line position of the next sample.
+ */
+class BeepOnsetSink : AudioSink {
+    val onsets = ConcurrentLinkedQueue<Onset>()
+    private var line: SourceDataLine? = null
+    private var framesWritten = 0L
+    private var silentRun = Long.MAX_VALUE
+    private var bytes = ByteArray(0)
+
+    override fun write(samples: ShortBuffer, line: SourceDataLine, frame: Frame) {
+        if (line !== this.line) {
+            this.line = line
+            framesWritten = line.longFramePosition
+            silentRun = Long.MAX_VALUE
+        }
+        val format = line.format
+        val channels = format.channels.coerceAtLeast(1)
+        val base = samples.position()
+        val frameCount = samples.remaining() / channels
+        val onsetOffsets = ArrayList<Int>(1)
+        for (i in 0 until frameCount) {
+            if (abs(samples.get(base + i * channels).toInt()) >= ONSET_AMPLITUDE) {
+                if (silentRun >= format.sampleRate * MIN_SILENCE_SECONDS) onsetOffsets += i
+                silentRun = 0
+            } else if (silentRun != Long.MAX_VALUE) {
+                silentRun++
+            }
+        }
+
+        if (bytes.size < samples.remaining() * 2) bytes = ByteArray(samples.remaining() * 2)
+        val length = AudioSampleConverter.toPcm16Bytes(samples, format.isBigEndian, bytes)
+        var offset = 0
+        while (offset < length) {
+            val written = line.write(bytes, offset, length - offset)
+            if (written <= 0) break
+            offset += written
+        }
+
+        val writtenAtNanos = System.nanoTime()
+        val playedFrames = line.longFramePosition
+        for (i in onsetOffsets) {
+            val aheadFrames = framesWritten + i - playedFrames
+            onsets += Onset(
+                ptsMicros = frame.timestamp + i * 1_000_000L / format.sampleRate.toLong(),
+                nanos = writtenAtNanos + (aheadFrames * 1_000_000_000.0 / format.sampleRate).toLong()
+            )
+        }
+        framesWritten += frameCount
+    }
+
+    private companion object {
+        const val ONSET_AMPLITUDE = 2000
+        const val MIN_SILENCE_SECONDS = 0.2f
+    }
+}
@@ -108,6 +108,8 @@ public class BytedecoFFmpegPlayer {
          * Called when a new video frame is available.
          * IMPORTANT: The provided 'videoFrame' might be reused by the grabber.
          * If you need to process it asynchronously or keep it longer, clone it.
+         * For a JavaFX view, hand it to {@link idv.neo.ffmpeg.media.player.core.present.FxFramePresenter#offer}
+         * rather than converting it and calling Platform.runLater for every frame.
          * @param videoFrame The raw video frame from FFmpegFrameGrabber.
          * @param relativeTimestampMicros The relative timestamp of this frame in microseconds.
          */
@@ -2,11 +2,10 @@ package org.bytedeco.javacv;
 
 import java.util.logging.Logger;
 
-import idv.neo.ffmpeg.media.player.core.UniversalFrameConverter;
+import idv.neo.ffmpeg.media.player.core.present.FxFramePresenter;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.scene.Scene;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
@@ -22,6 +21,8 @@ public class JavaFxPlayVideoAndAudio extends Application {
     private static final Logger LOG_UI = Logger.getLogger(JavaFxPlayVideoAndAudio.class.getName() + ".UI");
     private JavaFxSwingFFmpegPlayer player;
     private ImageView imageView;
+    private FxFramePresenter presenter;
+    private volatile int videoPixelFormat = -1;
 
     public static void main(String[] args) {
         launch(args);
@@ -43,28 +44,21 @@ public class JavaFxPlayVideoAndAudio extends Application {
         primaryStage.setScene(scene);
         primaryStage.show();
 
+        presenter = new FxFramePresenter(imageView);
+
         JavaFxSwingFFmpegPlayer.Builder playerBuilder = new JavaFxSwingFFmpegPlayer.Builder(
                 (videoFrame, relativeTimestampMicros) -> {
-                    if (videoFrame != null) {
-                        // Use the @JvmStatic method from the Kotlin UniversalFrameConverter
-                        Image fxImage = UniversalFrameConverter.convertToFxImage(videoFrame); // <--- UPDATED
-                        if (fxImage != null) {
-                            Platform.runLater(() -> {
-                                if (imageView != null) {
-                                    imageView.setImage(fxImage);
-                                }
-                            });
-                        }
+                    // Only a copy here; the presenter converts the newest frame on the next pulse.
+                    if (videoFrame != null && videoPixelFormat != -1) {
+                        presenter.offer(videoFrame.getFrame(), relativeTimestampMicros, videoPixelFormat);
                     }
                 },
                 new JavaFxSwingFFmpegPlayer.PlayerEventCallback() {
                     @Override
                     public void onVideoDimensionsDetected(int width, int height, int pixelFormat) { // <--- ADDED pixelFormat parameter
+                        videoPixelFormat = pixelFormat;
                         Platform.runLater(() -> {
                             LOG_UI.info("Video dimensions detected: " + width + "x" + height + ", PixelFormat: " + pixelFormat);
-                            // JavaFX's UniversalFrameConverter.convertToFxImage doesn't currently use the pixelFormat explicitly,
-                            // as JavaFXFrameConverter handles format detection internally.
-                            // However, we receive it to match the interface and for potential future use or logging.
 
                             if (primaryStage != null && width > 0 && height > 0) {
                                 // Consider existing stage dimensions to avoid unnecessary resizing if already optimal
@@ -145,6 +139,7 @@ public class JavaFxPlayVideoAndAudio extends Application {
                             // }
                             alert.showAndWait();
 
+                            presenter.stop();
                             if (imageView != null) {
                                 imageView.setImage(null); // Clear video display on error
                             }
@@ -156,17 +151,35 @@ public class JavaFxPlayVideoAndAudio extends Application {
         );
 
         this.player = playerBuilder.build();
+        presenter.setStats(player.getStats());
+        presenter.start();
+
+        // Skip conversion while the video cannot be seen (iconified stage, hidden view).
+        javafx.beans.value.ChangeListener<Boolean> visibilityListener = (obs, oldValue, newValue) ->
+                player.setVideoSurfaceVisible(isVideoSurfaceVisible(primaryStage));
+        primaryStage.iconifiedProperty().addListener(visibilityListener);
+        primaryStage.showingProperty().addListener(visibilityListener);
+        imageView.visibleProperty().addListener(visibilityListener);
+        player.setVideoSurfaceVisible(isVideoSurfaceVisible(primaryStage));
+
         final String videoFilename = "https://github.com/rambod-rahmani/ffmpeg-video-player/raw/refs/heads/master/Iron_Man-Trailer_HD.mp4";
         LOG_UI.info("Starting player with media: " + videoFilename);
         player.start(videoFilename);
     }
 
+    private boolean isVideoSurfaceVisible(Stage stage) {
+        return stage.isShowing() && !stage.isIconified() && imageView != null && imageView.isVisible();
+    }
+
     @Override
     public void stop() throws Exception {
         LOG_UI.info("JavaFX Application stop() method called.");
         if (player != null) {
             player.stop();
         }
+        if (presenter != null) {
+            presenter.stop();
+        }
         Platform.exit();
     }
 }
@@ -0,0 +1,31 @@
+plugins {
+    application
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.johnrengelman.shadow)
+}
+
+group = "idv.neo.ffmpeg.media.player.desktop"
+version = "1.0.0"
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+kotlin {
+    compilerOptions {
+        jvmTarget = org.jetbrains.kotlin.gradle.dsl.JvmTarget.JVM_11
+    }
+}
+
+// ./gradlew :desktop:cli:run --args="input.mp4 --out frames --select scene"
+application {
+    mainClass.set("idv.neo.ffmpeg.media.player.desktop.cli.ExtractFrames")
+    applicationDefaultJvmArgs = listOf("-Djava.awt.headless=true")
+}
+
+dependencies {
+    implementation(libs.org.bytedeco.javacv.platform)
+    implementation(libs.org.bytedeco.ffmpeg.platform.gpl)
+    implementation(project(":shared"))
+}
@@ -0,0 +1,91 @@
+package idv.neo.ffmpeg.media.player.desktop.cli
+
+import idv.neo.ffmpeg.media.player.core.extract.ExtractionRequest
+import idv.neo.ffmpeg.media.player.core.extract.FrameExtractor
+import idv.neo.ffmpeg.media.player.core.extract.FrameSelection
+import idv.neo.ffmpeg.media.player.core.snapshot.SnapshotFormat
+import idv.neo.ffmpeg.media.player.core.source.FrameGrabberFactory
+import java.io.File
+import kotlin.system.exitProcess
+
+/**
+ * Headless frame dump for labeling and analysis, built on [FrameExtractor].
+ *
+ * ```
+ * ./gradlew :desktop:cli:run --args="input.mp4 --out frames --select fps --fps 2 --width 640"
+ * ```
+ *
+ * Options (defaults in brackets):
+ * - `--out` output directory [frames]
+ * - `--select` all, fps, scene or keyframes [all]
+ * - `--fps` frames per second for `--select fps` [1]
+ * - `--scene-threshold` picture change (0..1) for `--select scene` [0.1]
+ * - `--format` jpeg or png [jpeg]
+ * - `--quality` JPEG quality (0..1) [0.9]
+ * - `--width` output width, 0 for the video's [0]
+ * - `--encoders` encoder threads [available cores]
+ *
+ * Images are written as `frame-000001.jpg`, ... with a `frames.csv` of their timestamps. Exits
+ * with status 1 if extraction fails and 2 on bad arguments.
+ */
+object ExtractFrames {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        System.setProperty("java.awt.headless", "true")
+        if (args.isEmpty() || args[0].startsWith("--")) usage("Usage: ExtractFrames <media> [options]")
+        val input = args[0]
+        val options = parseOptions(args.copyOfRange(1, args.size))
+
+        val selection = when (val name = options["--select"] ?: "all") {
+            "all" -> FrameSelection.ALL
+            "fps" -> FrameSelection.FPS
+            "scene" -> FrameSelection.SCENE_CHANGE
+            "keyframes" -> FrameSelection.KEY_FRAMES
+            else -> usage("Unknown selection '$name', expected all, fps, scene or keyframes")
+        }
+        val format = when (val name = options["--format"] ?: "jpeg") {
+            "jpeg", "jpg" -> SnapshotFormat.JPEG
+            "png" -> SnapshotFormat.PNG
+            else -> usage("Unknown format '$name', expected jpeg or png")
+        }
+        val request = try {
+            ExtractionRequest(
+                outputDirectory = File(options["--out"] ?: "frames"),
+                selection = selection,
+                fps = options["--fps"]?.toDouble() ?: 1.0,
+                sceneThreshold = options["--scene-threshold"]?.toDouble() ?: 0.1,
+                format = format,
+                jpegQuality = options["--quality"]?.toFloat() ?: 0.9f,
+                width = options["--width"]?.toInt() ?: 0,
+                encoders = options["--encoders"]?.toInt() ?: Runtime.getRuntime().availableProcessors()
+            )
+        } catch (e: IllegalArgumentException) {
+            usage(e.message ?: "Invalid option value")
+        }
+
+        try {
+            val result = FrameExtractor(FrameGrabberFactory.DEFAULT).extract(input, request)
+            println("Wrote ${result.writtenImages} images (${result.bytesWritten / 1024} KiB) from ${result.decodedFrames} decoded frames " +
+                    "to ${request.outputDirectory.absolutePath} in ${result.elapsedMillis} ms; " +
+                    "decoding waited ${result.decodeWaitMillis} ms for encoding and I/O.")
+        } catch (e: Exception) {
+            System.err.println("Extraction failed: ${e.message}")
+            exitProcess(1)
+        }
+    }
+
+    private fun parseOptions(args: Array<String>): Map<String, String> {
+        val known = setOf("--out", "--select", "--fps", "--scene-threshold", "--format", "--quality", "--width", "--encoders")
+        if (args.size % 2 != 0) usage("Every option needs a value")
+        return args.toList().chunked(2).associate { (key, value) ->
+            if (key !in known) usage("Unknown option '$key'")
+            key to value
+        }
+    }
+
+    private fun usage(message: String): Nothing {
+        System.err.println(message)
+        exitProcess(2)
+    }
+}
@@ -2,14 +2,17 @@ package idv.neo.ffmpeg.media.player.desktop
 
 import androidx.compose.ui.window.Window
 import androidx.compose.ui.window.application
+import androidx.compose.ui.window.rememberWindowState
 import idv.neo.ffmpeg.media.player.App
 
 fun main() = application {
+    val windowState = rememberWindowState()
     Window(
         onCloseRequest = ::exitApplication,
         title = "RealTimeStreaming",
+        state = windowState,
     ) {
-        App()
+        App(videoVisible = !windowState.isMinimized)
     }
 }
 
@@ -0,0 +1,287 @@
+package idv.neo.ffmpeg.media.player.desktop;
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Frame;
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.Window;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import idv.neo.ffmpeg.media.player.core.present.VideoFrameSlot;
+import idv.neo.ffmpeg.media.player.core.present.ViewScaler;
+import idv.neo.ffmpeg.media.player.core.stats.LatencyHistogram;
+import idv.neo.ffmpeg.media.player.core.stats.PlaybackStage;
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats;
+
+import org.bytedeco.ffmpeg.global.avutil;
+
+/**
+ * Video surface drawn by its own render thread through a {@link BufferStrategy}, as an
+ * alternative to {@link PlayerSurface}, whose repaint() requests are coalesced by the
+ * RepaintManager and painted on the shared EDT.
+ *
+ * The player hands frames to {@link #present} when they are due (the players pace their video
+ * callbacks); that only copies the pixels into a {@link VideoFrameSlot} and wakes the render
+ * thread. The render thread scales the newest frame once, straight to the letterboxed size of the
+ * surface, and flips it to the screen right away. Swing controls keep the EDT to themselves.
+ *
+ * Present jitter, the difference between the interval of two presented frames and the interval
+ * of their timestamps, is kept in {@link #getJitterHistogram()} and logged by {@link #dispose()}.
+ * The time from {@link #present} to the flip is recorded as {@link PlaybackStage#PRESENT}.
+ */
+public class ActiveRenderSurface extends Canvas {
+    private static final Logger LOG = Logger.getLogger(ActiveRenderSurface.class.getName());
+    // Intervals further apart than this are a seek or a stall, not jitter.
+    private static final long MAX_JITTER_INTERVAL_MICROS = 1_000_000L;
+
+    private final VideoFrameSlot slot = new VideoFrameSlot();
+    private final ViewScaler scaler = new ViewScaler(avutil.AV_PIX_FMT_BGRA);
+    private final LatencyHistogram jitter = new LatencyHistogram();
+    private final Object strategyLock = new Object();
+    private final Thread renderThread;
+    private volatile boolean disposed;
+    private volatile boolean redrawRequested;
+    private volatile long lastOfferedNanos;
+    private volatile PlayerStats playerStats;
+    private BufferStrategy strategy; // guarded by strategyLock
+
+    // Render thread only.
+    private VideoFrameSlot.View lastView;
+    private BufferedImage scaled;
+    private ByteBuffer scaledBuffer;
+    private long previousPresentNanos;
+    private long previousTimestampMicros;
+    private long previousSequence;
+
+    private PlayerSurface.VisibilityListener visibilityListener;
+    private Boolean lastReportedVisible = null;
+    private Window observedWindow;
+    private final WindowAdapter windowStateListener = new WindowAdapter() {
+        @Override
+        public void windowIconified(WindowEvent e) { updateVisibility(); }
+        @Override
+        public void windowDeiconified(WindowEvent e) { updateVisibility(); }
+        @Override
+        public void windowStateChanged(WindowEvent e) { updateVisibility(); }
+    };
+
+    public ActiveRenderSurface() {
+        setBackground(Color.BLACK);
+        setIgnoreRepaint(true);
+        renderThread = new Thread(this::renderLoop, "ActiveRenderSurface-Render");
+        renderThread.setDaemon(true);
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & (HierarchyEvent.SHOWING_CHANGED | HierarchyEvent.PARENT_CHANGED)) != 0) {
+                observeWindow(SwingUtilities.getWindowAncestor(this));
+                updateVisibility();
+            }
+        });
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) { requestRedraw(); }
+            @Override
+            public void componentShown(ComponentEvent e) { updateVisibility(); }
+            @Override
+            public void componentHidden(ComponentEvent e) { updateVisibility(); }
+        });
+    }
+
+    /** Same contract as {@link PlayerSurface#setVisibilityListener}. */
+    public void setVisibilityListener(PlayerSurface.VisibilityListener listener) {
+        this.visibilityListener = listener;
+        this.lastReportedVisible = null;
+        updateVisibility();
+    }
+
+    public boolean isSurfaceVisible() {
+        if (!isShowing() || getWidth() <= 0 || getHeight() <= 0) return false;
+        Window window = SwingUtilities.getWindowAncestor(this);
+        return !(window instanceof Frame) || (((Frame) window).getExtendedState() & Frame.ICONIFIED) == 0;
+    }
+
+    /** Player whose {@link PlaybackStage#PRESENT} latency (hand-off to flip) this surface records. */
+    public void setPlayerStats(PlayerStats stats) {
+        this.playerStats = stats;
+    }
+
+    /** Present jitter in nanoseconds; see the class comment. */
+    public LatencyHistogram getJitterHistogram() {
+        return jitter;
+    }
+
+    /**
+     * Queues a due frame for the render thread and returns. The frame stays owned by the caller.
+     * Called on one player thread at a time.
+     */
+    public void present(org.bytedeco.javacv.Frame frame, long timestampMicros, int pixelFormat) {
+        if (disposed) return;
+        lastOfferedNanos = System.nanoTime();
+        slot.publish(frame, timestampMicros, pixelFormat);
+        LockSupport.unpark(renderThread);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        synchronized (strategyLock) {
+            createBufferStrategy(2);
+            strategy = getBufferStrategy();
+        }
+        if (!renderThread.isAlive() && !disposed) renderThread.start();
+        requestRedraw();
+    }
+
+    @Override
+    public void removeNotify() {
+        // Wait for a flip in progress; the strategy dies with the peer.
+        synchronized (strategyLock) {
+            strategy = null;
+        }
+        super.removeNotify();
+    }
+
+    // Active rendering: the EDT never paints this component.
+    @Override
+    public void paint(Graphics g) {
+        requestRedraw();
+    }
+
+    @Override
+    public void update(Graphics g) {
+        requestRedraw();
+    }
+
+    /** Stops the render thread, frees the scaler and logs the jitter summary. */
+    public void dispose() {
+        if (disposed) return;
+        disposed = true;
+        LockSupport.unpark(renderThread);
+        try {
+            renderThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LatencyHistogram.Snapshot s = jitter.snapshot();
+        LOG.info(String.format("ActiveRenderSurface: %d frames, present jitter p50=%dus p99=%dus max=%dus, %d superseded before the render thread.",
+                s.getCount(), s.percentileNanos(50.0) / 1000, s.percentileNanos(99.0) / 1000, s.getMaxNanos() / 1000, slot.getSupersededFrames()));
+    }
+
+    private void requestRedraw() {
+        redrawRequested = true;
+        LockSupport.unpark(renderThread);
+    }
+
+    private void renderLoop() {
+        while (!disposed) {
+            VideoFrameSlot.View view = slot.acquire();
+            if (view != null) {
+                lastView = view;
+                render(view, true);
+            } else if (redrawRequested && lastView != null) {
+                redrawRequested = false;
+                render(lastView, false);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        scaler.close();
+    }
+
+    private void render(VideoFrameSlot.View view, boolean newFrame) {
+        synchronized (strategyLock) {
+            BufferStrategy bs = strategy;
+            int width = getWidth();
+            int height = getHeight();
+            if (bs == null || width <= 0 || height <= 0) return;
+
+            // Letterbox: the largest size with the video's aspect ratio that fits.
+            double scale = Math.min((double) width / view.getWidth(), (double) height / view.getHeight());
+            int targetWidth = Math.max(1, (int) (view.getWidth() * scale));
+            int targetHeight = Math.max(1, (int) (view.getHeight() * scale));
+            if (!scaleInto(view, targetWidth, targetHeight)) return;
+            int x = (width - targetWidth) / 2;
+            int y = (height - targetHeight) / 2;
+
+            do {
+                do {
+                    Graphics g = bs.getDrawGraphics();
+                    try {
+                        g.setColor(getBackground());
+                        g.fillRect(0, 0, width, height);
+                        g.drawImage(scaled, x, y, null);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (bs.contentsRestored());
+                bs.show();
+            } while (bs.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+        }
+        if (newFrame) recordPresent(view);
+    }
+
+    // Scales into a reused TYPE_INT_RGB image: BGRA bytes read little-endian are 0xAARRGGBB ints.
+    private boolean scaleInto(VideoFrameSlot.View view, int targetWidth, int targetHeight) {
+        if (scaled == null || scaled.getWidth() != targetWidth || scaled.getHeight() != targetHeight) {
+            scaled = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+            scaledBuffer = ByteBuffer.allocateDirect(targetWidth * targetHeight * 4).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (!scaler.scale(view, scaledBuffer, targetWidth * 4, targetWidth, targetHeight)) return false;
+        int[] pixels = ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData();
+        scaledBuffer.clear();
+        scaledBuffer.asIntBuffer().get(pixels);
+        return true;
+    }
+
+    private void recordPresent(VideoFrameSlot.View view) {
+        long now = System.nanoTime();
+        PlayerStats stats = playerStats;
+        if (stats != null) stats.record(PlaybackStage.PRESENT, now - lastOfferedNanos);
+        long frameInterval = view.getTimestampMicros() - previousTimestampMicros;
+        // Only consecutive frames: a superseded frame in between doubles the expected interval.
+        if (previousSequence != 0 && view.getSequence() == previousSequence + 1
+                && frameInterval > 0 && frameInterval < MAX_JITTER_INTERVAL_MICROS) {
+            jitter.record(Math.abs((now - previousPresentNanos) - frameInterval * 1000));
+        }
+        previousPresentNanos = now;
+        previousTimestampMicros = view.getTimestampMicros();
+        previousSequence = view.getSequence();
+    }
+
+    private void observeWindow(Window window) {
+        if (window == observedWindow) return;
+        if (observedWindow != null) {
+            observedWindow.removeWindowListener(windowStateListener);
+            observedWindow.removeWindowStateListener(windowStateListener);
+        }
+        observedWindow = window;
+        if (window != null) {
+            window.addWindowListener(windowStateListener);
+            window.addWindowStateListener(windowStateListener);
+        }
+    }
+
+    private void updateVisibility() {
+        PlayerSurface.VisibilityListener listener = visibilityListener;
+        if (listener == null) return;
+        boolean visible = isSurfaceVisible();
+        if (lastReportedVisible == null || lastReportedVisible != visible) {
+            lastReportedVisible = visible;
+            listener.onSurfaceVisibilityChanged(visible);
+        }
+    }
+}
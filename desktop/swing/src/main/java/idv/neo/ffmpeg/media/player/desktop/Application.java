@@ -1,9 +1,9 @@
 package idv.neo.ffmpeg.media.player.desktop;
 
-import org.bytedeco.javacv.Frame;
 import idv.neo.ffmpeg.media.player.core.JavaFxSwingComposeFFmpegPlayer; // Kotlin Player
 import idv.neo.ffmpeg.media.player.core.PlayerEvent; // Kotlin PlayerEvent
 import idv.neo.ffmpeg.media.player.core.UniversalFrameConverter;
+import idv.neo.ffmpeg.media.player.core.memory.FrameHandle;
 
 // 導入 Kotlin 的函數接口
 import kotlin.Unit;
@@ -12,6 +12,8 @@ import kotlin.jvm.functions.Function2;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
@@ -24,8 +26,11 @@ public class Application {
     private static JTextField videoUrlField;
     private static JavaFxSwingComposeFFmpegPlayer player; // Use Kotlin Player
     private static PlayerSurface playerSurface;
+    // Set with -Dplayer.surface=active to present from a render thread instead of the EDT.
+    private static ActiveRenderSurface activeSurface;
     private static JButton playButton;
     private static JButton stopButton;
+    private static JButton pauseButton;
     private static JFrame frame;
     private static volatile int currentFramePixelFormat = -1;
 
@@ -48,14 +53,23 @@ public class Application {
                     LOG_UI.info("Stopping player due to window close...");
                     player.close();
                 }
+                if (activeSurface != null) {
+                    activeSurface.dispose();
+                }
                 frame.dispose();
                 System.exit(0);
             }
         });
 
-        playerSurface = new PlayerSurface();
-        playerSurface.setPreferredSize(new Dimension(640, 480));
-        frame.getContentPane().add(playerSurface, BorderLayout.CENTER);
+        if ("active".equals(System.getProperty("player.surface"))) {
+            activeSurface = new ActiveRenderSurface();
+            activeSurface.setPreferredSize(new Dimension(640, 480));
+            frame.getContentPane().add(activeSurface, BorderLayout.CENTER);
+        } else {
+            playerSurface = new PlayerSurface();
+            playerSurface.setPreferredSize(new Dimension(640, 480));
+            frame.getContentPane().add(playerSurface, BorderLayout.CENTER);
+        }
 
         // PlayerEventCallback for Kotlin Player
         // 使用 kotlin.jvm.functions.Function1
@@ -74,6 +88,7 @@ public class Application {
                     playButton.setText("Playing...");
                     playButton.setEnabled(false);
                     stopButton.setEnabled(true);
+                    pauseButton.setEnabled(true);
                     videoUrlField.setEnabled(false);
                 });
             } else if (event instanceof PlayerEvent.EndOfMedia) {
@@ -82,6 +97,8 @@ public class Application {
                     playButton.setText("Play Video");
                     playButton.setEnabled(true);
                     stopButton.setEnabled(false);
+                    pauseButton.setEnabled(false);
+                    pauseButton.setText("Pause");
                     videoUrlField.setEnabled(true);
                     Application.currentFramePixelFormat = -1;
                 });
@@ -95,6 +112,8 @@ public class Application {
                     playButton.setText("Play Video");
                     playButton.setEnabled(true);
                     stopButton.setEnabled(false);
+                    pauseButton.setEnabled(false);
+                    pauseButton.setText("Pause");
                     videoUrlField.setEnabled(true);
                     Application.currentFramePixelFormat = -1;
                 });
@@ -104,11 +123,17 @@ public class Application {
 
         // VideoFrameOutputCallback for Kotlin Player
         // 使用 kotlin.jvm.functions.Function2
-        Function2<Frame, Long, Unit> videoFrameOutputCallback = (videoFrame, relativeTimestampMicros) -> {
-            if (videoFrame != null) {
-                BufferedImage swingImage = UniversalFrameConverter.convertToBufferedImage(videoFrame, currentFramePixelFormat);
+        // Both paths copy the frame before returning, so neither retains the handle.
+        Function2<FrameHandle, Long, Unit> videoFrameOutputCallback = (videoFrame, relativeTimestampMicros) -> {
+            if (activeSurface != null) {
+                if (videoFrame != null && currentFramePixelFormat != -1) {
+                    activeSurface.present(videoFrame.getFrame(), relativeTimestampMicros, currentFramePixelFormat);
+                }
+            } else if (videoFrame != null) {
+                BufferedImage swingImage = UniversalFrameConverter.convertToBufferedImage(videoFrame.getFrame(), currentFramePixelFormat);
                 if (swingImage != null) {
-                    SwingUtilities.invokeLater(() -> playerSurface.updateImage(swingImage));
+                    long handedOffNanos = System.nanoTime();
+                    SwingUtilities.invokeLater(() -> playerSurface.updateImage(swingImage, handedOffNanos));
                 }
             }
             return Unit.INSTANCE; // Kotlin lambda 返回 Unit
@@ -119,6 +144,21 @@ public class Application {
                 playerEventCallback,
                 null // AudioDataOutputCallback is Function3, can be null
         );
+        // Stop converting frames nobody can see (minimized window, hidden or scrolled-away surface).
+        if (activeSurface != null) {
+            activeSurface.setVisibilityListener(visible -> player.setVideoSurfaceVisible(visible));
+            activeSurface.setPlayerStats(player.getStats());
+        } else {
+            playerSurface.setVisibilityListener(visible -> player.setVideoSurfaceVisible(visible));
+            playerSurface.setPlayerStats(player.getStats());
+        }
+        // Decode at the size the video is shown, so large sources are scaled down in native code.
+        Component videoComponent = activeSurface != null ? activeSurface : playerSurface;
+        videoComponent.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) { reportSurfaceSize(videoComponent); }
+        });
+        reportSurfaceSize(videoComponent);
 
         // ... (rest of the UI setup code remains the same) ...
 
@@ -134,8 +174,11 @@ public class Application {
         playButton = new JButton("Play Video");
         stopButton = new JButton("Stop");
         stopButton.setEnabled(false);
+        pauseButton = new JButton("Pause");
+        pauseButton.setEnabled(false);
 
         buttonPanel.add(playButton);
+        buttonPanel.add(pauseButton);
         buttonPanel.add(stopButton);
         controlPanel.add(buttonPanel, BorderLayout.CENTER);
 
@@ -151,6 +194,17 @@ public class Application {
             player.start(videoUrl);
         });
 
+        pauseButton.addActionListener(e -> {
+            if (player == null) return;
+            if (player.isPaused()) {
+                player.resume();
+                pauseButton.setText("Pause");
+            } else {
+                player.pause();
+                pauseButton.setText("Resume");
+            }
+        });
+
         stopButton.addActionListener(e -> {
             LOG_UI.info("Stop button clicked.");
             if (player != null) {
@@ -159,6 +213,8 @@ public class Application {
             playButton.setText("Play Video");
             playButton.setEnabled(true);
             stopButton.setEnabled(false);
+            pauseButton.setEnabled(false);
+            pauseButton.setText("Pause");
             videoUrlField.setEnabled(true);
         });
 
@@ -166,4 +222,12 @@ public class Application {
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
     }
+
+    // Component sizes are in user space; HiDPI screens draw more device pixels than that.
+    private static void reportSurfaceSize(Component component) {
+        GraphicsConfiguration gc = component.getGraphicsConfiguration();
+        double scaleX = gc != null ? gc.getDefaultTransform().getScaleX() : 1.0;
+        double scaleY = gc != null ? gc.getDefaultTransform().getScaleY() : 1.0;
+        player.setTargetSurfaceSize((int) Math.round(component.getWidth() * scaleX), (int) Math.round(component.getHeight() * scaleY));
+    }
 }
@@ -1,22 +1,132 @@
 package idv.neo.ffmpeg.media.player.desktop;
 
 import java.awt.Color;
+import java.awt.Frame;
 import java.awt.Graphics;
+import java.awt.Window;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.HierarchyBoundsAdapter;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 
+import idv.neo.ffmpeg.media.player.core.stats.PlaybackStage;
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats;
+
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 public  class PlayerSurface extends JPanel {
     // ... (same as your existing VideoDisplayPanel)
     private BufferedImage currentImage;
     private final Object imageLock = new Object();
+    private long imageHandedOffNanos = 0L; // guarded by imageLock, 0 once painted
+    private volatile PlayerStats playerStats;
+
+    /**
+     * Notified on the EDT whenever the surface turns visible or hidden
+     * (removed/hidden component, iconified window, scrolled out of its viewport).
+     */
+    @FunctionalInterface
+    public interface VisibilityListener {
+        void onSurfaceVisibilityChanged(boolean visible);
+    }
+
+    private VisibilityListener visibilityListener;
+    private Boolean lastReportedVisible = null;
+    private Window observedWindow;
+    private final WindowAdapter windowStateListener = new WindowAdapter() {
+        @Override
+        public void windowIconified(WindowEvent e) { updateVisibility(); }
+        @Override
+        public void windowDeiconified(WindowEvent e) { updateVisibility(); }
+        @Override
+        public void windowStateChanged(WindowEvent e) { updateVisibility(); }
+    };
 
     public PlayerSurface() {
         setBackground(Color.BLACK);
         setDoubleBuffered(true); // Good practice for custom painting
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & (HierarchyEvent.SHOWING_CHANGED | HierarchyEvent.PARENT_CHANGED)) != 0) {
+                observeWindow(SwingUtilities.getWindowAncestor(this));
+                updateVisibility();
+            }
+        });
+        addHierarchyBoundsListener(new HierarchyBoundsAdapter() {
+            @Override
+            public void ancestorMoved(HierarchyEvent e) { updateVisibility(); }
+            @Override
+            public void ancestorResized(HierarchyEvent e) { updateVisibility(); }
+        });
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentShown(ComponentEvent e) { updateVisibility(); }
+            @Override
+            public void componentHidden(ComponentEvent e) { updateVisibility(); }
+            @Override
+            public void componentMoved(ComponentEvent e) { updateVisibility(); }
+            @Override
+            public void componentResized(ComponentEvent e) { updateVisibility(); }
+        });
+    }
+
+    public void setVisibilityListener(VisibilityListener listener) {
+        this.visibilityListener = listener;
+        this.lastReportedVisible = null;
+        updateVisibility();
+    }
+
+    /**
+     * Whether any part of this surface can currently be seen on screen.
+     */
+    public boolean isSurfaceVisible() {
+        if (!isShowing() || getVisibleRect().isEmpty()) return false;
+        Window window = SwingUtilities.getWindowAncestor(this);
+        return !(window instanceof Frame) || (((Frame) window).getExtendedState() & Frame.ICONIFIED) == 0;
+    }
+
+    private void observeWindow(Window window) {
+        if (window == observedWindow) return;
+        if (observedWindow != null) {
+            observedWindow.removeWindowListener(windowStateListener);
+            observedWindow.removeWindowStateListener(windowStateListener);
+        }
+        observedWindow = window;
+        if (window != null) {
+            window.addWindowListener(windowStateListener);
+            window.addWindowStateListener(windowStateListener);
+        }
+    }
+
+    private void updateVisibility() {
+        VisibilityListener listener = visibilityListener;
+        if (listener == null) return;
+        boolean visible = isSurfaceVisible();
+        if (lastReportedVisible == null || lastReportedVisible != visible) {
+            lastReportedVisible = visible;
+            listener.onSurfaceVisibilityChanged(visible);
+        }
+    }
+
+    /**
+     * Player whose {@link PlaybackStage#PRESENT} latency (hand-off to paint) this surface records.
+     */
+    public void setPlayerStats(PlayerStats stats) {
+        this.playerStats = stats;
     }
 
     public void updateImage(BufferedImage newImage) {
+        updateImage(newImage, System.nanoTime());
+    }
+
+    /**
+     * @param handedOffNanos System.nanoTime() at which the converted image left the player thread,
+     *                       so time spent waiting on the EDT is part of the present latency.
+     */
+    public void updateImage(BufferedImage newImage, long handedOffNanos) {
         if (newImage == null) return;
         // Create a new image or copy to avoid modification issues if the passed image is reused
         BufferedImage imageToPaint;
@@ -25,6 +135,7 @@ public  class PlayerSurface extends JPanel {
         // However, FrameToBufferedImageConverter should return a new instance.
         synchronized (imageLock) {
             currentImage = newImage; // Assuming newImage is a fresh instance
+            imageHandedOffNanos = handedOffNanos;
         }
         repaint();
     }
@@ -33,9 +144,12 @@ public  class PlayerSurface extends JPanel {
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         BufferedImage imageToRender = null;
+        long handedOffNanos = 0L;
         synchronized (imageLock) {
             if (currentImage != null) {
                 imageToRender = currentImage; // Get reference under lock
+                handedOffNanos = imageHandedOffNanos;
+                imageHandedOffNanos = 0L;
             }
         }
         if (imageToRender != null) {
@@ -57,6 +171,10 @@ public  class PlayerSurface extends JPanel {
             int x = (panelWidth - imgWidth) / 2;
             int y = (panelHeight - imgHeight) / 2;
             g.drawImage(imageToRender, x, y, this);
+            PlayerStats stats = playerStats;
+            if (stats != null && handedOffNanos != 0L) {
+                stats.record(PlaybackStage.PRESENT, System.nanoTime() - handedOffNanos);
+            }
         }
     }
 }
@@ -85,5 +85,8 @@ include(":desktop:swing")
 project(":desktop:swing").projectDir = file("./desktop/swing")
 include(":desktop:JavaFX")
 project(":desktop:JavaFX").projectDir = file("./desktop/JavaFx")
+include(":desktop:cli")
+project(":desktop:cli").projectDir = file("./desktop/cli")
+include(":benchmark")
 include(":android")
 
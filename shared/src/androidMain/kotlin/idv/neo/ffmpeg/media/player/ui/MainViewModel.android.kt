@@ -81,6 +81,7 @@ actual class MainViewModel actual constructor(
     private var frameCaptureJob: Job? = null
     private var surfaceViewForFrameCapture: SurfaceView? = null
     private var lastRenderedBitmap: Bitmap? = null // Still useful for managing the current bitmap
+    @Volatile private var videoSurfaceVisible: Boolean = true
 
     companion object {
         private const val FRAME_CAPTURE_INTERVAL_MS = 66L
@@ -241,6 +242,11 @@ actual class MainViewModel actual constructor(
             return
         }
 
+        if (!videoSurfaceVisible) {
+            Log.d(TAG_ANDROID, "[FrameCapture] Video surface not visible. Capture deferred.")
+            return
+        }
+
         val currentPlayer = exoPlayer ?: run {
             Log.w(TAG_ANDROID, "[FrameCapture] ExoPlayer is null. Cannot start.")
             return
@@ -460,6 +466,20 @@ actual class MainViewModel actual constructor(
         Log.i(TAG_ANDROID, "[StreamingControl] stopVideoStreaming processing finished.")
     }
 
+    actual fun setVideoSurfaceVisible(visible: Boolean) {
+        Log.i(TAG_ANDROID, "[StreamingControl] setVideoSurfaceVisible: $visible")
+        videoSurfaceVisible = visible
+        viewModelScope.launch {
+            if (!visible) {
+                // Keep ExoPlayer and its surface attached, only stop the PixelCopy loop.
+                frameCaptureJob?.cancel()
+                frameCaptureJob = null
+            } else {
+                startFrameCapture()
+            }
+        }
+    }
+
     override fun onCleared() {
         Log.i(TAG_ANDROID, "[ViewModelLifecycle] onCleared called.")
         countdownJob?.cancel()
@@ -0,0 +1,25 @@
+package idv.neo.ffmpeg.media.player.ui
+
+import androidx.compose.foundation.Canvas
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.collectAsState
+import androidx.compose.runtime.getValue
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.graphics.ImageBitmap
+import androidx.compose.ui.graphics.drawscope.DrawScope
+import androidx.compose.ui.unit.IntOffset
+import androidx.compose.ui.unit.IntSize
+
+/** Android: draws the bitmaps the view model publishes through [MainViewModel.videoFrameBitmap]. */
+@Composable
+actual fun VideoOutput(viewModel: MainViewModel, modifier: Modifier, placeholder: DrawScope.() -> Unit) {
+    val imageBitmap: ImageBitmap? by viewModel.videoFrameBitmap.collectAsState()
+    Canvas(modifier) {
+        val image = imageBitmap
+        if (image != null) {
+            drawImage(image = image, dstOffset = IntOffset.Zero, dstSize = IntSize(size.width.toInt(), size.height.toInt()))
+        } else {
+            placeholder()
+        }
+    }
+}
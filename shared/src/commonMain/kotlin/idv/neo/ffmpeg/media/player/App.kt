@@ -4,8 +4,8 @@ import androidx.compose.material3.MaterialTheme
 import androidx.compose.runtime.*
 import idv.neo.ffmpeg.media.player.ui.MainScreen
 @Composable
-fun App() {
+fun App(videoVisible: Boolean = true) {
     MaterialTheme {
-        MainScreen()
+        MainScreen(videoVisible = videoVisible)
     }
 }
\ No newline at end of file
@@ -24,6 +24,11 @@ expect class MainViewModel(platformArgs: Any? = null) : SharedViewModel {
 
     fun startVideoStreaming(videoUrl: String)
     fun stopVideoStreaming()
+
+    /**
+     * Reports whether the video surface can currently be seen, so frames nobody sees are not converted.
+     */
+    fun setVideoSurfaceVisible(visible: Boolean)
 }
 
 /**
@@ -0,0 +1,12 @@
+package idv.neo.ffmpeg.media.player.ui
+
+import androidx.compose.runtime.Composable
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.graphics.drawscope.DrawScope
+
+/**
+ * Draws the video of [viewModel], scaled to fill the composable, or [placeholder] while there is
+ * no frame. Each platform picks its own frame path (see the actual implementations).
+ */
+@Composable
+expect fun VideoOutput(viewModel: MainViewModel, modifier: Modifier = Modifier, placeholder: DrawScope.() -> Unit = {})
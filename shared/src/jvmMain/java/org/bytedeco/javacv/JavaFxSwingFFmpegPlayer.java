@@ -1,9 +1,27 @@
 package org.bytedeco.javacv;
 
+import idv.neo.ffmpeg.media.player.core.AudioSampleConverter;
+import idv.neo.ffmpeg.media.player.core.PauseGate;
+import idv.neo.ffmpeg.media.player.core.SurfaceVisibilityGate;
+import idv.neo.ffmpeg.media.player.core.jfr.DropReason;
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents;
+import idv.neo.ffmpeg.media.player.core.memory.FrameHandle;
+import idv.neo.ffmpeg.media.player.core.memory.FrameHandleTask;
+import idv.neo.ffmpeg.media.player.core.memory.NativeMemoryBudget;
+import idv.neo.ffmpeg.media.player.core.present.PresentationScheduler;
+import idv.neo.ffmpeg.media.player.core.snapshot.FrameSnapshotter;
+import idv.neo.ffmpeg.media.player.core.snapshot.Snapshot;
+import idv.neo.ffmpeg.media.player.core.snapshot.SnapshotFormat;
+import idv.neo.ffmpeg.media.player.core.source.FrameGrabberFactory;
+import idv.neo.ffmpeg.media.player.core.source.PipelinedFrameGrabber;
+import idv.neo.ffmpeg.media.player.core.stats.PlaybackStage;
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats;
+
 import javax.sound.sampled.*;
 
 import java.nio.ShortBuffer;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -20,18 +38,22 @@ public class JavaFxSwingFFmpegPlayer {
     // --- PlaybackTimer based on BytedecoFFmpegPlayer's logic [5] ---
     private static class PlaybackTimer {
         private long timerSystemStartTimeNanos = -1L; // Fallback timer start
+        private long pausedNanosAtStart = 0L; // The fallback timer stands still while paused
+        private final PauseGate pauseGate;
         private long timerFirstFrameAbsoluteTimestampMicros = -1L; // Anchor timestamp from media
         private final SourceDataLine soundLine;
         private boolean timerHasStarted = false;
         private boolean soundLineClockSuccessfullyUsed = false; // Tracks if soundLine.getMicrosecondPosition() was ever good
         private boolean soundLineEverRan = false; // Tracks if soundLine.isRunning() was ever true
 
-        public PlaybackTimer(SourceDataLine soundLine) {
+        public PlaybackTimer(SourceDataLine soundLine, PauseGate pauseGate) {
             this.soundLine = soundLine;
+            this.pauseGate = pauseGate;
             LOG.info("PlaybackTimer ("+Integer.toHexString(hashCode())+"): Initialized. SoundLine " + (soundLine != null ? "provided." : "is NULL."));
         }
-        public PlaybackTimer() { // Constructor for no audio
+        public PlaybackTimer(PauseGate pauseGate) { // Constructor for no audio
             this.soundLine = null;
+            this.pauseGate = pauseGate;
             LOG.info("PlaybackTimer ("+Integer.toHexString(hashCode())+"): Initialized (NO SoundLine).");
         }
 
@@ -47,6 +69,7 @@ public class JavaFxSwingFFmpegPlayer {
             }
             this.timerFirstFrameAbsoluteTimestampMicros = firstValidFrameTimestampMicros;
             this.timerSystemStartTimeNanos = System.nanoTime(); // Always record system time as a base/fallback
+            this.pausedNanosAtStart = pauseGate.getPausedNanos();
             this.timerHasStarted = true;
             this.soundLineClockSuccessfullyUsed = false;
             this.soundLineEverRan = false;
@@ -78,7 +101,7 @@ public class JavaFxSwingFFmpegPlayer {
                 if (DETAILED_AUDIO_LOGGING && S_loopIteration % 20 == 1) LOG.info("PlaybackTimer ("+Integer.toHexString(hashCode())+"): Using RELIABLE audio clock. Position: " + audioPos + "us");
                 return audioPos;
             } else {
-                long systemDurationMicros = (System.nanoTime() - timerSystemStartTimeNanos) / 1000L;
+                long systemDurationMicros = (System.nanoTime() - timerSystemStartTimeNanos - (pauseGate.getPausedNanos() - pausedNanosAtStart)) / 1000L;
                 if (DETAILED_AUDIO_LOGGING && S_loopIteration % 20 == 1) {
                     String reason = soundLine == null ? "NoSoundLine" : (!soundLine.isOpen() ? "NotOpen" : (!soundLine.isRunning() ? "NotRunning" : "Unknown"));
                     LOG.info("PlaybackTimer ("+Integer.toHexString(hashCode())+"): Using UNRELIABLE (SystemNanoTime) clock. Reason: " + reason + ". Elapsed: " + systemDurationMicros + "us.");
@@ -91,13 +114,15 @@ public class JavaFxSwingFFmpegPlayer {
     }
     // --- End PlaybackTimer ---
 
+    /** Receives each due video frame. The player releases the handle when this returns; retain it to keep it. */
     @FunctionalInterface
     public interface VideoFrameOutputCallback {
-        void onVideoFrameProcessed(Frame videoFrame, long relativeTimestampMicros);
+        void onVideoFrameProcessed(FrameHandle videoFrame, long relativeTimestampMicros);
     }
+    /** Writes audio instead of the player. The player releases the handle when this returns. */
     @FunctionalInterface
     public interface AudioDataOutputCallback {
-        void onAudioDataAvailable(ShortBuffer samples, SourceDataLine lineToWriteTo, Frame originalFrame);
+        void onAudioDataAvailable(ShortBuffer samples, SourceDataLine lineToWriteTo, FrameHandle originalFrame);
     }
     public interface PlayerEventCallback {
         void onVideoDimensionsDetected(int width, int height, int pixelFormat);
@@ -106,35 +131,45 @@ public class JavaFxSwingFFmpegPlayer {
         void onError(String errorMessage, Exception e);
     }
 
-    private FFmpegFrameGrabber grabber;
-    private SourceDataLine localSoundLine;
+    private FrameGrabber grabber;
+    private volatile SourceDataLine localSoundLine;
     private ExecutorService frameProcessingExecutor;
     private ExecutorService audioPlaybackExecutor;
     private PlaybackTimer playbackTimer;
     private volatile Thread playThread;
     private volatile boolean stopRequested = false;
     private int grabAttemptCounter = 0;
+    private final SurfaceVisibilityGate surfaceVisibilityGate = new SurfaceVisibilityGate();
+    private final PauseGate pauseGate = new PauseGate();
+    private final FrameSnapshotter snapshotter = new FrameSnapshotter();
+    private final PlayerStats stats = new PlayerStats("JavaFxSwingFFmpegPlayer");
+    // Frames in flight and queued packets; read-ahead shrinks as it or the process nears its limit.
+    private final NativeMemoryBudget memoryBudget = new NativeMemoryBudget("JavaFxSwingFFmpegPlayer");
+    private final PresentationScheduler presentationScheduler = new PresentationScheduler(); // video processor thread only
 
     private final VideoFrameOutputCallback videoFrameOutputCallback;
     private final AudioDataOutputCallback audioDataOutputCallback;
     private final PlayerEventCallback playerEventCallback;
+    private final FrameGrabberFactory grabberFactory;
 
     private final long maxReadAheadBufferMicros = 700 * 1000L; // Default
     private final long videoDelayCapMillisUnreliableTimer = 1000L; // Default
     private final long videoMaxSleepReliableMs = 1000L; // Default
     private final long mainLoopDelayCapMillisUnreliableTimer = 250L; // Default
     private final long generalMaxSleepMillis = 2000L; // Default
-    private final long minMeaningfulVideoDelayMs = 8L; // Default
+    private final long minMeaningfulSleepMs = 8L; // Shorter main-loop backpressure sleeps are skipped
 
     public static class Builder { /* ... Same as your previous working builder ... */
         private VideoFrameOutputCallback videoFrameOutputCallback;
         private AudioDataOutputCallback audioDataOutputCallback;
         private PlayerEventCallback playerEventCallback;
+        private FrameGrabberFactory grabberFactory = FrameGrabberFactory.DEFAULT;
         public Builder(VideoFrameOutputCallback videoCallback, PlayerEventCallback eventCallback) {
             this.videoFrameOutputCallback = videoCallback;
             this.playerEventCallback = eventCallback;
         }
         public Builder audioDataOutputCallback(AudioDataOutputCallback callback) { this.audioDataOutputCallback = callback; return this; }
+        public Builder grabberFactory(FrameGrabberFactory factory) { if (factory != null) this.grabberFactory = factory; return this; }
         public JavaFxSwingFFmpegPlayer build() {
             if (videoFrameOutputCallback == null) throw new IllegalStateException("VideoFrameOutputCallback cannot be null.");
             return new JavaFxSwingFFmpegPlayer(this);
@@ -145,6 +180,8 @@ public class JavaFxSwingFFmpegPlayer {
         this.videoFrameOutputCallback = builder.videoFrameOutputCallback;
         this.audioDataOutputCallback = builder.audioDataOutputCallback;
         this.playerEventCallback = builder.playerEventCallback;
+        this.grabberFactory = builder.grabberFactory;
+        stats.setMemoryBudget(memoryBudget);
     }
 
     public void start(final String mediaPath) {
@@ -153,9 +190,12 @@ public class JavaFxSwingFFmpegPlayer {
             return;
         }
         stopRequested = false;
+        pauseGate.resume();
+        presentationScheduler.reset();
 
-        ThreadFactory videoFrameProcessorFactory = r -> new Thread(r, "Player-VideoProcessor");
-        ThreadFactory audioProcessorFactory = r -> new Thread(r, "Player-AudioProcessor");
+        ThreadFactory videoFrameProcessorFactory = stats.threadFactory("Player-VideoProcessor", false);
+        ThreadFactory audioProcessorFactory = stats.threadFactory("Player-AudioProcessor", false);
+        stats.registerMBean();
 
         playThread = new Thread(() -> {
             S_loopIteration = 0;
@@ -168,10 +208,13 @@ public class JavaFxSwingFFmpegPlayer {
             audioPlaybackExecutor = Executors.newSingleThreadExecutor(audioProcessorFactory);
 
             this.grabber = null; this.localSoundLine = null; this.playbackTimer = null;
+            surfaceVisibilityGate.reset(null);
+            snapshotter.clear();
 
             LOG.info("Player-Thread ("+Thread.currentThread().getName()+"): Starting playback for: " + mediaPath);
             try {
-                grabber = new FFmpegFrameGrabber(mediaPath);
+                grabber = grabberFactory.create(mediaPath);
+                if (grabber instanceof PipelinedFrameGrabber) ((PipelinedFrameGrabber) grabber).setMemoryBudget(memoryBudget);
                 // grabber.setOption("pixel_format", "bgr24"); // Still likely rejected here
                 grabber.start();
 
@@ -198,14 +241,14 @@ public class JavaFxSwingFFmpegPlayer {
                         LOG.info("Player: Audio line opened. Format: " + audioFormat + " Buffer: " + localSoundLine.getBufferSize() + " requested: " + bufferSize);
                         localSoundLine.start(); // IMPORTANT: Start the line!
                         LOG.info("Player: Audio line started. isOpen: " + localSoundLine.isOpen() + ", isRunning: " + localSoundLine.isRunning() + ", isActive: " + localSoundLine.isActive());
-                        playbackTimer = new PlaybackTimer(localSoundLine);
+                        playbackTimer = new PlaybackTimer(localSoundLine, pauseGate);
                     } else {
                         LOG.severe("Player: No supported audio line. No audio.");
-                        playbackTimer = new PlaybackTimer(); // No-audio timer
+                        playbackTimer = new PlaybackTimer(pauseGate); // No-audio timer
                     }
                 } else {
                     LOG.info("Player: No audio streams or zero sample rate. Using system timer.");
-                    playbackTimer = new PlaybackTimer(); // No-audio timer
+                    playbackTimer = new PlaybackTimer(pauseGate); // No-audio timer
                 }
                 final SourceDataLine finalSoundLine = localSoundLine;
                 final PlaybackTimer finalTimer = playbackTimer; // Essential for lambdas
@@ -218,7 +261,11 @@ public class JavaFxSwingFFmpegPlayer {
                     int warmupAudioFramesSubmitted = 0;
                     for (int i = 0; i < 30 && !stopRequested; i++) { // Try to process a few audio frames
                         Frame warmFrame = null;
-                        try { warmFrame = grabber.grabFrame(true, true, false, false); } // Grab audio primarily
+                        try { // Grab audio primarily; other grabbers have no stream selection, their video frames are skipped below
+                            warmFrame = grabber instanceof FFmpegFrameGrabber
+                                    ? ((FFmpegFrameGrabber) grabber).grabFrame(true, true, false, false)
+                                    : grabber.grab();
+                        }
                         catch (FrameGrabber.Exception ge) { LOG.warning("Player [Warmup]: Grabber exception: " + ge.getMessage()); break; }
 
                         if (warmFrame == null) { LOG.info("Player [Warmup]: End of stream."); break; }
@@ -238,12 +285,14 @@ public class JavaFxSwingFFmpegPlayer {
                         if (warmFrame.samples != null && warmFrame.samples[0] != null) {
                             if (DETAILED_AUDIO_LOGGING) LOG.info("Player [Warmup]: Got audio samples. Submitting to playback. TS: " + warmFrame.timestamp);
                             warmupAudioFramesSubmitted++;
-                            final Frame audioClone = warmFrame.clone();
-                            audioPlaybackExecutor.submit(() -> {
-                                if(stopRequested) { audioClone.close(); return; }
-                                playAudioFrameInternal(audioClone, finalSoundLine); // Directly call, not through callback here
-                                audioClone.close();
-                            });
+                            final FrameHandle audioClone = FrameHandle.of(warmFrame.clone(), memoryBudget);
+                            audioPlaybackExecutor.execute(new FrameHandleTask(audioClone, () -> {
+                                try {
+                                    if (!stopRequested) writeAudioFrame(audioClone, finalSoundLine);
+                                } finally {
+                                    audioClone.release();
+                                }
+                            }));
                         }
                         warmFrame.close(); // Close the frame from grabber
 
@@ -264,10 +313,14 @@ public class JavaFxSwingFFmpegPlayer {
                 LOG.info("Player: Starting main frame processing loop.");
 
                 while (!Thread.interrupted() && !stopRequested) {
+                    pauseGate.awaitResumed();
+                    if (Thread.currentThread().isInterrupted() || stopRequested) break;
                     S_loopIteration++;
                     Frame frame;
                     try {
-                        frame = grabber.grab();
+                        long grabStartNanos = System.nanoTime();
+                        frame = surfaceVisibilityGate.grab(grabber);
+                        stats.record(PlaybackStage.GRAB, System.nanoTime() - grabStartNanos);
                     } catch (FrameGrabber.Exception e) { LOG.log(Level.WARNING, "Player: Error grabbing frame.", e); if(playerEventCallback!=null) playerEventCallback.onError("Grab error",e); break; }
                     if (frame == null) { LOG.info("Player: End of stream."); if(playerEventCallback!=null) playerEventCallback.onEndOfMedia(); break; }
 
@@ -284,6 +337,7 @@ public class JavaFxSwingFFmpegPlayer {
 
                     if (!finalTimer.hasTimerStarted()) { // Still no valid timestamp to start timer
                         LOG.warning("Player [MainLoop]: Timer not started (no valid TS yet), skipping frame. TS: " + frame.timestamp);
+                        PlaybackEvents.frameDropped(frame, DropReason.CLOCK_NOT_STARTED);
                         frame.close();
                         Thread.sleep(10); continue;
                     }
@@ -291,6 +345,7 @@ public class JavaFxSwingFFmpegPlayer {
                     final long currentFrameAbsoluteTs = frame.timestamp;
                     if (currentFrameAbsoluteTs < firstValidTimestampFound && firstValidTimestampFound != 0) { // Basic check for out-of-order frames before timer anchor
                         LOG.warning("Player [MainLoop]: Frame TS " + currentFrameAbsoluteTs + " < FirstValidTS " + firstValidTimestampFound + ". Skipping.");
+                        PlaybackEvents.frameDropped(frame, DropReason.BEFORE_CLOCK_ANCHOR);
                         frame.close(); continue;
                     }
 
@@ -306,47 +361,57 @@ public class JavaFxSwingFFmpegPlayer {
                                 finalTimer.isAudioClockReliableAndActive(), hasImage, hasAudio));
                     }
 
-                    if (hasImage) {
-                        final Frame rawVideoFrame = frame.clone();
-                        frameProcessingExecutor.submit(() -> {
-                            if(stopRequested) { rawVideoFrame.close(); return; }
+                    if (hasImage && surfaceVisibilityGate.shouldPresent(frame)) {
+                        final FrameHandle rawVideoFrame = FrameHandle.of(frame.clone(), memoryBudget);
+                        final long videoQueuedAtNanos = System.nanoTime();
+                        frameProcessingExecutor.execute(new FrameHandleTask(rawVideoFrame, () -> {
+                            stats.record(PlaybackStage.QUEUE, System.nanoTime() - videoQueuedAtNanos);
+                            pauseGate.awaitResumed();
+                            if(stopRequested) { rawVideoFrame.release(); return; }
                             try {
                                 long playbackTimeAtRenderDecision = finalTimer.getCurrentRelativePlaybackTimeMicros();
                                 long videoDelayMicros = currentFrameRelativeTs - playbackTimeAtRenderDecision;
-                                long sleepMillis = 0;
-                                if (videoDelayMicros > (minMeaningfulVideoDelayMs * 1000L)) {
-                                    sleepMillis = videoDelayMicros / 1000L;
-                                    long capToUse = finalTimer.isAudioClockReliableAndActive() ? videoMaxSleepReliableMs : videoDelayCapMillisUnreliableTimer;
-                                    sleepMillis = Math.min(sleepMillis, capToUse);
+                                long capToUse = finalTimer.isAudioClockReliableAndActive() ? videoMaxSleepReliableMs : videoDelayCapMillisUnreliableTimer;
+                                // Parks until the deadline with a short spin tail instead of a millisecond sleep.
+                                long lateNanos = presentationScheduler.awaitDelay(Math.min(videoDelayMicros, capToUse * 1000L));
+                                stats.record(PlaybackStage.PRESENT_LATENESS, lateNanos);
+                                if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+
+                                if (videoFrameOutputCallback != null && !stopRequested) {
+                                    videoFrameOutputCallback.onVideoFrameProcessed(rawVideoFrame, currentFrameRelativeTs);
+                                    snapshotter.present(rawVideoFrame, currentFrameRelativeTs, actualPixelFormat);
                                 }
-                                if (sleepMillis >= minMeaningfulVideoDelayMs) Thread.sleep(sleepMillis);
-
-                                if (videoFrameOutputCallback != null && !stopRequested) videoFrameOutputCallback.onVideoFrameProcessed(rawVideoFrame, currentFrameRelativeTs);
                             } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
                             catch (Exception e) { LOG.log(Level.WARNING, "Player: Error in video processing task.", e); }
-                            finally { rawVideoFrame.close(); }
-                        });
+                            finally { rawVideoFrame.release(); }
+                        }));
                     }
                     if (hasAudio && finalSoundLine != null) {
                         if (DETAILED_AUDIO_LOGGING && S_loopIteration % 10 == 1) LOG.info("Player [MainLoop]: Got audio samples. Submitting to playback. TS: " + currentFrameAbsoluteTs);
-                        final Frame audioClone = frame.clone();
-                        audioPlaybackExecutor.submit(() -> {
-                            if(stopRequested) { audioClone.close(); return; }
-                            playAudioFrameInternal(audioClone, finalSoundLine); // Use direct call or callback
-                            audioClone.close();
-                        });
+                        final FrameHandle audioClone = FrameHandle.of(frame.clone(), memoryBudget);
+                        final long audioQueuedAtNanos = System.nanoTime();
+                        audioPlaybackExecutor.execute(new FrameHandleTask(audioClone, () -> {
+                            stats.record(PlaybackStage.QUEUE, System.nanoTime() - audioQueuedAtNanos);
+                            pauseGate.awaitResumed();
+                            try {
+                                if (!stopRequested) writeAudioFrame(audioClone, finalSoundLine);
+                            } finally {
+                                audioClone.release();
+                            }
+                        }));
                     }
                     frame.close(); // Close original frame
 
                     // Main loop sleep for backpressure
                     long mainLoopSleepMillis = 0;
                     long frameReadAheadMicros = currentFrameRelativeTs - currentPlaybackTimeMicros;
-                    if (frameReadAheadMicros > maxReadAheadBufferMicros) {
-                        mainLoopSleepMillis = (frameReadAheadMicros - maxReadAheadBufferMicros) / 1000L;
+                    long readAheadLimitMicros = memoryBudget.readAheadMicros(maxReadAheadBufferMicros); // shrinks under memory pressure
+                    if (frameReadAheadMicros > readAheadLimitMicros) {
+                        mainLoopSleepMillis = (frameReadAheadMicros - readAheadLimitMicros) / 1000L;
                         long capToUse = finalTimer.isAudioClockReliableAndActive() ? generalMaxSleepMillis : mainLoopDelayCapMillisUnreliableTimer;
                         mainLoopSleepMillis = Math.min(mainLoopSleepMillis, capToUse);
                     }
-                    if (mainLoopSleepMillis >= minMeaningfulVideoDelayMs) Thread.sleep(mainLoopSleepMillis);
+                    if (mainLoopSleepMillis >= minMeaningfulSleepMs) Thread.sleep(mainLoopSleepMillis);
                     else if (!hasImage && !hasAudio) Thread.sleep(5); // Small yield if no AV data
                 }
             } catch (Exception e) {
@@ -355,6 +420,7 @@ public class JavaFxSwingFFmpegPlayer {
             } finally {
                 LOG.info("Player: Playback thread ("+Thread.currentThread().getName()+") finishing. Cleanup...");
                 stopRequested = true; // Ensure other threads/tasks know to stop
+                presentationScheduler.cancel(); // and that frames waiting to be presented stop waiting
                 cleanupPlayerResources();
                 LOG.info("Player: Playback thread ("+Thread.currentThread().getName()+") terminated.");
             }
@@ -363,6 +429,75 @@ public class JavaFxSwingFFmpegPlayer {
         playThread.start();
     }
 
+    /**
+     * Tells the player whether its video output can currently be seen. While not visible, video
+     * frames are neither converted nor delivered and the decoder skips non-reference frames;
+     * audio keeps playing. Safe to call from any thread, e.g. from JavaFX property listeners.
+     */
+    public void setVideoSurfaceVisible(boolean visible) {
+        surfaceVisibilityGate.setVisible(visible);
+    }
+
+    /**
+     * Pauses playback without releasing anything: the grabber, decoder state, queued frames and
+     * the audio line stay open, and the clock stops. Grabbing stops at the next frame; the
+     * player's threads wait without using CPU until {@link #resume()}.
+     */
+    public void pause() {
+        if (playThread == null || !playThread.isAlive() || !pauseGate.pause()) return;
+        SourceDataLine line = localSoundLine;
+        if (line != null) line.stop();
+        LOG.info("Player: Paused.");
+    }
+
+    /** Continues a paused playback where it stopped, with audio and video still in sync. */
+    public void resume() {
+        if (!pauseGate.isPaused()) return;
+        SourceDataLine line = localSoundLine;
+        if (line != null) line.start();
+        pauseGate.resume();
+        LOG.info("Player: Resumed.");
+    }
+
+    public boolean isPaused() {
+        return pauseGate.isPaused();
+    }
+
+    /**
+     * Per-stage latency histograms of this player. Also published as a JMX MBean while playing.
+     */
+    public PlayerStats getStats() {
+        return stats;
+    }
+
+    /** Native memory charged to this player; also reported in {@link #getStats()}. */
+    public NativeMemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Encodes the frame presented last as a still image, off the decode and render threads. The
+     * future fails if no frame has been presented yet or too many snapshots are already pending.
+     */
+    public CompletableFuture<Snapshot> snapshot(SnapshotFormat format) {
+        return snapshotter.snapshot(format);
+    }
+
+    public CompletableFuture<Snapshot> snapshot() {
+        return snapshot(SnapshotFormat.PNG);
+    }
+
+    // The AudioDataOutputCallback, when set, takes over writing to the line (as in the Kotlin players).
+    private void writeAudioFrame(FrameHandle audioHandle, SourceDataLine line) {
+        Frame audioFrame = audioHandle.getFrame();
+        if (audioDataOutputCallback != null) {
+            if (stopRequested || audioFrame.samples == null || !(audioFrame.samples[0] instanceof ShortBuffer)) return;
+            audioDataOutputCallback.onAudioDataAvailable((ShortBuffer) audioFrame.samples[0], line, audioHandle);
+        } else {
+            playAudioFrameInternal(audioFrame, line);
+        }
+    }
+
     private void playAudioFrameInternal(Frame audioFrame, SourceDataLine line) {
         if (stopRequested) return;
         if (line == null || !line.isOpen() /*|| !line.isRunning() LET'S TRY WITHOUT THIS CHECK FOR NOW */ || audioFrame == null || audioFrame.samples == null || audioFrame.samples[0] == null) {
@@ -376,13 +511,10 @@ public class JavaFxSwingFFmpegPlayer {
             int numSamples = samplesBuffer.remaining();
             if (numSamples == 0) return;
 
-            byte[] out = new byte[numSamples * 2]; // S16LE
-            for (int i = 0; i < numSamples; i++) {
-                short val = samplesBuffer.get(samplesBuffer.position() + i); // Absolute get
-                out[i * 2] = (byte) (val & 0xFF);
-                out[i * 2 + 1] = (byte) ((val >> 8) & 0xFF);
-            }
+            byte[] out = AudioSampleConverter.toPcm16Bytes(samplesBuffer, false); // S16LE
+            long writeStartNanos = System.nanoTime();
             int written = line.write(out, 0, out.length);
+            stats.record(PlaybackStage.AUDIO_WRITE, System.nanoTime() - writeStartNanos);
             if (DETAILED_AUDIO_LOGGING && (S_loopIteration % 10 == 1 || written < out.length) ) {
                 LOG.info("[AudioInternal] Wrote " + written + "/" + out.length + " bytes to audio line. LineAvailable after write: " + line.available() + ", Level: " + line.getLevel());
                 if (written < out.length) LOG.warning("[AudioInternal] PARTIAL WRITE to audio line!");
@@ -395,6 +527,8 @@ public class JavaFxSwingFFmpegPlayer {
     public void stop() { /* ... Same as previous correct version ... */
         LOG.info("Player: stop() method called.");
         stopRequested = true;
+        pauseGate.resume(); // waiting threads see stopRequested and drop their frames
+        presentationScheduler.cancel(); // as do frames waiting for their presentation time
         if (playThread != null && playThread.isAlive()) {
             LOG.info("Player: Interrupting playback thread: " + playThread.getName());
             playThread.interrupt();
@@ -412,6 +546,7 @@ public class JavaFxSwingFFmpegPlayer {
         }
         shutdownExecutor(frameProcessingExecutor, "VideoExecutor (from stop)");
         shutdownExecutor(audioPlaybackExecutor, "AudioExecutor (from stop)");
+        snapshotter.clear();
         playThread = null;
         LOG.info("Player: stop() method finished.");
     }
@@ -427,7 +562,9 @@ public class JavaFxSwingFFmpegPlayer {
         }
         if (localSoundLine != null) {
             if (localSoundLine.isOpen()) {
-                localSoundLine.drain(); localSoundLine.stop(); localSoundLine.close();
+                // A paused (stopped) line never drains; drop what it holds instead.
+                if (localSoundLine.isRunning()) localSoundLine.drain(); else localSoundLine.flush();
+                localSoundLine.stop(); localSoundLine.close();
                 LOG.info("Player: Audio line closed.");
             }
             localSoundLine = null;
@@ -437,6 +574,8 @@ public class JavaFxSwingFFmpegPlayer {
         shutdownExecutor(audioPlaybackExecutor, "AudioPlaybackExecutor (cleanup)");
         audioPlaybackExecutor = null;
         playbackTimer = null;
+        LOG.info("Player: Latency summary: " + stats.summary());
+        stats.unregisterMBean();
         LOG.info("Player: Resource cleanup finished.");
     }
 
@@ -446,8 +585,10 @@ public class JavaFxSwingFFmpegPlayer {
             executor.shutdown();
             try {
                 if (!executor.awaitTermination(1, TimeUnit.SECONDS)) { // Shorter wait for quicker feedback
+                    // Dropped tasks never run, so their frames are released here.
                     List<Runnable> dropped = executor.shutdownNow();
-                    LOG.warning("Player: Executor " + name + " forced shutdown. Dropped tasks: " + (dropped != null ? dropped.size() : "N/A"));
+                    int released = FrameHandleTask.releaseAll(dropped);
+                    LOG.warning("Player: Executor " + name + " forced shutdown. Dropped tasks: " + dropped.size() + ", frames released: " + released);
                     if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
                         LOG.severe("Player: Executor " + name + " did not terminate after force.");
                     }
@@ -455,7 +596,7 @@ public class JavaFxSwingFFmpegPlayer {
                     LOG.info("Player: Executor " + name + " shut down.");
                 }
             } catch (InterruptedException ie) {
-                executor.shutdownNow(); Thread.currentThread().interrupt();
+                FrameHandleTask.releaseAll(executor.shutdownNow()); Thread.currentThread().interrupt();
             }
         }
     }
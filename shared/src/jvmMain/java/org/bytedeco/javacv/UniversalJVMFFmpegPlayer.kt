@@ -1,29 +1,92 @@
 package org.bytedeco.javacv
 
+import idv.neo.ffmpeg.media.player.core.AudioSampleConverter
+import idv.neo.ffmpeg.media.player.core.OutputSizeController
+import idv.neo.ffmpeg.media.player.core.PauseGate
+import idv.neo.ffmpeg.media.player.core.SurfaceVisibilityGate
+import idv.neo.ffmpeg.media.player.core.TrickPlayController
+import idv.neo.ffmpeg.media.player.core.jfr.DropReason
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents
+import idv.neo.ffmpeg.media.player.core.memory.FrameHandle
+import idv.neo.ffmpeg.media.player.core.memory.FrameHandleTask
+import idv.neo.ffmpeg.media.player.core.memory.NativeMemoryBudget
+import idv.neo.ffmpeg.media.player.core.recording.RecordingResult
+import idv.neo.ffmpeg.media.player.core.recording.RecordingTap
+import idv.neo.ffmpeg.media.player.core.snapshot.FrameSnapshotter
+import idv.neo.ffmpeg.media.player.core.snapshot.Snapshot
+import idv.neo.ffmpeg.media.player.core.snapshot.SnapshotFormat
+import idv.neo.ffmpeg.media.player.core.source.FrameGrabberFactory
+import idv.neo.ffmpeg.media.player.core.source.PipelinedFrameGrabber
+import idv.neo.ffmpeg.media.player.core.source.PrefetchedSource
+import idv.neo.ffmpeg.media.player.core.source.PreopenedGrabberPool
+import idv.neo.ffmpeg.media.player.core.stats.PlaybackStage
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats
 import javax.sound.sampled.*
+import java.io.File
 import java.nio.ShortBuffer
-import java.nio.ByteBuffer
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 import java.util.concurrent.ThreadFactory
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.locks.LockSupport
 import java.util.logging.Level
 import java.util.logging.Logger
+import kotlin.math.abs
 
 class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
 
     private val videoFrameOutputCallback: VideoFrameOutputCallback = builder.videoFrameOutputCallback
     private val audioDataOutputCallback: AudioDataOutputCallback? = builder.audioDataOutputCallback
     private val playerEventCallback: PlayerEventCallback? = builder.playerEventCallback
+    private val recordingTap: RecordingTap? = if (builder.recordable) RecordingTap() else null
+    private val grabberFactory: FrameGrabberFactory = recordingTap?.grabberFactory() ?: builder.grabberFactory
+    private val grabberPool: PreopenedGrabberPool? = builder.grabberPool
 
-    private var grabber: FFmpegFrameGrabber? = null
-    private var localSoundLine: SourceDataLine? = null
+    private var grabber: FrameGrabber? = null
+    @Volatile private var localSoundLine: SourceDataLine? = null
     private var frameProcessingExecutor: ExecutorService? = null
     private var audioPlaybackExecutor: ExecutorService? = null
     private var playbackTimer: PlaybackTimer? = null
     @Volatile private var playThread: Thread? = null
     @Volatile private var stopRequested: Boolean = false
     private var grabAttemptCounter: Int = 0
+    private val surfaceVisibilityGate = SurfaceVisibilityGate()
+    private val pauseGate = PauseGate()
+    private val outputSizeController = OutputSizeController()
+    private val trickPlay = TrickPlayController(builder.keyFrameOnlyRateThreshold)
+    private val snapshotter = FrameSnapshotter()
+    private var audioLinePrimed: Boolean = false // audio thread only
+
+    // Source switching (zapTo): the play thread takes pendingSourcePath at the top of its loop with
+    // getAndSet, so a zapTo() racing with it is kept for the next pass rather than lost.
+    // Queued video/audio tasks of an earlier sourceGeneration are dropped.
+    private val pendingSourcePath = AtomicReference<String?>(null)
+    @Volatile private var sourceSwitchRequestedNanos: Long = 0L
+    @Volatile private var sourceGeneration: Int = 0
+    @Volatile private var switchAwaitingFirstFrame: Int = -1
+
+    // Playlist (startPlaylist): the item after the current one is prefetched while it plays and taken
+    // over at its end. The fields below the volatile ones belong to the play thread.
+    @Volatile private var playlist: List<String> = emptyList()
+    @Volatile private var playlistLoop: Boolean = false
+    @Volatile private var currentPlaylistIndex: Int = -1
+    private var nextPlaylistItem: PrefetchedSource? = null
+    private var nextPlaylistIndex: Int = -1
+    private var prefetchedAfterIndex: Int = -1
+    private var playlistItemFrames: PrefetchedSource? = null
+
+    /**
+     * Per-stage latency histograms of this player. Also published as a JMX MBean while playing.
+     */
+    val stats = PlayerStats("UniversalJVMFFmpegPlayer")
+
+    /**
+     * Native memory charged to this player (frames in flight, queued packets). Read-ahead shrinks
+     * as it or the process nears its limit; reported in [stats].
+     */
+    val memoryBudget = NativeMemoryBudget("UniversalJVMFFmpegPlayer").also { stats.memoryBudget = it }
 
     // Sync parameters
     private val maxReadAheadBufferMicros: Long = builder.maxReadAheadBufferMicros
@@ -31,41 +94,54 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
     private val videoMaxSleepReliableMs: Long = builder.videoMaxSleepReliableMs
     private val mainLoopDelayCapMillisUnreliableTimer: Long = builder.mainLoopDelayCapMillisUnreliableTimer
     private val generalMaxSleepMillis: Long = builder.generalMaxSleepMillis
-    private val minMeaningfulVideoDelayMs: Long = builder.minMeaningfulVideoDelayMs
 
 
     companion object {
         private val LOG: Logger = Logger.getLogger(UniversalJVMFFmpegPlayer::class.java.name)
         @Volatile @JvmStatic var S_loopIteration: Int = 0
         private const val KOTLIN_DETAILED_AUDIO_LOGGING = true
+        // Trick play: full-decode frames this late are dropped; beyond the resync lag the rate clock restarts.
+        private const val TRICK_PLAY_LATE_NANOS = 100_000_000L
+        private const val TRICK_PLAY_RESYNC_NANOS = 1_000_000_000L
+        private const val PLAYLIST_TAKE_TIMEOUT_MILLIS = 5000L
     }
 
     // --- PlaybackTimer Inner Class (修正) ---
     private class PlaybackTimer {
         private var timerStartTimeNanos: Long = -1L
+        private var pausedNanosAtStart: Long = 0L
         private var timerFirstFrameAbsoluteTimestampMicros: Long = -1L
         private val soundLine: SourceDataLine?
+        private val pauseGate: PauseGate
         private var timerStarted: Boolean = false
         private var soundLineClockSuccessfullyUsed: Boolean = false
         private var soundLineEverRan: Boolean = false
+        private var clockSource: String? = null
+        // A line reused across a source switch keeps counting; positions are taken relative to start().
+        private var soundLineBaseMicros: Long = 0L
 
-        constructor(soundLine: SourceDataLine?) {
+        constructor(soundLine: SourceDataLine?, pauseGate: PauseGate) {
             this.soundLine = soundLine
+            this.pauseGate = pauseGate
         }
 
-        constructor() {
+        constructor(pauseGate: PauseGate) {
             this.soundLine = null
+            this.pauseGate = pauseGate
         }
 
-        fun start(firstValidFrameTimestampMicros: Long) {
+        /** Starts the clock at [positionMicros] past the first frame, e.g. where trick play stopped. */
+        fun start(firstValidFrameTimestampMicros: Long, positionMicros: Long = 0L) {
             if (timerStarted) {
                 return
             }
             this.timerFirstFrameAbsoluteTimestampMicros = firstValidFrameTimestampMicros
-            this.timerStartTimeNanos = System.nanoTime()
+            this.timerStartTimeNanos = System.nanoTime() - positionMicros * 1000L
+            this.pausedNanosAtStart = pauseGate.pausedNanos
             this.timerStarted = true
             this.soundLineClockSuccessfullyUsed = false
             this.soundLineEverRan = false
+            this.soundLineBaseMicros = (soundLine?.microsecondPosition ?: 0L) - positionMicros
             if (KOTLIN_DETAILED_AUDIO_LOGGING) {
                 if (soundLine != null) {
                     LOG.info("PlaybackTimer (${this.hashCode().toString(16)}): Started. First frame TS (abs): $firstValidFrameTimestampMicros us. Will attempt to use soundLine. System time recorded.")
@@ -84,20 +160,29 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                     if (KOTLIN_DETAILED_AUDIO_LOGGING) LOG.info("PlaybackTimer (${this.hashCode().toString(16)}): SoundLine is NOW RUNNING. Will use its position.")
                 }
                 soundLineClockSuccessfullyUsed = true
-                return soundLine.microsecondPosition
+                val audioPositionMicros = soundLine.microsecondPosition - soundLineBaseMicros
+                noteClockSource(PlaybackEvents.CLOCK_AUDIO_LINE, audioPositionMicros)
+                return audioPositionMicros
             } else {
                 if (soundLineClockSuccessfullyUsed) {
                     if (KOTLIN_DETAILED_AUDIO_LOGGING) LOG.warning("PlaybackTimer (${this.hashCode().toString(16)}): SoundLine was used but is NOT RUNNING NOW. Reverting to System.nanoTime() based progress.")
                 }
                 soundLineClockSuccessfullyUsed = false
-                val systemDurationMicros = (System.nanoTime() - timerStartTimeNanos) / 1000L
+                val systemDurationMicros = (System.nanoTime() - timerStartTimeNanos - (pauseGate.pausedNanos - pausedNanosAtStart)) / 1000L
                 if (soundLine != null && (S_loopIteration < 20 || S_loopIteration % 100 == 1)) {
                     if (KOTLIN_DETAILED_AUDIO_LOGGING) LOG.warning("PlaybackTimer (${this.hashCode().toString(16)}): Using System.nanoTime() for elapsed. SystemDuration: $systemDurationMicros us. SoundLine state: isOpen=${soundLine.isOpen}, isRunning=${soundLine.isRunning}, EverRan=$soundLineEverRan")
                 }
+                noteClockSource(PlaybackEvents.CLOCK_SYSTEM, systemDurationMicros)
                 return systemDurationMicros
             }
         }
 
+        private fun noteClockSource(source: String, positionMicros: Long) {
+            if (clockSource == source) return
+            PlaybackEvents.clockSourceSwitch(clockSource, source, positionMicros)
+            clockSource = source
+        }
+
         fun isAudioClockActive(): Boolean {
             if (!timerStarted || soundLine == null) return false
             return soundLine.isOpen && soundLine.isRunning
@@ -111,12 +196,14 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
     }
     // --- End PlaybackTimer ---
 
+    /** Receives each due video frame. The player releases [videoFrame] when this returns; retain it to keep it. */
     fun interface VideoFrameOutputCallback {
-        fun onVideoFrameProcessed(videoFrame: Frame?, relativeTimestampMicros: Long)
+        fun onVideoFrameProcessed(videoFrame: FrameHandle, relativeTimestampMicros: Long)
     }
 
+    /** Writes audio instead of the player. The player releases [originalFrame] when this returns. */
     fun interface AudioDataOutputCallback {
-        fun onAudioDataAvailable(samples: ShortBuffer?, lineToWriteTo: SourceDataLine?, originalFrame: Frame?)
+        fun onAudioDataAvailable(samples: ShortBuffer?, lineToWriteTo: SourceDataLine?, originalFrame: FrameHandle)
     }
 
     interface PlayerEventCallback {
@@ -131,33 +218,71 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
         internal val playerEventCallback: PlayerEventCallback?
     ) {
         internal var audioDataOutputCallback: AudioDataOutputCallback? = null
+        internal var grabberFactory: FrameGrabberFactory = FrameGrabberFactory.DEFAULT
+        internal var grabberPool: PreopenedGrabberPool? = null
         internal var maxReadAheadBufferMicros: Long = 700 * 1000L
         internal var videoDelayCapMillisUnreliableTimer: Long = 1000L
         internal var videoMaxSleepReliableMs: Long = 1000L
         internal var mainLoopDelayCapMillisUnreliableTimer: Long = 200L
         internal var generalMaxSleepMillis: Long = 2000L
-        internal var minMeaningfulVideoDelayMs: Long = 8L
+        internal var keyFrameOnlyRateThreshold: Double = TrickPlayController.DEFAULT_KEY_FRAME_ONLY_ABOVE
+        internal var recordable: Boolean = false
 
         fun audioDataOutputCallback(callback: AudioDataOutputCallback?) = apply { this.audioDataOutputCallback = callback }
+        fun grabberFactory(factory: FrameGrabberFactory) = apply { this.grabberFactory = factory }
+        /** Sources held by [pool] are taken from it on start and [zapTo]; sources switched away from go back to it. */
+        fun grabberPool(pool: PreopenedGrabberPool?) = apply { this.grabberPool = pool }
         fun maxReadAheadBufferMicros(value: Long) = apply { if (value > 0) this.maxReadAheadBufferMicros = value }
         fun videoDelayCapMillisUnreliableTimer(value: Long) = apply { if (value > 0) this.videoDelayCapMillisUnreliableTimer = value }
         fun videoMaxSleepReliableMs(value: Long) = apply { if (value > 0) this.videoMaxSleepReliableMs = value }
         fun mainLoopDelayCapMillisUnreliableTimer(value: Long) = apply { if (value > 0) this.mainLoopDelayCapMillisUnreliableTimer = value }
         fun generalMaxSleepMillis(value: Long) = apply { if (value > 0) this.generalMaxSleepMillis = value }
-        fun minMeaningfulVideoDelayMs(value: Long) = apply { if (value >= 0) this.minMeaningfulVideoDelayMs = value }
+        /** Fast-forward rates above this decode key frames only; see [setPlaybackRate]. */
+        fun keyFrameOnlyRateThreshold(value: Double) = apply { if (value >= 1.0) this.keyFrameOnlyRateThreshold = value }
+        /**
+         * Reads sources through a [RecordingTap] so that [startRecording] can be used. The tap opens
+         * the sources itself, so [grabberFactory] is then not used.
+         */
+        fun recordable(value: Boolean) = apply { this.recordable = value }
 
         fun build(): UniversalJVMFFmpegPlayer = UniversalJVMFFmpegPlayer(this)
     }
 
-    fun start(mediaPath: String) {
+    fun start(mediaPath: String) = startPlayback(mediaPath, emptyList(), false)
+
+    /**
+     * Plays [mediaPaths] back to back without a gap. While an item plays, the next one is opened
+     * and its first frames are decoded in the background (see [PrefetchedSource]); at the end of
+     * the item the player carries on with it on the same audio line and clock, its timestamps
+     * following on from the previous item's. With [loop] the list starts over after the last
+     * item, otherwise onEndOfMedia is reported after it. Items that cannot be opened are skipped.
+     * [zapTo] ends the playlist.
+     */
+    @JvmOverloads
+    fun startPlaylist(mediaPaths: List<String>, loop: Boolean = false) {
+        require(mediaPaths.isNotEmpty()) { "Playlist is empty" }
+        startPlayback(mediaPaths[0], mediaPaths.toList(), loop)
+    }
+
+    /** Index of the playlist item playing, or -1 when not playing a playlist. */
+    val playlistIndex: Int get() = currentPlaylistIndex
+
+    private fun startPlayback(mediaPath: String, items: List<String>, loop: Boolean) {
         if (playThread?.isAlive == true) {
             LOG.warning("Player: start() called, but already running.")
             return
         }
         stopRequested = false
+        pendingSourcePath.set(null)
+        playlist = items
+        playlistLoop = loop
+        currentPlaylistIndex = if (items.isEmpty()) -1 else 0
+        pauseGate.resume()
+        trickPlay.setRate(1.0)
 
-        val videoFrameProcessorFactory = ThreadFactory { r -> Thread(r, "Player-VideoProcessor").apply { isDaemon = true } }
-        val audioProcessorFactory = ThreadFactory { r -> Thread(r, "Player-AudioProcessor").apply { isDaemon = true } }
+        val videoFrameProcessorFactory: ThreadFactory = stats.threadFactory("Player-VideoProcessor", daemon = true)
+        val audioProcessorFactory: ThreadFactory = stats.threadFactory("Player-AudioProcessor", daemon = true)
+        stats.registerMBean()
 
         playThread = Thread {
             S_loopIteration = 0
@@ -172,24 +297,31 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
             this.grabber = null
             this.localSoundLine = null
             this.playbackTimer = null
+            this.audioLinePrimed = false
+            surfaceVisibilityGate.reset(null)
+            outputSizeController.reset()
+            snapshotter.clear()
+            this.nextPlaylistItem = null
+            this.playlistItemFrames = null
+            this.prefetchedAfterIndex = -1
 
             LOG.info("Player-Thread (${Thread.currentThread().name}): Starting playback logic for: $mediaPath")
-            var currentGrabber: FFmpegFrameGrabber? = null
 
             try {
-                LOG.info("Player: Initializing FFmpegFrameGrabber for: $mediaPath")
-                val tempGrabber = FFmpegFrameGrabber(mediaPath)
-                LOG.info("Player: Calling grabber.start()...")
-                tempGrabber.start()
-                currentGrabber = tempGrabber
+                LOG.info("Player: Initializing FrameGrabber for: $mediaPath")
+                var currentMediaPath = mediaPath
+                var currentGrabber = openSource(mediaPath, null)
                 this.grabber = currentGrabber
 
-                val actualPixelFormat = currentGrabber.pixelFormat
-                val frameWidth = currentGrabber.imageWidth
-                val frameHeight = currentGrabber.imageHeight
-                val frameRate = currentGrabber.frameRate
-                val audioChannels = currentGrabber.audioChannels
-                val sampleRate = currentGrabber.sampleRate
+                // This class lives in org.bytedeco.javacv, where Kotlin property syntax resolves to
+                // FrameGrabber's protected fields (never set when opening a file) instead of
+                // FFmpegFrameGrabber's getters, which read the opened streams. Call the getters.
+                var actualPixelFormat = currentGrabber.getPixelFormat()
+                val frameWidth = currentGrabber.getImageWidth()
+                val frameHeight = currentGrabber.getImageHeight()
+                val frameRate = currentGrabber.getFrameRate()
+                var audioChannels = currentGrabber.getAudioChannels()
+                val sampleRate = currentGrabber.getSampleRate()
 
                 LOG.info("Player: Grabber started. PixelFormat:${actualPixelFormat}, ImageW/H:${frameWidth}/${frameHeight}, AudioChannels:${audioChannels}, SampleRate:${sampleRate}, FrameRate:${frameRate}")
 
@@ -202,33 +334,24 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                 playerEventCallback?.onVideoDimensionsDetected(frameWidth, frameHeight, actualPixelFormat)
 
                 if (audioChannels > 0) {
-                    val audioFormat = AudioFormat(sampleRate.toFloat(), 16, audioChannels, true, true)
-                    val info = DataLine.Info(SourceDataLine::class.java, audioFormat)
-                    if (!AudioSystem.isLineSupported(info)) {
-                        throw LineUnavailableException("Audio format $audioFormat not supported by AudioSystem.")
-                    }
-                    localSoundLine = (AudioSystem.getLine(info) as SourceDataLine).apply {
-                        var bytesPerFrame = audioFormat.frameSize
-                        if (bytesPerFrame == AudioSystem.NOT_SPECIFIED) {
-                            bytesPerFrame = (audioFormat.sampleSizeInBits / 8) * audioFormat.channels
-                        }
-                        val bufferTimeMillis = 750
-                        val desiredBufferSize = (bytesPerFrame * audioFormat.frameRate * (bufferTimeMillis / 1000.0f)).toInt()
-                        LOG.info("Player: Desired audio buffer size: $desiredBufferSize bytes for $bufferTimeMillis ms.")
-                        open(audioFormat, desiredBufferSize)
-                        start()
-                    }
-                    playbackTimer = PlaybackTimer(localSoundLine)
-                    LOG.info("Player: Audio line opened (buffer: ${localSoundLine?.bufferSize} bytes) and started.")
+                    localSoundLine = openSoundLine(sampleRate, audioChannels)
+                    playbackTimer = PlaybackTimer(localSoundLine, pauseGate)
                 } else {
-                    playbackTimer = PlaybackTimer()
+                    playbackTimer = PlaybackTimer(pauseGate)
                     LOG.info("Player: No audio channels. PlaybackTimer uses System.nanoTime().")
                 }
 
-                val currentTimer = playbackTimer ?: throw IllegalStateException("PlaybackTimer not initialized")
-                val finalSoundLineRef = localSoundLine
+                var currentTimer = playbackTimer ?: throw IllegalStateException("PlaybackTimer not initialized")
+                var soundLine = localSoundLine
+                var lastVideoMicros = Long.MIN_VALUE // absolute timestamp of the last video frame handed to the video executor
+                // Playlist items after the first are shifted by timestampOffsetMicros to follow on from itemEndMicros.
+                var timestampOffsetMicros = 0L
+                var itemEndMicros = Long.MIN_VALUE
+                var videoFrameMicros = frameIntervalMicros(frameRate)
+                var playlistFailures = 0
 
-                if (finalSoundLineRef != null) {
+                val warmupSoundLine = soundLine
+                if (warmupSoundLine != null) {
                     LOG.info("Player: --- Starting Audio Warm-up Stage ---")
                     for (warmupIter in 0 until 30) {
                         if (stopRequested || Thread.currentThread().isInterrupted) { LOG.info("Player: [Warmup] Interrupted."); break }
@@ -241,7 +364,7 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                         this.grabAttemptCounter++
 
                         if (!currentTimer.hasTimerStarted()) {
-                            if (warmupFrame.timestamp > 0L || currentGrabber.audioChannels == 0) { //  Ensure Long comparison
+                            if (warmupFrame.timestamp > 0L || audioChannels == 0) { //  Ensure Long comparison
                                 LOG.info("Player [Warmup, Iter $S_loopIteration] First frame for timer (TS_abs: ${warmupFrame.timestamp}us). Starting PlaybackTimer.")
                                 currentTimer.start(warmupFrame.timestamp)
                             } else if (warmupFrame.timestamp == 0L && KOTLIN_DETAILED_AUDIO_LOGGING) {
@@ -250,21 +373,21 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                         }
 
                         if (warmupFrame.samples != null && warmupFrame.samples[0] != null) {
-                            val audioFrameToWarm = warmupFrame.clone()
-                            audioPlaybackExecutor?.submit {
-                                if (stopRequested) { audioFrameToWarm.close(); return@submit }
+                            val audioFrameToWarm = FrameHandle.of(warmupFrame.clone(), memoryBudget)
+                            audioPlaybackExecutor?.execute(FrameHandleTask(audioFrameToWarm) {
+                                if (stopRequested) { audioFrameToWarm.release(); return@FrameHandleTask }
                                 try {
                                     if (audioDataOutputCallback != null) {
-                                        audioDataOutputCallback.onAudioDataAvailable(audioFrameToWarm.samples[0] as? ShortBuffer, finalSoundLineRef, audioFrameToWarm)
+                                        audioDataOutputCallback.onAudioDataAvailable(audioFrameToWarm.frame.samples[0] as? ShortBuffer, warmupSoundLine, audioFrameToWarm)
                                     } else {
-                                        playAudioFrameInternal(audioFrameToWarm, finalSoundLineRef)
+                                        playAudioFrameInternal(audioFrameToWarm.frame, warmupSoundLine)
                                     }
                                 } catch (e: Exception) {
                                     LOG.log(Level.WARNING, "[Warmup] Audio submission/processing error", e)
                                 } finally {
-                                    audioFrameToWarm.close()
+                                    audioFrameToWarm.release()
                                 }
-                            }
+                            })
                         }
                         warmupFrame.close()
                         try { Thread.sleep(5) } catch (e: InterruptedException) { Thread.currentThread().interrupt(); break }
@@ -282,24 +405,189 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                 LOG.info("Player: Starting main processing loop...")
 
                 while (!Thread.currentThread().isInterrupted && !stopRequested) {
+                    pauseGate.awaitResumed()
+                    if (Thread.currentThread().isInterrupted || stopRequested) break
+
+                    val switchPath = pendingSourcePath.getAndSet(null)
+                    if (switchPath != null) {
+                        val next = try {
+                            openSource(switchPath, soundLine?.format)
+                        } catch (e: Exception) {
+                            LOG.log(Level.WARNING, "Player: Could not open $switchPath; staying on $currentMediaPath.", e)
+                            playerEventCallback?.onError("Could not open $switchPath", e)
+                            null
+                        }
+                        val nextWidth = next?.getImageWidth() ?: 0
+                        val nextHeight = next?.getImageHeight() ?: 0
+                        if (next != null && (nextWidth <= 0 || nextHeight <= 0)) {
+                            LOG.warning("Player: $switchPath has invalid video dimensions ${nextWidth}x$nextHeight; staying on $currentMediaPath.")
+                            playerEventCallback?.onError("Invalid video dimensions in $switchPath", null)
+                            retireSource(switchPath, next)
+                        } else if (next != null) {
+                            // Everything queued from the old source is dropped from here on.
+                            sourceGeneration++
+                            surfaceVisibilityGate.reset(currentGrabber)
+                            outputSizeController.reset(currentGrabber)
+                            retireSource(currentMediaPath, currentGrabber)
+                            currentGrabber = next
+                            currentMediaPath = switchPath
+                            this.grabber = next
+                            actualPixelFormat = next.getPixelFormat()
+                            audioChannels = next.getAudioChannels()
+
+                            val reusableLine = soundLine
+                            if (audioChannels > 0 && reusableLine != null && !audioMatchesLine(next, reusableLine)) {
+                                LOG.info("Player: $switchPath cannot be resampled to the open audio line; reopening it.")
+                                closeSoundLine(reusableLine, drain = false)
+                                soundLine = null
+                            }
+                            if (audioChannels > 0 && soundLine == null) {
+                                soundLine = openSoundLine(next.getSampleRate(), audioChannels)
+                            } else {
+                                soundLine?.let { it.stop(); it.flush(); it.start() }
+                            }
+                            localSoundLine = soundLine
+                            currentTimer = if (audioChannels > 0) PlaybackTimer(soundLine, pauseGate) else PlaybackTimer(pauseGate)
+                            playbackTimer = currentTimer
+                            lastVideoMicros = Long.MIN_VALUE
+                            closePlaylistPrefetch()
+                            timestampOffsetMicros = 0L
+                            itemEndMicros = Long.MIN_VALUE
+                            videoFrameMicros = frameIntervalMicros(next.getFrameRate())
+                            switchAwaitingFirstFrame = sourceGeneration
+                            LOG.info("Player: Switched to $switchPath after ${(System.nanoTime() - sourceSwitchRequestedNanos) / 1_000_000} ms; waiting for its first frame.")
+                            playerEventCallback?.onVideoDimensionsDetected(nextWidth, nextHeight, actualPixelFormat)
+                            playerEventCallback?.onPlaybackStarted()
+                        }
+                    }
+
+                    if (playlist.isNotEmpty() && prefetchedAfterIndex != currentPlaylistIndex) {
+                        prefetchedAfterIndex = currentPlaylistIndex
+                        prefetchPlaylistItem(currentPlaylistIndex + 1, soundLine?.format)
+                    }
+                    val failedItem = nextPlaylistItem?.takeIf { it.hasFailed }
+                    if (failedItem != null) {
+                        // Skipped now rather than at the boundary, so the item after it is warm in time.
+                        LOG.warning("Player: Skipping playlist item ${failedItem.mediaPath}; it could not be opened.")
+                        playerEventCallback?.onError("Could not open ${failedItem.mediaPath}", null)
+                        failedItem.close()
+                        nextPlaylistItem = null
+                        if (++playlistFailures < playlist.size) prefetchPlaylistItem(nextPlaylistIndex + 1, soundLine?.format)
+                    }
+
+                    if (trickPlay.isActive && currentTimer.hasTimerStarted()) {
+                        // Queued frames of normal playback are dropped and audio is silenced until the rate is 1.0 again.
+                        sourceGeneration++
+                        surfaceVisibilityGate.reset(currentGrabber)
+                        soundLine?.let { it.stop(); it.flush() }
+                        val firstFrameMicros = currentTimer.getFirstFrameAbsoluteTimestampMicros()
+                        // Video is handed out up to the read-ahead before the clock; start from the picture on screen.
+                        val fromMicros = if (lastVideoMicros != Long.MIN_VALUE) lastVideoMicros else firstFrameMicros + currentTimer.elapsedMicros()
+                        val resumeAtMicros = runTrickPlay(currentGrabber, fromMicros, firstFrameMicros, timestampOffsetMicros, actualPixelFormat)
+                        if (resumeAtMicros == null) {
+                            LOG.info("Player: End of media reached in trick play.")
+                            playerEventCallback?.onEndOfMedia()
+                            break
+                        }
+                        if (Thread.currentThread().isInterrupted || stopRequested) break
+                        trickPlay.exit(currentGrabber, resumeAtMicros - timestampOffsetMicros)
+                        sourceGeneration++
+                        soundLine?.let { it.flush(); if (!pauseGate.isPaused) it.start() }
+                        currentTimer = if (audioChannels > 0) PlaybackTimer(soundLine, pauseGate) else PlaybackTimer(pauseGate)
+                        currentTimer.start(firstFrameMicros, resumeAtMicros - firstFrameMicros)
+                        playbackTimer = currentTimer
+                        lastVideoMicros = Long.MIN_VALUE
+                        itemEndMicros = Long.MIN_VALUE
+                        LOG.info("Player: Normal playback continues at ${resumeAtMicros - firstFrameMicros} us.")
+                        continue
+                    }
+
+                    outputSizeController.apply(currentGrabber)
                     S_loopIteration++
                     this.grabAttemptCounter++
                     var frame: Frame? = null
                     try {
-                        frame = currentGrabber.grab()
+                        val grabStartNanos = System.nanoTime()
+                        val grabEvent = PlaybackEvents.beginGrab()
+                        // The first frames of a playlist item were decoded while the previous one played.
+                        val prefetchedFrame = playlistItemFrames?.pollFrame()
+                        if (prefetchedFrame == null) playlistItemFrames?.let { it.close(); playlistItemFrames = null }
+                        frame = prefetchedFrame ?: surfaceVisibilityGate.grab(currentGrabber)
+                        stats.record(PlaybackStage.GRAB, System.nanoTime() - grabStartNanos)
+                        PlaybackEvents.endGrab(grabEvent, frame)
                     } catch (e: FrameGrabber.Exception) {
                         LOG.log(Level.WARNING, "Player: Error grabbing frame in main loop", e)
                         playerEventCallback?.onError("Error grabbing frame", e)
                         break
                     }
                     if (frame == null) {
+                        val next = nextPlaylistItem
+                        if (next != null && playlistFailures < playlist.size) {
+                            // Gapless: carry on with the prefetched item, whose frames queue up right behind this one's.
+                            nextPlaylistItem = null
+                            currentPlaylistIndex = nextPlaylistIndex
+                            val nextGrabber = next.take(PLAYLIST_TAKE_TIMEOUT_MILLIS)
+                            val nextWidth = nextGrabber?.getImageWidth() ?: 0
+                            val nextHeight = nextGrabber?.getImageHeight() ?: 0
+                            if (nextGrabber == null || nextWidth <= 0 || nextHeight <= 0) {
+                                LOG.warning("Player: Skipping playlist item ${next.mediaPath}; it could not be opened.")
+                                playerEventCallback?.onError("Could not open ${next.mediaPath}", null)
+                                next.close()
+                                if (nextGrabber != null) retireSource(next.mediaPath, nextGrabber, reusable = false)
+                                playlistFailures++
+                                continue
+                            }
+                            playlistFailures = 0
+                            // Back to the source size first, so that the sizes compared are both the sources'.
+                            outputSizeController.reset(currentGrabber)
+                            val dimensionsChanged = nextWidth != currentGrabber.getImageWidth() || nextHeight != currentGrabber.getImageHeight() ||
+                                nextGrabber.getPixelFormat() != actualPixelFormat
+                            val clockMicros = currentTimer.elapsedMicros()
+                            val firstFrameMicros = currentTimer.getFirstFrameAbsoluteTimestampMicros()
+                            val itemEnd = if (itemEndMicros != Long.MIN_VALUE) itemEndMicros else firstFrameMicros + clockMicros
+                            surfaceVisibilityGate.reset(currentGrabber)
+                            retireSource(currentMediaPath, currentGrabber, reusable = false)
+                            currentGrabber = nextGrabber
+                            currentMediaPath = next.mediaPath
+                            this.grabber = nextGrabber
+                            playlistItemFrames = next
+                            timestampOffsetMicros = itemEnd - next.firstTimestampMicros
+                            actualPixelFormat = nextGrabber.getPixelFormat()
+                            videoFrameMicros = frameIntervalMicros(nextGrabber.getFrameRate())
+
+                            val nextChannels = nextGrabber.getAudioChannels()
+                            val previousLine = soundLine
+                            if (nextChannels > 0 && previousLine != null && !audioMatchesLine(nextGrabber, previousLine)) {
+                                LOG.warning("Player: ${next.mediaPath} cannot be resampled to the open audio line; reopening it, dropping what is queued.")
+                                sourceGeneration++
+                                closeSoundLine(previousLine, drain = false)
+                                soundLine = null
+                            }
+                            if (nextChannels > 0 && soundLine == null) {
+                                soundLine = openSoundLine(nextGrabber.getSampleRate(), nextChannels)
+                                localSoundLine = soundLine
+                            }
+                            if (currentTimer.hasTimerStarted() && (soundLine !== previousLine || (nextChannels > 0) != (audioChannels > 0))) {
+                                // The clock changes source. A new line starts playing at the item boundary; the system
+                                // clock carries on from the current position.
+                                currentTimer = if (nextChannels > 0) PlaybackTimer(soundLine, pauseGate) else PlaybackTimer(pauseGate)
+                                currentTimer.start(firstFrameMicros, if (nextChannels > 0) itemEnd - firstFrameMicros else clockMicros)
+                                playbackTimer = currentTimer
+                            }
+                            audioChannels = nextChannels
+                            LOG.info("Player: Playlist item ${currentPlaylistIndex + 1}/${playlist.size}: ${next.mediaPath} continues at ${itemEnd - firstFrameMicros} us.")
+                            if (dimensionsChanged) playerEventCallback?.onVideoDimensionsDetected(nextWidth, nextHeight, actualPixelFormat)
+                            continue
+                        }
                         LOG.info("Player: [Iter $S_loopIteration] Grabber returned NULL. Ending loop.")
                         playerEventCallback?.onEndOfMedia()
                         break
                     }
+                    if (timestampOffsetMicros != 0L) frame.timestamp += timestampOffsetMicros
+                    itemEndMicros = maxOf(itemEndMicros, frameEndMicros(frame, videoFrameMicros))
 
                     if (!currentTimer.hasTimerStarted()) {
-                        if (frame.timestamp > 0L || currentGrabber.audioChannels == 0) { // Ensure Long comparison
+                        if (frame.timestamp > 0L || audioChannels == 0) { // Ensure Long comparison
                             LOG.info("Player [MainLoop, Iter $S_loopIteration] Timer not started. Starting with TS: ${frame.timestamp}us.")
                             currentTimer.start(frame.timestamp)
                         } else if (KOTLIN_DETAILED_AUDIO_LOGGING) {
@@ -308,6 +596,7 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                     }
                     if (!currentTimer.hasTimerStarted()) {
                         LOG.warning("Player [MainLoop, Iter $S_loopIteration] Timer still not started. Skipping frame.")
+                        PlaybackEvents.frameDropped(frame, DropReason.CLOCK_NOT_STARTED)
                         frame.close()
                         try { Thread.sleep(10) } catch (e: InterruptedException) { Thread.currentThread().interrupt() }
                         continue
@@ -328,7 +617,9 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                         ))
                     }
 
-                    if (hasImage) {
+                    if (hasImage && !surfaceVisibilityGate.shouldPresent(frame)) {
+                        PlaybackEvents.frameDropped(frame, DropReason.SURFACE_HIDDEN)
+                    } else if (hasImage) {
                         val videoDelayCapToUse = videoDelayCapMillisUnreliableTimer * 1000L
                         val videoDelayMicros = currentFrameRelativeTimestampMicros - currentPlaybackTimeMicros
 
@@ -337,40 +628,63 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                             // Consider if skipping is the best strategy, or just not sleeping
                         }
                         // else { // Only process if not too late, or always process and let sync handle it
-                        val rawVideoFrame = frame.clone()
-                        frameProcessingExecutor?.submit {
-                            if (stopRequested) { rawVideoFrame.close(); return@submit }
+                        val rawVideoFrame = FrameHandle.of(frame.clone(), memoryBudget)
+                        val videoStreamIndex = frame.streamIndex
+                        val videoPixelFormat = actualPixelFormat
+                        val generation = sourceGeneration
+                        val videoQueuedAtNanos = System.nanoTime()
+                        lastVideoMicros = currentFrameAbsoluteTimestampMicros
+                        frameProcessingExecutor?.execute(FrameHandleTask(rawVideoFrame) {
+                            stats.record(PlaybackStage.QUEUE, System.nanoTime() - videoQueuedAtNanos)
+                            if (stopRequested) { PlaybackEvents.frameDropped(rawVideoFrame.frame, DropReason.STOPPED); rawVideoFrame.release(); return@FrameHandleTask }
+                            pauseGate.awaitResumed()
+                            if (stopRequested) { PlaybackEvents.frameDropped(rawVideoFrame.frame, DropReason.STOPPED); rawVideoFrame.release(); return@FrameHandleTask }
+                            if (generation != sourceGeneration) { PlaybackEvents.frameDropped(rawVideoFrame.frame, DropReason.SOURCE_SWITCHED); rawVideoFrame.release(); return@FrameHandleTask }
                             try {
                                 videoFrameOutputCallback.onVideoFrameProcessed(rawVideoFrame, currentFrameRelativeTimestampMicros)
+                                PlaybackEvents.framePresented(currentFrameAbsoluteTimestampMicros, videoStreamIndex, -videoDelayMicros)
+                                snapshotter.present(rawVideoFrame, currentFrameRelativeTimestampMicros, videoPixelFormat)
+                                if (switchAwaitingFirstFrame == generation) {
+                                    switchAwaitingFirstFrame = -1
+                                    val switchNanos = System.nanoTime() - sourceSwitchRequestedNanos
+                                    stats.record(PlaybackStage.SOURCE_SWITCH, switchNanos)
+                                    LOG.info("Player: First frame of the new source presented ${switchNanos / 1_000_000} ms after zapTo().")
+                                }
                             } catch (e: Exception) {
                                 LOG.log(Level.WARNING, "Player: Exception in video frame processing task for frame RelTS ${currentFrameRelativeTimestampMicros}us.", e)
                             } finally {
-                                rawVideoFrame.close()
+                                rawVideoFrame.release()
                             }
-                        }
+                        })
                         // }
                     }
 
-                    if (hasAudio && finalSoundLineRef != null) {
-                        val audioFrameToPlay = frame.clone()
-                        audioPlaybackExecutor?.submit {
-                            if (stopRequested) { audioFrameToPlay.close(); return@submit }
+                    val audioLine = soundLine
+                    if (hasAudio && audioLine != null) {
+                        val audioFrameToPlay = FrameHandle.of(frame.clone(), memoryBudget)
+                        val generation = sourceGeneration
+                        val audioQueuedAtNanos = System.nanoTime()
+                        audioPlaybackExecutor?.execute(FrameHandleTask(audioFrameToPlay) {
+                            stats.record(PlaybackStage.QUEUE, System.nanoTime() - audioQueuedAtNanos)
+                            pauseGate.awaitResumed()
+                            if (stopRequested || generation != sourceGeneration) { audioFrameToPlay.release(); return@FrameHandleTask }
                             try {
                                 if (audioDataOutputCallback != null) {
-                                    audioDataOutputCallback.onAudioDataAvailable(audioFrameToPlay.samples[0] as? ShortBuffer, finalSoundLineRef, audioFrameToPlay)
+                                    audioDataOutputCallback.onAudioDataAvailable(audioFrameToPlay.frame.samples[0] as? ShortBuffer, audioLine, audioFrameToPlay)
                                 } else {
-                                    playAudioFrameInternal(audioFrameToPlay, finalSoundLineRef)
+                                    playAudioFrameInternal(audioFrameToPlay.frame, audioLine)
                                 }
                             } catch (e: Exception) {
-                                LOG.log(Level.WARNING, "Player: Exception in audio frame playback task for frame AbsTS ${audioFrameToPlay.timestamp}us.", e)
+                                LOG.log(Level.WARNING, "Player: Exception in audio frame playback task for frame AbsTS ${audioFrameToPlay.frame.timestamp}us.", e)
                             } finally {
-                                audioFrameToPlay.close()
+                                audioFrameToPlay.release()
                             }
-                        }
+                        })
                     }
                     frame.close()
 
-                    var sleepTimeMicros = (currentFrameRelativeTimestampMicros - currentPlaybackTimeMicros) - maxReadAheadBufferMicros
+                    // The read-ahead shrinks under memory pressure; see NativeMemoryBudget.
+                    var sleepTimeMicros = (currentFrameRelativeTimestampMicros - currentPlaybackTimeMicros) - memoryBudget.readAheadMicros(maxReadAheadBufferMicros)
                     if (sleepTimeMicros.compareTo(0L) < 0) { // <--- **修正點 2**
                         sleepTimeMicros = 0L
                     }
@@ -386,11 +700,8 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                     }
 
                     if (sleepTimeMicros.compareTo(0L) > 0) { // <--- **修正點 2**
-                        try {
-                            Thread.sleep(sleepTimeMicros / 1000L, (sleepTimeMicros % 1000L).toInt() * 1000)
-                        } catch (e: InterruptedException) {
-                            Thread.currentThread().interrupt()
-                        }
+                        // Parked rather than slept so that zapTo() can wake the loop; stop() interrupts, which also unparks.
+                        LockSupport.parkNanos(this, sleepTimeMicros * 1000L)
                     } else if (sleepTimeMicros == 0L && !hasImage && !hasAudio) {
                         try { Thread.sleep(1L) } catch (e: InterruptedException) { Thread.currentThread().interrupt() }
                     }
@@ -410,6 +721,319 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
         playThread?.start()
     }
 
+    /**
+     * Pauses playback without releasing anything: the grabber, decoder state, queued frames and
+     * the audio line stay open, and the clock stops. Grabbing stops at the next frame; the
+     * player's threads wait without using CPU until [resume]. A live network source keeps
+     * arriving meanwhile and is read late after resuming (see TimeShift for live pausing).
+     */
+    fun pause() {
+        if (playThread?.isAlive != true || !pauseGate.pause()) return
+        localSoundLine?.stop()
+        LOG.info("Player: Paused.")
+    }
+
+    /** Continues a [pause]d playback where it stopped, with audio and video still in sync. */
+    fun resume() {
+        if (!pauseGate.isPaused) return
+        localSoundLine?.start()
+        pauseGate.resume()
+        LOG.info("Player: Resumed.")
+    }
+
+    val isPaused: Boolean get() = pauseGate.isPaused
+
+    /**
+     * Sets the playback rate: 1.0 for normal playback, 2 to 32 to fast-forward, -2 to -32 to rewind
+     * (any rate from 1 to 32 either way is accepted). Audio is muted while the rate is not 1.0.
+     * Fast-forward above the builder's keyFrameOnlyRateThreshold, and rewind at any rate, decodes
+     * key frames only (see [TrickPlayController]), so the picture steps from GOP to GOP. Back at
+     * 1.0, playback continues in sync from the position reached; rewinding to the start of the
+     * media returns to 1.0 by itself. May be called from any thread.
+     * @throws IllegalArgumentException for a rate outside that range
+     */
+    fun setPlaybackRate(rate: Double) {
+        if (!trickPlay.setRate(rate)) return
+        playThread?.let { LockSupport.unpark(it) }
+    }
+
+    val playbackRate: Double get() = trickPlay.rate
+
+    /**
+     * Switches to [mediaPath] without stopping playback: the audio line, worker threads and
+     * output stay as they are, and frames of the old source still queued are dropped. A source
+     * held by the builder's [PreopenedGrabberPool] is taken from it already started, and the old
+     * source goes back to the pool (or is closed in the background). Starts playback if the
+     * player is not playing, and resumes it if it is paused: switching sources means watching the
+     * new one, and the switch latency then covers the switch alone. May be called from any thread.
+     */
+    fun zapTo(mediaPath: String) {
+        val thread = playThread
+        if (thread == null || !thread.isAlive) {
+            start(mediaPath)
+            return
+        }
+        LOG.info("Player: zapTo($mediaPath) requested.")
+        sourceSwitchRequestedNanos = System.nanoTime()
+        trickPlay.setRate(1.0)
+        playlist = emptyList()
+        currentPlaylistIndex = -1
+        pendingSourcePath.set(mediaPath)
+        resume() // the play thread waits in the pause gate before it looks for a pending switch
+        LockSupport.unpark(thread)
+    }
+
+    /**
+     * Tells the player whether its video output can currently be seen. While not visible, video
+     * frames are neither converted nor delivered and the decoder skips non-reference frames;
+     * audio keeps playing. Safe to call from any thread, e.g. from UI visibility listeners.
+     */
+    fun setVideoSurfaceVisible(visible: Boolean) {
+        surfaceVisibilityGate.setVisible(visible)
+    }
+
+    /**
+     * Tells the player the size, in pixels, of the surface its video is shown in, so frames are
+     * decoded at that size (aspect ratio kept, never enlarged) instead of the source size; 0 x 0
+     * goes back to the source size. Frames handed to the [VideoFrameOutputCallback], and snapshots,
+     * then have the reduced size; onVideoDimensionsDetected keeps reporting the source size. Takes
+     * effect on the next frame; safe to call from any thread.
+     */
+    fun setTargetSurfaceSize(width: Int, height: Int) {
+        outputSizeController.setTargetSize(width, height)
+    }
+
+    /**
+     * Encodes the frame presented last as a still image, off the decode and render threads. The
+     * future fails if no frame has been presented yet or too many snapshots are already pending.
+     */
+    @JvmOverloads
+    fun snapshot(format: SnapshotFormat = SnapshotFormat.PNG): CompletableFuture<Snapshot> = snapshotter.snapshot(format)
+
+    /**
+     * Records the playing stream into [file] without re-encoding, from the next video key frame
+     * on, while playback continues; see [RecordingTap]. The recording ends with [stopRecording],
+     * [stop], or when the player opens another source ([zapTo], the next playlist item).
+     * @throws IllegalStateException if the player was not built [Builder.recordable], nothing is
+     * playing, or a recording is already running
+     */
+    @JvmOverloads
+    fun startRecording(file: File, format: String? = null) {
+        val tap = recordingTap ?: throw IllegalStateException("Recording is not enabled; build the player with recordable(true)")
+        tap.startRecording(file, format)
+    }
+
+    /** Finishes the current recording and waits for it to be written; null if none was running. */
+    fun stopRecording(): RecordingResult? = recordingTap?.stopRecording()
+
+    val isRecording: Boolean get() = recordingTap?.isRecording == true
+
+    // Takes [mediaPath] from the pool if it holds it, else opens it here. With [lineFormat], audio
+    // is resampled to the format of the open line where the grabber allows it (FFmpegFrameGrabber
+    // even after start(); other grabbers only before), so that the line can be kept.
+    @Throws(FrameGrabber.Exception::class)
+    private fun openSource(mediaPath: String, lineFormat: AudioFormat?): FrameGrabber {
+        val pooled = grabberPool?.take(mediaPath)
+        val source = pooled ?: grabberFactory.create(mediaPath).also { (it as? PipelinedFrameGrabber)?.memoryBudget = memoryBudget }
+        if (lineFormat != null && (pooled == null || source is FFmpegFrameGrabber)) {
+            source.setSampleRate(lineFormat.sampleRate.toInt())
+            source.setAudioChannels(lineFormat.channels)
+        }
+        if (pooled != null) {
+            LOG.info("Player: Using pre-opened grabber for $mediaPath.")
+        } else {
+            LOG.info("Player: Calling grabber.start()...")
+            source.start()
+        }
+        return source
+    }
+
+    // Fast-forward or rewind on the play thread until the rate is back to 1.0, or until stop(),
+    // zapTo() or the end of the media. Frames are due when the rate-scaled clock, anchored at the
+    // last presented frame whenever the rate changes or playback resumes, reaches them. Returns the
+    // absolute timestamp to continue normal playback from, or null at the end of the media.
+    private fun runTrickPlay(grabber: FrameGrabber, fromMicros: Long, firstFrameMicros: Long, offsetMicros: Long, pixelFormat: Int): Long? {
+        LOG.info("Player: Trick play at ${trickPlay.rate}x from ${fromMicros - firstFrameMicros} us.")
+        var rate = 0.0
+        var anchorMicros = fromMicros
+        var anchorNanos = 0L
+        var positionMicros = fromMicros
+        while (!stopRequested && !Thread.currentThread().isInterrupted && pendingSourcePath.get() == null) {
+            if (pauseGate.isPaused) {
+                pauseGate.awaitResumed()
+                rate = 0.0 // re-anchor
+                continue
+            }
+            val requested = trickPlay.rate
+            if (requested == 1.0) break
+            if (requested != rate) {
+                rate = requested
+                anchorMicros = positionMicros
+                anchorNanos = System.nanoTime()
+            }
+            val speed = abs(rate)
+            val keyFramesOnly = trickPlay.keyFramesOnly(rate)
+            val frame = if (rate > 0) {
+                val next = trickPlay.grabForward(grabber, keyFramesOnly)
+                if (next == null && nextPlaylistItem != null) {
+                    LOG.info("Player: End of the playlist item reached; back to normal playback.")
+                    trickPlay.setRate(1.0)
+                    break
+                }
+                next ?: return null
+            } else {
+                val clockMicros = anchorMicros - ((System.nanoTime() - anchorNanos) / 1000L * speed).toLong()
+                val keyFrame = trickPlay.grabKeyFrameBefore(grabber, minOf(positionMicros, clockMicros) - offsetMicros)
+                if (keyFrame == null) {
+                    LOG.info("Player: Rewound to the start of the media; back to normal playback.")
+                    trickPlay.setRate(1.0)
+                    break
+                }
+                keyFrame
+            }
+            frame.timestamp += offsetMicros
+            val timestamp = frame.timestamp
+            val mediaOffsetMicros = if (rate > 0) timestamp - anchorMicros else anchorMicros - timestamp
+            val deadlineNanos = anchorNanos + (mediaOffsetMicros * 1000L / speed).toLong()
+            val lateNanos = System.nanoTime() - deadlineNanos
+            if (lateNanos > TRICK_PLAY_RESYNC_NANOS) {
+                // Decoding cannot keep up with the rate; continue from this frame rather than chase the clock.
+                anchorMicros = timestamp
+                anchorNanos = System.nanoTime()
+            } else if (!keyFramesOnly && lateNanos > TRICK_PLAY_LATE_NANOS) {
+                PlaybackEvents.frameDropped(frame, DropReason.TRICK_PLAY_LATE, lateNanos / 1000L)
+                positionMicros = timestamp
+                frame.close()
+                continue
+            } else if (!awaitTrickPlayDeadline(deadlineNanos, rate)) {
+                frame.close()
+                continue
+            }
+            positionMicros = timestamp
+            if (surfaceVisibilityGate.isVisible) {
+                presentTrickPlayFrame(frame, firstFrameMicros, pixelFormat)
+            } else {
+                PlaybackEvents.frameDropped(frame, DropReason.SURFACE_HIDDEN)
+            }
+            frame.close()
+        }
+        return positionMicros
+    }
+
+    // Parks until deadlineNanos. Returns false early when stop(), pause(), zapTo() or a rate change needs handling first.
+    private fun awaitTrickPlayDeadline(deadlineNanos: Long, rate: Double): Boolean {
+        while (true) {
+            if (stopRequested || Thread.currentThread().isInterrupted || pauseGate.isPaused || pendingSourcePath.get() != null || trickPlay.rate != rate) return false
+            val remainingNanos = deadlineNanos - System.nanoTime()
+            if (remainingNanos <= 0) return true
+            LockSupport.parkNanos(this, remainingNanos)
+        }
+    }
+
+    private fun presentTrickPlayFrame(frame: Frame, firstFrameMicros: Long, pixelFormat: Int) {
+        val videoFrame = FrameHandle.of(frame.clone(), memoryBudget)
+        val absoluteMicros = frame.timestamp
+        val relativeMicros = absoluteMicros - firstFrameMicros
+        val streamIndex = frame.streamIndex
+        val generation = sourceGeneration
+        frameProcessingExecutor?.execute(FrameHandleTask(videoFrame) {
+            pauseGate.awaitResumed()
+            if (stopRequested) { PlaybackEvents.frameDropped(videoFrame.frame, DropReason.STOPPED); videoFrame.release(); return@FrameHandleTask }
+            if (generation != sourceGeneration) { PlaybackEvents.frameDropped(videoFrame.frame, DropReason.SOURCE_SWITCHED); videoFrame.release(); return@FrameHandleTask }
+            try {
+                videoFrameOutputCallback.onVideoFrameProcessed(videoFrame, relativeMicros)
+                PlaybackEvents.framePresented(absoluteMicros, streamIndex, 0L)
+                snapshotter.present(videoFrame, relativeMicros, pixelFormat)
+            } catch (e: Exception) {
+                LOG.log(Level.WARNING, "Player: Exception in video frame processing task for trick play frame RelTS ${relativeMicros}us.", e)
+            } finally {
+                videoFrame.release()
+            }
+        })
+    }
+
+    // FFmpegFrameGrabber resamples to whatever was requested; others must already match.
+    private fun audioMatchesLine(source: FrameGrabber, line: SourceDataLine): Boolean =
+        source is FFmpegFrameGrabber ||
+            (source.getSampleRate() == line.format.sampleRate.toInt() && source.getAudioChannels() == line.format.channels)
+
+    // Hands a source switched away from back to the pool, or closes it off the play thread.
+    // Sources played to their end are not reusable.
+    private fun retireSource(mediaPath: String, source: FrameGrabber, reusable: Boolean = true) {
+        if (grabberPool != null && reusable) {
+            grabberPool.recycle(mediaPath, source)
+            return
+        }
+        Thread({
+            try {
+                source.stop()
+                source.release()
+            } catch (e: FrameGrabber.Exception) {
+                LOG.log(Level.WARNING, "Player: Exception closing $mediaPath.", e)
+            }
+        }, "Player-SourceCloser").apply { isDaemon = true }.start()
+    }
+
+    // Starts prefetching the playlist item at index (wrapping around when looping); nothing past the end.
+    private fun prefetchPlaylistItem(index: Int, lineFormat: AudioFormat?) {
+        val items = playlist
+        val nextIndex = if (index < items.size) index else if (playlistLoop && items.isNotEmpty()) 0 else return
+        val nextPath = items[nextIndex]
+        nextPlaylistIndex = nextIndex
+        nextPlaylistItem = PrefetchedSource.prefetch(nextPath) { openSource(nextPath, lineFormat) }
+    }
+
+    private fun closePlaylistPrefetch() {
+        nextPlaylistItem?.close()
+        nextPlaylistItem = null
+        playlistItemFrames?.close()
+        playlistItemFrames = null
+    }
+
+    private fun frameIntervalMicros(frameRate: Double): Long = if (frameRate > 0) (1_000_000L / frameRate).toLong() else 0L
+
+    // Where a grabbed frame ends on the media timeline: its timestamp plus the samples it holds, or one frame interval.
+    private fun frameEndMicros(frame: Frame, videoFrameMicros: Long): Long {
+        val samples = frame.samples
+        if (samples != null && samples.isNotEmpty() && samples[0] != null && frame.sampleRate > 0) {
+            val samplesPerChannel = samples[0].limit() / (if (samples.size > 1) 1 else frame.audioChannels.coerceAtLeast(1))
+            return frame.timestamp + samplesPerChannel * 1_000_000L / frame.sampleRate
+        }
+        return frame.timestamp + videoFrameMicros
+    }
+
+    @Throws(LineUnavailableException::class)
+    private fun openSoundLine(sampleRate: Int, audioChannels: Int): SourceDataLine {
+        val audioFormat = AudioFormat(sampleRate.toFloat(), 16, audioChannels, true, true)
+        val info = DataLine.Info(SourceDataLine::class.java, audioFormat)
+        if (!AudioSystem.isLineSupported(info)) {
+            throw LineUnavailableException("Audio format $audioFormat not supported by AudioSystem.")
+        }
+        val line = (AudioSystem.getLine(info) as SourceDataLine).apply {
+            var bytesPerFrame = audioFormat.frameSize
+            if (bytesPerFrame == AudioSystem.NOT_SPECIFIED) {
+                bytesPerFrame = (audioFormat.sampleSizeInBits / 8) * audioFormat.channels
+            }
+            val bufferTimeMillis = 750
+            val desiredBufferSize = (bytesPerFrame * audioFormat.frameRate * (bufferTimeMillis / 1000.0f)).toInt()
+            LOG.info("Player: Desired audio buffer size: $desiredBufferSize bytes for $bufferTimeMillis ms.")
+            open(audioFormat, desiredBufferSize)
+            start()
+        }
+        LOG.info("Player: Audio line opened (buffer: ${line.bufferSize} bytes) and started.")
+        return line
+    }
+
+    private fun closeSoundLine(line: SourceDataLine, drain: Boolean) {
+        if (!line.isOpen) return
+        if (KOTLIN_DETAILED_AUDIO_LOGGING) LOG.info("Player: ${if (drain) "Draining, stopping" else "Stopping"}, and closing audio line...")
+        // A paused (stopped) line never drains; drop what it holds instead.
+        if (drain && line.isRunning) line.drain() else line.flush()
+        line.stop()
+        line.close()
+        LOG.info("Player: Audio line processed and closed successfully.")
+    }
+
     private fun playAudioFrameInternal(audioFrame: Frame?, line: SourceDataLine?) {
         if (stopRequested) return
         if (line == null || !line.isOpen || audioFrame?.samples == null || audioFrame.samples[0] == null) {
@@ -427,14 +1051,15 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
             val numSamples = samplesBuffer.remaining()
             if (numSamples == 0) return
 
-            val outBytes = ByteArray(numSamples * 2)
-            val byteBuffer = ByteBuffer.wrap(outBytes)
+            val outBytes = AudioSampleConverter.toPcm16Bytes(samplesBuffer, bigEndian = true) // line is opened S16BE
 
-            for (i in 0 until numSamples) {
-                byteBuffer.putShort(samplesBuffer.get(samplesBuffer.position() + i))
+            if (audioLinePrimed && line.available() >= line.bufferSize) {
+                PlaybackEvents.audioUnderrun(audioFrame.timestamp, audioFrame.streamIndex, line.available(), line.bufferSize)
             }
-
+            audioLinePrimed = true
+            val writeStartNanos = System.nanoTime()
             val written = line.write(outBytes, 0, outBytes.size)
+            stats.record(PlaybackStage.AUDIO_WRITE, System.nanoTime() - writeStartNanos)
 
             if (KOTLIN_DETAILED_AUDIO_LOGGING && S_loopIteration > 0 && (S_loopIteration % 10 == 1 || written < outBytes.size)) {
                 LOG.info("[AudioInternal] Wrote $written/${outBytes.size} bytes. LineAvailable: ${line.available()}, Level: ${line.level}")
@@ -450,6 +1075,7 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
     fun stop() {
         LOG.info("Player: stop() method called.")
         stopRequested = true
+        pauseGate.resume() // waiting threads see stopRequested and drop their frames
         playThread?.interrupt()
         try {
             playThread?.join(generalMaxSleepMillis + 500)
@@ -464,6 +1090,7 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
         }
         shutdownExecutor(frameProcessingExecutor, "VideoExecutor (from stop)")
         shutdownExecutor(audioPlaybackExecutor, "AudioExecutor (from stop)")
+        snapshotter.clear()
         playThread = null
         LOG.info("Player: stop() method finished.")
     }
@@ -482,16 +1109,9 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
             }
         }
         grabber = null
+        closePlaylistPrefetch()
 
-        localSoundLine?.let { line ->
-            if (line.isOpen) {
-                if (KOTLIN_DETAILED_AUDIO_LOGGING) LOG.info("Player: Draining, stopping, and closing audio line...")
-                line.drain()
-                line.stop()
-                line.close()
-                LOG.info("Player: Audio line processed and closed successfully.")
-            }
-        }
+        localSoundLine?.let { closeSoundLine(it, drain = true) }
         localSoundLine = null
 
         shutdownExecutor(frameProcessingExecutor, "VideoFrameProcessingExecutor (cleanup)")
@@ -499,6 +1119,8 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
         shutdownExecutor(audioPlaybackExecutor, "AudioPlaybackExecutor (cleanup)")
         audioPlaybackExecutor = null
         playbackTimer = null
+        LOG.info("Player: Latency summary: ${stats.summary()}")
+        stats.unregisterMBean()
         LOG.info("Player: Resource cleanup finished.")
     }
 
@@ -510,8 +1132,10 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                 try {
                     if (!exec.awaitTermination(1500, TimeUnit.MILLISECONDS)) {
                         LOG.warning("Player: Executor $name did not terminate gracefully. Forcing shutdownNow().")
+                        // Dropped tasks never run, so their frames are released here.
                         val droppedTasks = exec.shutdownNow()
-                        LOG.warning("Player: Executor $name dropped ${droppedTasks?.size ?: "N/A"} tasks.")
+                        val released = FrameHandleTask.releaseAll(droppedTasks)
+                        LOG.warning("Player: Executor $name dropped ${droppedTasks.size} tasks, releasing $released frames.")
                         if (!exec.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
                             LOG.severe("Player: Executor $name did not terminate after force.")
                         } else {
@@ -522,7 +1146,7 @@ class UniversalJVMFFmpegPlayer private constructor(builder: Builder) {
                     }
                 } catch (ie: InterruptedException) {
                     LOG.warning("Player: Interrupted during $name shutdown. Forcing.")
-                    exec.shutdownNow()
+                    FrameHandleTask.releaseAll(exec.shutdownNow())
                     Thread.currentThread().interrupt()
                 }
             }
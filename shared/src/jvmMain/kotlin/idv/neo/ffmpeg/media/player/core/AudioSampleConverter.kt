@@ -0,0 +1,47 @@
+package idv.neo.ffmpeg.media.player.core
+
+import java.nio.ShortBuffer
+
+/**
+ * Converts the interleaved S16 samples FFmpegFrameGrabber delivers in Frame.samples[0] into the
+ * byte layout a SourceDataLine expects. Shared by the players' audio write paths.
+ *
+ * The source buffer's position is left unchanged.
+ */
+object AudioSampleConverter {
+
+    /**
+     * Returns a new array holding all remaining samples, two bytes each.
+     */
+    @JvmStatic
+    fun toPcm16Bytes(samples: ShortBuffer, bigEndian: Boolean): ByteArray {
+        val out = ByteArray(samples.remaining() * 2)
+        toPcm16Bytes(samples, bigEndian, out)
+        return out
+    }
+
+    /**
+     * Writes all remaining samples into [out], which must hold at least remaining() * 2 bytes,
+     * and returns the number of bytes written. Lets callers reuse one buffer per audio line.
+     */
+    @JvmStatic
+    fun toPcm16Bytes(samples: ShortBuffer, bigEndian: Boolean, out: ByteArray): Int {
+        val base = samples.position()
+        val count = samples.remaining()
+        require(out.size >= count * 2) { "Output buffer too small: ${out.size} < ${count * 2}" }
+        if (bigEndian) {
+            for (i in 0 until count) {
+                val v = samples.get(base + i).toInt()
+                out[i * 2] = (v shr 8).toByte()
+                out[i * 2 + 1] = v.toByte()
+            }
+        } else {
+            for (i in 0 until count) {
+                val v = samples.get(base + i).toInt()
+                out[i * 2] = v.toByte()
+                out[i * 2 + 1] = (v shr 8).toByte()
+            }
+        }
+        return count * 2
+    }
+}
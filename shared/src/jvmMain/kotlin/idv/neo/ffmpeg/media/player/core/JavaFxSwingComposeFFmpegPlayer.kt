@@ -1,14 +1,24 @@
 package idv.neo.ffmpeg.media.player.core
 
+import idv.neo.ffmpeg.media.player.core.jfr.DropReason
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents
+import idv.neo.ffmpeg.media.player.core.memory.FrameHandle
+import idv.neo.ffmpeg.media.player.core.memory.NativeMemoryBudget
+import idv.neo.ffmpeg.media.player.core.present.PresentationScheduler
+import idv.neo.ffmpeg.media.player.core.snapshot.FrameSnapshotter
+import idv.neo.ffmpeg.media.player.core.snapshot.Snapshot
+import idv.neo.ffmpeg.media.player.core.snapshot.SnapshotFormat
+import idv.neo.ffmpeg.media.player.core.source.FrameGrabberFactory
+import idv.neo.ffmpeg.media.player.core.source.PipelinedFrameGrabber
+import idv.neo.ffmpeg.media.player.core.stats.PlaybackStage
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats
 import kotlinx.coroutines.*
 import org.bytedeco.ffmpeg.global.avutil
-import org.bytedeco.javacv.FFmpegFrameGrabber
 import org.bytedeco.javacv.Frame
 import org.bytedeco.javacv.FrameGrabber
 import java.io.Closeable
-import java.nio.ByteBuffer
-import java.nio.ByteOrder
 import java.nio.ShortBuffer
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.Executors
 import java.util.logging.Level
 import java.util.logging.Logger
@@ -16,9 +26,10 @@ import javax.sound.sampled.*
 import kotlin.math.min
 import kotlin.random.Random // For random polling intervals
 
-// Type aliases and PlayerEvent remain the same
-typealias VideoFrameOutputCallback = (videoFrame: Frame, relativeTimestampMicros: Long) -> Unit
-typealias AudioDataOutputCallback = (samples: ShortBuffer, lineToWriteTo: SourceDataLine, originalFrame: Frame) -> Unit
+// Frames arrive as FrameHandles that the player releases after the callback returns;
+// retain() the handle to keep the frame longer (see FrameHandle).
+typealias VideoFrameOutputCallback = (videoFrame: FrameHandle, relativeTimestampMicros: Long) -> Unit
+typealias AudioDataOutputCallback = (samples: ShortBuffer, lineToWriteTo: SourceDataLine, originalFrame: FrameHandle) -> Unit
 typealias PlayerEventCallback = (event: PlayerEvent) -> Unit
 
 sealed interface PlayerEvent {
@@ -31,7 +42,8 @@ sealed interface PlayerEvent {
 class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
     private val videoFrameOutputCallback: VideoFrameOutputCallback,
     private val playerEventCallback: PlayerEventCallback,
-    private val audioDataOutputCallback: AudioDataOutputCallback? = null
+    private val audioDataOutputCallback: AudioDataOutputCallback? = null,
+    private val grabberFactory: FrameGrabberFactory = FrameGrabberFactory.DEFAULT
 ) : Closeable {
 
     private val playerScope = CoroutineScope(Dispatchers.Default + SupervisorJob() + CoroutineName("FFmpegPlayerScope"))
@@ -43,13 +55,33 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
     private var videoProcessingContext: ExecutorCoroutineDispatcher? = null
     private var audioProcessingContext: ExecutorCoroutineDispatcher? = null
 
-    private var grabber: FFmpegFrameGrabber? = null
-    private var localSoundLine: SourceDataLine? = null
+    private var grabber: FrameGrabber? = null
+    @Volatile private var localSoundLine: SourceDataLine? = null
+    private val surfaceVisibilityGate = SurfaceVisibilityGate()
+    private val pauseGate = PauseGate()
+    private val outputSizeController = OutputSizeController()
+    private val presentationScheduler = PresentationScheduler() // video thread only
+    private val snapshotter = FrameSnapshotter()
+    @Volatile private var videoPixelFormat = avutil.AV_PIX_FMT_BGR24
+
+    /**
+     * Per-stage latency histograms of this player. Also published as a JMX MBean while playing.
+     */
+    val stats = PlayerStats("JavaFxSwingComposeFFmpegPlayer")
+
+    /**
+     * Native memory charged to this player (frames in flight, queued packets). Read-ahead shrinks
+     * as it or the process nears its limit; reported in [stats].
+     */
+    val memoryBudget = NativeMemoryBudget("JavaFxSwingComposeFFmpegPlayer").also { stats.memoryBudget = it }
 
     // MediaClock
     @Volatile private var firstValidFrameTimestampMicros: Long = -1L
     @Volatile private var systemTimeAnchorNanos: Long = -1L
+    @Volatile private var pausedNanosAtAnchor: Long = 0L // the system time fallback stands still while paused
     @Volatile private var isMediaClockInitialized: Boolean = false
+    @Volatile private var mediaClockSource: String? = null
+    @Volatile private var audioLinePrimed: Boolean = false
 
     // Player state flags - to ensure metadata is reported only once
     @Volatile private var videoDimensionsFinalized = false
@@ -80,6 +112,7 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
         if (!isMediaClockInitialized || (this.firstValidFrameTimestampMicros <= 0L && firstFrameTimestamp >= 0L) ) {
             this.firstValidFrameTimestampMicros = firstFrameTimestamp
             this.systemTimeAnchorNanos = System.nanoTime()
+            this.pausedNanosAtAnchor = pauseGate.pausedNanos
             this.isMediaClockInitialized = true
             LOG.info("MediaClock: Initialized/Updated. FirstFrameTS: $firstValidFrameTimestampMicros us, SystemAnchor: $systemTimeAnchorNanos ns")
         }
@@ -94,43 +127,62 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
                 val audioTs = line.microsecondPosition
                 if (audioTs >= 0L) {
                     if (S_loopIteration > 0L && S_loopIteration % 200L == 1L && DETAILED_AUDIO_LOGGING) LOG.info("MediaClock: Using AudioTrack position: $audioTs µs")
+                    noteMediaClockSource(PlaybackEvents.CLOCK_AUDIO_LINE, audioTs)
                     return audioTs
                 } else if (S_loopIteration > 0L && S_loopIteration % 200L == 1L && DETAILED_AUDIO_LOGGING) LOG.warning("MediaClock: AudioTrack position negative ($audioTs µs). Falling back.")
             }
         }
-        val elapsedNanos = System.nanoTime() - systemTimeAnchorNanos
+        val elapsedNanos = System.nanoTime() - systemTimeAnchorNanos - (pauseGate.pausedNanos - pausedNanosAtAnchor)
         val estimatedMicros = elapsedNanos / 1000L
         if (S_loopIteration > 0L && S_loopIteration % 200L == 1L && DETAILED_AUDIO_LOGGING) LOG.info("MediaClock: Using System time fallback. Estimated: $estimatedMicros µs")
+        noteMediaClockSource(PlaybackEvents.CLOCK_SYSTEM, estimatedMicros)
         return estimatedMicros
     }
+
+    private fun noteMediaClockSource(source: String, positionMicros: Long) {
+        val previous = mediaClockSource
+        if (previous == source) return
+        mediaClockSource = source
+        PlaybackEvents.clockSourceSwitch(previous, source, positionMicros)
+    }
     // --- End MediaClock methods ---
 
+    @OptIn(DelicateCoroutinesApi::class) // CoroutineStart.ATOMIC for the frame tasks, see below
     fun start(mediaPath: String) {
         if (playerJob?.isActive == true) {
             LOG.warning("Player: start() called, but already running for media: ${grabber?.format}")
             return
         }
         stopRequested = false
+        pauseGate.resume()
+        presentationScheduler.reset()
         isMediaClockInitialized = false
         firstValidFrameTimestampMicros = -1L
         videoDimensionsFinalized = false
         audioParamsFinalized = false
+        mediaClockSource = null
+        audioLinePrimed = false
+        surfaceVisibilityGate.reset(null)
+        outputSizeController.reset()
+        snapshotter.clear()
 
         playerJob = playerScope.launch {
             S_loopIteration = 0L
             LOG.info("Player-Coroutine (${currentCoroutineContext()[CoroutineName]?.name}): Initializing for: $mediaPath")
             cleanupPlayerResources(releaseGrabber = true, closeSoundLine = true) // Initial cleanup
+            stats.registerMBean()
 
-            var currentGrabberInstance: FFmpegFrameGrabber? = null
+            var currentGrabberInstance: FrameGrabber? = null
             try {
-                LOG.info("Player: Creating FFmpegFrameGrabber for '$mediaPath'")
-                currentGrabberInstance = FFmpegFrameGrabber(mediaPath)
-                LOG.info("Player: Calling FFmpegFrameGrabber.start() for '$mediaPath'...")
+                LOG.info("Player: Creating FrameGrabber for '$mediaPath'")
+                currentGrabberInstance = grabberFactory.create(mediaPath)
+                (currentGrabberInstance as? PipelinedFrameGrabber)?.memoryBudget = memoryBudget
+                LOG.info("Player: Calling FrameGrabber.start() for '$mediaPath'...")
                 currentGrabberInstance.pixelFormat = avutil.AV_PIX_FMT_BGR24
                 val timeBeforeGrabberStart = System.currentTimeMillis()
                 currentGrabberInstance.start()
                 val timeAfterGrabberStart = System.currentTimeMillis()
-                LOG.info("Player: FFmpegFrameGrabber.start() returned for '$mediaPath' after ${timeAfterGrabberStart - timeBeforeGrabberStart} ms.")
+                LOG.info("Player: FrameGrabber.start() returned for '$mediaPath' after ${timeAfterGrabberStart - timeBeforeGrabberStart} ms.")
 
                 grabber = currentGrabberInstance
                 val g = grabber ?: throw FrameGrabber.Exception("Grabber became null after start assignment")
@@ -156,26 +208,40 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
                     g.releaseQuietly(); grabber = null; return@launch
                 }
 
-                videoProcessingContext = Executors.newSingleThreadExecutor { r -> Thread(r, "Player-VideoProcessor").apply { isDaemon = true } }.asCoroutineDispatcher()
-                audioProcessingContext = Executors.newSingleThreadExecutor { r -> Thread(r, "Player-AudioProcessor").apply { isDaemon = true } }.asCoroutineDispatcher()
+                videoProcessingContext = Executors.newSingleThreadExecutor(stats.threadFactory("Player-VideoProcessor", daemon = true)).asCoroutineDispatcher()
+                audioProcessingContext = Executors.newSingleThreadExecutor(stats.threadFactory("Player-AudioProcessor", daemon = true)).asCoroutineDispatcher()
 
                 playerEventCallback(PlayerEvent.PlaybackStarted)
                 LOG.info("Player: Starting main frame processing loop. Metadata will be finalized from initial frames.")
 
                 var effectiveFrameRate = 0.0
+                // VideoDimensionsDetected reports the source size, read before a target size shrinks the grabber's.
+                var sourceWidth = 0
+                var sourceHeight = 0
 
                 while (isActive && !stopRequested) {
+                    pauseGate.awaitResumedSuspending()
                     S_loopIteration++
-                    val frame = try { g.grab() } catch (e: FrameGrabber.Exception) {
+                    if (sourceWidth <= 0 || sourceHeight <= 0) {
+                        sourceWidth = g.imageWidth
+                        sourceHeight = g.imageHeight
+                    }
+                    // Metadata is finalized from converted frames, so hidden mode only starts after that.
+                    outputSizeController.apply(g)
+                    val grabStartNanos = System.nanoTime()
+                    val grabEvent = PlaybackEvents.beginGrab()
+                    val frame = try { if (videoDimensionsFinalized) surfaceVisibilityGate.grab(g) else g.grab() } catch (e: FrameGrabber.Exception) {
                         LOG.log(Level.WARNING, "Player: Error grabbing frame.", e); playerEventCallback(PlayerEvent.Error("Error grabbing frame: ${e.message}", e)); break
                     }
                     if (frame == null) {
                         LOG.info("Player: End of stream."); playerEventCallback(PlayerEvent.EndOfMedia); break
                     }
+                    stats.record(PlaybackStage.GRAB, System.nanoTime() - grabStartNanos)
+                    PlaybackEvents.endGrab(grabEvent, frame)
 
                     if (g.hasVideo() && frame.image != null && frame.imageWidth > 0 && frame.imageHeight > 0 && !videoDimensionsFinalized) {
-                        val width = frame.imageWidth
-                        val height = frame.imageHeight
+                        val width = if (sourceWidth > 0 && sourceHeight > 0) sourceWidth else frame.imageWidth
+                        val height = if (sourceWidth > 0 && sourceHeight > 0) sourceHeight else frame.imageHeight
 // **關鍵點：在 grab() 成功返回有效的圖像幀之後，從 grabber (g) 獲取 pixelFormat**
                         val currentGrabberPixelFormat = g.pixelFormat
 
@@ -191,6 +257,7 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
                         }
 
                         effectiveFrameRate = if (g.frameRate > 0.001) g.frameRate else 25.0 // 優先使用 grabber 的幀率
+                        if (pixFmtToSend != -1) videoPixelFormat = pixFmtToSend
 
                         playerEventCallback(PlayerEvent.VideoDimensionsDetected(width, height, pixFmtToSend, effectiveFrameRate))
                         videoDimensionsFinalized = true
@@ -245,7 +312,7 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
                     }
 
                     if (!isMediaClockInitialized) {
-                        LOG.warning("Player [MainLoop]: MediaClock not initialized (TS: ${frame.timestamp}). Skipping frame."); frame.close(); delay(10); continue
+                        LOG.warning("Player [MainLoop]: MediaClock not initialized (TS: ${frame.timestamp}). Skipping frame."); PlaybackEvents.frameDropped(frame, DropReason.CLOCK_NOT_STARTED); frame.close(); delay(10); continue
                     }
 
                     val currentFrameAbsoluteTs = frame.timestamp
@@ -258,23 +325,30 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
                     }
 
                     if (hasAudioAndReady) {
-                        val audioFrameToPlay = frame.clone()
-                        launch(audioProcessingContext!!) { try { if (!stopRequested) playAudioSample(audioFrameToPlay, localSoundLine!!) } catch (e: Exception) { LOG.log(Level.WARNING, "Audio play error.", e) } finally { audioFrameToPlay.close() } }
+                        val audioFrameToPlay = FrameHandle.of(frame.clone(), memoryBudget)
+                        val audioQueuedAtNanos = System.nanoTime()
+                        // ATOMIC start: the block runs (and releases its handle) even if the job is cancelled before it is dispatched.
+                        launch(audioProcessingContext!!, CoroutineStart.ATOMIC) { stats.record(PlaybackStage.QUEUE, System.nanoTime() - audioQueuedAtNanos); try { pauseGate.awaitResumedSuspending(); if (!stopRequested) playAudioSample(audioFrameToPlay, localSoundLine!!) } catch (e: CancellationException) { throw e } catch (e: Exception) { LOG.log(Level.WARNING, "Audio play error.", e) } finally { audioFrameToPlay.release() } }
                     }
 
-                    if (hasImageAndReady) {
-                        val videoFrameToRender = frame.clone()
-                        launch(videoProcessingContext!!) { try { if (!stopRequested) {
+                    if (hasImageAndReady && !surfaceVisibilityGate.shouldPresent(frame)) {
+                        PlaybackEvents.frameDropped(frame, DropReason.SURFACE_HIDDEN)
+                    } else if (hasImageAndReady) {
+                        val videoFrameToRender = FrameHandle.of(frame.clone(), memoryBudget)
+                        val videoStreamIndex = frame.streamIndex
+                        val videoQueuedAtNanos = System.nanoTime()
+                        launch(videoProcessingContext!!, CoroutineStart.ATOMIC) { stats.record(PlaybackStage.QUEUE, System.nanoTime() - videoQueuedAtNanos); try { pauseGate.awaitResumedSuspending(); if (!stopRequested) {
                             val clockTime = getMediaClockPositionMicros(); val delayNeeded = currentFrameRelativeTs - clockTime
-                            if (delayNeeded.compareTo(minMeaningfulSleepMs * 1000L) > 0) {
-                                val sleepMs = min(delayNeeded / 1000L, videoMaxSleepMsIfEarly)
-                                if (S_loopIteration % 50L == 1L && DETAILED_AUDIO_LOGGING) LOG.info("Video early: $sleepMs ms")
-                                if (sleepMs > 0L) delay(sleepMs)
-                            } else if (delayNeeded.compareTo(-videoCatchUpDropThresholdMicros) < 0 && effectiveFrameRate > 0.0) {
+                            // Delays (cancellably) and parks only for the last milliseconds; see PresentationScheduler.
+                            val lateNanos = presentationScheduler.awaitDelaySuspending(min(delayNeeded, videoMaxSleepMsIfEarly * 1000L))
+                            stats.record(PlaybackStage.PRESENT_LATENESS, lateNanos)
+                            if (delayNeeded.compareTo(-videoCatchUpDropThresholdMicros) < 0 && effectiveFrameRate > 0.0) {
                                 if (S_loopIteration % 50L == 1L && DETAILED_AUDIO_LOGGING) LOG.warning("Video LATE: ${-delayNeeded/1000L} ms")
                             }
                             videoFrameOutputCallback(videoFrameToRender, currentFrameRelativeTs)
-                        } } catch (e: CancellationException) { throw e } catch (e: Exception) { LOG.log(Level.WARNING, "Video process error.", e) } finally { videoFrameToRender.close() } }
+                            PlaybackEvents.framePresented(currentFrameAbsoluteTs, videoStreamIndex, -delayNeeded)
+                            snapshotter.present(videoFrameToRender, currentFrameRelativeTs, videoPixelFormat)
+                        } } catch (e: CancellationException) { throw e } catch (e: Exception) { LOG.log(Level.WARNING, "Video process error.", e) } finally { videoFrameToRender.release() } }
                     }
 
                     if ((g.hasVideo() && !videoDimensionsFinalized) || (g.hasAudio() && !audioParamsFinalized)) {
@@ -284,8 +358,9 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
                     }
                     frame.close()
                     val clockTime = getMediaClockPositionMicros(); val readAhead = currentFrameRelativeTs - clockTime
-                    if (readAhead.compareTo(maxReadAheadBufferMicros) > 0) {
-                        val sleepMs = (readAhead - maxReadAheadBufferMicros) / 1000L
+                    val readAheadLimit = memoryBudget.readAheadMicros(maxReadAheadBufferMicros) // shrinks under memory pressure
+                    if (readAhead.compareTo(readAheadLimit) > 0) {
+                        val sleepMs = (readAhead - readAheadLimit) / 1000L
                         if (sleepMs >= minMeaningfulSleepMs) { if (S_loopIteration % 100L == 1L) LOG.info("Backpressure sleep: $sleepMs ms"); delay(sleepMs) }
                     } else if (!hasImageAndReady && !hasAudioAndReady && (videoDimensionsFinalized || audioParamsFinalized)) { delay(1L) }
                 }
@@ -302,15 +377,67 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
         }
     }
 
+    /**
+     * Tells the player whether its video output can currently be seen. While not visible, video
+     * frames are neither converted nor delivered and the decoder skips non-reference frames;
+     * audio keeps playing. Safe to call from any thread.
+     */
+    fun setVideoSurfaceVisible(visible: Boolean) {
+        surfaceVisibilityGate.setVisible(visible)
+    }
+
+    /**
+     * Tells the player the size, in pixels, of the surface its video is shown in, so frames are
+     * decoded at that size (aspect ratio kept, never enlarged) instead of the source size; 0 x 0
+     * goes back to the source size. Delivered frames, and therefore snapshots, then have the
+     * reduced size; VideoDimensionsDetected keeps reporting the source size. Takes effect on the
+     * next frame; safe to call from any thread.
+     */
+    fun setTargetSurfaceSize(width: Int, height: Int) {
+        outputSizeController.setTargetSize(width, height)
+    }
+
+    /**
+     * Encodes the frame presented last as a still image, off the decode and render threads. The
+     * future fails if no frame has been presented yet or too many snapshots are already pending.
+     */
+    @JvmOverloads
+    fun snapshot(format: SnapshotFormat = SnapshotFormat.PNG): CompletableFuture<Snapshot> = snapshotter.snapshot(format)
+
+    /**
+     * Pauses playback without releasing anything: the grabber, decoder state, queued frames and
+     * the audio line stay open, and the media clock stops. Grabbing stops at the next frame; the
+     * player's coroutines suspend until [resume].
+     */
+    fun pause() {
+        if (playerJob?.isActive != true || !pauseGate.pause()) return
+        localSoundLine?.stop()
+        LOG.info("Player: Paused.")
+    }
+
+    /** Continues a [pause]d playback where it stopped, with audio and video still in sync. */
+    fun resume() {
+        if (!pauseGate.isPaused) return
+        localSoundLine?.start()
+        pauseGate.resume()
+        LOG.info("Player: Resumed.")
+    }
+
+    val isPaused: Boolean get() = pauseGate.isPaused
+
     fun stop() {
         LOG.info("Player.stop called.")
         stopRequested = true
+        pauseGate.resume()
+        presentationScheduler.cancel()
         playerJob?.cancel(CancellationException("Player stop requested by API"))
+        snapshotter.clear()
     }
 
     override fun close() {
         LOG.info("Player.close called.")
         stopRequested = true
+        presentationScheduler.cancel()
         val jobToWait = playerJob
 
         if (jobToWait != null) {
@@ -344,6 +471,7 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
         }
         // Ensure cleanup is called, especially if the job was null or didn't join cleanly.
         cleanupPlayerResources(releaseGrabber = true, closeSoundLine = true, forceShutdownExecutors = true)
+        snapshotter.clear()
         LOG.info("Player.close finished.")
     }
 
@@ -391,15 +519,21 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
         }
     }
 
-    private fun playAudioSample(audioFrame: Frame, line: SourceDataLine) {
-        audioDataOutputCallback?.let { cb -> val s = audioFrame.samples?.get(0) as? ShortBuffer; if (s != null) cb(s, line, audioFrame) else if (DETAILED_AUDIO_LOGGING && S_loopIteration % 100L == 1L) LOG.warning("Callback: no samples."); return }
+    private fun playAudioSample(audioHandle: FrameHandle, line: SourceDataLine) {
+        val audioFrame = audioHandle.frame
+        audioDataOutputCallback?.let { cb -> val s = audioFrame.samples?.get(0) as? ShortBuffer; if (s != null) cb(s, line, audioHandle) else if (DETAILED_AUDIO_LOGGING && S_loopIteration % 100L == 1L) LOG.warning("Callback: no samples."); return }
         val sb = audioFrame.samples?.get(0) as? ShortBuffer; if (sb == null || !line.isOpen) { if (DETAILED_AUDIO_LOGGING && S_loopIteration % 100L == 1L) LOG.warning("PlayAudio: samples null or line closed."); return }
         val numSamples = sb.remaining(); if (numSamples == 0) return
-        if (!line.isRunning && line.isOpen) { line.start(); if (!line.isRunning && DETAILED_AUDIO_LOGGING) LOG.warning("Line re-started, still not running.") }
-        val bb = ByteBuffer.allocate(numSamples * 2); bb.order(if (line.format.isBigEndian) ByteOrder.BIG_ENDIAN else ByteOrder.LITTLE_ENDIAN)
-        for (i in 0 until numSamples) bb.putShort(sb.get(sb.position() + i)); val data = bb.array()
+        if (!line.isRunning && line.isOpen && !pauseGate.isPaused) { line.start(); if (!line.isRunning && DETAILED_AUDIO_LOGGING) LOG.warning("Line re-started, still not running.") }
+        val data = AudioSampleConverter.toPcm16Bytes(sb, line.format.isBigEndian)
+        if (audioLinePrimed && line.available() >= line.bufferSize) {
+            PlaybackEvents.audioUnderrun(audioFrame.timestamp, audioFrame.streamIndex, line.available(), line.bufferSize)
+        }
+        audioLinePrimed = true
         try {
+            val writeStartNanos = System.nanoTime()
             val written = line.write(data, 0, data.size)
+            stats.record(PlaybackStage.AUDIO_WRITE, System.nanoTime() - writeStartNanos)
             if (written < data.size && DETAILED_AUDIO_LOGGING) LOG.warning("Partial write: $written of ${data.size}.")
             if (S_loopIteration % 200L == 1L && DETAILED_AUDIO_LOGGING && written > 0) LOG.info("Wrote $written bytes. Line: run=${line.isRunning}, active=${line.isActive()}")
         } catch (e: IllegalArgumentException) { LOG.log(Level.SEVERE, "Audio write error (line closed/format?): open=${line.isOpen}, fmt=${line.format}", e) }
@@ -408,7 +542,7 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
     private fun cleanupPlayerResources(releaseGrabber: Boolean, closeSoundLine: Boolean, forceShutdownExecutors: Boolean = false) {
         LOG.info("Cleanup: Grab=$releaseGrabber, Sound=$closeSoundLine, ForceExec=$forceShutdownExecutors")
         if (releaseGrabber) { grabber?.let { g -> try { g.stop(); g.release(); LOG.info("Grabber released.") } catch (e: Exception) { LOG.warning("Grabber release error: $e") } }; grabber = null }
-        if (closeSoundLine) { localSoundLine?.let { l -> if (l.isOpen) try { l.drain(); l.stop(); l.close(); LOG.info("SoundLine closed.") } catch (e: Exception) { LOG.warning("SoundLine close error: $e") } }; localSoundLine = null }
+        if (closeSoundLine) { localSoundLine?.let { l -> if (l.isOpen) try { if (l.isRunning) l.drain() else l.flush(); l.stop(); l.close(); LOG.info("SoundLine closed.") } catch (e: Exception) { LOG.warning("SoundLine close error: $e") } }; localSoundLine = null }
 
         listOf(audioProcessingContext, videoProcessingContext).forEachIndexed { i, ctxDispatcher ->
             (ctxDispatcher as? Closeable)?.close() // ExecutorCoroutineDispatcher is Closeable
@@ -416,10 +550,12 @@ class JavaFxSwingComposeFFmpegPlayer @JvmOverloads constructor(
             LOG.fine("Ctx ${if(i==0)"Audio" else "Video"} closed.")
         }
         isMediaClockInitialized = false; videoDimensionsFinalized = false; audioParamsFinalized = false
+        LOG.info("Latency summary: ${stats.summary()}")
+        stats.unregisterMBean()
         LOG.info("Cleanup finished.")
     }
 }
 
-private fun FFmpegFrameGrabber.hasVideo(): Boolean = this.videoStream >= 0 && this.imageWidth > 0 && this.imageHeight > 0
-private fun FFmpegFrameGrabber.hasAudio(): Boolean = this.audioStream >= 0 && this.audioChannels > 0 && this.sampleRate > 0
-private fun FFmpegFrameGrabber.releaseQuietly() { try { this.release() } catch (e: Exception) { /* ignore */ } }
+private fun FrameGrabber.hasVideo(): Boolean = this.videoStream >= 0 && this.imageWidth > 0 && this.imageHeight > 0
+private fun FrameGrabber.hasAudio(): Boolean = this.audioStream >= 0 && this.audioChannels > 0 && this.sampleRate > 0
+private fun FrameGrabber.releaseQuietly() { try { this.release() } catch (e: Exception) { /* ignore */ } }
@@ -0,0 +1,83 @@
+package idv.neo.ffmpeg.media.player.core
+
+import org.bytedeco.javacv.FrameGrabber
+import java.util.logging.Logger
+
+/**
+ * Makes a player decode video at the size it is shown instead of the source size.
+ *
+ * The UI reports the size of its video surface with [setTargetSize]. Before each grab the
+ * player calls [apply], which sets the grabber's imageWidth / imageHeight to the largest size
+ * with the source's aspect ratio that fits the surface. The grabber's own sws_scale then
+ * downscales in native code, so a 1080p source in a 480x270 tile is converted, copied and drawn
+ * at 1/16 of the pixels. FFmpegFrameGrabber and the PacketDecoder-based grabbers pick up the new
+ * size on the next frame; the stream is not reopened. Sources are never scaled up, and a target
+ * of 0 x 0 returns to the source size.
+ *
+ * [setTargetSize] may be called from any thread. [apply] and [reset] must be called from the
+ * player's grab thread only.
+ */
+class OutputSizeController {
+
+    // Width in the high half, height in the low half, so both change together.
+    @Volatile private var requested = 0L
+    private var applied = 0L
+    private var sourceWidth = 0
+    private var sourceHeight = 0
+
+    fun setTargetSize(width: Int, height: Int) {
+        requested = if (width > 0 && height > 0) (width.toLong() shl 32) or height.toLong() else 0L
+    }
+
+    /**
+     * Applies a pending target size to [grabber]. The first call on a started grabber records its
+     * source size, so call it before the first grab.
+     */
+    fun apply(grabber: FrameGrabber) {
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            sourceWidth = grabber.imageWidth
+            sourceHeight = grabber.imageHeight
+            if (sourceWidth <= 0 || sourceHeight <= 0) return
+        }
+        val target = requested
+        if (target == applied) return
+        applied = target
+
+        var width = sourceWidth
+        var height = sourceHeight
+        if (target != 0L) {
+            val targetWidth = (target ushr 32).toInt()
+            val targetHeight = target.toInt()
+            val scale = minOf(targetWidth.toDouble() / sourceWidth, targetHeight.toDouble() / sourceHeight)
+            if (scale < 1.0) {
+                width = (sourceWidth * scale).toInt().coerceAtLeast(1)
+                height = (sourceHeight * scale).toInt().coerceAtLeast(1)
+            }
+        }
+        if (width != grabber.imageWidth || height != grabber.imageHeight) {
+            grabber.imageWidth = width
+            grabber.imageHeight = height
+            LOG.info("OutputSizeController: Decoding ${sourceWidth}x$sourceHeight at ${width}x$height.")
+        }
+    }
+
+    /**
+     * Forgets the source size, e.g. before the player opens new media. Keeps the target size.
+     * A [grabber] the player switches away from gets its source size back, so that it can be
+     * pooled and reused.
+     */
+    @JvmOverloads
+    fun reset(grabber: FrameGrabber? = null) {
+        if (grabber != null && sourceWidth > 0 && sourceHeight > 0) {
+            grabber.imageWidth = sourceWidth
+            grabber.imageHeight = sourceHeight
+        }
+        sourceWidth = 0
+        sourceHeight = 0
+        applied = 0L
+    }
+
+    private companion object {
+        private val LOG = Logger.getLogger(OutputSizeController::class.java.name)
+    }
+}
@@ -0,0 +1,73 @@
+package idv.neo.ffmpeg.media.player.core
+
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.first
+import java.util.logging.Logger
+
+/**
+ * Holds a player's threads while it is paused, without tearing anything down.
+ *
+ * The grab loop and the queued video/audio tasks wait in [awaitResumed] (or, in coroutines,
+ * [awaitResumedSuspending]) before their next frame, so a paused player does no work. What was
+ * already read ahead stays queued, and the reader threads of a PipelinedFrameGrabber stop on
+ * their own once its packet queues are full. The player stops its audio line, which freezes the
+ * audio clock; clocks that run on System.nanoTime() subtract [pausedNanos] to stand still too.
+ *
+ * [pause] and [resume] may be called from any thread.
+ */
+class PauseGate {
+
+    private val lock = Object()
+    private val paused = MutableStateFlow(false)
+    private var pausedSinceNanos = 0L // guarded by lock
+    private var completedPausesNanos = 0L // guarded by lock
+
+    val isPaused: Boolean get() = paused.value
+
+    /** Time spent paused since this gate was created, including a pause in progress. */
+    val pausedNanos: Long
+        get() = synchronized(lock) {
+            completedPausesNanos + if (paused.value) System.nanoTime() - pausedSinceNanos else 0L
+        }
+
+    /** Returns false if already paused. */
+    fun pause(): Boolean = synchronized(lock) {
+        if (paused.value) return false
+        pausedSinceNanos = System.nanoTime()
+        paused.value = true
+        LOG.info("PauseGate: Paused.")
+        true
+    }
+
+    /** Releases every waiting thread. Returns false if not paused. */
+    fun resume(): Boolean = synchronized(lock) {
+        if (!paused.value) return false
+        val pausedFor = System.nanoTime() - pausedSinceNanos
+        completedPausesNanos += pausedFor
+        paused.value = false
+        lock.notifyAll()
+        LOG.info("PauseGate: Resumed after ${pausedFor / 1_000_000} ms.")
+        true
+    }
+
+    /** Blocks while paused. Returns early when interrupted, with the interrupt flag set again. */
+    fun awaitResumed() {
+        if (!paused.value) return
+        synchronized(lock) {
+            try {
+                while (paused.value) lock.wait()
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+        }
+    }
+
+    /** Suspends while paused; cancellable. */
+    suspend fun awaitResumedSuspending() {
+        if (paused.value) paused.first { !it }
+    }
+
+    private companion object {
+        private val LOG = Logger.getLogger(PauseGate::class.java.name)
+    }
+}
@@ -0,0 +1,104 @@
+package idv.neo.ffmpeg.media.player.core
+
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.util.logging.Logger
+
+/**
+ * Switches a player's video path between full decoding and a cheap "hidden" mode while the
+ * video surface (Swing PlayerSurface, JavaFX ImageView, Compose canvas) cannot be seen.
+ *
+ * While hidden:
+ * - no video frame is handed to the UI callback, so no UniversalFrameConverter work happens;
+ * - grab() runs without pixel format conversion (no sws_scale);
+ * - the decoder skips non-reference frames (AVDISCARD_NONREF). If the codec context is not
+ *   reachable, non-key video packets are not decoded at all instead.
+ *
+ * Grabbers other than FFmpegFrameGrabber keep grabbing normally while hidden; only the hand-off
+ * to the UI is suppressed, and on becoming visible again output resumes at a key frame.
+ *
+ * On becoming visible again, decoding returns to normal. With AVDISCARD_NONREF the reference
+ * chain is intact, so the very next decoded frame can be shown. With the key-frame-only
+ * fallback, video frames are held back until the next key frame arrives.
+ *
+ * [setVisible] may be called from any thread. [grab] and [shouldPresent] must be called from the
+ * player's grab thread only.
+ */
+class SurfaceVisibilityGate {
+
+    @Volatile private var requestedVisible = true
+    private var appliedVisible = true
+    private var decoderSkipActive = false
+    private var awaitingKeyFrame = false
+
+    val isVisible: Boolean get() = requestedVisible
+
+    fun setVisible(visible: Boolean) {
+        if (requestedVisible != visible) {
+            LOG.info("SurfaceVisibilityGate: Video surface is now ${if (visible) "VISIBLE" else "HIDDEN"}.")
+        }
+        requestedVisible = visible
+    }
+
+    /**
+     * Grabs the next frame using the mode matching the current surface visibility.
+     */
+    @Throws(FrameGrabber.Exception::class)
+    fun grab(grabber: FrameGrabber): Frame? {
+        applyPendingChange(grabber)
+        return if (!appliedVisible && grabber is FFmpegFrameGrabber) {
+            grabber.grabFrame(true, true, false, !decoderSkipActive)
+        } else {
+            grabber.grab()
+        }
+    }
+
+    /**
+     * Whether a grabbed video frame should be handed to the video output path.
+     */
+    fun shouldPresent(frame: Frame): Boolean {
+        if (!appliedVisible) return false
+        if (awaitingKeyFrame) {
+            if (!frame.keyFrame) return false
+            awaitingKeyFrame = false
+            LOG.info("SurfaceVisibilityGate: Key frame reached (TS: ${frame.timestamp}us). Resuming video output.")
+        }
+        return true
+    }
+
+    /**
+     * Restores full decoding on the grabber, e.g. before it is handed to a different owner.
+     */
+    fun reset(grabber: FrameGrabber?) {
+        if (decoderSkipActive && grabber != null) {
+            VideoDecoderControl.setSkipFrame(grabber, avcodec.AVDISCARD_DEFAULT)
+        }
+        decoderSkipActive = false
+        awaitingKeyFrame = false
+        appliedVisible = true
+    }
+
+    private fun applyPendingChange(grabber: FrameGrabber) {
+        val visible = requestedVisible
+        if (visible == appliedVisible) return
+        appliedVisible = visible
+        if (!visible) {
+            decoderSkipActive = VideoDecoderControl.setSkipFrame(grabber, avcodec.AVDISCARD_NONREF)
+            LOG.info("SurfaceVisibilityGate: Hidden mode ON. Decoder skip_frame=NONREF applied: $decoderSkipActive (fallback: key frames only).")
+        } else {
+            if (decoderSkipActive) {
+                VideoDecoderControl.setSkipFrame(grabber, avcodec.AVDISCARD_DEFAULT)
+                decoderSkipActive = false
+            } else {
+                awaitingKeyFrame = true
+            }
+            LOG.info("SurfaceVisibilityGate: Hidden mode OFF. Waiting for key frame: $awaitingKeyFrame.")
+        }
+    }
+
+    private companion object {
+        private val LOG = Logger.getLogger(SurfaceVisibilityGate::class.java.name)
+    }
+}
@@ -0,0 +1,118 @@
+package idv.neo.ffmpeg.media.player.core
+
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.util.logging.Logger
+import kotlin.math.abs
+
+/**
+ * Fast-forward and rewind ("trick play") at 2x to [MAX_RATE]x.
+ *
+ * The rate is set from any thread with [setRate]; the player's grab thread fetches frames for it
+ * with [grabForward] and [grabKeyFrameBefore] and presents them at rate-scaled times, with audio
+ * muted:
+ * - forward up to [keyFrameOnlyAbove]x, every video frame is decoded and audio packets are not;
+ * - forward above it, and always in reverse, only key frames are decoded. The decoder runs with
+ *   skip_frame = AVDISCARD_NONKEY and FFmpegFrameGrabber drops non-key video packets before they
+ *   reach it, so fast-forwarding through hours of footage costs one decode per GOP. Reverse steps
+ *   back key frame by key frame with [VideoDecoderControl.seekToKeyFrame], which decodes nothing.
+ *
+ * Grabbers other than FFmpegFrameGrabber decode everything and non-key frames are dropped
+ * afterwards; reverse then uses their setTimestamp().
+ *
+ * Everything except [setRate], [rate] and [isActive] must be called from the grab thread.
+ */
+class TrickPlayController @JvmOverloads constructor(
+    /** Forward rates above this decode key frames only. */
+    val keyFrameOnlyAbove: Double = DEFAULT_KEY_FRAME_ONLY_ABOVE
+) {
+    init {
+        require(keyFrameOnlyAbove >= 1.0) { "keyFrameOnlyAbove must be at least 1" }
+    }
+
+    /** Requested rate: 1.0 for normal playback, negative for rewind. */
+    @Volatile var rate: Double = 1.0
+        private set
+
+    private var keyFrameSkipApplied = false
+
+    val isActive: Boolean get() = rate != 1.0
+
+    /**
+     * Returns false if [rate] is already the current rate.
+     * @throws IllegalArgumentException unless 1 <= |rate| <= [MAX_RATE]
+     */
+    fun setRate(rate: Double): Boolean {
+        require(abs(rate) in 1.0..MAX_RATE) { "Playback rate must be 1 to $MAX_RATE forward or reverse, got $rate" }
+        if (this.rate == rate) return false
+        this.rate = rate
+        LOG.info("TrickPlayController: Rate ${rate}x.")
+        return true
+    }
+
+    fun keyFramesOnly(rate: Double): Boolean = rate < 0 || rate > keyFrameOnlyAbove
+
+    /** Next video frame, skipping audio and, if [keyFramesOnly], every non-key frame. Null at the end. */
+    @Throws(FrameGrabber.Exception::class)
+    fun grabForward(grabber: FrameGrabber, keyFramesOnly: Boolean): Frame? {
+        applyDecoderMode(grabber, keyFramesOnly)
+        while (true) {
+            val frame = (if (grabber is FFmpegFrameGrabber) grabber.grabFrame(false, true, true, keyFramesOnly) else grabber.grab())
+                ?: return null
+            if (frame.image != null && (!keyFramesOnly || frame.keyFrame)) return frame
+            frame.close()
+        }
+    }
+
+    /**
+     * The last key frame before [beforeMicros], or null if there is none (the start of the media).
+     * A seek that lands on the same key frame again is retried further back.
+     */
+    @Throws(FrameGrabber.Exception::class)
+    fun grabKeyFrameBefore(grabber: FrameGrabber, beforeMicros: Long): Frame? {
+        applyDecoderMode(grabber, true)
+        var target = (beforeMicros - 1).coerceAtLeast(0L)
+        for (attempt in 1..MAX_SEEK_ATTEMPTS) {
+            // The event covers decoding the key frame landed on, which is the resulting PTS. A
+            // setTimestamp() fallback emits its own event where the grabber supports it.
+            val seekEvent = PlaybackEvents.beginSeek()
+            val seeked = VideoDecoderControl.seekToKeyFrame(grabber, target)
+            if (!seeked) grabber.setTimestamp(target)
+            val frame = grabForward(grabber, true)
+            if (seeked) PlaybackEvents.endSeek(seekEvent, target, frame?.timestamp ?: -1L, frame?.streamIndex ?: -1, PlaybackEvents.SEEK_KEY_FRAME)
+            if (frame == null) return null
+            if (frame.timestamp < beforeMicros) return frame
+            frame.close()
+            if (target == 0L) return null
+            target = (target - STEP_BACK_MICROS * attempt).coerceAtLeast(0L)
+        }
+        return null
+    }
+
+    /** Restores full decoding and positions [grabber] exactly at [resumeAtMicros] for normal playback. */
+    @Throws(FrameGrabber.Exception::class)
+    fun exit(grabber: FrameGrabber, resumeAtMicros: Long) {
+        applyDecoderMode(grabber, false)
+        val seekEvent = PlaybackEvents.beginSeek()
+        grabber.setTimestamp(resumeAtMicros)
+        // FFmpegFrameGrabber decodes forward to the target; the player's wrapper grabbers seek to a key frame and emit their own event.
+        if (grabber is FFmpegFrameGrabber) PlaybackEvents.endSeek(seekEvent, resumeAtMicros, grabber.timestamp, -1, PlaybackEvents.SEEK_EXACT)
+    }
+
+    private fun applyDecoderMode(grabber: FrameGrabber, keyFramesOnly: Boolean) {
+        if (keyFrameSkipApplied == keyFramesOnly) return
+        VideoDecoderControl.setSkipFrame(grabber, if (keyFramesOnly) avcodec.AVDISCARD_NONKEY else avcodec.AVDISCARD_DEFAULT)
+        keyFrameSkipApplied = keyFramesOnly
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(TrickPlayController::class.java.name)
+        const val MAX_RATE = 32.0
+        const val DEFAULT_KEY_FRAME_ONLY_ABOVE = 4.0
+        private const val MAX_SEEK_ATTEMPTS = 4
+        private const val STEP_BACK_MICROS = 1_000_000L
+    }
+}
@@ -2,6 +2,9 @@ package idv.neo.ffmpeg.media.player.core
 
 import androidx.compose.ui.graphics.ImageBitmap
 import androidx.compose.ui.graphics.toComposeImageBitmap
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents
+import idv.neo.ffmpeg.media.player.core.stats.PlaybackStage
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats
 import idv.neo.ffmpeg.media.player.core.utils.getPixelFormatName // Assuming this utility exists
 import org.bytedeco.ffmpeg.global.avutil
 import org.bytedeco.javacv.Frame
@@ -38,7 +41,9 @@ object UniversalFrameConverter {
      * Uses JavaFXFrameConverter internally.
      */
     @JvmStatic
-    fun convertToFxImage(frame: Frame?): javafx.scene.image.Image? {
+    fun convertToFxImage(frame: Frame?): javafx.scene.image.Image? = timedConversion(frame, "FX_IMAGE") { fxImageFrom(frame) }
+
+    private fun fxImageFrom(frame: Frame?): javafx.scene.image.Image? {
         if (frame == null || frame.image == null) {
             println("UniversalFrameConverter: Input frame or its image data is null for JavaFX conversion.")
             return null
@@ -61,7 +66,10 @@ object UniversalFrameConverter {
      * @return BufferedImage or null if conversion fails.
      */
     @JvmStatic
-    fun convertToBufferedImage(frame: Frame?, actualFramePixelFormat: Int): BufferedImage? {
+    fun convertToBufferedImage(frame: Frame?, actualFramePixelFormat: Int): BufferedImage? =
+        timedConversion(frame, "BUFFERED_IMAGE") { bufferedImageFrom(frame, actualFramePixelFormat) }
+
+    private fun bufferedImageFrom(frame: Frame?, actualFramePixelFormat: Int): BufferedImage? {
         if (frame == null || frame.imageWidth <= 0 || frame.imageHeight <= 0 || frame.image == null || frame.image[0] == null) {
             println("UniversalFrameConverter: Invalid frame data for BufferedImage conversion.")
             return null
@@ -170,7 +178,10 @@ object UniversalFrameConverter {
      * @param actualFramePixelFormat The actual pixel format of the frame from FFmpeg.
      * @return ImageBitmap or null if conversion fails.
      */
-    fun convertToImageBitmap(frame: Frame?, actualFramePixelFormat: Int): ImageBitmap? {
+    fun convertToImageBitmap(frame: Frame?, actualFramePixelFormat: Int): ImageBitmap? =
+        timedConversion(frame, "IMAGE_BITMAP") { imageBitmapFrom(frame, actualFramePixelFormat) }
+
+    private fun imageBitmapFrom(frame: Frame?, actualFramePixelFormat: Int): ImageBitmap? {
         if (frame == null || frame.imageWidth <= 0 || frame.imageHeight <= 0 || frame.image == null || frame.image[0] == null) {
             println("UniversalFrameConverter: Invalid frame data for ImageBitmap conversion.")
             return null
@@ -226,6 +237,24 @@ object UniversalFrameConverter {
         }
     }
 
+    /**
+     * Runs a conversion and records its duration as [PlaybackStage.CONVERT] on the player
+     * bound to the calling thread (see PlayerStats.bindToCurrentThread), plus a JFR
+     * FrameConverted event when enabled.
+     */
+    private inline fun <T : Any> timedConversion(frame: Frame?, target: String, convert: () -> T?): T? {
+        val startNanos = System.nanoTime()
+        val event = PlaybackEvents.beginConvert()
+        var result: T? = null
+        try {
+            result = convert()
+            return result
+        } finally {
+            PlayerStats.recordOnCurrentThread(PlaybackStage.CONVERT, System.nanoTime() - startNanos)
+            PlaybackEvents.endConvert(event, frame, target, result != null)
+        }
+    }
+
     // --- Helper methods for ImageBitmap conversion (from original FrameConverter.kt) ---
     private fun createSkiaImageFromByteBuffer(
         sourceBuffer: ByteBuffer,
@@ -266,7 +295,14 @@ object UniversalFrameConverter {
         }
     }
 
-    private fun convertBgrToBgra(
+    /**
+     * Expands packed BGR24 rows (any stride >= width * 3) into a tightly packed, opaque BGRA array.
+     * Used by the BGR24 path of [convertToImageBitmap]; public so it can be benchmarked on its own.
+     *
+     * @return width * height * 4 bytes, or null if the buffer is too small for the given geometry.
+     */
+    @JvmStatic
+    fun convertBgrToBgra(
         bgrSourceBuffer: ByteBuffer,
         width: Int,
         height: Int,
@@ -0,0 +1,73 @@
+package idv.neo.ffmpeg.media.player.core
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avformat
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.FrameGrabber
+import java.lang.reflect.Field
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Runtime access to the video decoder owned by a started [FFmpegFrameGrabber].
+ *
+ * FFmpegFrameGrabber keeps its AVCodecContext in a private field, so it is looked up once
+ * by reflection. Every method returns false (and changes nothing) if the field is missing
+ * in the JavaCV version on the classpath, or the grabber is not an FFmpegFrameGrabber, letting
+ * callers pick a packet-level fallback.
+ *
+ * All calls must be made from the thread that calls grab() on the same grabber.
+ */
+object VideoDecoderControl {
+    private val LOG = Logger.getLogger(VideoDecoderControl::class.java.name)
+
+    private val videoCodecContextField: Field? = try {
+        FFmpegFrameGrabber::class.java.getDeclaredField("video_c").apply { isAccessible = true }
+    } catch (e: Exception) {
+        LOG.log(Level.WARNING, "VideoDecoderControl: FFmpegFrameGrabber.video_c not accessible. Decoder-level frame skipping disabled.", e)
+        null
+    }
+
+    @JvmStatic
+    fun videoCodecContext(grabber: FrameGrabber): AVCodecContext? {
+        if (grabber !is FFmpegFrameGrabber) return null
+        val field = videoCodecContextField ?: return null
+        return try {
+            (field.get(grabber) as? AVCodecContext)?.takeUnless { it.isNull }
+        } catch (e: Exception) {
+            LOG.log(Level.WARNING, "VideoDecoderControl: Could not read video codec context.", e)
+            null
+        }
+    }
+
+    /**
+     * Sets AVCodecContext.skip_frame, e.g. avcodec.AVDISCARD_NONREF to stop decoding frames that
+     * no other frame references, or avcodec.AVDISCARD_DEFAULT to go back to full decoding.
+     */
+    @JvmStatic
+    fun setSkipFrame(grabber: FrameGrabber, discard: Int): Boolean {
+        val ctx = videoCodecContext(grabber) ?: return false
+        ctx.skip_frame(discard)
+        return true
+    }
+
+    /**
+     * Seeks to the key frame at or before [timestampMicros] and flushes the video decoder. Unlike
+     * FFmpegFrameGrabber.setTimestamp, which decodes forward to the exact timestamp, this decodes
+     * nothing, so stepping through key frames costs one decode each. Audio decoding is left as it
+     * is; call setTimestamp before playing audio again.
+     */
+    @JvmStatic
+    fun seekToKeyFrame(grabber: FrameGrabber, timestampMicros: Long): Boolean {
+        if (grabber !is FFmpegFrameGrabber) return false
+        val ctx = videoCodecContext(grabber) ?: return false
+        val formatContext = grabber.formatContext ?: return false
+        val startTime = if (formatContext.start_time() != avutil.AV_NOPTS_VALUE) formatContext.start_time() else 0L
+        val target = timestampMicros * avutil.AV_TIME_BASE / 1_000_000L + startTime
+        if (avformat.avformat_seek_file(formatContext, -1, Long.MIN_VALUE, target, target, avformat.AVSEEK_FLAG_BACKWARD) < 0) return false
+        avcodec.avcodec_flush_buffers(ctx)
+        return true
+    }
+}
@@ -0,0 +1,304 @@
+package idv.neo.ffmpeg.media.player.core.batch
+
+import idv.neo.ffmpeg.media.player.core.source.PacketDecoder
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avformat
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.io.Closeable
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Logger
+
+/**
+ * How to decode: video frames in [pixelFormat], scaled to [width] x [height] when set, delivered
+ * in presentation order when [ordered] (through a reorder buffer of [bufferFrames] frames per
+ * range in flight) or as they are decoded otherwise.
+ */
+data class BatchDecodeOptions(
+    val ordered: Boolean = true,
+    val pixelFormat: Int = avutil.AV_PIX_FMT_BGR24,
+    val width: Int = 0,
+    val height: Int = 0,
+    val bufferFrames: Int = 32,
+    /** Ranges per worker; more ranges balance uneven GOPs better at a small seek cost each. */
+    val rangesPerWorker: Int = 4
+) {
+    init {
+        require(width >= 0 && height >= 0) { "Invalid size ${width}x$height" }
+        require(bufferFrames > 0) { "bufferFrames must be positive: $bufferFrames" }
+        require(rangesPerWorker > 0) { "rangesPerWorker must be positive: $rangesPerWorker" }
+    }
+}
+
+/** What a batch decode did. */
+data class BatchDecodeResult(val frames: Long, val ranges: Int, val keyFrames: Int, val elapsedMillis: Long)
+
+/** Receives decoded frames. The frame is only valid during the call; clone it to keep it. */
+fun interface BatchFrameConsumer {
+    @Throws(Exception::class)
+    fun accept(frame: Frame)
+}
+
+/**
+ * Decodes whole files for offline analysis (frame extraction, quality metrics) on all cores.
+ *
+ * A demux-only pass first lists the video key frames; the file is then split at key frames into
+ * about [workers] x [BatchDecodeOptions.rangesPerWorker] ranges of whole GOPs, and the ranges are
+ * decoded in parallel, each worker with its own demuxer and a single-threaded decoder, so the
+ * speed-up comes from independent GOPs rather than from codec threading. Each range decodes from
+ * its key frame until the first frame at or after the next range's key frame, so every frame is
+ * produced exactly once, also for open GOPs.
+ *
+ * With [BatchDecodeOptions.ordered] the calling thread delivers frames in presentation order from
+ * a bounded per-range reorder buffer (at most about `workers x bufferFrames` frames are held;
+ * scale down with [BatchDecodeOptions.width] for large videos). Unordered, the consumer is called
+ * directly on the worker threads and must be thread-safe. Audio is not decoded.
+ */
+class BatchDecoder @JvmOverloads constructor(
+    private val workers: Int = Runtime.getRuntime().availableProcessors()
+) : Closeable {
+
+    private val executor: ExecutorService = Executors.newFixedThreadPool(workers.coerceAtLeast(1), WORKER_THREADS)
+
+    /** Decodes every video frame of [mediaPath] into [consumer]. Blocks until done. */
+    @Throws(FrameGrabber.Exception::class)
+    @JvmOverloads
+    fun decode(mediaPath: String, options: BatchDecodeOptions = BatchDecodeOptions(), consumer: BatchFrameConsumer): BatchDecodeResult {
+        val startNanos = System.nanoTime()
+        val keyFrames = scanKeyFrames(mediaPath)
+        if (keyFrames.isEmpty()) throw FrameGrabber.Exception("No video key frames in '$mediaPath'")
+        val ranges = partition(keyFrames, workers.coerceAtLeast(1) * options.rangesPerWorker)
+
+        val job = Job(mediaPath, options, consumer, ranges)
+        try {
+            job.run()
+        } finally {
+            job.closeWorkers()
+        }
+        val elapsed = (System.nanoTime() - startNanos) / 1_000_000
+        LOG.info("BatchDecoder: ${job.frames.get()} frames of '$mediaPath' in $elapsed ms " +
+                "(${ranges.size} ranges, ${keyFrames.size} key frames, $workers workers)")
+        return BatchDecodeResult(job.frames.get(), ranges.size, keyFrames.size, elapsed)
+    }
+
+    override fun close() {
+        executor.shutdownNow()
+    }
+
+    /** [startMicros, endMicros) in presentation time; the first range also takes anything earlier. */
+    private class Range(val index: Int, val seekMicros: Long, val startMicros: Long, val endMicros: Long)
+
+    private fun partition(keyFrames: LongArray, target: Int): List<Range> {
+        val count = target.coerceIn(1, keyFrames.size)
+        return (0 until count).map { i ->
+            val first = i * keyFrames.size / count
+            val next = (i + 1) * keyFrames.size / count
+            Range(
+                i,
+                keyFrames[first],
+                if (i == 0) Long.MIN_VALUE else keyFrames[first],
+                if (next < keyFrames.size) keyFrames[next] else Long.MAX_VALUE
+            )
+        }
+    }
+
+    // Reads packets only, no decoding; returns the video key frames' presentation times, sorted.
+    private fun scanKeyFrames(mediaPath: String): LongArray {
+        val grabber = FFmpegFrameGrabber(mediaPath)
+        try {
+            grabber.start()
+            val videoIndex = grabber.getVideoStream()
+            if (videoIndex < 0) throw FrameGrabber.Exception("No video stream in '$mediaPath'")
+            val timeBase = grabber.getFormatContext().streams(videoIndex).time_base()
+            val times = ArrayList<Long>()
+            while (true) {
+                val packet = grabber.grabPacket() ?: break
+                // grabPacket() is a bare av_read_frame(), which leaves the packet's buffer to the caller.
+                try {
+                    if (packet.stream_index() != videoIndex || (packet.flags() and avcodec.AV_PKT_FLAG_KEY) == 0) continue
+                    val ts = if (packet.pts() != avutil.AV_NOPTS_VALUE) packet.pts() else packet.dts()
+                    if (ts != avutil.AV_NOPTS_VALUE) times += avutil.av_rescale_q(ts, timeBase, MICROSECONDS)
+                } finally {
+                    avcodec.av_packet_unref(packet)
+                }
+            }
+            return times.distinct().sorted().toLongArray()
+        } finally {
+            try { grabber.stop(); grabber.release() } catch (e: Exception) { /* ignore */ }
+        }
+    }
+
+    /** One demuxer and decoder, reused by a worker thread for range after range. */
+    private class Worker(mediaPath: String, options: BatchDecodeOptions) : Closeable {
+        val grabber = FFmpegFrameGrabber(mediaPath)
+        val decoder: PacketDecoder
+
+        init {
+            try {
+                grabber.start()
+                val videoIndex = grabber.getVideoStream()
+                decoder = PacketDecoder(grabber.getFormatContext().streams(videoIndex), null, 1, 1)
+            } catch (e: Exception) {
+                try { grabber.stop(); grabber.release() } catch (suppressed: Exception) { e.addSuppressed(suppressed) }
+                throw e
+            }
+            decoder.pixelFormat = options.pixelFormat
+            decoder.outputWidth = options.width
+            decoder.outputHeight = options.height
+        }
+
+        override fun close() {
+            decoder.close()
+            try { grabber.stop(); grabber.release() } catch (e: Exception) { /* ignore */ }
+        }
+    }
+
+    private inner class Job(
+        private val mediaPath: String,
+        private val options: BatchDecodeOptions,
+        private val consumer: BatchFrameConsumer,
+        private val ranges: List<Range>
+    ) {
+        val frames = AtomicLong()
+        private val idleWorkers = ConcurrentLinkedQueue<Worker>()
+        private val allWorkers = ConcurrentLinkedQueue<Worker>()
+        // Ordered only: one reorder queue per range, ending with END or a Throwable.
+        private val queues = if (options.ordered) ranges.map { ArrayBlockingQueue<Any>(options.bufferFrames + 1) } else emptyList()
+        @Volatile private var cancelled = false
+
+        fun run() {
+            val futures: List<Future<*>> = ranges.map { range -> executor.submit { decodeRange(range) } }
+            try {
+                if (options.ordered) deliverInOrder()
+                futures.forEach { it.get() }
+            } catch (e: ExecutionException) {
+                throw (e.cause as? FrameGrabber.Exception) ?: FrameGrabber.Exception("Batch decode of '$mediaPath' failed", e.cause)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw FrameGrabber.Exception("Batch decode of '$mediaPath' interrupted", e)
+            } finally {
+                // Let the remaining tasks see the flag and return; the workers are closed after this.
+                cancelled = true
+                futures.forEach { future ->
+                    try { future.get() } catch (e: Exception) { /* already reported */ }
+                }
+                queues.forEach { discard(it) }
+            }
+        }
+
+        fun closeWorkers() {
+            allWorkers.forEach { it.close() }
+        }
+
+        private fun deliverInOrder() {
+            for (queue in queues) {
+                while (true) {
+                    when (val item = queue.take()) {
+                        END -> break
+                        is Throwable -> throw ExecutionException(item)
+                        is Frame -> try {
+                            consumer.accept(item)
+                        } catch (e: Exception) {
+                            throw ExecutionException(e)
+                        } finally {
+                            item.close()
+                        }
+                    }
+                }
+            }
+        }
+
+        // Runs on a worker thread.
+        private fun decodeRange(range: Range) {
+            val queue = if (options.ordered) queues[range.index] else null
+            if (cancelled) return
+            try {
+                val worker = idleWorkers.poll() ?: Worker(mediaPath, options).also { allWorkers += it }
+                try {
+                    decodeRange(worker, range, queue)
+                } finally {
+                    idleWorkers += worker
+                }
+                queue?.let { put(it, END) }
+            } catch (e: InterruptedException) {
+                // Cancelled by put(); the job reports the cause.
+            } catch (e: Exception) {
+                if (queue == null) throw e
+                cancelled = true
+                discard(queue)
+                queue.offer(e)
+            }
+        }
+
+        private fun decodeRange(worker: Worker, range: Range, queue: ArrayBlockingQueue<Any>?) {
+            val grabber = worker.grabber
+            val decoder = worker.decoder
+            val videoIndex = grabber.getVideoStream()
+            val formatContext = grabber.getFormatContext()
+            val seekTs = avutil.av_rescale_q(range.seekMicros, MICROSECONDS, formatContext.streams(videoIndex).time_base())
+            val ret = avformat.avformat_seek_file(formatContext, videoIndex, Long.MIN_VALUE, seekTs, seekTs, avformat.AVSEEK_FLAG_BACKWARD)
+            if (ret < 0) throw FrameGrabber.Exception("avformat_seek_file() to ${range.seekMicros} failed: $ret")
+            decoder.flush()
+
+            var endOfInput = false
+            while (!cancelled) {
+                val frame = decoder.receive()
+                if (frame != null) {
+                    if (frame.timestamp >= range.endMicros) return
+                    if (frame.timestamp < range.startMicros) continue
+                    frames.incrementAndGet()
+                    if (queue == null) consumer.accept(frame) else put(queue, frame.clone())
+                    continue
+                }
+                if (endOfInput) return
+                val packet = grabber.grabPacket()
+                if (packet == null) {
+                    endOfInput = true
+                    decoder.sendEndOfInput()
+                } else {
+                    try {
+                        decoder.send(packet)
+                    } finally {
+                        avcodec.av_packet_unref(packet)
+                    }
+                }
+            }
+        }
+
+        // Empties a reorder queue, closing the cloned frames it held.
+        private fun discard(queue: ArrayBlockingQueue<Any>) {
+            while (true) (queue.poll() ?: break).let { (it as? Frame)?.close() }
+        }
+
+        private fun put(queue: ArrayBlockingQueue<Any>, item: Any) {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                if (cancelled) {
+                    (item as? Frame)?.close()
+                    throw InterruptedException("Batch decode cancelled")
+                }
+            }
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(BatchDecoder::class.java.name)
+        private val MICROSECONDS = avutil.av_make_q(1, 1_000_000)
+        private val END = Any()
+
+        private val WORKER_THREADS = object : ThreadFactory {
+            private val count = AtomicInteger()
+            override fun newThread(r: Runnable) = Thread(r, "BatchDecoder-Worker-${count.incrementAndGet()}").apply { isDaemon = true }
+        }
+    }
+}
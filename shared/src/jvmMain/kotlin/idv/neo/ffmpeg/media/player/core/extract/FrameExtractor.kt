@@ -0,0 +1,309 @@
+package idv.neo.ffmpeg.media.player.core.extract
+
+import idv.neo.ffmpeg.media.player.core.UniversalFrameConverter
+import idv.neo.ffmpeg.media.player.core.snapshot.SnapshotFormat
+import idv.neo.ffmpeg.media.player.core.snapshot.encodeImage
+import idv.neo.ffmpeg.media.player.core.source.FrameGrabberFactory
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.ByteBuffer
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import java.util.logging.Logger
+import kotlin.math.abs
+
+/** Which decoded frames to extract. */
+enum class FrameSelection {
+    /** Every frame. */
+    ALL,
+
+    /** At most [ExtractionRequest.fps] frames per second of media time. */
+    FPS,
+
+    /** Frames whose picture differs from the previous frame by at least [ExtractionRequest.sceneThreshold]. */
+    SCENE_CHANGE,
+
+    /** Key frames only; the other frames are not even decoded. */
+    KEY_FRAMES
+}
+
+/**
+ * What to extract and how to write it. Images are named with [namePattern] (a `String.format`
+ * pattern taking the running image number) plus the format's extension, and listed with their
+ * timestamps in `frames.csv`. A [width] of 0 keeps the video's size; the height then follows the
+ * aspect ratio.
+ */
+data class ExtractionRequest(
+    val outputDirectory: File,
+    val selection: FrameSelection = FrameSelection.ALL,
+    val fps: Double = 1.0,
+    val sceneThreshold: Double = 0.1,
+    val format: SnapshotFormat = SnapshotFormat.JPEG,
+    val jpegQuality: Float = 0.9f,
+    val width: Int = 0,
+    val namePattern: String = "frame-%06d",
+    val encoders: Int = Runtime.getRuntime().availableProcessors(),
+    /** Frames decoded but not yet written; bounds memory and makes decode wait for slow encoders. */
+    val maxInFlight: Int = 2 * Runtime.getRuntime().availableProcessors(),
+    /** Encoded images the writer gathers before writing them out together. */
+    val writeBatch: Int = 32
+) {
+    init {
+        require(fps > 0.0) { "fps must be positive: $fps" }
+        require(sceneThreshold in 0.0..1.0) { "sceneThreshold must be within 0..1: $sceneThreshold" }
+        require(jpegQuality in 0f..1f) { "jpegQuality must be within 0..1: $jpegQuality" }
+        require(width >= 0) { "width must not be negative: $width" }
+        require(encoders > 0 && maxInFlight > 0 && writeBatch > 0) { "encoders, maxInFlight and writeBatch must be positive" }
+    }
+}
+
+/**
+ * What an extraction did. [decodeWaitMillis] is how long decoding waited for encoders or the
+ * writer; near zero means throughput was limited by decoding.
+ */
+data class ExtractionResult(
+    val decodedFrames: Long,
+    val writtenImages: Int,
+    val bytesWritten: Long,
+    val elapsedMillis: Long,
+    val decodeWaitMillis: Long
+) {
+    val decodedFramesPerSecond: Double get() = decodedFrames * 1000.0 / elapsedMillis.coerceAtLeast(1)
+}
+
+/**
+ * Dumps video frames to image files, e.g. for labeling.
+ *
+ * Frames are decoded on the calling thread through the same grabbers the players use, selected
+ * (see [FrameSelection]), and copied into a bounded pipeline: [ExtractionRequest.encoders] threads
+ * convert them with [UniversalFrameConverter] and encode them, and one writer thread writes the
+ * encoded images in batches, so decoding only waits when encoding or the disk cannot keep up
+ * (see [ExtractionResult.decodeWaitMillis]). Images are numbered in decode order.
+ */
+class FrameExtractor @JvmOverloads constructor(
+    private val grabberFactory: FrameGrabberFactory = FrameGrabberFactory.FFMPEG
+) {
+
+    private class Encoded(val number: Int, val timestampMicros: Long, val name: String, val bytes: ByteArray)
+
+    @Throws(FrameGrabber.Exception::class)
+    fun extract(mediaPath: String, request: ExtractionRequest): ExtractionResult {
+        val startNanos = System.nanoTime()
+        request.outputDirectory.mkdirs()
+        val index = File(request.outputDirectory, INDEX_FILE).bufferedWriter()
+        val grabber = try {
+            grabberFactory.create(mediaPath)
+        } catch (e: Exception) {
+            index.close()
+            throw e
+        }
+        val encoders: ExecutorService = Executors.newFixedThreadPool(request.encoders, ENCODER_THREADS)
+        val inFlight = Semaphore(request.maxInFlight)
+        val written = ArrayBlockingQueue<Any>(request.maxInFlight + 1)
+        val failure = AtomicReference<Throwable?>()
+        val writer = Writer(request, index, written, inFlight, failure).also { it.start() }
+
+        var decoded = 0L
+        var selected = 0
+        var waitNanos = 0L
+        try {
+            if (request.selection == FrameSelection.KEY_FRAMES && grabber is FFmpegFrameGrabber) {
+                grabber.setVideoOption("skip_frame", "nokey")
+            }
+            grabber.pixelFormat = avutil.AV_PIX_FMT_BGR24
+            grabber.start()
+            if (request.width > 0 && grabber.imageWidth > 0) {
+                grabber.imageHeight = (grabber.imageHeight.toLong() * request.width / grabber.imageWidth / 2 * 2).toInt().coerceAtLeast(2)
+                grabber.imageWidth = request.width
+            }
+            val selector = Selector(request)
+            while (failure.get() == null) {
+                val frame = nextVideoFrame(grabber) ?: break
+                decoded++
+                if (!selector.accept(frame)) continue
+
+                val copy = frame.clone()
+                val number = ++selected
+                val waitStart = System.nanoTime()
+                inFlight.acquire()
+                waitNanos += System.nanoTime() - waitStart
+                encoders.execute {
+                    try {
+                        val image = UniversalFrameConverter.convertToBufferedImage(copy, avutil.AV_PIX_FMT_BGR24)
+                            ?: throw IllegalStateException("Cannot convert frame $number to an image")
+                        val name = String.format(request.namePattern, number) + "." + request.format.extension
+                        written.put(Encoded(number, copy.timestamp, name, encodeImage(image, request.format, request.jpegQuality)))
+                    } catch (e: Throwable) {
+                        failure.compareAndSet(null, e)
+                        inFlight.release()
+                    } finally {
+                        copy.close()
+                    }
+                }
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            failure.compareAndSet(null, e)
+        } finally {
+            try { grabber.stop(); grabber.release() } catch (e: Exception) { /* ignore */ }
+            encoders.shutdown()
+            encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+            written.put(END)
+            writer.join()
+        }
+
+        failure.get()?.let { throw it as? FrameGrabber.Exception ?: FrameGrabber.Exception("Extraction from '$mediaPath' failed: ${it.message}", it) }
+        val elapsed = (System.nanoTime() - startNanos) / 1_000_000
+        val result = ExtractionResult(decoded, writer.images, writer.bytes, elapsed, waitNanos / 1_000_000)
+        LOG.info("FrameExtractor: ${result.writtenImages} of ${result.decodedFrames} frames from '$mediaPath' in " +
+                "${result.elapsedMillis} ms (${String.format("%.1f", result.decodedFramesPerSecond)} fps decoded, " +
+                "decode waited ${result.decodeWaitMillis} ms)")
+        return result
+    }
+
+    // FFmpegFrameGrabber can skip decoding audio; other grabbers are read until the next image.
+    private fun nextVideoFrame(grabber: FrameGrabber): Frame? {
+        if (grabber is FFmpegFrameGrabber) return grabber.grabImage()
+        while (true) {
+            val frame = grabber.grab() ?: return null
+            if (frame.image != null) return frame
+        }
+    }
+
+    /** Applies the request's [FrameSelection] on the decode thread. */
+    private class Selector(private val request: ExtractionRequest) {
+        private val intervalMicros = (1_000_000 / request.fps).toLong().coerceAtLeast(1L)
+        private var nextMicros = Long.MIN_VALUE
+        private var previous: IntArray? = null
+
+        fun accept(frame: Frame): Boolean = when (request.selection) {
+            FrameSelection.ALL -> true
+            FrameSelection.KEY_FRAMES -> frame.keyFrame
+            FrameSelection.FPS -> {
+                if (nextMicros == Long.MIN_VALUE) nextMicros = frame.timestamp
+                if (frame.timestamp >= nextMicros) {
+                    while (nextMicros <= frame.timestamp) nextMicros += intervalMicros
+                    true
+                } else false
+            }
+            FrameSelection.SCENE_CHANGE -> {
+                val current = lumaGrid(frame)
+                val last = previous
+                previous = current
+                last == null || difference(last, current) >= request.sceneThreshold
+            }
+        }
+
+        // Luma of a GRID_W x GRID_H sample of the BGR24 frame; enough to see cuts, cheap per frame.
+        private fun lumaGrid(frame: Frame): IntArray {
+            val buffer = frame.image[0] as ByteBuffer
+            val grid = IntArray(GRID_W * GRID_H)
+            for (gy in 0 until GRID_H) {
+                val y = (gy * 2 + 1) * frame.imageHeight / (GRID_H * 2)
+                for (gx in 0 until GRID_W) {
+                    val at = y * frame.imageStride + (gx * 2 + 1) * frame.imageWidth / (GRID_W * 2) * 3
+                    val b = buffer.get(at).toInt() and 0xFF
+                    val g = buffer.get(at + 1).toInt() and 0xFF
+                    val r = buffer.get(at + 2).toInt() and 0xFF
+                    grid[gy * GRID_W + gx] = (r * 77 + g * 150 + b * 29) shr 8
+                }
+            }
+            return grid
+        }
+
+        private fun difference(a: IntArray, b: IntArray): Double {
+            var sum = 0L
+            for (i in a.indices) sum += abs(a[i] - b[i])
+            return sum / (a.size * 255.0)
+        }
+    }
+
+    /**
+     * Writes the encoded images and the frames.csv index on its own thread. Each wake-up takes up
+     * to [ExtractionRequest.writeBatch] queued images and writes them, in number order, and their
+     * index lines in one pass; every image is still its own file. After a failure, it keeps
+     * taking (and discarding) images until END, so that encoders never block on a full queue.
+     */
+    private class Writer(
+        private val request: ExtractionRequest,
+        private val index: BufferedWriter,
+        private val queue: ArrayBlockingQueue<Any>,
+        private val inFlight: Semaphore,
+        private val failure: AtomicReference<Throwable?>
+    ) : Thread("FrameExtractor-Writer") {
+        @Volatile var images = 0
+        @Volatile var bytes = 0L
+        private var ended = false
+
+        init {
+            isDaemon = true
+        }
+
+        override fun run() {
+            try {
+                writeAll()
+            } catch (e: Throwable) {
+                failure.compareAndSet(null, e)
+            }
+            while (!ended) {
+                if (queue.take() === END) ended = true else inFlight.release()
+            }
+        }
+
+        private fun writeAll() {
+            val batch = ArrayList<Any>(request.writeBatch)
+            index.use { index ->
+                index.write("image,timestamp_micros\n")
+                while (!ended) {
+                    batch += queue.take()
+                    queue.drainTo(batch, request.writeBatch - 1)
+                    val encoded = batch.filterIsInstance<Encoded>().sortedBy { it.number }
+                    ended = batch.any { it === END }
+                    batch.clear()
+                    try {
+                        if (failure.get() == null) {
+                            encoded.forEach { write(it) }
+                            encoded.forEach { index.write("${it.name},${it.timestampMicros}\n") }
+                        }
+                    } catch (e: Exception) {
+                        failure.compareAndSet(null, e)
+                    } finally {
+                        inFlight.release(encoded.size)
+                    }
+                }
+            }
+        }
+
+        private fun write(image: Encoded) {
+            FileOutputStream(File(request.outputDirectory, image.name)).use { out ->
+                out.channel.write(ByteBuffer.wrap(image.bytes))
+            }
+            images++
+            bytes += image.bytes.size
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(FrameExtractor::class.java.name)
+        private const val INDEX_FILE = "frames.csv"
+        private const val GRID_W = 32
+        private const val GRID_H = 18
+        private val END = Any()
+
+        private val ENCODER_THREADS = object : ThreadFactory {
+            private val count = AtomicInteger()
+            override fun newThread(r: Runnable) = Thread(r, "FrameExtractor-Encoder-${count.incrementAndGet()}").apply { isDaemon = true }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package idv.neo.ffmpeg.media.player.core.jfr
+
+import org.bytedeco.javacv.Frame
+
+/**
+ * Why a grabbed frame was not played. Recorded as the reason of a [FrameDroppedEvent].
+ */
+enum class DropReason {
+    /** The video surface is hidden (see SurfaceVisibilityGate). */
+    SURFACE_HIDDEN,
+    /** The media clock has not started yet. */
+    CLOCK_NOT_STARTED,
+    /** The frame is older than the clock anchor. */
+    BEFORE_CLOCK_ANCHOR,
+    /** stop() was requested while the frame was queued. */
+    STOPPED,
+    /** The player switched to another source while the frame was queued. */
+    SOURCE_SWITCHED,
+    /** Fast-forward decoded the frame too late for its rate. */
+    TRICK_PLAY_LATE
+}
+
+/**
+ * Emit helpers for the playback JFR events.
+ *
+ * Every helper creates its event and returns right away if the event type is disabled, so
+ * the JIT can remove the allocation and the call costs a single branch when no recording
+ * is running. Duration events (grab, convert, seek) are started with the begin* helpers and
+ * committed with the matching end* helper on the same thread.
+ */
+object PlaybackEvents {
+
+    const val CLOCK_AUDIO_LINE = "AUDIO_LINE"
+    const val CLOCK_SYSTEM = "SYSTEM_NANO_TIME"
+
+    /** Seek modes: landed on the key frame at or before the target, or decoded forward to exactly it. */
+    const val SEEK_KEY_FRAME = "KEY_FRAME"
+    const val SEEK_EXACT = "EXACT"
+
+    @JvmStatic
+    fun beginGrab(): FrameGrabbedEvent = FrameGrabbedEvent().also { it.begin() }
+
+    @JvmStatic
+    fun endGrab(event: FrameGrabbedEvent, frame: Frame?) {
+        if (frame == null || !event.isEnabled) return
+        event.end()
+        if (!event.shouldCommit()) return
+        event.pts = frame.timestamp
+        event.streamIndex = frame.streamIndex
+        event.mediaType = mediaTypeOf(frame)
+        event.keyFrame = frame.keyFrame
+        event.commit()
+    }
+
+    @JvmStatic
+    @JvmOverloads
+    fun frameDropped(frame: Frame, reason: DropReason, lateByMicros: Long = 0L) {
+        val event = FrameDroppedEvent()
+        if (!event.isEnabled) return
+        event.pts = frame.timestamp
+        event.streamIndex = frame.streamIndex
+        event.reason = reason.name
+        event.lateByMicros = lateByMicros
+        event.commit()
+    }
+
+    @JvmStatic
+    fun beginConvert(): FrameConvertedEvent = FrameConvertedEvent().also { it.begin() }
+
+    @JvmStatic
+    fun endConvert(event: FrameConvertedEvent, frame: Frame?, target: String, succeeded: Boolean) {
+        if (!event.isEnabled) return
+        event.end()
+        if (!event.shouldCommit()) return
+        if (frame != null) {
+            event.pts = frame.timestamp
+            event.streamIndex = frame.streamIndex
+            event.width = frame.imageWidth
+            event.height = frame.imageHeight
+        }
+        event.target = target
+        event.succeeded = succeeded
+        event.commit()
+    }
+
+    @JvmStatic
+    fun framePresented(pts: Long, streamIndex: Int, clockOffsetMicros: Long) {
+        val event = FramePresentedEvent()
+        if (!event.isEnabled) return
+        event.pts = pts
+        event.streamIndex = streamIndex
+        event.clockOffsetMicros = clockOffsetMicros
+        event.commit()
+    }
+
+    @JvmStatic
+    fun audioUnderrun(pts: Long, streamIndex: Int, availableBytes: Int, bufferSize: Int) {
+        val event = AudioUnderrunEvent()
+        if (!event.isEnabled) return
+        event.pts = pts
+        event.streamIndex = streamIndex
+        event.availableBytes = availableBytes
+        event.bufferSize = bufferSize
+        event.commit()
+    }
+
+    @JvmStatic
+    fun clockSourceSwitch(from: String?, to: String, positionMicros: Long) {
+        val event = ClockSourceSwitchEvent()
+        if (!event.isEnabled) return
+        event.from = from
+        event.to = to
+        event.positionMicros = positionMicros
+        event.commit()
+    }
+
+    @JvmStatic
+    fun beginSeek(): SeekEvent = SeekEvent().also { it.begin() }
+
+    @JvmStatic
+    fun endSeek(event: SeekEvent, targetPts: Long, resultingPts: Long, streamIndex: Int, mode: String) {
+        if (!event.isEnabled) return
+        event.end()
+        if (!event.shouldCommit()) return
+        event.targetPts = targetPts
+        event.resultingPts = resultingPts
+        event.streamIndex = streamIndex
+        event.mode = mode
+        event.commit()
+    }
+
+    private fun mediaTypeOf(frame: Frame): String = when {
+        frame.image != null -> "VIDEO"
+        frame.samples != null -> "AUDIO"
+        frame.data != null -> "DATA"
+        else -> "UNKNOWN"
+    }
+}
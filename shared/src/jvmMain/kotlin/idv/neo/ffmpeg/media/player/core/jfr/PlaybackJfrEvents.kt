@@ -0,0 +1,97 @@
+package idv.neo.ffmpeg.media.player.core.jfr
+
+import jdk.jfr.Category
+import jdk.jfr.Description
+import jdk.jfr.Event
+import jdk.jfr.Label
+import jdk.jfr.Name
+import jdk.jfr.StackTrace
+import jdk.jfr.Timespan
+
+// JFR event types of the playback hot path. Emit them through PlaybackEvents, which checks
+// isEnabled first so a disabled event costs one branch.
+
+@Name("idv.neo.ffmpeg.media.player.FrameGrabbed")
+@Label("Frame Grabbed")
+@Description("One FFmpegFrameGrabber grab call; the duration covers demux, decode and pixel conversion.")
+@Category("Media Player", "Playback")
+@StackTrace(false)
+class FrameGrabbedEvent : Event() {
+    @Label("PTS") @Timespan(Timespan.MICROSECONDS) @JvmField var pts: Long = 0L
+    @Label("Stream Index") @JvmField var streamIndex: Int = -1
+    @Label("Media Type") @JvmField var mediaType: String? = null
+    @Label("Key Frame") @JvmField var keyFrame: Boolean = false
+}
+
+@Name("idv.neo.ffmpeg.media.player.FrameDropped")
+@Label("Frame Dropped")
+@Description("A grabbed frame that was not played.")
+@Category("Media Player", "Playback")
+@StackTrace(false)
+class FrameDroppedEvent : Event() {
+    @Label("PTS") @Timespan(Timespan.MICROSECONDS) @JvmField var pts: Long = 0L
+    @Label("Stream Index") @JvmField var streamIndex: Int = -1
+    @Label("Reason") @JvmField var reason: String? = null
+    @Label("Late By") @Timespan(Timespan.MICROSECONDS) @JvmField var lateByMicros: Long = 0L
+}
+
+@Name("idv.neo.ffmpeg.media.player.FrameConverted")
+@Label("Frame Converted")
+@Description("UniversalFrameConverter turning a video frame into a UI image.")
+@Category("Media Player", "Playback")
+@StackTrace(false)
+class FrameConvertedEvent : Event() {
+    @Label("PTS") @Timespan(Timespan.MICROSECONDS) @JvmField var pts: Long = 0L
+    @Label("Stream Index") @JvmField var streamIndex: Int = -1
+    @Label("Target") @JvmField var target: String? = null
+    @Label("Width") @JvmField var width: Int = 0
+    @Label("Height") @JvmField var height: Int = 0
+    @Label("Succeeded") @JvmField var succeeded: Boolean = false
+}
+
+@Name("idv.neo.ffmpeg.media.player.FramePresented")
+@Label("Frame Presented")
+@Description("A video frame handed to the video output callback for display.")
+@Category("Media Player", "Playback")
+@StackTrace(false)
+class FramePresentedEvent : Event() {
+    @Label("PTS") @Timespan(Timespan.MICROSECONDS) @JvmField var pts: Long = 0L
+    @Label("Stream Index") @JvmField var streamIndex: Int = -1
+    @Label("Clock Offset") @Description("Media clock minus relative PTS when the frame was scheduled; positive means late.")
+    @Timespan(Timespan.MICROSECONDS) @JvmField var clockOffsetMicros: Long = 0L
+}
+
+@Name("idv.neo.ffmpeg.media.player.AudioUnderrun")
+@Label("Audio Underrun")
+@Description("The audio line had drained completely when the next samples were written.")
+@Category("Media Player", "Audio")
+@StackTrace(false)
+class AudioUnderrunEvent : Event() {
+    @Label("PTS") @Timespan(Timespan.MICROSECONDS) @JvmField var pts: Long = 0L
+    @Label("Stream Index") @JvmField var streamIndex: Int = -1
+    @Label("Available Bytes") @JvmField var availableBytes: Int = 0
+    @Label("Buffer Size") @JvmField var bufferSize: Int = 0
+}
+
+@Name("idv.neo.ffmpeg.media.player.ClockSourceSwitch")
+@Label("Clock Source Switch")
+@Description("The media clock changed between the audio line position and System.nanoTime().")
+@Category("Media Player", "Clock")
+@StackTrace(false)
+class ClockSourceSwitchEvent : Event() {
+    @Label("From") @JvmField var from: String? = null
+    @Label("To") @JvmField var to: String? = null
+    @Label("Clock Position") @Timespan(Timespan.MICROSECONDS) @JvmField var positionMicros: Long = 0L
+}
+
+@Name("idv.neo.ffmpeg.media.player.Seek")
+@Label("Seek")
+@Description("A seek on the grabber; the duration covers the seek call. Resulting PTS is -1 when the position reached is only known at the next frame.")
+@Category("Media Player", "Playback")
+@StackTrace(false)
+class SeekEvent : Event() {
+    @Label("Target PTS") @Timespan(Timespan.MICROSECONDS) @JvmField var targetPts: Long = 0L
+    @Label("Resulting PTS") @Timespan(Timespan.MICROSECONDS) @JvmField var resultingPts: Long = 0L
+    @Label("Stream Index") @JvmField var streamIndex: Int = -1
+    @Label("Mode") @JvmField var mode: String? = null
+}
@@ -0,0 +1,149 @@
+package idv.neo.ffmpeg.media.player.core.memory
+
+import org.bytedeco.javacv.Frame
+import java.lang.ref.Cleaner
+import java.nio.Buffer
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.FloatBuffer
+import java.nio.IntBuffer
+import java.nio.ShortBuffer
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * A reference-counted [Frame] whose native buffers are freed when the last reference is released.
+ *
+ * The players wrap every frame they clone for the video and audio callbacks in a handle and
+ * release their own reference when the callback returns. A callback that keeps the frame for
+ * later (a render queue, a recorder) calls [retain] before returning and [release] when done;
+ * one that only reads it during the call does nothing. [frame] must not be used after the
+ * reference it was read through has been released.
+ *
+ * A handle that becomes unreachable without being released is a leak. Its frame is then closed
+ * from a [Cleaner] thread, the leak is counted in [leakedHandles] and logged. Leak reports name
+ * the code that created the handle when allocation tracking is on ([trackAllocations], or
+ * `-Dplayer.frameLeakTracking=true`), which costs one stack trace per frame.
+ */
+class FrameHandle private constructor(
+    /** The wrapped frame. Valid while the caller holds a reference. */
+    val frame: Frame,
+    private val state: State
+) : AutoCloseable {
+
+    private val cleanable: Cleaner.Cleanable = CLEANER.register(this, state)
+
+    /** Current number of references; 0 once the frame has been freed. */
+    val referenceCount: Int get() = state.references.get()
+
+    /**
+     * Takes another reference, to be given back with [release].
+     * @throws IllegalStateException if the frame has already been freed
+     */
+    fun retain(): FrameHandle {
+        check(tryRetain()) { "FrameHandle already released" }
+        return this
+    }
+
+    /** [retain] for callers racing with the last [release]: returns false instead of throwing. */
+    fun tryRetain(): Boolean {
+        while (true) {
+            val count = state.references.get()
+            if (count <= 0) return false
+            if (state.references.compareAndSet(count, count + 1)) return true
+        }
+    }
+
+    /**
+     * Gives back one reference; the last one frees the frame.
+     * @throws IllegalStateException if no reference is left
+     */
+    fun release() {
+        while (true) {
+            val count = state.references.get()
+            check(count > 0) { "FrameHandle released more often than retained" }
+            if (state.references.compareAndSet(count, count - 1)) {
+                if (count == 1) cleanable.clean()
+                return
+            }
+        }
+    }
+
+    /** Same as [release], for try-with-resources and `use`. */
+    override fun close() = release()
+
+    // Must not reference the handle, or the handle never becomes unreachable.
+    private class State(
+        val frame: Frame,
+        val allocationSite: Throwable?,
+        val budget: NativeMemoryBudget?,
+        val bytes: Long
+    ) : Runnable {
+        val references = AtomicInteger(1)
+
+        override fun run() {
+            LIVE.decrementAndGet()
+            budget?.releaseFrame(bytes)
+            if (references.get() > 0) {
+                LEAKED.incrementAndGet()
+                if (allocationSite != null) {
+                    LOG.log(Level.WARNING, "FrameHandle leaked: never released, freed by the cleaner. Allocated at:", allocationSite)
+                } else {
+                    LOG.warning("FrameHandle leaked: never released, freed by the cleaner. Run with -D$TRACKING_PROPERTY=true to see where it was allocated.")
+                }
+            }
+            frame.close()
+        }
+    }
+
+    private class AllocationSite : Throwable("FrameHandle allocation site")
+
+    companion object {
+        private val LOG = Logger.getLogger(FrameHandle::class.java.name)
+        private const val TRACKING_PROPERTY = "player.frameLeakTracking"
+        private val CLEANER = Cleaner.create()
+        private val LIVE = AtomicLong()
+        private val LEAKED = AtomicLong()
+
+        /** Records a stack trace per handle so that leak reports show where it was created. */
+        @JvmStatic
+        @Volatile
+        var trackAllocations: Boolean = java.lang.Boolean.getBoolean(TRACKING_PROPERTY)
+
+        /**
+         * Takes ownership of [frame] and returns a handle holding its only reference. The frame's
+         * buffer sizes are charged to [budget] until it is freed.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun of(frame: Frame, budget: NativeMemoryBudget? = null): FrameHandle {
+            LIVE.incrementAndGet()
+            val bytes = if (budget != null) sizeOf(frame) else 0L
+            budget?.chargeFrame(bytes)
+            return FrameHandle(frame, State(frame, if (trackAllocations) AllocationSite() else null, budget, bytes))
+        }
+
+        /** Bytes held by [frame]'s image and sample buffers. */
+        @JvmStatic
+        fun sizeOf(frame: Frame): Long =
+            (frame.image?.sumOf { bufferBytes(it) } ?: 0L) + (frame.samples?.sumOf { bufferBytes(it) } ?: 0L)
+
+        private fun bufferBytes(buffer: Buffer?): Long = when (buffer) {
+            null -> 0L
+            is ByteBuffer -> buffer.capacity().toLong()
+            is ShortBuffer, is CharBuffer -> buffer.capacity() * 2L
+            is IntBuffer, is FloatBuffer -> buffer.capacity() * 4L
+            else -> buffer.capacity() * 8L
+        }
+
+        /** Handles whose frame has not been freed yet, in the whole process. Flat in steady playback. */
+        @JvmStatic
+        val liveHandles: Long get() = LIVE.get()
+
+        /** Handles freed by the cleaner instead of by [release] since the process started. */
+        @JvmStatic
+        val leakedHandles: Long get() = LEAKED.get()
+    }
+}
@@ -0,0 +1,30 @@
+package idv.neo.ffmpeg.media.player.core.memory
+
+/**
+ * A task that owns one reference to [handle] and gives it back when it runs. Players hand their
+ * video and audio tasks to their executors as FrameHandleTasks, with execute() rather than
+ * submit() (which would wrap them), so that the tasks shutdownNow() returns unrun can be found
+ * and their references given back with [releaseAll] instead of leaking.
+ */
+class FrameHandleTask(val handle: FrameHandle, private val body: Runnable) : Runnable {
+
+    override fun run() = body.run()
+
+    companion object {
+        /**
+         * Releases the handle of every FrameHandleTask in [tasks], as returned by
+         * ExecutorService.shutdownNow(), and returns how many it released.
+         */
+        @JvmStatic
+        fun releaseAll(tasks: List<Runnable>?): Int {
+            var released = 0
+            tasks?.forEach { task ->
+                if (task is FrameHandleTask) {
+                    task.handle.release()
+                    released++
+                }
+            }
+            return released
+        }
+    }
+}
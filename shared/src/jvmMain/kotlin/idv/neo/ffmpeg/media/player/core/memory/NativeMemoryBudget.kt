@@ -0,0 +1,206 @@
+package idv.neo.ffmpeg.media.player.core.memory
+
+import org.bytedeco.javacpp.Pointer
+import java.beans.ConstructorProperties
+import java.io.File
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import java.util.logging.Logger
+
+/** How close a [NativeMemoryBudget] is to its limit. */
+enum class MemoryPressure {
+    /** Below [NativeMemoryBudget.HIGH_WATERMARK] of the limit. */
+    NORMAL,
+    /** Read-ahead and packet queues run at a quarter of their size. */
+    HIGH,
+    /** Above [NativeMemoryBudget.CRITICAL_WATERMARK]: just enough read-ahead to keep audio fed, packet queues at their minimum. */
+    CRITICAL
+}
+
+/**
+ * Keeps a player's native memory under a limit by throttling read-ahead before the process is
+ * killed for exceeding its container's memory limit.
+ *
+ * A player budget counts the bytes it is charged with: frames in flight ([FrameHandle.of] with a
+ * budget) and demuxed packets waiting in packet queues. The [process] budget measures the whole
+ * process as JavaCPP sees it (Pointer.physicalBytes, the resident set size, which also covers
+ * FFmpeg's own allocations and the Java heap). A player budget's [pressure] is the higher of its
+ * own and the process budget's, so every player backs off when the process is near its limit.
+ *
+ * Players ask [readAheadMicros] how far ahead of the clock to demux, and packet queues ask
+ * [queueBytes] how much to hold. Nothing is dropped: under pressure the demuxer simply waits
+ * for the presentation clock to catch up.
+ *
+ * Limits come from system properties as a size (`512m`, `2g` or bytes): `player.nativeMemoryLimit`
+ * for the process, else the cgroup memory limit, else JavaCPP's maxPhysicalBytes; and
+ * `player.nativeMemoryLimit.perPlayer` for each player, default [DEFAULT_PLAYER_LIMIT].
+ */
+class NativeMemoryBudget private constructor(
+    val name: String,
+    /** Limit in bytes; Long.MAX_VALUE when unlimited. */
+    val limitBytes: Long,
+    private val parent: NativeMemoryBudget?
+) {
+    /** A player budget under the [process] budget. */
+    @JvmOverloads
+    constructor(name: String, limitBytes: Long = defaultPlayerLimit) : this(name, limitBytes, process)
+
+    private val frameBytes = AtomicLong()
+    private val packetBytes = AtomicLong()
+    private val ownPressure = AtomicReference(MemoryPressure.NORMAL)
+    private val lastPressure = AtomicReference(MemoryPressure.NORMAL)
+
+    // Process budget only: physicalBytes() reads /proc, so it is sampled at most every SAMPLE_NANOS.
+    @Volatile private var sampledBytes = 0L
+    @Volatile private var sampledAtNanos = Long.MIN_VALUE
+
+    /** Bytes of frames currently charged to this budget. */
+    val frameBytesInUse: Long get() = frameBytes.get()
+
+    /** Bytes of packets currently queued against this budget. */
+    val packetBytesQueued: Long get() = packetBytes.get()
+
+    /** Charged bytes for a player budget; the sampled resident set size for [process]. */
+    val usedBytes: Long
+        get() = if (parent == null) sampleProcessBytes() else frameBytes.get() + packetBytes.get()
+
+    val pressure: MemoryPressure
+        get() {
+            val own = updateOwnPressure(usedBytes)
+            val inherited = parent?.pressure ?: MemoryPressure.NORMAL
+            val current = if (inherited > own) inherited else own
+            val previous = lastPressure.getAndSet(current)
+            if (previous != current) {
+                val message = "NativeMemoryBudget [$name]: Pressure $previous -> $current (${usedBytes shr 20} MiB of ${limitLabel()})."
+                if (current > previous) LOG.warning(message) else LOG.info(message)
+            }
+            return current
+        }
+
+    fun chargeFrame(bytes: Long) { frameBytes.addAndGet(bytes) }
+
+    fun releaseFrame(bytes: Long) { frameBytes.addAndGet(-bytes) }
+
+    fun chargePackets(bytes: Long) { packetBytes.addAndGet(bytes) }
+
+    fun releasePackets(bytes: Long) { packetBytes.addAndGet(-bytes) }
+
+    /** How far ahead of the clock to demux, given the read-ahead used without pressure. */
+    fun readAheadMicros(normalMicros: Long): Long = when (pressure) {
+        MemoryPressure.NORMAL -> normalMicros
+        MemoryPressure.HIGH -> (normalMicros / 4).coerceAtLeast(MIN_READ_AHEAD_MICROS).coerceAtMost(normalMicros)
+        MemoryPressure.CRITICAL -> MIN_READ_AHEAD_MICROS.coerceAtMost(normalMicros)
+    }
+
+    /** How many bytes a packet queue may hold, given its size without pressure. */
+    fun queueBytes(normalBytes: Long): Long = when (pressure) {
+        MemoryPressure.NORMAL -> normalBytes
+        MemoryPressure.HIGH -> (normalBytes / 4).coerceAtLeast(MIN_QUEUE_BYTES)
+        MemoryPressure.CRITICAL -> MIN_QUEUE_BYTES.coerceAtMost(normalBytes)
+    }
+
+    fun snapshot(): MemoryUsageSnapshot = MemoryUsageSnapshot(
+        budget = name,
+        pressure = pressure.name,
+        limitBytes = limitBytes,
+        usedBytes = usedBytes,
+        frameBytes = frameBytes.get(),
+        packetBytes = packetBytes.get(),
+        liveFrameHandles = FrameHandle.liveHandles,
+        javacppBytes = Pointer.totalBytes(),
+        processBytes = (parent ?: this).sampleProcessBytes(),
+        processLimitBytes = (parent ?: this).limitBytes
+    )
+
+    // A level is left only once usage is HYSTERESIS below its watermark, so that a player hovering
+    // at a watermark does not toggle its read-ahead with every frame.
+    private fun updateOwnPressure(used: Long): MemoryPressure {
+        val previous = ownPressure.get()
+        val level = levelOf(used.toDouble())
+        val next = if (level >= previous) level else maxOf(level, minOf(previous, levelOf(used + limitBytes * HYSTERESIS)))
+        ownPressure.set(next)
+        return next
+    }
+
+    private fun levelOf(used: Double): MemoryPressure = when {
+        limitBytes == Long.MAX_VALUE -> MemoryPressure.NORMAL
+        used >= limitBytes * CRITICAL_WATERMARK -> MemoryPressure.CRITICAL
+        used >= limitBytes * HIGH_WATERMARK -> MemoryPressure.HIGH
+        else -> MemoryPressure.NORMAL
+    }
+
+    private fun sampleProcessBytes(): Long {
+        val now = System.nanoTime()
+        if (now - sampledAtNanos > SAMPLE_NANOS || sampledAtNanos == Long.MIN_VALUE) {
+            sampledBytes = Pointer.physicalBytes()
+            sampledAtNanos = now
+        }
+        return sampledBytes
+    }
+
+    private fun limitLabel(): String = if (limitBytes == Long.MAX_VALUE) "unlimited" else "${limitBytes shr 20} MiB"
+
+    companion object {
+        private val LOG = Logger.getLogger(NativeMemoryBudget::class.java.name)
+        const val HIGH_WATERMARK = 0.80
+        const val CRITICAL_WATERMARK = 0.95
+        private const val HYSTERESIS = 0.10
+        const val DEFAULT_PLAYER_LIMIT = 256L shl 20
+        private const val MIN_QUEUE_BYTES = 512L shl 10
+        private const val MIN_READ_AHEAD_MICROS = 100_000L
+        private const val SAMPLE_NANOS = 100_000_000L
+
+        /** The whole process, measured by resident set size. */
+        @JvmStatic
+        val process: NativeMemoryBudget by lazy {
+            val limit = parseSize(System.getProperty("player.nativeMemoryLimit")) ?: cgroupLimit()
+                ?: Pointer.maxPhysicalBytes().takeIf { it > 0 } ?: Long.MAX_VALUE
+            NativeMemoryBudget("process", limit, null).also {
+                LOG.info("NativeMemoryBudget: Process limit ${it.limitLabel()}.")
+            }
+        }
+
+        private val defaultPlayerLimit: Long
+            get() = parseSize(System.getProperty("player.nativeMemoryLimit.perPlayer")) ?: DEFAULT_PLAYER_LIMIT
+
+        /** Parses `1073741824`, `512k`, `768m` or `2g`; null if absent or malformed. */
+        internal fun parseSize(value: String?): Long? {
+            val s = value?.trim()?.lowercase()?.takeIf { it.isNotEmpty() } ?: return null
+            val shift = when (s.last()) { 'k' -> 10; 'm' -> 20; 'g' -> 30; else -> 0 }
+            val digits = if (shift == 0) s else s.dropLast(1)
+            return digits.toLongOrNull()?.takeIf { it > 0 }?.shl(shift)
+        }
+
+        // cgroup v2, then v1; "max" or a near-Long.MAX_VALUE v1 value mean no limit.
+        private fun cgroupLimit(): Long? {
+            val candidates = listOf("/sys/fs/cgroup/memory.max", "/sys/fs/cgroup/memory/memory.limit_in_bytes")
+            for (path in candidates) {
+                val text = try { File(path).takeIf { it.canRead() }?.readText()?.trim() } catch (e: Exception) { null } ?: continue
+                val bytes = text.toLongOrNull() ?: return null
+                return bytes.takeIf { it < (1L shl 60) }
+            }
+            return null
+        }
+    }
+}
+
+/** Memory use of one budget and of the process, in bytes. */
+data class MemoryUsageSnapshot @ConstructorProperties(
+    "budget", "pressure", "limitBytes", "usedBytes", "frameBytes", "packetBytes",
+    "liveFrameHandles", "javacppBytes", "processBytes", "processLimitBytes"
+) constructor(
+    val budget: String,
+    val pressure: String,
+    val limitBytes: Long,
+    val usedBytes: Long,
+    val frameBytes: Long,
+    val packetBytes: Long,
+    val liveFrameHandles: Long,
+    val javacppBytes: Long,
+    val processBytes: Long,
+    val processLimitBytes: Long
+) {
+    override fun toString(): String =
+        "memory[$pressure, player=${usedBytes shr 20}MiB (frames=${frameBytes shr 20}MiB, packets=${packetBytes shr 20}MiB), " +
+            "handles=$liveFrameHandles, javacpp=${javacppBytes shr 20}MiB, process=${processBytes shr 20}MiB]"
+}
@@ -0,0 +1,103 @@
+package idv.neo.ffmpeg.media.player.core.present
+
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents
+import idv.neo.ffmpeg.media.player.core.stats.PlaybackStage
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats
+import javafx.animation.AnimationTimer
+import javafx.scene.image.ImageView
+import javafx.scene.image.PixelBuffer
+import javafx.scene.image.PixelFormat
+import javafx.scene.image.WritableImage
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.Frame
+import java.nio.ByteBuffer
+import java.util.logging.Logger
+
+/**
+ * Shows video frames in an [ImageView] from the JavaFX pulse instead of one `Platform.runLater`
+ * per frame.
+ *
+ * Player threads hand frames to [offer] when they are due, as the players' video callbacks
+ * already do; that copies the pixels into a [VideoFrameSlot] and returns. On every pulse the
+ * [AnimationTimer] takes the newest frame from the slot, converts it straight into the
+ * [PixelBuffer] behind the view's image and lets the scene graph repaint. Frames offered between
+ * two pulses replace each other unconverted, so a decode burst costs copies, not FX-thread work,
+ * and the application thread's queue stays free for input and layout.
+ *
+ * Pulse-to-present latency (from the pulse timestamp to the updated image) is recorded as
+ * [PlaybackStage.PRESENT] and the conversion as [PlaybackStage.CONVERT] in [stats].
+ */
+class FxFramePresenter(private val imageView: ImageView) : AnimationTimer() {
+
+    /** Where to record latencies; may be set after the player is built. */
+    @Volatile var stats: PlayerStats? = null
+
+    private val slot = VideoFrameSlot()
+    private val scaler = ViewScaler(avutil.AV_PIX_FMT_BGRA)
+    private var pixelBuffer: PixelBuffer<ByteBuffer>? = null // FX thread only
+    private var running = false
+
+    /** Frames shown so far. Read on any thread. */
+    @Volatile var presentedFrames = 0L
+        private set
+
+    /** Frames that were offered but replaced by a newer one before a pulse showed them. */
+    val supersededFrames: Long get() = slot.supersededFrames
+
+    /**
+     * Queues [frame] for the next pulse; [frame] stays owned by the caller. [pixelFormat] is the
+     * frame's FFmpeg pixel format, as reported with the video dimensions. Called on one player
+     * thread at a time.
+     */
+    fun offer(frame: Frame, timestampMicros: Long, pixelFormat: Int) {
+        slot.publish(frame, timestampMicros, pixelFormat)
+    }
+
+    override fun start() {
+        running = true
+        super.start()
+    }
+
+    override fun handle(now: Long) {
+        val view = slot.acquire() ?: return
+        val event = PlaybackEvents.beginConvert()
+        val convertStartNanos = System.nanoTime()
+        val buffer = pixelBufferFor(view)
+        var converted = false
+        buffer.updateBuffer {
+            converted = scaler.scale(view, it.buffer, view.width * 4)
+            null // the whole image changed
+        }
+        val presentedNanos = System.nanoTime()
+        stats?.let {
+            it.record(PlaybackStage.CONVERT, presentedNanos - convertStartNanos)
+            // Pulse time is taken before the pulse runs animations, so this includes their cost.
+            it.record(PlaybackStage.PRESENT, presentedNanos - now)
+        }
+        PlaybackEvents.endConvert(event, null, "FX_PIXEL_BUFFER", converted)
+        if (converted) presentedFrames++
+    }
+
+    // The image is replaced only when the video size changes.
+    private fun pixelBufferFor(view: VideoFrameSlot.View): PixelBuffer<ByteBuffer> {
+        pixelBuffer?.let { if (it.width == view.width && it.height == view.height) return it }
+        val buffer = PixelBuffer(view.width, view.height, ByteBuffer.allocateDirect(view.width * view.height * 4),
+            PixelFormat.getByteBgraPreInstance())
+        pixelBuffer = buffer
+        imageView.image = WritableImage(buffer)
+        return buffer
+    }
+
+    /** Stops presenting and frees the converter. Call on the FX application thread. */
+    override fun stop() {
+        super.stop()
+        if (!running) return
+        running = false
+        scaler.close()
+        LOG.info("FxFramePresenter: presented $presentedFrames frames, $supersededFrames superseded before a pulse.")
+    }
+
+    private companion object {
+        val LOG: Logger = Logger.getLogger(FxFramePresenter::class.java.name)
+    }
+}
@@ -0,0 +1,111 @@
+package idv.neo.ffmpeg.media.player.core.present
+
+import idv.neo.ffmpeg.media.player.core.stats.LatencyHistogram
+import kotlinx.coroutines.delay
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Waits for video presentation deadlines more precisely than Thread.sleep / delay, whose
+ * millisecond granularity and oversleep show up as several milliseconds of judder at 60 fps.
+ *
+ * [awaitDeadline] parks with [LockSupport.parkNanos] until shortly before the deadline and
+ * busy-waits the rest ([Thread.onSpinWait]). The park stops early by the spin tail plus the
+ * oversleep measured on previous parks (a moving average), so a platform that wakes threads
+ * late gets a longer spin instead of late frames; the margin never exceeds [maxSpinTailNanos].
+ * Spinning costs CPU only for that last fraction of a millisecond per frame.
+ *
+ * Coroutines use [awaitDeadlineSuspending], which covers all but the last few milliseconds
+ * with a cancellable [delay]. [cancel] ends the current wait and every later one, so that stopping
+ * a player does not wait for the frames in flight; [reset] re-arms the scheduler.
+ *
+ * How late each wait ended is recorded in [lateness] (nanoseconds). Use one scheduler per
+ * presenting thread.
+ */
+class PresentationScheduler @JvmOverloads constructor(
+    /** Busy-wait before each deadline, in addition to the measured oversleep. */
+    private val spinTailNanos: Long = DEFAULT_SPIN_TAIL_NANOS,
+    /** Upper bound of spin tail plus oversleep allowance. */
+    private val maxSpinTailNanos: Long = DEFAULT_MAX_SPIN_TAIL_NANOS
+) {
+    init {
+        require(spinTailNanos >= 0 && maxSpinTailNanos >= spinTailNanos) { "Need 0 <= spinTailNanos <= maxSpinTailNanos" }
+    }
+
+    /** Lateness of every [awaitDeadline], in nanoseconds; 0 when on time. */
+    val lateness = LatencyHistogram()
+
+    @Volatile var oversleepEstimateNanos = 0L
+        private set
+
+    @Volatile private var cancelled = false
+    @Volatile private var waiter: Thread? = null
+
+    /** Ends the current wait and makes later ones return right away, until [reset]. Any thread. */
+    fun cancel() {
+        cancelled = true
+        waiter?.let { LockSupport.unpark(it) }
+    }
+
+    fun reset() {
+        cancelled = false
+    }
+
+    /**
+     * Returns at or just after [deadlineNanos] (a [System.nanoTime] value), or right away if it
+     * has passed, the thread is interrupted (the interrupt flag stays set) or the scheduler is
+     * [cancel]led. Returns how late it returned, in nanoseconds (0 when on time or cancelled).
+     */
+    fun awaitDeadline(deadlineNanos: Long): Long {
+        waiter = Thread.currentThread()
+        try {
+            return awaitUnlessCancelled(deadlineNanos)
+        } finally {
+            waiter = null
+        }
+    }
+
+    /** [awaitDeadline] for a deadline [delayMicros] from now. */
+    fun awaitDelay(delayMicros: Long): Long = awaitDeadline(System.nanoTime() + delayMicros * 1000L)
+
+    /**
+     * [awaitDeadline] for coroutines: waits with [delay] until [COARSE_MARGIN_NANOS] before the
+     * deadline and parks only for the rest, so cancelling the coroutine ends the wait within a
+     * few milliseconds.
+     */
+    suspend fun awaitDeadlineSuspending(deadlineNanos: Long): Long {
+        val coarseMillis = (deadlineNanos - System.nanoTime() - COARSE_MARGIN_NANOS) / 1_000_000L
+        if (coarseMillis > 0 && !cancelled) delay(coarseMillis)
+        return awaitDeadline(deadlineNanos)
+    }
+
+    /** [awaitDeadlineSuspending] for a deadline [delayMicros] from now. */
+    suspend fun awaitDelaySuspending(delayMicros: Long): Long = awaitDeadlineSuspending(System.nanoTime() + delayMicros * 1000L)
+
+    private fun awaitUnlessCancelled(deadlineNanos: Long): Long {
+        while (!Thread.currentThread().isInterrupted && !cancelled) {
+            val margin = (spinTailNanos + oversleepEstimateNanos).coerceAtMost(maxSpinTailNanos)
+            val parkNanos = deadlineNanos - System.nanoTime() - margin
+            if (parkNanos <= 0) break
+            val wakeAt = System.nanoTime() + parkNanos
+            LockSupport.parkNanos(this, parkNanos)
+            // Spurious or early wake-ups say nothing about oversleep; just park again.
+            val overslept = System.nanoTime() - wakeAt
+            if (overslept >= 0) oversleepEstimateNanos += (overslept - oversleepEstimateNanos) / OVERSLEEP_SMOOTHING
+        }
+        while (System.nanoTime() < deadlineNanos && !Thread.currentThread().isInterrupted && !cancelled) {
+            Thread.onSpinWait()
+        }
+        if (cancelled) return 0L
+        val late = (System.nanoTime() - deadlineNanos).coerceAtLeast(0L)
+        lateness.record(late)
+        return late
+    }
+
+    companion object {
+        const val DEFAULT_SPIN_TAIL_NANOS = 200_000L
+        const val DEFAULT_MAX_SPIN_TAIL_NANOS = 2_000_000L
+        /** How long before the deadline [awaitDeadlineSuspending] stops delaying and parks. */
+        const val COARSE_MARGIN_NANOS = 3_000_000L
+        private const val OVERSLEEP_SMOOTHING = 8
+    }
+}
@@ -0,0 +1,106 @@
+package idv.neo.ffmpeg.media.player.core.present
+
+import org.bytedeco.javacv.Frame
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Hands the newest video frame from a player thread to a render loop without locks or
+ * per-frame allocation: a triple buffer of packed pixel copies.
+ *
+ * The player calls [publish] for every frame it presents; that copies the pixels into the back
+ * buffer and swaps it with the middle one. The render loop calls [acquire] once per display
+ * refresh; if a newer frame was published it swaps the middle buffer to the front and returns it.
+ * Frames replaced before the render loop looked are simply overwritten, so nothing is converted
+ * that is never shown. One producer and one consumer at a time.
+ */
+class VideoFrameSlot {
+
+    /** A published frame: packed rows of [stride] bytes in [pixelFormat]. Valid until the next [acquire]. */
+    class View internal constructor() {
+        var buffer: ByteBuffer = EMPTY
+            internal set
+        var width = 0
+            internal set
+        var height = 0
+            internal set
+        var stride = 0
+            internal set
+        var pixelFormat = -1
+            internal set
+        var timestampMicros = 0L
+            internal set
+        /** Increases with every published frame; gaps are frames that were never acquired. */
+        var sequence = 0L
+            internal set
+    }
+
+    private val views = arrayOf(View(), View(), View())
+    // Index of the middle buffer, plus FRESH when it holds a frame the consumer has not taken.
+    private val middle = AtomicInteger(1)
+    private var back = 0  // producer only
+    private var front = 2 // consumer only
+    private var published = 0L // producer only
+
+    /** Frames replaced by a newer one before [acquire] took them; written by the producer only. */
+    @Volatile var supersededFrames = 0L
+        private set
+
+    /**
+     * Copies [frame]'s image. Called on the player's video thread; the frame stays owned by the
+     * caller. Frames without an image are ignored.
+     */
+    fun publish(frame: Frame, timestampMicros: Long, pixelFormat: Int) {
+        val source = frame.image?.getOrNull(0) as? ByteBuffer ?: return
+        if (frame.imageWidth <= 0 || frame.imageHeight <= 0) return
+        val view = views[back]
+        val rowBytes = frame.imageWidth * frame.imageChannels * bytesPerChannel(frame.imageDepth)
+        val sourceStride = if (frame.imageStride > 0) frame.imageStride * bytesPerChannel(frame.imageDepth) else rowBytes
+        val size = rowBytes * frame.imageHeight
+        if (view.buffer.capacity() < size) view.buffer = ByteBuffer.allocateDirect(size)
+
+        val target = view.buffer
+        target.clear()
+        val rows = source.duplicate()
+        if (sourceStride == rowBytes) {
+            rows.position(0).limit(size)
+            target.put(rows)
+        } else {
+            for (y in 0 until frame.imageHeight) {
+                rows.limit(y * sourceStride + rowBytes).position(y * sourceStride)
+                target.put(rows)
+            }
+        }
+        target.flip()
+        view.width = frame.imageWidth
+        view.height = frame.imageHeight
+        view.stride = rowBytes
+        view.pixelFormat = pixelFormat
+        view.timestampMicros = timestampMicros
+        view.sequence = ++published
+
+        val previous = middle.getAndSet(back or FRESH)
+        if (previous and FRESH != 0) supersededFrames++
+        back = previous and INDEX_MASK
+    }
+
+    /** The newest frame if one was published since the last call, otherwise null. */
+    fun acquire(): View? {
+        if (middle.get() and FRESH == 0) return null
+        front = middle.getAndSet(front) and INDEX_MASK
+        return views[front]
+    }
+
+    private fun bytesPerChannel(depth: Int): Int = when (depth) {
+        Frame.DEPTH_SHORT, Frame.DEPTH_USHORT -> 2
+        Frame.DEPTH_INT, Frame.DEPTH_FLOAT -> 4
+        Frame.DEPTH_LONG, Frame.DEPTH_DOUBLE -> 8
+        else -> 1
+    }
+
+    private companion object {
+        const val FRESH = 4
+        const val INDEX_MASK = 3
+        val EMPTY: ByteBuffer = ByteBuffer.allocateDirect(0)
+    }
+}
@@ -0,0 +1,53 @@
+package idv.neo.ffmpeg.media.player.core.present
+
+import org.bytedeco.ffmpeg.global.swscale
+import org.bytedeco.ffmpeg.swscale.SwsContext
+import org.bytedeco.javacpp.BytePointer
+import org.bytedeco.javacpp.DoublePointer
+import org.bytedeco.javacpp.IntPointer
+import org.bytedeco.javacpp.PointerPointer
+import java.nio.ByteBuffer
+
+/**
+ * Converts [VideoFrameSlot.View]s into a caller-owned packed buffer, e.g. the pixel memory of a
+ * toolkit image, so presenting a frame costs one sws_scale and no allocation. Same-size
+ * conversion uses point sampling; scaling uses bilinear filtering. Not thread-safe; each
+ * presenter owns one.
+ */
+class ViewScaler(private val targetPixelFormat: Int) : AutoCloseable {
+    private var swsContext: SwsContext? = null
+    private val sourcePlanes = PointerPointer<BytePointer>(1L)
+    private val sourceStride = IntPointer(1L)
+    private val targetPlanes = PointerPointer<BytePointer>(1L)
+    private val targetStride = IntPointer(1L)
+
+    /**
+     * Writes [view], scaled to [targetWidth] x [targetHeight], into [target] (a direct buffer) with
+     * rows of [targetRowBytes]; false if the formats cannot be converted.
+     */
+    @JvmOverloads
+    fun scale(
+        view: VideoFrameSlot.View,
+        target: ByteBuffer,
+        targetRowBytes: Int,
+        targetWidth: Int = view.width,
+        targetHeight: Int = view.height
+    ): Boolean {
+        val flags = if (targetWidth == view.width && targetHeight == view.height) swscale.SWS_POINT else swscale.SWS_BILINEAR
+        val sws = swscale.sws_getCachedContext(swsContext, view.width, view.height, view.pixelFormat,
+            targetWidth, targetHeight, targetPixelFormat, flags, null, null, null as DoublePointer?)
+            ?: return false
+        swsContext = sws
+        sourcePlanes.put(0L, BytePointer(view.buffer))
+        sourceStride.put(0L, view.stride)
+        targetPlanes.put(0L, BytePointer(target))
+        targetStride.put(0L, targetRowBytes)
+        swscale.sws_scale(sws, sourcePlanes, sourceStride, 0, view.height, targetPlanes, targetStride)
+        return true
+    }
+
+    override fun close() {
+        swsContext?.let { swscale.sws_freeContext(it) }
+        swsContext = null
+    }
+}
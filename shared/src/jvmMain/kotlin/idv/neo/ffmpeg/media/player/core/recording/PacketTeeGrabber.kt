@@ -0,0 +1,122 @@
+package idv.neo.ffmpeg.media.player.core.recording
+
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents
+import idv.neo.ffmpeg.media.player.core.source.PacketDecoder
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avformat
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+
+/**
+ * A [FrameGrabber] that demuxes with [FFmpegFrameGrabber.grabPacket], shows every packet to a
+ * [RecordingTap], and then decodes the packet with its own decoders. This way a recording gets
+ * exactly the compressed packets that are played, with no second connection and no re-encode.
+ *
+ * Output matches FFmpegFrameGrabber's defaults: packed video in [getPixelFormat] (BGR24 unless set
+ * before start), scaled to imageWidth x imageHeight when those are set, and interleaved S16
+ * audio at the source rate and channel count. Frames and their buffers are reused between grabs
+ * and are plain direct buffers, so clone a frame to keep it; closing one is harmless.
+ *
+ * Created by [RecordingTap.grabberFactory].
+ */
+class PacketTeeGrabber internal constructor(
+    private val demuxer: FFmpegFrameGrabber,
+    private val tap: RecordingTap
+) : FrameGrabber() {
+
+    private var decoder: PacketDecoder? = null
+    private var endOfInput = false
+
+    /** The demuxer's own stream layout, for the recorder. */
+    internal val source: FFmpegFrameGrabber get() = demuxer
+
+    override fun start() {
+        // This class extends FrameGrabber, so property syntax on demuxer could bind to
+        // FrameGrabber's protected fields; call FFmpegFrameGrabber's getters instead.
+        demuxer.start()
+        val formatContext = demuxer.getFormatContext()
+        format = demuxer.getFormat()
+        frameRate = demuxer.getFrameRate()
+        if (pixelFormat == -1) pixelFormat = avutil.AV_PIX_FMT_BGR24
+        videoStream = demuxer.getVideoStream()
+        audioStream = demuxer.getAudioStream()
+        if (videoStream >= 0 && (imageWidth <= 0 || imageHeight <= 0)) {
+            imageWidth = demuxer.getImageWidth()
+            imageHeight = demuxer.getImageHeight()
+        }
+        if (audioStream >= 0) {
+            audioChannels = demuxer.getAudioChannels()
+            sampleRate = demuxer.getSampleRate()
+            sampleFormat = avutil.AV_SAMPLE_FMT_S16
+        }
+        decoder = PacketDecoder(
+            if (videoStream >= 0) formatContext.streams(videoStream) else null,
+            if (audioStream >= 0) formatContext.streams(audioStream) else null
+        )
+        endOfInput = false
+        tap.attach(this)
+    }
+
+    override fun grab(): Frame? {
+        val decoder = decoder ?: throw Exception("grab() called before start()")
+        decoder.pixelFormat = pixelFormat
+        decoder.outputWidth = imageWidth
+        decoder.outputHeight = imageHeight
+        while (true) {
+            decoder.receive()?.let { frame ->
+                timestamp = frame.timestamp
+                if (frame.type == Frame.Type.VIDEO) frameNumber++
+                return frame
+            }
+            if (endOfInput) return null
+
+            val packet = demuxer.grabPacket()
+            if (packet == null) {
+                // Drain the decoders before reporting the end.
+                endOfInput = true
+                decoder.sendEndOfInput()
+                continue
+            }
+            // grabPacket() is a bare av_read_frame(); the tap and the decoder take their own references.
+            try {
+                tap.offer(packet)
+                decoder.send(packet)
+            } finally {
+                avcodec.av_packet_unref(packet)
+            }
+        }
+    }
+
+    override fun getLengthInTime(): Long = demuxer.getLengthInTime()
+
+    override fun getLengthInFrames(): Int = demuxer.getLengthInFrames()
+
+    /** Seeks to the key frame at or before [timestamp]; the recording resumes at the next key frame. */
+    override fun setTimestamp(timestamp: Long) {
+        val formatContext = demuxer.getFormatContext() ?: return
+        val seekEvent = PlaybackEvents.beginSeek()
+        val ret = avformat.avformat_seek_file(formatContext, -1, Long.MIN_VALUE, timestamp, timestamp, avformat.AVSEEK_FLAG_BACKWARD)
+        PlaybackEvents.endSeek(seekEvent, timestamp, -1L, -1, PlaybackEvents.SEEK_KEY_FRAME)
+        if (ret < 0) throw Exception("avformat_seek_file() to $timestamp failed: $ret")
+        decoder?.flush()
+        endOfInput = false
+        tap.discontinuity(this)
+        this.timestamp = timestamp
+    }
+
+    override fun stop() {
+        tap.detach(this)
+        decoder?.close()
+        decoder = null
+        demuxer.stop()
+    }
+
+    override fun trigger() {}
+
+    override fun release() {
+        stop()
+        demuxer.release()
+    }
+}
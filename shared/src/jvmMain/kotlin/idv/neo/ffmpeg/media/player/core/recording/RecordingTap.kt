@@ -0,0 +1,217 @@
+package idv.neo.ffmpeg.media.player.core.recording
+
+import idv.neo.ffmpeg.media.player.core.source.FrameGrabberFactory
+import idv.neo.ffmpeg.media.player.core.source.SyntheticFrameGrabber
+import org.bytedeco.ffmpeg.avcodec.AVPacket
+import org.bytedeco.ffmpeg.avformat.AVFormatContext
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.FFmpegFrameRecorder
+import java.io.Closeable
+import java.io.File
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/** What a finished recording wrote. */
+data class RecordingResult(
+    val file: File,
+    val packetsWritten: Long,
+    val packetsDropped: Long,
+    val durationMicros: Long,
+    val error: Exception?
+)
+
+/**
+ * Records the stream a player is playing, without re-encoding, while it keeps playing.
+ *
+ * Give the player [grabberFactory]; its grabber then shows every demuxed packet to this tap. While
+ * a recording runs, packets are cloned (a reference count, not a copy) into a bounded queue and
+ * remuxed into the file by [FFmpegFrameRecorder.recordPacket] on a recorder thread, so the grab
+ * loop never waits on disk. If the queue is full the packet is dropped and the recording resumes
+ * at the next video key frame, so a slow disk costs a gap in the file, never a stall in playback.
+ *
+ * Recordings start on a video key frame and their timestamps start at zero. [startRecording] and
+ * [stopRecording] may be called any number of times during one playback. One tap serves one
+ * player at a time; stopping the player finishes the current recording.
+ */
+class RecordingTap @JvmOverloads constructor(private val queueCapacity: Int = 1024) : Closeable {
+
+    private var source: PacketTeeGrabber? = null
+    @Volatile private var active: Recording? = null
+
+    /**
+     * The factory to give the player: FFmpeg sources are read through a [PacketTeeGrabber] bound
+     * to this tap, `synthetic:` sources (which have no packets) are opened as usual.
+     */
+    fun grabberFactory(): FrameGrabberFactory = FrameGrabberFactory { mediaPath ->
+        if (SyntheticFrameGrabber.isSyntheticUri(mediaPath)) SyntheticFrameGrabber.fromUri(mediaPath)
+        else PacketTeeGrabber(FFmpegFrameGrabber(mediaPath), this)
+    }
+
+    val isRecording: Boolean get() = active != null
+
+    /**
+     * Starts recording the current playback into [file]. The container follows the file name
+     * (e.g. .mkv, .ts, .mp4) unless [format] is given; it must accept the source's codecs.
+     */
+    @Synchronized
+    @JvmOverloads
+    fun startRecording(file: File, format: String? = null) {
+        check(active == null) { "Already recording to ${active?.file}" }
+        val grabber = source ?: throw IllegalStateException("No playback to record; start the player first")
+        active = Recording(file, format, grabber.source).also { it.start() }
+        LOG.info("RecordingTap: Recording to ${file.absolutePath}")
+    }
+
+    /** Finishes the current recording and waits for its queued packets to be written. */
+    @Synchronized
+    fun stopRecording(): RecordingResult? {
+        val recording = active ?: return null
+        active = null
+        return recording.finish().also { result ->
+            LOG.info("RecordingTap: Finished ${result.file.name}: ${result.packetsWritten} packets, " +
+                    "${result.packetsDropped} dropped, ${result.durationMicros / 1000} ms")
+        }
+    }
+
+    override fun close() {
+        stopRecording()
+    }
+
+    @Synchronized
+    internal fun attach(grabber: PacketTeeGrabber) {
+        if (source != null && source !== grabber) stopRecording()
+        source = grabber
+    }
+
+    @Synchronized
+    internal fun detach(grabber: PacketTeeGrabber) {
+        if (source !== grabber) return
+        // The recorder reads the grabber's format context, so finish before it is freed.
+        stopRecording()
+        source = null
+    }
+
+    /** Called on the grab thread for every demuxed packet. */
+    internal fun offer(packet: AVPacket) {
+        active?.offer(packet)
+    }
+
+    /** Called on the grab thread after a seek: the recording continues at the next key frame. */
+    internal fun discontinuity(grabber: PacketTeeGrabber) {
+        if (source === grabber) active?.resync()
+    }
+
+    private inner class Recording(val file: File, private val format: String?, private val input: FFmpegFrameGrabber) {
+        private val queue = ArrayBlockingQueue<AVPacket>(queueCapacity)
+        private val videoIndex = input.getVideoStream()
+        private val thread = Thread(::writeLoop, "Recording-Writer-${file.name}").apply { isDaemon = true }
+
+        // Grab thread only.
+        private var waitingForKeyFrame = true
+        @Volatile private var dropped = 0L
+        // Held while a packet is queued, so that none is queued once finish() has begun.
+        private val offerLock = Any()
+
+        // Writer thread only.
+        private var written = 0L
+        private var startMicros = Long.MIN_VALUE
+        private var lastMicros = 0L
+        @Volatile private var finishing = false
+        @Volatile private var error: Exception? = null
+
+        fun start() = thread.start()
+
+        fun offer(packet: AVPacket) {
+            synchronized(offerLock) {
+                if (finishing) return
+                if (waitingForKeyFrame) {
+                    val isKey = (packet.flags() and avcodec.AV_PKT_FLAG_KEY) != 0
+                    if (videoIndex >= 0 && !(packet.stream_index() == videoIndex && isKey)) return
+                    waitingForKeyFrame = false
+                }
+                val copy = avcodec.av_packet_clone(packet) ?: return
+                if (!queue.offer(copy)) {
+                    avcodec.av_packet_free(copy)
+                    dropped++
+                    waitingForKeyFrame = true
+                }
+            }
+        }
+
+        fun resync() {
+            waitingForKeyFrame = true
+        }
+
+        fun finish(): RecordingResult {
+            // Waits for an offer() in progress; later ones are rejected.
+            synchronized(offerLock) { finishing = true }
+            try {
+                thread.join()
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+            // Left over if the join was interrupted; free them.
+            while (true) avcodec.av_packet_free(queue.poll() ?: break)
+            val duration = if (startMicros == Long.MIN_VALUE) 0L else lastMicros - startMicros
+            return RecordingResult(file, written, dropped, duration, error)
+        }
+
+        private fun writeLoop() {
+            var recorder: FFmpegFrameRecorder? = null
+            try {
+                file.absoluteFile.parentFile?.mkdirs()
+                // The recorder only creates the streams it has dimensions and channels for; their
+                // codecs and parameters are then copied from the input format context.
+                recorder = FFmpegFrameRecorder(file, input.getImageWidth(), input.getImageHeight(), input.getAudioChannels())
+                recorder.sampleRate = input.getSampleRate()
+                if (format != null) recorder.format = format
+                val formatContext = input.getFormatContext()
+                recorder.start(formatContext)
+                while (true) {
+                    val packet = queue.poll(50, TimeUnit.MILLISECONDS)
+                    if (packet == null) {
+                        if (finishing) break else continue
+                    }
+                    try {
+                        if (rebase(packet, formatContext)) {
+                            recorder.recordPacket(packet)
+                            written++
+                        }
+                    } finally {
+                        avcodec.av_packet_free(packet)
+                    }
+                }
+            } catch (e: Exception) {
+                error = e
+                LOG.log(Level.WARNING, "RecordingTap: Recording to ${file.name} failed.", e)
+            } finally {
+                try { recorder?.stop(); recorder?.release() } catch (e: Exception) { LOG.log(Level.WARNING, "RecordingTap: Closing ${file.name} failed.", e) }
+                while (true) avcodec.av_packet_free(queue.poll() ?: break)
+            }
+        }
+
+        // Shifts the packet so the recording starts at zero; drops packets from before the start.
+        private fun rebase(packet: AVPacket, formatContext: AVFormatContext): Boolean {
+            val timeBase = formatContext.streams(packet.stream_index()).time_base()
+            val dts = if (packet.dts() != avutil.AV_NOPTS_VALUE) packet.dts() else packet.pts()
+            if (dts == avutil.AV_NOPTS_VALUE) return startMicros != Long.MIN_VALUE
+            val dtsMicros = avutil.av_rescale_q(dts, timeBase, MICROSECONDS)
+            if (startMicros == Long.MIN_VALUE) startMicros = dtsMicros
+            if (dtsMicros < startMicros) return false
+            val offset = avutil.av_rescale_q(startMicros, MICROSECONDS, timeBase)
+            if (packet.dts() != avutil.AV_NOPTS_VALUE) packet.dts(packet.dts() - offset)
+            if (packet.pts() != avutil.AV_NOPTS_VALUE) packet.pts(packet.pts() - offset)
+            lastMicros = maxOf(lastMicros, dtsMicros)
+            return true
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(RecordingTap::class.java.name)
+        private val MICROSECONDS = avutil.av_make_q(1, 1_000_000)
+    }
+}
@@ -0,0 +1,152 @@
+package idv.neo.ffmpeg.media.player.core.snapshot
+
+import idv.neo.ffmpeg.media.player.core.UniversalFrameConverter
+import idv.neo.ffmpeg.media.player.core.memory.FrameHandle
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+
+enum class SnapshotFormat(internal val imageIoName: String, val extension: String) {
+    PNG("png", "png"),
+    JPEG("jpeg", "jpg")
+}
+
+/**
+ * Encodes [image] as [format]. JPEG has no alpha, so ARGB images are flattened first.
+ * Thread-safe; every call uses its own ImageIO writer.
+ */
+internal fun encodeImage(image: BufferedImage, format: SnapshotFormat, jpegQuality: Float): ByteArray {
+    val opaque = if (format == SnapshotFormat.JPEG && image.colorModel.hasAlpha()) {
+        BufferedImage(image.width, image.height, BufferedImage.TYPE_3BYTE_BGR).also { flat ->
+            val g = flat.createGraphics()
+            try { g.drawImage(image, 0, 0, null) } finally { g.dispose() }
+        }
+    } else image
+
+    val output = ByteArrayOutputStream(opaque.width * opaque.height / 2)
+    val writer = ImageIO.getImageWritersByFormatName(format.imageIoName).next()
+    try {
+        ImageIO.createImageOutputStream(output).use { stream ->
+            writer.output = stream
+            val param = writer.defaultWriteParam
+            if (format == SnapshotFormat.JPEG) {
+                param.compressionMode = ImageWriteParam.MODE_EXPLICIT
+                param.compressionQuality = jpegQuality
+            }
+            writer.write(null, IIOImage(opaque, null, null), param)
+        }
+    } finally {
+        writer.dispose()
+    }
+    return output.toByteArray()
+}
+
+/** An encoded still of a presented frame. [timestampMicros] is relative to the start of playback. */
+class Snapshot(
+    val timestampMicros: Long,
+    val width: Int,
+    val height: Int,
+    val format: SnapshotFormat,
+    val bytes: ByteArray
+) {
+    fun writeTo(file: File) = file.writeBytes(bytes)
+}
+
+/**
+ * Keeps a reference to the frame a player presented last, and encodes it on request.
+ *
+ * The player passes each presented frame's [FrameHandle] to [present], which retains it and
+ * releases the previous one. [snapshot] only takes another reference to the current frame, so
+ * neither the decode nor the render thread ever waits on an encoder. A frame is freed once the
+ * player has moved on and no encode still holds it.
+ *
+ * Encoding runs on a pool shared by all players, with at most [ENCODER_THREADS] encodes at a time
+ * and [ENCODER_QUEUE] waiting. Requests beyond that fail with a [RejectedExecutionException]
+ * rather than queueing without bound.
+ */
+class FrameSnapshotter {
+
+    private class Held(val handle: FrameHandle, val timestampMicros: Long, val pixelFormat: Int)
+
+    private val current = AtomicReference<Held?>()
+
+    /**
+     * Takes a reference to [handle], whose frame the player has just presented, and releases the
+     * previous one. Called from the player's render thread.
+     */
+    fun present(handle: FrameHandle, relativeTimestampMicros: Long, pixelFormat: Int) {
+        val held = Held(handle.retain(), relativeTimestampMicros, pixelFormat)
+        current.getAndSet(held)?.handle?.release()
+    }
+
+    /** Releases the held frame, e.g. when playback stops. */
+    fun clear() {
+        current.getAndSet(null)?.handle?.release()
+    }
+
+    /** Encodes the frame presented last. Fails if nothing has been presented since start or stop. */
+    @JvmOverloads
+    fun snapshot(format: SnapshotFormat = SnapshotFormat.PNG, jpegQuality: Float = 0.9f): CompletableFuture<Snapshot> {
+        var held: Held?
+        do {
+            held = current.get()
+        } while (held != null && !held.handle.tryRetain())
+        if (held == null) {
+            return CompletableFuture<Snapshot>().apply { completeExceptionally(IllegalStateException("No frame has been presented yet")) }
+        }
+
+        val result = CompletableFuture<Snapshot>()
+        try {
+            ENCODER.execute {
+                try {
+                    result.complete(encode(held, format, jpegQuality))
+                } catch (e: Throwable) {
+                    result.completeExceptionally(e)
+                } finally {
+                    held.handle.release()
+                }
+            }
+        } catch (e: RejectedExecutionException) {
+            held.handle.release()
+            LOG.fine("FrameSnapshotter: Encoder busy, snapshot rejected.")
+            result.completeExceptionally(e)
+        }
+        return result
+    }
+
+    private fun encode(held: Held, format: SnapshotFormat, jpegQuality: Float): Snapshot {
+        val converted = UniversalFrameConverter.convertToBufferedImage(held.handle.frame, held.pixelFormat)
+            ?: throw IllegalStateException("Cannot convert frame (pixel format ${held.pixelFormat}) to an image")
+        val bytes = encodeImage(converted, format, jpegQuality)
+        return Snapshot(held.timestampMicros, converted.width, converted.height, format, bytes)
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(FrameSnapshotter::class.java.name)
+        private val ENCODER_THREADS = (Runtime.getRuntime().availableProcessors() / 2).coerceIn(1, 4)
+        private const val ENCODER_QUEUE = 16
+        private val ENCODER_COUNTER = AtomicInteger()
+
+        private val ENCODER = ThreadPoolExecutor(
+            ENCODER_THREADS, ENCODER_THREADS, 30L, TimeUnit.SECONDS, ArrayBlockingQueue(ENCODER_QUEUE)
+        ) { r ->
+            Thread(r, "Snapshot-Encoder-${ENCODER_COUNTER.incrementAndGet()}").apply {
+                isDaemon = true
+                priority = Thread.MIN_PRIORITY
+                setUncaughtExceptionHandler { t, e -> LOG.log(Level.WARNING, "Uncaught exception in ${t.name}", e) }
+            }
+        }.apply { allowCoreThreadTimeOut(true) }
+    }
+}
@@ -0,0 +1,39 @@
+package idv.neo.ffmpeg.media.player.core.source
+
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.FrameGrabber
+
+/**
+ * Creates the [FrameGrabber] a player reads its media path from. The grabber is returned
+ * unstarted; the player starts, stops and releases it.
+ */
+fun interface FrameGrabberFactory {
+    @Throws(FrameGrabber.Exception::class)
+    fun create(mediaPath: String): FrameGrabber
+
+    companion object {
+        /** Always opens the path with FFmpeg. */
+        @JvmField
+        val FFMPEG = FrameGrabberFactory { mediaPath -> FFmpegFrameGrabber(mediaPath) }
+
+        /**
+         * Opens the path with FFmpeg behind a [PipelinedFrameGrabber], so demuxing and each
+         * stream's decoding run on their own threads; `synthetic:` paths as in [DEFAULT].
+         */
+        @JvmField
+        val PIPELINED = FrameGrabberFactory { mediaPath ->
+            if (SyntheticFrameGrabber.isSyntheticUri(mediaPath)) SyntheticFrameGrabber.fromUri(mediaPath)
+            else PipelinedFrameGrabber(FFmpegFrameGrabber(mediaPath))
+        }
+
+        /**
+         * The players' default: `synthetic:` paths (see [SyntheticFrameGrabber.fromUri]) get a
+         * synthetic source, everything else is opened with FFmpeg.
+         */
+        @JvmField
+        val DEFAULT = FrameGrabberFactory { mediaPath ->
+            if (SyntheticFrameGrabber.isSyntheticUri(mediaPath)) SyntheticFrameGrabber.fromUri(mediaPath)
+            else FFmpegFrameGrabber(mediaPath)
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package idv.neo.ffmpeg.media.player.core.source
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext
+import org.bytedeco.ffmpeg.avcodec.AVPacket
+import org.bytedeco.ffmpeg.avformat.AVStream
+import org.bytedeco.ffmpeg.avutil.AVChannelLayout
+import org.bytedeco.ffmpeg.avutil.AVDictionary
+import org.bytedeco.ffmpeg.avutil.AVFrame
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.ffmpeg.global.swresample
+import org.bytedeco.ffmpeg.global.swscale
+import org.bytedeco.ffmpeg.swresample.SwrContext
+import org.bytedeco.ffmpeg.swscale.SwsContext
+import org.bytedeco.javacpp.BytePointer
+import org.bytedeco.javacpp.DoublePointer
+import org.bytedeco.javacpp.IntPointer
+import org.bytedeco.javacpp.Pointer
+import org.bytedeco.javacpp.PointerPointer
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.io.Closeable
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
+
+/**
+ * Decodes the packets of one video and one audio stream into Frames the way FFmpegFrameGrabber
+ * does by default: packed video in [pixelFormat] (scaled to [outputWidth] x [outputHeight] when
+ * set) and interleaved S16 audio at the source rate and channel count.
+ *
+ * For grabbers that read packets themselves (see PacketTeeGrabber and TimeShiftGrabber). Output
+ * Frames and their buffers are plain direct buffers, so closing one is harmless. They are reused
+ * round-robin: a returned frame stays valid for [outputFrames] - 1 further [receive] calls per
+ * stream. Not thread-safe; use from one thread. The streams must outlive the decoder.
+ */
+internal class PacketDecoder @JvmOverloads constructor(
+    videoStream: AVStream?,
+    audioStream: AVStream?,
+    private val outputFrames: Int = 1,
+    /** Codec threads per decoder; 0 lets FFmpeg choose. */
+    private val decoderThreads: Int = 0
+) : Closeable {
+
+    private val video: StreamDecoder? = videoStream?.let { StreamDecoder(it, decoderThreads) }
+    private val audio: StreamDecoder? = audioStream?.let { StreamDecoder(it, decoderThreads) }
+    private val videoIndex = videoStream?.index() ?: -1
+    private val audioIndex = audioStream?.index() ?: -1
+    private val decoded: AVFrame = avutil.av_frame_alloc()
+
+    var pixelFormat = avutil.AV_PIX_FMT_BGR24
+    /** 0 keeps the decoded size. */
+    var outputWidth = 0
+    var outputHeight = 0
+
+    private var swsContext: SwsContext? = null
+    private val videoOutputs = arrayOfNulls<VideoOutput>(outputFrames)
+    private var videoSlot = 0
+
+    private var swrContext: SwrContext? = null
+    private val audioOutputs = arrayOfNulls<AudioOutput>(outputFrames)
+    private var audioSlot = 0
+
+    /** Feeds a demuxed packet; packets of other streams are ignored. */
+    fun send(packet: AVPacket) {
+        when (packet.stream_index()) {
+            videoIndex -> video?.send(packet)
+            audioIndex -> audio?.send(packet)
+        }
+    }
+
+    /** Signals the end of input so the decoders release their delayed frames. */
+    fun sendEndOfInput() {
+        video?.send(null)
+        audio?.send(null)
+    }
+
+    /** Drops buffered packets and frames, e.g. after a seek. */
+    fun flush() {
+        video?.flush()
+        audio?.flush()
+    }
+
+    /** The next decoded frame, or null if the decoders need more input. */
+    @Throws(FrameGrabber.Exception::class)
+    fun receive(): Frame? {
+        video?.let { if (it.receive(decoded)) return toVideoFrame(it) }
+        audio?.let { if (it.receive(decoded)) return toAudioFrame(it) }
+        return null
+    }
+
+    override fun close() {
+        video?.close()
+        audio?.close()
+        avutil.av_frame_free(decoded)
+        swsContext?.let { swscale.sws_freeContext(it) }; swsContext = null
+        swrContext?.let { swresample.swr_free(it) }; swrContext = null
+        videoOutputs.fill(null)
+        audioOutputs.fill(null)
+    }
+
+    private fun toVideoFrame(decoder: StreamDecoder): Frame {
+        val width = if (outputWidth > 0) outputWidth else decoded.width()
+        val height = if (outputHeight > 0) outputHeight else decoded.height()
+        val channels = avutil.av_get_bits_per_pixel(avutil.av_pix_fmt_desc_get(pixelFormat)) / 8
+        val stride = width * channels
+        videoSlot = (videoSlot + 1) % outputFrames
+        var slot = videoOutputs[videoSlot]
+        if (slot == null || slot.frame.imageWidth != width || slot.frame.imageHeight != height || slot.frame.imageChannels != channels) {
+            val buffer = ByteBuffer.allocateDirect(stride * height)
+            val frame = Frame().also {
+                it.imageWidth = width
+                it.imageHeight = height
+                it.imageDepth = Frame.DEPTH_UBYTE
+                it.imageChannels = channels
+                it.imageStride = stride
+                it.image = arrayOf(buffer)
+                it.streamIndex = videoIndex
+                it.type = Frame.Type.VIDEO
+            }
+            slot = VideoOutput(frame, targetOf(buffer), IntPointer(*intArrayOf(stride)))
+            videoOutputs[videoSlot] = slot
+        }
+        val output = slot.frame
+
+        val sws = swscale.sws_getCachedContext(swsContext, decoded.width(), decoded.height(), decoded.format(),
+            width, height, pixelFormat, swscale.SWS_BILINEAR, null, null, null as DoublePointer?)
+            ?: throw FrameGrabber.Exception("sws_getCachedContext() failed for ${decoded.width()}x${decoded.height()} format ${decoded.format()}")
+        swsContext = sws
+        swscale.sws_scale(sws, decoded.data(), decoded.linesize(), 0, decoded.height(), slot.target, slot.stride)
+
+        output.keyFrame = (decoded.flags() and FRAME_FLAG_KEY) != 0
+        output.timestamp = decoder.micros(decoded.best_effort_timestamp())
+        avutil.av_frame_unref(decoded)
+        return output
+    }
+
+    private fun toAudioFrame(decoder: StreamDecoder): Frame {
+        val channels = decoded.ch_layout().nb_channels()
+        val rate = decoded.sample_rate()
+        var swr = swrContext
+        if (swr == null) {
+            swr = SwrContext(null as Pointer?)
+            val outLayout = AVChannelLayout()
+            avutil.av_channel_layout_default(outLayout, channels)
+            val ret = swresample.swr_alloc_set_opts2(swr, outLayout, avutil.AV_SAMPLE_FMT_S16, rate,
+                decoded.ch_layout(), decoded.format(), rate, 0, null)
+            avutil.av_channel_layout_uninit(outLayout)
+            if (ret < 0 || swresample.swr_init(swr) < 0) throw FrameGrabber.Exception("Cannot set up audio conversion from format ${decoded.format()}")
+            swrContext = swr
+        }
+
+        val maxSamples = swresample.swr_get_out_samples(swr, decoded.nb_samples())
+        val needed = maxSamples * channels * 2
+        audioSlot = (audioSlot + 1) % outputFrames
+        var slot = audioOutputs[audioSlot]
+        if (slot == null || slot.bytes.capacity() < needed) {
+            val bytes = ByteBuffer.allocateDirect(needed).order(ByteOrder.nativeOrder())
+            slot = AudioOutput(Frame(), bytes, targetOf(bytes))
+            audioOutputs[audioSlot] = slot
+        }
+        val converted = swresample.swr_convert(swr, slot.target, maxSamples, decoded.extended_data(), decoded.nb_samples())
+        if (converted < 0) throw FrameGrabber.Exception("swr_convert() failed: $converted")
+
+        val samples: ShortBuffer = slot.bytes.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer()
+        samples.limit(converted * channels)
+        val output = slot.frame
+        output.audioChannels = channels
+        output.sampleRate = rate
+        output.samples = arrayOf(samples)
+        output.streamIndex = audioIndex
+        output.type = Frame.Type.AUDIO
+        output.keyFrame = true
+        output.timestamp = decoder.micros(decoded.best_effort_timestamp())
+        avutil.av_frame_unref(decoded)
+        return output
+    }
+
+    // A one-entry plane array. PointerPointer(Pointer) would reinterpret the buffer itself as the array.
+    private fun targetOf(buffer: ByteBuffer): PointerPointer<BytePointer> =
+        PointerPointer<BytePointer>(1L).put(0L, BytePointer(buffer))
+
+    private class VideoOutput(val frame: Frame, val target: PointerPointer<BytePointer>, val stride: IntPointer)
+
+    private class AudioOutput(val frame: Frame, val bytes: ByteBuffer, val target: PointerPointer<BytePointer>)
+
+    /** One opened decoder for one stream. */
+    private class StreamDecoder(private val stream: AVStream, threads: Int) {
+        private val context: AVCodecContext
+
+        init {
+            val codec = avcodec.avcodec_find_decoder(stream.codecpar().codec_id())
+                ?: throw FrameGrabber.Exception("No decoder for codec ${stream.codecpar().codec_id()} in stream ${stream.index()}")
+            context = avcodec.avcodec_alloc_context3(codec)
+            avcodec.avcodec_parameters_to_context(context, stream.codecpar())
+            context.pkt_timebase(stream.time_base())
+            context.thread_count(threads)
+            val ret = avcodec.avcodec_open2(context, codec, null as AVDictionary?)
+            if (ret < 0) throw FrameGrabber.Exception("avcodec_open2() failed for stream ${stream.index()}: $ret")
+        }
+
+        // Errors are ignored: a corrupt packet is dropped, as in FFmpegFrameGrabber, and the
+        // decoder resynchronizes on the next one. Output is always drained first, so no EAGAIN.
+        fun send(packet: AVPacket?) {
+            avcodec.avcodec_send_packet(context, packet)
+        }
+
+        fun receive(frame: AVFrame): Boolean = avcodec.avcodec_receive_frame(context, frame) >= 0
+
+        fun micros(pts: Long): Long =
+            if (pts == avutil.AV_NOPTS_VALUE) 0L else avutil.av_rescale_q(pts, stream.time_base(), MICROSECONDS)
+
+        fun flush() = avcodec.avcodec_flush_buffers(context)
+
+        fun close() = avcodec.avcodec_free_context(context)
+    }
+
+    companion object {
+        private val MICROSECONDS = avutil.av_make_q(1, 1_000_000)
+        private const val FRAME_FLAG_KEY = 1 shl 1 // AV_FRAME_FLAG_KEY, not exported by the presets
+    }
+}
@@ -0,0 +1,117 @@
+package idv.neo.ffmpeg.media.player.core.source
+
+import idv.neo.ffmpeg.media.player.core.memory.NativeMemoryBudget
+import org.bytedeco.ffmpeg.avcodec.AVPacket
+import org.bytedeco.ffmpeg.global.avcodec
+import java.util.ArrayDeque
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * A blocking queue of demuxed packets bounded both by total size and by the time span it covers,
+ * whichever is reached first. A single packet larger than the bounds is still accepted when the
+ * queue is empty, so an oversized key frame cannot stall the pipeline.
+ *
+ * Queued packets are owned by the queue until taken; [clear] and [close] free them. With a
+ * [budget], queued bytes are charged to it and the size bound shrinks under memory pressure (see
+ * [NativeMemoryBudget.queueBytes]); a shrunk queue makes the demuxer wait until it has drained.
+ */
+internal class PacketQueue(
+    private val maxBytes: Long,
+    private val maxMicros: Long,
+    private val budget: NativeMemoryBudget? = null
+) {
+
+    private class Entry(val packet: AVPacket, val micros: Long)
+
+    private val lock = ReentrantLock()
+    private val notEmpty = lock.newCondition()
+    private val notFull = lock.newCondition()
+    private val entries = ArrayDeque<Entry>()
+    private var bytes = 0L
+    private var ended = false
+    private var closed = false
+
+    val sizeBytes: Long get() = lock.withLock { bytes }
+
+    val durationMicros: Long get() = lock.withLock { spanMicros() }
+
+    /**
+     * Queues [packet], taking ownership of it; blocks while the queue is full. Returns false (and
+     * frees the packet) if the queue was closed.
+     */
+    @Throws(InterruptedException::class)
+    fun put(packet: AVPacket, micros: Long): Boolean {
+        lock.withLock {
+            while (!closed && entries.isNotEmpty() &&
+                (bytes + packet.size() > (budget?.queueBytes(maxBytes) ?: maxBytes) || (micros != Long.MIN_VALUE && micros - firstMicros() > maxMicros))) {
+                notFull.await()
+            }
+            if (closed) {
+                avcodec.av_packet_free(packet)
+                return false
+            }
+            entries.addLast(Entry(packet, micros))
+            bytes += packet.size()
+            budget?.chargePackets(packet.size().toLong())
+            notEmpty.signal()
+            return true
+        }
+    }
+
+    /** Marks the end of input: [take] returns null once the queue has drained. */
+    fun end() {
+        lock.withLock {
+            ended = true
+            notEmpty.signalAll()
+        }
+    }
+
+    /** The next packet, now owned by the caller; null at the end of input or once closed. */
+    @Throws(InterruptedException::class)
+    fun take(): AVPacket? {
+        lock.withLock {
+            while (entries.isEmpty()) {
+                if (ended || closed) return null
+                notEmpty.await()
+            }
+            val entry = entries.removeFirst()
+            bytes -= entry.packet.size()
+            budget?.releasePackets(entry.packet.size().toLong())
+            notFull.signal()
+            return entry.packet
+        }
+    }
+
+    /** Frees all queued packets and starts over, e.g. after a seek. */
+    fun clear() {
+        lock.withLock {
+            budget?.releasePackets(bytes)
+            while (true) avcodec.av_packet_free(entries.pollFirst()?.packet ?: break)
+            bytes = 0L
+            ended = false
+            closed = false
+            notFull.signalAll()
+        }
+    }
+
+    /** Wakes and releases every waiting thread and frees all queued packets. */
+    fun close() {
+        lock.withLock {
+            closed = true
+            budget?.releasePackets(bytes)
+            while (true) avcodec.av_packet_free(entries.pollFirst()?.packet ?: break)
+            bytes = 0L
+            notEmpty.signalAll()
+            notFull.signalAll()
+        }
+    }
+
+    private fun firstMicros(): Long = entries.firstOrNull { it.micros != Long.MIN_VALUE }?.micros ?: Long.MAX_VALUE
+
+    private fun spanMicros(): Long {
+        val first = entries.firstOrNull { it.micros != Long.MIN_VALUE }?.micros ?: return 0L
+        val last = entries.lastOrNull { it.micros != Long.MIN_VALUE }?.micros ?: return 0L
+        return (last - first).coerceAtLeast(0L)
+    }
+}
@@ -0,0 +1,338 @@
+package idv.neo.ffmpeg.media.player.core.source
+
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents
+import idv.neo.ffmpeg.media.player.core.memory.NativeMemoryBudget
+import org.bytedeco.ffmpeg.avformat.AVStream
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avformat
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.util.ArrayDeque
+import java.util.concurrent.locks.ReentrantLock
+import java.util.logging.Level
+import java.util.logging.Logger
+import kotlin.concurrent.withLock
+
+/**
+ * A [FrameGrabber] that splits FFmpegFrameGrabber's work over threads: a reader thread demuxes
+ * with [FFmpegFrameGrabber.grabPacket] into one bounded [PacketQueue] per stream, and each stream
+ * has its own decoder thread that decodes and converts ahead into a few output frames. [grab] only
+ * hands out frames that are already decoded, earliest first.
+ *
+ * A slow network read is thus absorbed by the packet queues, and a heavy video frame no longer
+ * holds up audio: when only one stream has a frame ready, that frame is returned. The packet
+ * queues are bounded by [maxQueueBytes] and [maxQueueMicros] each; the video stage decodes at most
+ * [framesAhead] frames ahead. Set [memoryBudget] before [start] to charge queued packets to a
+ * player's budget and shrink the queues under memory pressure.
+ *
+ * Output matches FFmpegFrameGrabber's defaults (see PacketDecoder). A returned frame stays valid
+ * until the next [grab], as with FFmpegFrameGrabber. [setTimestamp] stops the pipeline, seeks and
+ * restarts it.
+ *
+ * Stopping waits at most [READER_STOP_MILLIS] for the reader, which may be blocked in a network
+ * read. A reader still blocked after that closes the demuxer itself once the read returns, since
+ * freeing it under the read would crash; until then the grabber cannot seek or start again.
+ */
+class PipelinedFrameGrabber @JvmOverloads constructor(
+    private val demuxer: FFmpegFrameGrabber,
+    private val maxQueueBytes: Long = 16L shl 20,
+    private val maxQueueMicros: Long = 2_000_000L,
+    private val framesAhead: Int = 3
+) : FrameGrabber() {
+
+    private val lock = ReentrantLock()
+    private val frameReady = lock.newCondition()
+    private val frameTaken = lock.newCondition()
+
+    private var video: Stage? = null
+    private var audio: Stage? = null
+    private var reader: Thread? = null
+    @Volatile private var running = false
+    @Volatile private var failure: Exception? = null
+
+    // Guarded by demuxer. While the reader runs, stop() and release() leave the demuxer to it.
+    private var readerActive = false
+    private var stopDemuxerOnReaderExit = false
+    private var releaseDemuxerOnReaderExit = false
+
+    /** Budget the packet queues charge and follow; read by [start]. */
+    @Volatile var memoryBudget: NativeMemoryBudget? = null
+
+    override fun start() {
+        if (synchronized(demuxer) { readerActive }) throw Exception("The previous reader is still blocked in the demuxer.")
+        // This class extends FrameGrabber, so property syntax on demuxer could bind to
+        // FrameGrabber's protected fields; call FFmpegFrameGrabber's getters instead.
+        demuxer.start()
+        val formatContext = demuxer.getFormatContext()
+        format = demuxer.getFormat()
+        frameRate = demuxer.getFrameRate()
+        if (pixelFormat == -1) pixelFormat = avutil.AV_PIX_FMT_BGR24
+        videoStream = demuxer.getVideoStream()
+        audioStream = demuxer.getAudioStream()
+        if (videoStream >= 0 && (imageWidth <= 0 || imageHeight <= 0)) {
+            imageWidth = demuxer.getImageWidth()
+            imageHeight = demuxer.getImageHeight()
+        }
+        if (audioStream >= 0) {
+            audioChannels = demuxer.getAudioChannels()
+            sampleRate = demuxer.getSampleRate()
+            sampleFormat = avutil.AV_SAMPLE_FMT_S16
+        }
+        // Audio frames are small and short; let the audio stage run further ahead.
+        video = if (videoStream >= 0) Stage("Video", formatContext.streams(videoStream), framesAhead) else null
+        audio = if (audioStream >= 0) Stage("Audio", formatContext.streams(audioStream), framesAhead * 8) else null
+        startPipeline()
+    }
+
+    override fun grab(): Frame? {
+        video?.configure(pixelFormat, imageWidth, imageHeight)
+        lock.withLock {
+            while (true) {
+                failure?.let { throw Exception("Pipeline failed: ${it.message}", it) }
+                val v = video?.frames?.peekFirst()
+                val a = audio?.frames?.peekFirst()
+                val next = when {
+                    v != null && a != null -> if (a.timestamp <= v.timestamp) audio else video
+                    v != null -> video
+                    a != null -> audio
+                    else -> null
+                }
+                if (next != null) {
+                    val frame = next.frames.removeFirst()
+                    frameTaken.signalAll()
+                    timestamp = frame.timestamp
+                    if (frame.type == Frame.Type.VIDEO) frameNumber++
+                    return frame
+                }
+                if ((video?.ended ?: true) && (audio?.ended ?: true)) return null
+                frameReady.await()
+            }
+        }
+    }
+
+    override fun getLengthInTime(): Long = demuxer.getLengthInTime()
+
+    override fun getLengthInFrames(): Int = demuxer.getLengthInFrames()
+
+    /** Seeks to the key frame at or before [timestamp] and refills the pipeline from there. */
+    override fun setTimestamp(timestamp: Long) {
+        val formatContext = demuxer.getFormatContext() ?: return
+        if (!stopPipeline()) throw Exception("Cannot seek: the reader is still blocked in the demuxer.")
+        val seekEvent = PlaybackEvents.beginSeek()
+        val ret = avformat.avformat_seek_file(formatContext, -1, Long.MIN_VALUE, timestamp, timestamp, avformat.AVSEEK_FLAG_BACKWARD)
+        PlaybackEvents.endSeek(seekEvent, timestamp, -1L, -1, PlaybackEvents.SEEK_KEY_FRAME)
+        video?.reset()
+        audio?.reset()
+        startPipeline()
+        if (ret < 0) throw Exception("avformat_seek_file() to $timestamp failed: $ret")
+        this.timestamp = timestamp
+    }
+
+    override fun stop() {
+        stopPipeline()
+        video?.close()
+        audio?.close()
+        video = null
+        audio = null
+        val deferred = synchronized(demuxer) {
+            if (readerActive) stopDemuxerOnReaderExit = true
+            readerActive
+        }
+        if (!deferred) demuxer.stop()
+    }
+
+    override fun trigger() {}
+
+    override fun release() {
+        stop()
+        val deferred = synchronized(demuxer) {
+            if (readerActive) releaseDemuxerOnReaderExit = true
+            readerActive
+        }
+        if (!deferred) demuxer.release()
+    }
+
+    private fun startPipeline() {
+        failure = null
+        running = true
+        video?.start()
+        audio?.start()
+        synchronized(demuxer) { readerActive = true }
+        reader = Thread(::readLoop, "Pipeline-Reader").apply { isDaemon = true; start() }
+    }
+
+    /** Returns false if the reader did not exit within [READER_STOP_MILLIS]. */
+    private fun stopPipeline(): Boolean {
+        running = false
+        video?.queue?.close()
+        audio?.queue?.close()
+        lock.withLock { frameTaken.signalAll() }
+        reader?.join(READER_STOP_MILLIS)
+        reader = null
+        // The decoder threads wait on the closed queues only, so they exit promptly.
+        video?.join()
+        audio?.join()
+        val exited = synchronized(demuxer) { !readerActive }
+        if (!exited) LOG.warning("PipelinedFrameGrabber: Reader did not exit within $READER_STOP_MILLIS ms; it is blocked in the demuxer.")
+        return exited
+    }
+
+    private fun readLoop() {
+        val formatContext = demuxer.getFormatContext()
+        try {
+            while (running) {
+                val packet = demuxer.grabPacket() ?: break
+                // grabPacket() is a bare av_read_frame(), which leaves the packet's buffer to the caller.
+                try {
+                    val stage = when (packet.stream_index()) {
+                        videoStream -> video
+                        audioStream -> audio
+                        else -> null
+                    } ?: continue
+                    val ts = if (packet.dts() != avutil.AV_NOPTS_VALUE) packet.dts() else packet.pts()
+                    val micros = if (ts == avutil.AV_NOPTS_VALUE) Long.MIN_VALUE
+                        else avutil.av_rescale_q(ts, formatContext.streams(packet.stream_index()).time_base(), MICROSECONDS)
+                    // A reference, not a copy; grabPacket reuses its packet.
+                    val copy = avcodec.av_packet_clone(packet) ?: continue
+                    if (!stage.queue.put(copy, micros)) break
+                } finally {
+                    avcodec.av_packet_unref(packet)
+                }
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        } catch (e: Exception) {
+            if (running) fail(e)
+        } finally {
+            video?.queue?.end()
+            audio?.queue?.end()
+            onReaderExit()
+        }
+    }
+
+    private fun onReaderExit() {
+        synchronized(demuxer) {
+            readerActive = false
+            if (!stopDemuxerOnReaderExit && !releaseDemuxerOnReaderExit) return
+            LOG.info("PipelinedFrameGrabber: Reader exited late; closing the demuxer.")
+            try {
+                if (stopDemuxerOnReaderExit) demuxer.stop()
+                if (releaseDemuxerOnReaderExit) demuxer.release()
+            } catch (e: Exception) {
+                LOG.log(Level.WARNING, "PipelinedFrameGrabber: Exception closing the demuxer.", e)
+            } finally {
+                stopDemuxerOnReaderExit = false
+                releaseDemuxerOnReaderExit = false
+            }
+        }
+    }
+
+    private fun fail(e: Exception) {
+        LOG.log(Level.WARNING, "PipelinedFrameGrabber: ${e.message}", e)
+        lock.withLock {
+            if (failure == null) failure = e
+            frameReady.signalAll()
+        }
+    }
+
+    /** One stream's packet queue, decoder thread and decoded frames. */
+    private inner class Stage(private val name: String, stream: AVStream, private val capacity: Int) {
+        val queue = PacketQueue(maxQueueBytes, maxQueueMicros, memoryBudget)
+        // Two more than the queue holds: the frame grab() returned last and the one being decoded.
+        private val decoder = PacketDecoder(
+            if (name == "Video") stream else null,
+            if (name == "Audio") stream else null,
+            capacity + 2
+        )
+        val frames = ArrayDeque<Frame>() // guarded by lock
+        @Volatile var ended = false
+        private var thread: Thread? = null
+        @Volatile private var pixelFormat = avutil.AV_PIX_FMT_BGR24
+        @Volatile private var width = 0
+        @Volatile private var height = 0
+
+        fun configure(pixelFormat: Int, width: Int, height: Int) {
+            this.pixelFormat = pixelFormat
+            this.width = width
+            this.height = height
+        }
+
+        fun start() {
+            ended = false
+            thread = Thread(::decodeLoop, "Pipeline-$name-Decoder").apply { isDaemon = true; start() }
+        }
+
+        fun join() {
+            thread?.join()
+            thread = null
+        }
+
+        /** Drops queued packets, decoded frames and decoder state; the pipeline is stopped. */
+        fun reset() {
+            queue.clear()
+            decoder.flush()
+            lock.withLock { frames.clear() }
+        }
+
+        fun close() {
+            queue.close()
+            decoder.close()
+            lock.withLock { frames.clear() }
+        }
+
+        private fun decodeLoop() {
+            try {
+                while (running) {
+                    val packet = queue.take()
+                    if (packet == null) {
+                        if (running) {
+                            decoder.sendEndOfInput()
+                            drain()
+                        }
+                        break
+                    }
+                    try {
+                        decoder.send(packet)
+                    } finally {
+                        avcodec.av_packet_free(packet)
+                    }
+                    drain()
+                }
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+            } catch (e: Exception) {
+                if (running) fail(e)
+            } finally {
+                lock.withLock {
+                    ended = true
+                    frameReady.signalAll()
+                }
+            }
+        }
+
+        private fun drain() {
+            while (running) {
+                decoder.pixelFormat = pixelFormat
+                decoder.outputWidth = width
+                decoder.outputHeight = height
+                val frame = decoder.receive() ?: return
+                lock.withLock {
+                    while (running && frames.size >= capacity) frameTaken.await()
+                    if (!running) return
+                    frames.addLast(frame)
+                    frameReady.signalAll()
+                }
+            }
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(PipelinedFrameGrabber::class.java.name)
+        private val MICROSECONDS = avutil.av_make_q(1, 1_000_000)
+
+        /** How long stopping waits for the reader before leaving the demuxer to it. */
+        const val READER_STOP_MILLIS = 2_000L
+    }
+}
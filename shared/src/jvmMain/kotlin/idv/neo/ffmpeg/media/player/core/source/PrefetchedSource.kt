@@ -0,0 +1,127 @@
+package idv.neo.ffmpeg.media.player.core.source
+
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.util.ArrayDeque
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * A source opened ahead of time on a background thread, with its first frames already decoded:
+ * at least [MIN_FRAMES] and up to the first picture, at most [MAX_FRAMES] frames. Players use it
+ * for the next playlist item, so that switching to it at the end of the current item waits
+ * neither for connecting and probing nor for the decoder's first picture.
+ *
+ * The player [take]s the started grabber and then plays the decoded frames with [pollFrame]
+ * before grabbing more. [close] frees frames not polled yet and, unless it was taken, closes the
+ * grabber in the background once it has opened.
+ */
+class PrefetchedSource private constructor(val mediaPath: String) : AutoCloseable {
+
+    private val opened = CompletableFuture<FrameGrabber>()
+    private val frames = ArrayDeque<Frame>() // guarded by itself
+    @Volatile private var closed = false
+    @Volatile private var taken = false
+
+    /** Earliest timestamp of the prefetched frames, 0 if there are none. Valid once [take] returned the grabber. */
+    @Volatile var firstTimestampMicros: Long = 0L
+        private set
+
+    /** Whether the grabber has started and the first frames are decoded. */
+    val isReady: Boolean get() = opened.isDone && !opened.isCompletedExceptionally
+
+    /** Whether the source could not be opened; [take] would return null. */
+    val hasFailed: Boolean get() = opened.isCompletedExceptionally
+
+    /**
+     * Returns the started grabber, waiting up to [timeoutMillis] for the prefetch to finish, or
+     * null if it failed or took too long. The grabber then belongs to the caller.
+     */
+    fun take(timeoutMillis: Long): FrameGrabber? {
+        val grabber = try {
+            opened.get(timeoutMillis, TimeUnit.MILLISECONDS)
+        } catch (e: TimeoutException) {
+            LOG.warning("PrefetchedSource: $mediaPath did not open within $timeoutMillis ms.")
+            return null
+        } catch (e: ExecutionException) {
+            return null
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            return null
+        }
+        taken = true
+        return grabber
+    }
+
+    /** The next prefetched frame, or null once all were polled. The caller owns and closes it. */
+    fun pollFrame(): Frame? = synchronized(frames) { frames.pollFirst() }
+
+    override fun close() {
+        closed = true
+        synchronized(frames) {
+            frames.forEach { it.close() }
+            frames.clear()
+        }
+        opened.thenAccept { grabber ->
+            if (!taken) {
+                Thread({ release(grabber) }, "PrefetchedSource-Closer").apply { isDaemon = true }.start()
+            }
+        }
+    }
+
+    private fun prefetch(open: () -> FrameGrabber) {
+        val startNanos = System.nanoTime()
+        val grabber = try {
+            open()
+        } catch (e: Exception) {
+            LOG.log(Level.WARNING, "PrefetchedSource: $mediaPath failed to open.", e)
+            opened.completeExceptionally(e)
+            return
+        }
+        try {
+            var pictureDecoded = false
+            while (!closed) {
+                val count = synchronized(frames) { frames.size }
+                if (count >= MAX_FRAMES || (pictureDecoded && count >= MIN_FRAMES)) break
+                val frame = grabber.grab() ?: break
+                pictureDecoded = pictureDecoded || frame.image != null
+                val copy = frame.clone()
+                frame.close()
+                synchronized(frames) { if (closed) copy.close() else frames.addLast(copy) }
+            }
+        } catch (e: FrameGrabber.Exception) {
+            // The player runs into the same error when it grabs and handles it there.
+            LOG.log(Level.WARNING, "PrefetchedSource: Error decoding the first frames of $mediaPath.", e)
+        }
+        firstTimestampMicros = synchronized(frames) { frames.minOfOrNull { it.timestamp } } ?: 0L
+        LOG.info("PrefetchedSource: $mediaPath ready in ${(System.nanoTime() - startNanos) / 1_000_000} ms with ${synchronized(frames) { frames.size }} frames decoded.")
+        opened.complete(grabber)
+    }
+
+    private fun release(grabber: FrameGrabber) {
+        try {
+            grabber.stop()
+            grabber.release()
+        } catch (e: Exception) {
+            LOG.log(Level.WARNING, "PrefetchedSource: Exception closing $mediaPath.", e)
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(PrefetchedSource::class.java.name)
+        const val MIN_FRAMES = 4
+        const val MAX_FRAMES = 32
+
+        /** Starts opening [mediaPath] with [open], which returns a started grabber, on a daemon thread. */
+        @JvmStatic
+        fun prefetch(mediaPath: String, open: () -> FrameGrabber): PrefetchedSource {
+            val source = PrefetchedSource(mediaPath)
+            Thread({ source.prefetch(open) }, "PrefetchedSource-Opener").apply { isDaemon = true }.start()
+            return source
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package idv.neo.ffmpeg.media.player.core.source
+
+import idv.neo.ffmpeg.media.player.core.SurfaceVisibilityGate
+import org.bytedeco.javacv.FrameGrabber
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.LockSupport
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Started grabbers for sources a player is likely to switch to next (adjacent channels, the
+ * previous channel), so that a switch skips connecting and probing the stream.
+ *
+ * [preopen] opens a source in the background; [take] hands the started grabber to a player,
+ * waiting for an open still in progress. Live sources (no known length) are kept at their live
+ * edge while they wait: a keep-warm thread per source reads them as they arrive, decoding only
+ * reference frames and without pixel format conversion (see [SurfaceVisibilityGate]), so the
+ * taken grabber starts at the current picture and its decoder already has a reference frame.
+ * Files are left idle at their start.
+ *
+ * At most [capacity] sources are held; the oldest is closed when another is pre-opened. Closing
+ * grabbers happens in the background, since stopping a network source can block.
+ */
+class PreopenedGrabberPool @JvmOverloads constructor(
+    private val factory: FrameGrabberFactory = FrameGrabberFactory.DEFAULT,
+    private val capacity: Int = DEFAULT_CAPACITY
+) : AutoCloseable {
+
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+    }
+
+    private inner class Entry(val mediaPath: String) {
+        val opened = CompletableFuture<FrameGrabber>()
+        val gate = SurfaceVisibilityGate().apply { setVisible(false) }
+        @Volatile var removed = false
+        @Volatile var keepWarm: Thread? = null
+    }
+
+    private val entries = LinkedHashMap<String, Entry>() // guarded by this; oldest first
+    private val threadCounter = AtomicInteger()
+    private val opener: ExecutorService = Executors.newCachedThreadPool { r ->
+        Thread(r, "GrabberPool-Opener-${threadCounter.incrementAndGet()}").apply { isDaemon = true }
+    }
+    @Volatile private var closed = false
+
+    /** Paths currently held, opened or still opening. */
+    val mediaPaths: List<String> get() = synchronized(this) { entries.keys.toList() }
+
+    /**
+     * Starts opening [mediaPath] in the background unless it is already held. The future
+     * completes with the started grabber, or exceptionally if it could not be opened.
+     */
+    fun preopen(mediaPath: String): CompletableFuture<FrameGrabber> {
+        val entry: Entry
+        val evicted = ArrayList<Entry>()
+        synchronized(this) {
+            check(!closed) { "PreopenedGrabberPool is closed" }
+            entries[mediaPath]?.let { return it.opened }
+            entry = Entry(mediaPath)
+            entries[mediaPath] = entry
+            evictBeyondCapacity(evicted)
+        }
+        evicted.forEach { discard(it) }
+        opener.execute { open(entry) }
+        return entry.opened
+    }
+
+    /** Whether [mediaPath] is held and already started. */
+    fun isReady(mediaPath: String): Boolean = synchronized(this) {
+        entries[mediaPath]?.opened?.let { it.isDone && !it.isCompletedExceptionally } ?: false
+    }
+
+    /**
+     * Removes [mediaPath] from the pool and returns its started grabber, waiting up to
+     * [timeoutMillis] for an open in progress. Returns null if the path is not held, failed to
+     * open or did not open in time; the caller then opens it itself.
+     */
+    @JvmOverloads
+    fun take(mediaPath: String, timeoutMillis: Long = DEFAULT_TAKE_TIMEOUT_MILLIS): FrameGrabber? {
+        val entry = synchronized(this) { entries.remove(mediaPath) } ?: return null
+        entry.removed = true
+        val grabber = try {
+            entry.opened.get(timeoutMillis, TimeUnit.MILLISECONDS)
+        } catch (e: TimeoutException) {
+            LOG.warning("PreopenedGrabberPool: $mediaPath did not open within $timeoutMillis ms.")
+            discard(entry)
+            return null
+        } catch (e: ExecutionException) {
+            LOG.log(Level.WARNING, "PreopenedGrabberPool: $mediaPath failed to open.", e.cause)
+            return null
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            discard(entry)
+            return null
+        }
+        if (!stopKeepWarm(entry)) {
+            // Still blocked in grab(); let it finish on its own and release the grabber then.
+            LOG.warning("PreopenedGrabberPool: Keep-warm of $mediaPath did not stop in time; not reusing it.")
+            return null
+        }
+        entry.gate.reset(grabber)
+        LOG.info("PreopenedGrabberPool: Handing out pre-opened $mediaPath.")
+        return grabber
+    }
+
+    /**
+     * Puts a started grabber that a player no longer uses back into the pool, e.g. the channel
+     * switched away from, so that switching back is instant. It must not be used by the caller
+     * afterwards. Closed instead if the pool is closed or already holds [mediaPath].
+     */
+    fun recycle(mediaPath: String, grabber: FrameGrabber) {
+        val entry = Entry(mediaPath)
+        val evicted = ArrayList<Entry>()
+        val accepted = synchronized(this) {
+            if (closed || entries.containsKey(mediaPath)) {
+                false
+            } else {
+                entries[mediaPath] = entry
+                evictBeyondCapacity(evicted)
+                true
+            }
+        }
+        evicted.forEach { discard(it) }
+        if (!accepted) {
+            background { release(mediaPath, grabber) }
+            return
+        }
+        entry.opened.complete(grabber)
+        startKeepWarmIfLive(entry, grabber)
+    }
+
+    /** Closes every held grabber. Further [preopen] calls fail; [recycle] closes what it is given. */
+    override fun close() {
+        val all = synchronized(this) {
+            closed = true
+            entries.values.toList().also { entries.clear() }
+        }
+        all.forEach { discard(it) }
+        opener.shutdown()
+    }
+
+    private fun evictBeyondCapacity(evicted: MutableList<Entry>) {
+        val iterator = entries.values.iterator()
+        while (entries.size > capacity && iterator.hasNext()) {
+            val oldest = iterator.next()
+            iterator.remove()
+            LOG.info("PreopenedGrabberPool: Evicting ${oldest.mediaPath}.")
+            evicted += oldest
+        }
+    }
+
+    private fun open(entry: Entry) {
+        val startNanos = System.nanoTime()
+        val grabber = try {
+            factory.create(entry.mediaPath).also { it.start() }
+        } catch (e: Exception) {
+            synchronized(this) { if (entries[entry.mediaPath] === entry) entries.remove(entry.mediaPath) }
+            entry.opened.completeExceptionally(e)
+            return
+        }
+        LOG.info("PreopenedGrabberPool: Opened ${entry.mediaPath} in ${(System.nanoTime() - startNanos) / 1_000_000} ms.")
+        // Once completed, a removed entry belongs to whoever removed it: take() hands the grabber
+        // out, discard() closes it. startKeepWarmIfLive() does nothing for removed entries.
+        entry.opened.complete(grabber)
+        startKeepWarmIfLive(entry, grabber)
+    }
+
+    private fun startKeepWarmIfLive(entry: Entry, grabber: FrameGrabber) {
+        if (grabber.lengthInTime > 0) return
+        val thread = Thread({ keepWarm(entry, grabber) }, "GrabberPool-KeepWarm-${threadCounter.incrementAndGet()}")
+        thread.isDaemon = true
+        synchronized(entry) {
+            if (entry.removed) return
+            entry.keepWarm = thread
+        }
+        thread.start()
+    }
+
+    // Reads the live source at the rate it arrives so that its buffers never fill and the
+    // grabber stays at the live edge. Sources that deliver faster than real time are paced.
+    private fun keepWarm(entry: Entry, grabber: FrameGrabber) {
+        var firstTimestamp = Long.MIN_VALUE
+        var firstNanos = 0L
+        try {
+            while (!entry.removed && !Thread.currentThread().isInterrupted) {
+                val frame = entry.gate.grab(grabber) ?: throw IllegalStateException("end of stream")
+                val timestamp = frame.timestamp
+                frame.close()
+                val elapsedMicros = (System.nanoTime() - firstNanos) / 1000L
+                if (firstTimestamp == Long.MIN_VALUE || Math.abs(timestamp - firstTimestamp - elapsedMicros) > RESYNC_MICROS) {
+                    firstTimestamp = timestamp
+                    firstNanos = System.nanoTime()
+                    continue
+                }
+                val aheadMicros = timestamp - firstTimestamp - elapsedMicros
+                if (aheadMicros > 0) LockSupport.parkNanos(this, aheadMicros * 1000L)
+            }
+        } catch (e: Exception) {
+            if (entry.removed) return
+            LOG.log(Level.WARNING, "PreopenedGrabberPool: Keep-warm of ${entry.mediaPath} failed; dropping it.", e)
+            synchronized(this) { if (entries[entry.mediaPath] === entry) entries.remove(entry.mediaPath) }
+            entry.removed = true
+            background { release(entry.mediaPath, grabber) }
+        }
+    }
+
+    // Returns false if the keep-warm thread is still inside grab() after the wait.
+    private fun stopKeepWarm(entry: Entry): Boolean {
+        val thread = synchronized(entry) {
+            entry.removed = true
+            entry.keepWarm
+        } ?: return true
+        LockSupport.unpark(thread)
+        try {
+            thread.join(KEEP_WARM_STOP_MILLIS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        if (!thread.isAlive) return true
+        val grabber = entry.opened.getNow(null) ?: return false
+        background { thread.join(); release(entry.mediaPath, grabber) }
+        return false
+    }
+
+    private fun discard(entry: Entry) {
+        entry.removed = true
+        entry.opened.thenAccept { grabber ->
+            background {
+                if (stopKeepWarm(entry)) {
+                    entry.gate.reset(grabber)
+                    release(entry.mediaPath, grabber)
+                }
+            }
+        }
+    }
+
+    private fun background(task: () -> Unit) {
+        try {
+            opener.execute(task)
+        } catch (e: RejectedExecutionException) {
+            Thread(task, "GrabberPool-Release").apply { isDaemon = true }.start()
+        }
+    }
+
+    private fun release(mediaPath: String, grabber: FrameGrabber) {
+        try {
+            grabber.stop()
+            grabber.release()
+            LOG.info("PreopenedGrabberPool: Closed $mediaPath.")
+        } catch (e: Exception) {
+            LOG.log(Level.WARNING, "PreopenedGrabberPool: Exception closing $mediaPath.", e)
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(PreopenedGrabberPool::class.java.name)
+        const val DEFAULT_CAPACITY = 4
+        const val DEFAULT_TAKE_TIMEOUT_MILLIS = 2000L
+        private const val KEEP_WARM_STOP_MILLIS = 500L
+        private const val RESYNC_MICROS = 5_000_000L
+    }
+}
@@ -0,0 +1,263 @@
+package idv.neo.ffmpeg.media.player.core.source
+
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.nio.ByteBuffer
+import java.nio.ShortBuffer
+import java.util.Random
+import kotlin.math.PI
+import kotlin.math.sin
+
+/**
+ * A [FrameGrabber] that generates a test pattern and a tone instead of decoding anything, for
+ * profiling the players' sync, queueing and presentation paths on their own.
+ *
+ * Video frames are painted once at start (a small ring of moving-band images) and handed out in
+ * turn, so a grab costs a timestamp update. Each video frame is followed by the audio frames that
+ * cover its interval, the same interleaving FFmpegFrameGrabber produces for a well-muxed file.
+ * Like FFmpegFrameGrabber, the returned Frame objects are reused; clone them to keep them. Their
+ * buffers are plain direct ByteBuffers with no native owner, so the players' frame.close() on a
+ * grabbed frame leaves them intact.
+ *
+ * Timestamps are `startTimestampMicros + index / frameRate`, plus a uniform random offset of up
+ * to ±[Builder.timestampJitterMicros] on video frames. A jitter larger than the frame interval
+ * gives out-of-order timestamps. The random sequence is fixed by [Builder.seed].
+ */
+class SyntheticFrameGrabber private constructor(builder: Builder) : FrameGrabber() {
+
+    private val durationMicros = builder.durationMicros
+    private val jitterMicros = builder.timestampJitterMicros
+    private val startTimestampMicros = builder.startTimestampMicros
+    private val gopSize = builder.gopSize
+    private val seed = builder.seed
+    private var channelsPerPixel = 3
+
+    private var videoFrames: List<Frame> = emptyList()
+    private var audioFrame: Frame? = null
+    private var audioSamples: ShortBuffer? = null
+    private var tone: ShortArray = ShortArray(0)
+    private var random = Random(seed)
+
+    private var videoIndex = 0L
+    private var samplesEmitted = 0L
+    private var audioPending = false
+
+    init {
+        imageWidth = builder.width
+        imageHeight = builder.height
+        frameRate = builder.frameRate
+        pixelFormat = builder.pixelFormat
+        audioChannels = builder.audioChannels
+        sampleRate = builder.sampleRate
+        format = "synthetic"
+    }
+
+    override fun start() {
+        // Like FFmpegFrameGrabber, a pixel format set before start() selects the output format.
+        channelsPerPixel = channelsOf(pixelFormat)
+        videoStream = 0
+        audioStream = if (hasAudio()) 1 else -1
+        videoFrames = List(RING_SIZE) { phase -> paintedFrame(phase) }
+        if (hasAudio()) {
+            // One second of a 440 Hz tone holds a whole number of cycles, so it loops seamlessly.
+            tone = ShortArray(sampleRate * audioChannels) { i ->
+                (sin(2.0 * PI * TONE_HZ * (i / audioChannels) / sampleRate) * 8000).toInt().toShort()
+            }
+            val maxChunk = Math.ceil(sampleRate / frameRate).toInt() + 1
+            val samples = ShortBuffer.allocate(maxChunk * audioChannels)
+            audioSamples = samples
+            audioFrame = Frame().also {
+                it.audioChannels = audioChannels
+                it.sampleRate = sampleRate
+                it.samples = arrayOf(samples)
+                it.streamIndex = audioStream
+            }
+        }
+        rewind(0L)
+    }
+
+    override fun grab(): Frame? {
+        if (audioPending) {
+            audioPending = false
+            val frame = nextAudioFrame()
+            if (frame != null) return frame
+        }
+        if (durationMicros > 0 && videoIndex * 1_000_000.0 / frameRate >= durationMicros) return null
+
+        val frame = videoFrames[(videoIndex % RING_SIZE).toInt()]
+        val nominal = startTimestampMicros + (videoIndex * 1_000_000.0 / frameRate).toLong()
+        val jitter = if (jitterMicros > 0) (random.nextDouble() * 2 - 1) * jitterMicros else 0.0
+        frame.timestamp = nominal + jitter.toLong()
+        frame.keyFrame = videoIndex % gopSize == 0L
+        timestamp = frame.timestamp
+        frameNumber = videoIndex.toInt()
+        videoIndex++
+        audioPending = hasAudio()
+        return frame
+    }
+
+    override fun setTimestamp(timestamp: Long) {
+        rewind(((timestamp - startTimestampMicros).coerceAtLeast(0L) * frameRate / 1_000_000.0).toLong())
+    }
+
+    override fun getLengthInTime(): Long = durationMicros.coerceAtLeast(0L)
+
+    override fun getLengthInFrames(): Int = (durationMicros * frameRate / 1_000_000.0).toInt()
+
+    override fun stop() {
+        videoFrames = emptyList()
+        audioFrame = null
+        audioSamples = null
+    }
+
+    override fun trigger() {}
+
+    override fun release() = stop()
+
+    private fun hasAudio(): Boolean = audioChannels > 0 && sampleRate > 0
+
+    private fun rewind(toVideoIndex: Long) {
+        videoIndex = toVideoIndex
+        samplesEmitted = (toVideoIndex * sampleRate / frameRate).toLong()
+        audioPending = false
+        random = Random(seed)
+    }
+
+    // Audio covering [videoIndex - 1, videoIndex) in video frame time, or null if that is empty.
+    private fun nextAudioFrame(): Frame? {
+        val frame = audioFrame ?: return null
+        val samples = audioSamples ?: return null
+        val target = (videoIndex * sampleRate / frameRate).toLong()
+        val count = (target - samplesEmitted).toInt().coerceAtMost(samples.capacity() / audioChannels)
+        if (count <= 0) return null
+        samples.clear()
+        var offset = ((samplesEmitted % sampleRate) * audioChannels).toInt()
+        var remaining = count * audioChannels
+        while (remaining > 0) {
+            val n = minOf(remaining, tone.size - offset)
+            samples.put(tone, offset, n)
+            remaining -= n
+            offset = 0
+        }
+        samples.flip()
+        frame.timestamp = startTimestampMicros + samplesEmitted * 1_000_000L / sampleRate
+        samplesEmitted += count
+        return frame
+    }
+
+    // Diagonal bands shifted by phase; every pixel format gets the same byte pattern.
+    private fun paintedFrame(phase: Int): Frame {
+        val stride = imageWidth * channelsPerPixel
+        val image = ByteBuffer.allocateDirect(stride * imageHeight)
+        val shift = phase * imageWidth / RING_SIZE
+        for (y in 0 until imageHeight) {
+            var p = y * stride
+            for (x in 0 until imageWidth) {
+                val band = (((x + y + shift) / 32) and 1) * 160 + 48
+                for (c in 0 until channelsPerPixel) image.put(p + c, (band + c * 24).toByte())
+                p += channelsPerPixel
+            }
+        }
+        return Frame().also {
+            it.imageWidth = imageWidth
+            it.imageHeight = imageHeight
+            it.imageDepth = Frame.DEPTH_UBYTE
+            it.imageChannels = channelsPerPixel
+            it.imageStride = stride
+            it.image = arrayOf(image)
+            it.streamIndex = 0
+        }
+    }
+
+    class Builder {
+        internal var width = 1280
+        internal var height = 720
+        internal var frameRate = 30.0
+        internal var pixelFormat = avutil.AV_PIX_FMT_BGR24
+        internal var sampleRate = 48_000
+        internal var audioChannels = 2
+        internal var durationMicros = 60_000_000L
+        internal var timestampJitterMicros = 0L
+        internal var startTimestampMicros = 0L
+        internal var gopSize = 30
+        internal var seed = 42L
+
+        fun resolution(width: Int, height: Int) = apply {
+            require(width > 0 && height > 0) { "Invalid resolution ${width}x$height" }
+            this.width = width; this.height = height
+        }
+        fun frameRate(value: Double) = apply { require(value > 0) { "Invalid frame rate $value" }; this.frameRate = value }
+        /** One of AV_PIX_FMT_BGR24, RGB24, BGRA, RGBA, ARGB or GRAY8. */
+        fun pixelFormat(value: Int) = apply { channelsOf(value); this.pixelFormat = value }
+        /** channels = 0 produces a video-only source. */
+        fun audio(sampleRate: Int, channels: Int) = apply { this.sampleRate = sampleRate; this.audioChannels = channels }
+        /** A non-positive duration never ends. */
+        fun durationMicros(value: Long) = apply { this.durationMicros = value }
+        fun timestampJitterMicros(value: Long) = apply { if (value >= 0) this.timestampJitterMicros = value }
+        fun startTimestampMicros(value: Long) = apply { this.startTimestampMicros = value }
+        fun gopSize(value: Int) = apply { if (value > 0) this.gopSize = value }
+        fun seed(value: Long) = apply { this.seed = value }
+
+        fun build(): SyntheticFrameGrabber = SyntheticFrameGrabber(this)
+    }
+
+    companion object {
+        const val URI_SCHEME = "synthetic:"
+        private const val RING_SIZE = 8
+        private const val TONE_HZ = 440.0
+
+        private val PIXEL_FORMATS = mapOf(
+            "bgr24" to avutil.AV_PIX_FMT_BGR24,
+            "rgb24" to avutil.AV_PIX_FMT_RGB24,
+            "bgra" to avutil.AV_PIX_FMT_BGRA,
+            "rgba" to avutil.AV_PIX_FMT_RGBA,
+            "argb" to avutil.AV_PIX_FMT_ARGB,
+            "gray8" to avutil.AV_PIX_FMT_GRAY8
+        )
+
+        @JvmStatic
+        fun isSyntheticUri(mediaPath: String): Boolean = mediaPath.startsWith(URI_SCHEME)
+
+        /**
+         * Builds a grabber from a media path such as
+         * `synthetic:width=1920&height=1080&fps=240&pixfmt=bgra&sampleRate=48000&channels=2&duration=30&jitter=2000&gop=60&start=-21000&seed=7`.
+         * Every key is optional; duration is in seconds, jitter and start in microseconds.
+         */
+        @JvmStatic
+        fun fromUri(mediaPath: String): SyntheticFrameGrabber {
+            require(isSyntheticUri(mediaPath)) { "Not a synthetic source: $mediaPath" }
+            val params = mediaPath.removePrefix(URI_SCHEME).removePrefix("//").removePrefix("?")
+                .split('&').filter { it.isNotBlank() }
+                .associate { part ->
+                    val key = part.substringBefore('=').trim()
+                    val value = part.substringAfter('=', "").trim()
+                    key to value
+                }
+            val builder = Builder()
+            val width = params["width"]?.toInt()
+            val height = params["height"]?.toInt()
+            if (width != null || height != null) builder.resolution(width ?: builder.width, height ?: builder.height)
+            params["fps"]?.let { builder.frameRate(it.toDouble()) }
+            params["pixfmt"]?.let { name ->
+                builder.pixelFormat(PIXEL_FORMATS[name.lowercase()] ?: throw IllegalArgumentException("Unknown pixfmt '$name', expected one of ${PIXEL_FORMATS.keys}"))
+            }
+            val sampleRate = params["sampleRate"]?.toInt()
+            val channels = params["channels"]?.toInt()
+            if (sampleRate != null || channels != null) builder.audio(sampleRate ?: builder.sampleRate, channels ?: builder.audioChannels)
+            params["duration"]?.let { builder.durationMicros((it.toDouble() * 1_000_000).toLong()) }
+            params["jitter"]?.let { builder.timestampJitterMicros(it.toLong()) }
+            params["start"]?.let { builder.startTimestampMicros(it.toLong()) }
+            params["gop"]?.let { builder.gopSize(it.toInt()) }
+            params["seed"]?.let { builder.seed(it.toLong()) }
+            return builder.build()
+        }
+
+        private fun channelsOf(pixelFormat: Int): Int = when (pixelFormat) {
+            avutil.AV_PIX_FMT_BGR24, avutil.AV_PIX_FMT_RGB24 -> 3
+            avutil.AV_PIX_FMT_BGRA, avutil.AV_PIX_FMT_RGBA, avutil.AV_PIX_FMT_ARGB -> 4
+            avutil.AV_PIX_FMT_GRAY8 -> 1
+            else -> throw IllegalArgumentException("Unsupported synthetic pixel format $pixelFormat")
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package idv.neo.ffmpeg.media.player.core.stats
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free latency histogram with log-linear buckets.
+ *
+ * Values are nanoseconds. Every power of two is split into [SUB_BUCKETS] linear sub-buckets,
+ * so a recorded value is reported with at most ~6% relative error. Values above
+ * [MAX_TRACKABLE_NANOS] (about 18 minutes) land in the last bucket.
+ *
+ * [record] does not allocate and never blocks, so it can be called from the grab, video and
+ * audio threads on every frame. [snapshot] copies the counters; it is not an atomic cut across
+ * concurrent writers, which is fine for monitoring.
+ */
+class LatencyHistogram {
+
+    private val buckets = AtomicLongArray(BUCKET_COUNT)
+    private val totalNanos = AtomicLong()
+    private val maxNanos = AtomicLong()
+
+    fun record(nanos: Long) {
+        val value = nanos.coerceIn(0L, MAX_TRACKABLE_NANOS)
+        buckets.incrementAndGet(bucketIndex(value))
+        totalNanos.addAndGet(value)
+        var currentMax = maxNanos.get()
+        while (value > currentMax && !maxNanos.compareAndSet(currentMax, value)) {
+            currentMax = maxNanos.get()
+        }
+    }
+
+    fun reset() {
+        for (i in 0 until BUCKET_COUNT) buckets.set(i, 0L)
+        totalNanos.set(0L)
+        maxNanos.set(0L)
+    }
+
+    fun snapshot(): Snapshot {
+        val counts = LongArray(BUCKET_COUNT) { buckets.get(it) }
+        return Snapshot(counts, counts.sum(), totalNanos.get(), maxNanos.get())
+    }
+
+    /**
+     * Point-in-time copy of a [LatencyHistogram].
+     */
+    class Snapshot internal constructor(
+        private val counts: LongArray,
+        val count: Long,
+        private val sumNanos: Long,
+        val maxNanos: Long
+    ) {
+        val meanNanos: Double get() = if (count == 0L) 0.0 else sumNanos.toDouble() / count
+
+        /**
+         * Upper bound of the bucket holding the given percentile (0..100), capped at [maxNanos].
+         */
+        fun percentileNanos(percentile: Double): Long {
+            if (count == 0L) return 0L
+            val rank = Math.ceil(percentile.coerceIn(0.0, 100.0) / 100.0 * count).toLong().coerceAtLeast(1L)
+            var seen = 0L
+            for (i in counts.indices) {
+                seen += counts[i]
+                if (seen >= rank) return minOf(bucketUpperBound(i), maxNanos)
+            }
+            return maxNanos
+        }
+    }
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 4
+        const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        const val MAX_TRACKABLE_NANOS = (1L shl 40) - 1
+        private const val MAX_MAGNITUDE = 39 // highest set bit of MAX_TRACKABLE_NANOS
+        private const val BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS
+
+        private fun bucketIndex(value: Long): Int {
+            if (value < SUB_BUCKETS) return value.toInt()
+            val magnitude = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val shift = magnitude - SUB_BUCKET_BITS
+            val subBucket = ((value ushr shift) and (SUB_BUCKETS - 1).toLong()).toInt()
+            return (shift + 1) * SUB_BUCKETS + subBucket
+        }
+
+        private fun bucketUpperBound(index: Int): Long {
+            if (index < SUB_BUCKETS) return index.toLong()
+            val shift = index / SUB_BUCKETS - 1
+            val subBucket = index % SUB_BUCKETS
+            return ((SUB_BUCKETS + subBucket).toLong() shl shift) + (1L shl shift) - 1
+        }
+    }
+}
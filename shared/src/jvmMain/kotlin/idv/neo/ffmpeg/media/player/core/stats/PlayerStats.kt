@@ -0,0 +1,142 @@
+package idv.neo.ffmpeg.media.player.core.stats
+
+import idv.neo.ffmpeg.media.player.core.memory.MemoryUsageSnapshot
+import idv.neo.ffmpeg.media.player.core.memory.NativeMemoryBudget
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.management.ObjectName
+
+/**
+ * Stages of the playback pipeline whose latency is tracked by [PlayerStats].
+ */
+enum class PlaybackStage {
+    /** Time spent inside FFmpegFrameGrabber.grab() (demux + decode + sws). */
+    GRAB,
+    /** Time a cloned frame waits in the video/audio executor before its task runs. */
+    QUEUE,
+    /** Time spent in UniversalFrameConverter. */
+    CONVERT,
+    /** Time from handing a converted image to the UI until it is painted. */
+    PRESENT,
+    /** Time SourceDataLine.write() blocks. */
+    AUDIO_WRITE,
+    /** How late a video frame was handed to the output after its presentation deadline (0 if on time). */
+    PRESENT_LATENESS,
+    /** Time from a request to switch sources until the new source's first frame is handed to the output. */
+    SOURCE_SWITCH
+}
+
+/**
+ * Per-player latency statistics: one [LatencyHistogram] per [PlaybackStage].
+ *
+ * Recording is lock-free and allocation-free. Stages measured outside the player (conversion in
+ * UniversalFrameConverter, painting in the UI) reach the right instance either through
+ * [bindToCurrentThread] / [recordOnCurrentThread] or by calling [record] on the instance the
+ * player exposes.
+ */
+class PlayerStats(override val playerName: String) : PlayerStatsMXBean {
+
+    private val histograms = Array(PlaybackStage.entries.size) { LatencyHistogram() }
+    private val objectName: ObjectName = ObjectName(
+        "idv.neo.ffmpeg.media.player:type=PlayerStats,name=" + ObjectName.quote("$playerName-${INSTANCE_COUNTER.incrementAndGet()}")
+    )
+    @Volatile private var registered = false
+
+    /** The player's native memory budget, reported as [memoryUsage]. Set by the player. */
+    @Volatile var memoryBudget: NativeMemoryBudget? = null
+
+    override val memoryUsage: MemoryUsageSnapshot?
+        get() = memoryBudget?.snapshot()
+
+    fun record(stage: PlaybackStage, nanos: Long) {
+        histograms[stage.ordinal].record(nanos)
+    }
+
+    fun histogram(stage: PlaybackStage): LatencyHistogram = histograms[stage.ordinal]
+
+    fun snapshot(stage: PlaybackStage): StageLatencySnapshot {
+        val s = histograms[stage.ordinal].snapshot()
+        return StageLatencySnapshot(
+            stage = stage.name,
+            count = s.count,
+            meanMicros = s.meanNanos / 1000.0,
+            p50Micros = s.percentileNanos(50.0) / 1000L,
+            p90Micros = s.percentileNanos(90.0) / 1000L,
+            p99Micros = s.percentileNanos(99.0) / 1000L,
+            p999Micros = s.percentileNanos(99.9) / 1000L,
+            maxMicros = s.maxNanos / 1000L
+        )
+    }
+
+    override val stageLatencies: List<StageLatencySnapshot>
+        get() = PlaybackStage.entries.map { snapshot(it) }
+
+    override fun reset() {
+        histograms.forEach { it.reset() }
+    }
+
+    /**
+     * One-line summary of all stages that have samples, for logging.
+     */
+    fun summary(): String =
+        (stageLatencies.filter { it.count > 0 }.map { it.toString() } + listOfNotNull(memoryUsage?.toString()))
+            .joinToString(", ").ifEmpty { "no samples" }
+
+    /**
+     * Makes [PlayerStats] the target of [recordOnCurrentThread] calls made on this thread.
+     */
+    fun bindToCurrentThread() {
+        CURRENT.set(this)
+    }
+
+    /**
+     * Thread factory for a player's worker thread, with this instance bound to the new thread.
+     */
+    fun threadFactory(threadName: String, daemon: Boolean): ThreadFactory = ThreadFactory { r ->
+        Thread({
+            bindToCurrentThread()
+            r.run()
+        }, threadName).apply { isDaemon = daemon }
+    }
+
+    fun registerMBean() {
+        if (registered) return
+        try {
+            val server = ManagementFactory.getPlatformMBeanServer()
+            if (!server.isRegistered(objectName)) server.registerMBean(this, objectName)
+            registered = true
+            LOG.info("PlayerStats: Registered MBean $objectName")
+        } catch (e: Exception) {
+            LOG.log(Level.WARNING, "PlayerStats: Could not register MBean $objectName", e)
+        }
+    }
+
+    fun unregisterMBean() {
+        if (!registered) return
+        try {
+            val server = ManagementFactory.getPlatformMBeanServer()
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName)
+        } catch (e: Exception) {
+            LOG.log(Level.WARNING, "PlayerStats: Could not unregister MBean $objectName", e)
+        } finally {
+            registered = false
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(PlayerStats::class.java.name)
+        private val INSTANCE_COUNTER = AtomicInteger()
+        private val CURRENT = ThreadLocal<PlayerStats?>()
+
+        /**
+         * Records into the [PlayerStats] bound to the calling thread, if any.
+         */
+        @JvmStatic
+        fun recordOnCurrentThread(stage: PlaybackStage, nanos: Long) {
+            CURRENT.get()?.record(stage, nanos)
+        }
+    }
+}
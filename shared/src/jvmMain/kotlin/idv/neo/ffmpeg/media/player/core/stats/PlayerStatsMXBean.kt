@@ -0,0 +1,35 @@
+package idv.neo.ffmpeg.media.player.core.stats
+
+import idv.neo.ffmpeg.media.player.core.memory.MemoryUsageSnapshot
+import java.beans.ConstructorProperties
+
+/**
+ * JMX view of one player's [PlayerStats], registered under
+ * `idv.neo.ffmpeg.media.player:type=PlayerStats,name=<player>-<n>` while the player is running.
+ */
+interface PlayerStatsMXBean {
+    val playerName: String
+    val stageLatencies: List<StageLatencySnapshot>
+    /** Native memory use against the player's budget; null if the player has none. */
+    val memoryUsage: MemoryUsageSnapshot?
+    fun reset()
+}
+
+/**
+ * Latency percentiles of one [PlaybackStage], in microseconds.
+ */
+data class StageLatencySnapshot @ConstructorProperties(
+    "stage", "count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros", "maxMicros"
+) constructor(
+    val stage: String,
+    val count: Long,
+    val meanMicros: Double,
+    val p50Micros: Long,
+    val p90Micros: Long,
+    val p99Micros: Long,
+    val p999Micros: Long,
+    val maxMicros: Long
+) {
+    override fun toString(): String =
+        "$stage[n=$count, p50=${p50Micros}us, p90=${p90Micros}us, p99=${p99Micros}us, p99.9=${p999Micros}us, max=${maxMicros}us]"
+}
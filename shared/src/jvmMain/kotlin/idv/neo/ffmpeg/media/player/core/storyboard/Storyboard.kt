@@ -0,0 +1,60 @@
+package idv.neo.ffmpeg.media.player.core.storyboard
+
+import java.io.File
+
+/**
+ * What to generate: [thumbnailCount] thumbnails, one per equal time range of the file, each
+ * [thumbnailWidth] pixels wide (height follows the video's aspect ratio), tiled row by row into
+ * sprite sheets of [columns] x [rows].
+ */
+data class StoryboardRequest(
+    val thumbnailCount: Int = 100,
+    val thumbnailWidth: Int = 160,
+    val columns: Int = 10,
+    val rows: Int = 10,
+    val jpegQuality: Float = 0.8f
+) {
+    init {
+        require(thumbnailCount > 0) { "thumbnailCount must be positive: $thumbnailCount" }
+        require(thumbnailWidth > 0) { "thumbnailWidth must be positive: $thumbnailWidth" }
+        require(columns > 0 && rows > 0) { "Invalid sheet layout ${columns}x$rows" }
+        require(jpegQuality in 0f..1f) { "jpegQuality must be within 0..1: $jpegQuality" }
+    }
+
+    val tilesPerSheet: Int get() = columns * rows
+}
+
+/**
+ * One thumbnail of a storyboard. [timestampMicros] is the key frame actually shown, at or after
+ * the start of its range, or -1 if the range had no key frame (the cell is left black).
+ */
+data class StoryboardTile(
+    val index: Int,
+    val rangeStartMicros: Long,
+    val timestampMicros: Long,
+    val sheet: Int,
+    val x: Int,
+    val y: Int
+)
+
+/**
+ * A generated storyboard in the cache: JPEG sprite sheets plus an index.properties and a WebVTT
+ * thumbnail track (storyboard.vtt, `sheet-000.jpg#xywh=...` cues) in [directory].
+ */
+class Storyboard(
+    val directory: File,
+    val durationMicros: Long,
+    val thumbnailWidth: Int,
+    val thumbnailHeight: Int,
+    val sheets: List<File>,
+    val tiles: List<StoryboardTile>,
+    /** True if this was read from the cache without opening the media. */
+    val fromCache: Boolean
+) {
+    /** The tile whose time range contains [timestampMicros], e.g. under the seek-bar cursor. */
+    fun tileAt(timestampMicros: Long): StoryboardTile? {
+        if (tiles.isEmpty() || durationMicros <= 0) return tiles.firstOrNull()
+        val index = (timestampMicros.coerceIn(0L, durationMicros - 1) * tiles.size / durationMicros).toInt()
+        return tiles[index.coerceIn(0, tiles.size - 1)]
+    }
+}
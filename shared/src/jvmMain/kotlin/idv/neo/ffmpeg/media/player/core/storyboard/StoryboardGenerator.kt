@@ -0,0 +1,323 @@
+package idv.neo.ffmpeg.media.player.core.storyboard
+
+import idv.neo.ffmpeg.media.player.core.source.FrameGrabberFactory
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.awt.image.BufferedImage
+import java.awt.image.DataBufferByte
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+import java.util.Properties
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+import kotlin.math.roundToInt
+
+/**
+ * Builds seek-bar storyboards (thumbnail sprite sheets) for long files and keeps them in a
+ * content-addressed disk cache.
+ *
+ * The file is split into [StoryboardRequest.thumbnailCount] equal time ranges, and the ranges are
+ * divided between up to [workers] threads. Each worker opens its own grabber, seeks to each of
+ * its ranges and takes the first key frame there. The decoder runs with skip_frame=nokey, so
+ * frames between key frames are never decoded, and the grabber's swscale step outputs the
+ * thumbnail size directly, so no full-size image is produced.
+ *
+ * The cache key is a SHA-256 over the request and a sample of the file's content (size plus the
+ * first, middle and last MiB), so renamed or copied files hit the same entry. A small per-path
+ * memo of size and modification time maps a known file to its key, so a cache hit reads only
+ * file metadata and the index, never the media. Non-file media paths (URLs) are keyed by the path.
+ */
+class StoryboardGenerator @JvmOverloads constructor(
+    private val cacheDirectory: File,
+    private val workers: Int = Runtime.getRuntime().availableProcessors(),
+    private val grabberFactory: FrameGrabberFactory = FrameGrabberFactory.FFMPEG
+) : Closeable {
+
+    private val executor: ExecutorService = Executors.newFixedThreadPool(workers.coerceAtLeast(1), WORKER_THREADS)
+
+    /**
+     * Returns the storyboard of [mediaPath], from the cache if present. Blocks until done.
+     */
+    @Throws(FrameGrabber.Exception::class)
+    fun generate(mediaPath: String, request: StoryboardRequest = StoryboardRequest()): Storyboard {
+        val key = cacheKey(mediaPath, request)
+        val directory = File(cacheDirectory, key)
+        if (File(directory, INDEX_FILE).isFile) {
+            try {
+                return readIndex(directory)
+            } catch (e: Exception) {
+                LOG.log(Level.WARNING, "StoryboardGenerator: Unreadable cache entry $key, regenerating.", e)
+                directory.deleteRecursively()
+            }
+        }
+
+        val startNanos = System.nanoTime()
+        val probe = probe(mediaPath, request)
+        val thumbnails = decodeThumbnails(mediaPath, request, probe)
+        val storyboard = writeEntry(directory, mediaPath, request, probe, thumbnails)
+        LOG.info("StoryboardGenerator: ${request.thumbnailCount} thumbnails for '$mediaPath' in " +
+                "${(System.nanoTime() - startNanos) / 1_000_000} ms with ${workers.coerceAtMost(request.thumbnailCount)} workers.")
+        return storyboard
+    }
+
+    override fun close() {
+        executor.shutdownNow()
+    }
+
+    private class Probe(val durationMicros: Long, val thumbnailWidth: Int, val thumbnailHeight: Int)
+
+    private class Thumbnail(val index: Int, val rangeStartMicros: Long, val timestampMicros: Long, val image: BufferedImage?)
+
+    private fun probe(mediaPath: String, request: StoryboardRequest): Probe {
+        val grabber = grabberFactory.create(mediaPath)
+        try {
+            grabber.start()
+            val width = grabber.imageWidth
+            val height = grabber.imageHeight
+            if (width <= 0 || height <= 0) throw FrameGrabber.Exception("No video stream in '$mediaPath'")
+            val sampleAspect = grabber.aspectRatio.takeIf { it > 0.0 } ?: 1.0
+            val thumbHeight = (request.thumbnailWidth * height / (width * sampleAspect) / 2).roundToInt().coerceAtLeast(1) * 2
+            return Probe(grabber.lengthInTime, request.thumbnailWidth, thumbHeight)
+        } finally {
+            releaseQuietly(grabber)
+        }
+    }
+
+    private fun decodeThumbnails(mediaPath: String, request: StoryboardRequest, probe: Probe): List<Thumbnail> {
+        val count = request.thumbnailCount
+        val workerCount = workers.coerceIn(1, count)
+        val futures: List<Future<List<Thumbnail>>> = (0 until workerCount).map { worker ->
+            val first = worker * count / workerCount
+            val last = (worker + 1) * count / workerCount
+            executor.submit<List<Thumbnail>> { decodeRange(mediaPath, probe, first, last, count) }
+        }
+        return try {
+            futures.flatMap { it.get() }.sortedBy { it.index }
+        } catch (e: ExecutionException) {
+            futures.forEach { it.cancel(true) }
+            throw e.cause as? FrameGrabber.Exception ?: FrameGrabber.Exception("Storyboard generation failed", e.cause)
+        }
+    }
+
+    // Runs on a worker thread with its own grabber, for thumbnails [first, last).
+    private fun decodeRange(mediaPath: String, probe: Probe, first: Int, last: Int, count: Int): List<Thumbnail> {
+        val grabber = grabberFactory.create(mediaPath)
+        try {
+            if (grabber is FFmpegFrameGrabber) grabber.setVideoOption("skip_frame", "nokey")
+            grabber.pixelFormat = avutil.AV_PIX_FMT_BGR24
+            grabber.start()
+            grabber.imageWidth = probe.thumbnailWidth
+            grabber.imageHeight = probe.thumbnailHeight
+            return (first until last).map { index ->
+                if (Thread.currentThread().isInterrupted) throw InterruptedException()
+                val rangeStart = index * probe.durationMicros / count
+                val frame = try {
+                    grabber.timestamp = rangeStart
+                    if (grabber is FFmpegFrameGrabber) grabber.grabKeyFrame() else nextVideoFrame(grabber)
+                } catch (e: FrameGrabber.Exception) {
+                    LOG.log(Level.FINE, "StoryboardGenerator: No key frame for range $index of '$mediaPath'.", e)
+                    null
+                }
+                if (frame?.image == null) Thumbnail(index, rangeStart, -1L, null)
+                else Thumbnail(index, rangeStart, frame.timestamp, toImage(frame, probe))
+            }
+        } finally {
+            releaseQuietly(grabber)
+        }
+    }
+
+    private fun nextVideoFrame(grabber: FrameGrabber): Frame? {
+        while (true) {
+            val frame = grabber.grab() ?: return null
+            if (frame.image != null) return frame
+        }
+    }
+
+    // Copies the BGR24 frame, which the grabber reuses, into a thumbnail-sized image.
+    private fun toImage(frame: Frame, probe: Probe): BufferedImage {
+        val image = BufferedImage(probe.thumbnailWidth, probe.thumbnailHeight, BufferedImage.TYPE_3BYTE_BGR)
+        val target = (image.raster.dataBuffer as DataBufferByte).data
+        val source = (frame.image[0] as ByteBuffer).duplicate()
+        val rowBytes = minOf(probe.thumbnailWidth, frame.imageWidth) * 3
+        for (y in 0 until minOf(probe.thumbnailHeight, frame.imageHeight)) {
+            source.position(y * frame.imageStride)
+            source.get(target, y * probe.thumbnailWidth * 3, rowBytes)
+        }
+        return image
+    }
+
+    private fun writeEntry(directory: File, mediaPath: String, request: StoryboardRequest, probe: Probe, thumbnails: List<Thumbnail>): Storyboard {
+        val staging = File(cacheDirectory, "${directory.name}.tmp-${System.nanoTime()}")
+        staging.mkdirs()
+        try {
+            val sheetCount = (thumbnails.size + request.tilesPerSheet - 1) / request.tilesPerSheet
+            val tiles = ArrayList<StoryboardTile>(thumbnails.size)
+            for (sheet in 0 until sheetCount) {
+                val onSheet = thumbnails.subList(sheet * request.tilesPerSheet, minOf(thumbnails.size, (sheet + 1) * request.tilesPerSheet))
+                val usedRows = (onSheet.size + request.columns - 1) / request.columns
+                val image = BufferedImage(request.columns * probe.thumbnailWidth, usedRows * probe.thumbnailHeight, BufferedImage.TYPE_3BYTE_BGR)
+                val g = image.createGraphics()
+                try {
+                    onSheet.forEachIndexed { i, thumbnail ->
+                        val x = i % request.columns * probe.thumbnailWidth
+                        val y = i / request.columns * probe.thumbnailHeight
+                        thumbnail.image?.let { g.drawImage(it, x, y, null) }
+                        tiles += StoryboardTile(thumbnail.index, thumbnail.rangeStartMicros, thumbnail.timestampMicros, sheet, x, y)
+                    }
+                } finally {
+                    g.dispose()
+                }
+                writeJpeg(image, File(staging, sheetName(sheet)), request.jpegQuality)
+            }
+
+            val index = Properties()
+            index["version"] = CACHE_VERSION.toString()
+            index["source"] = mediaPath
+            index["durationMicros"] = probe.durationMicros.toString()
+            index["thumbnailWidth"] = probe.thumbnailWidth.toString()
+            index["thumbnailHeight"] = probe.thumbnailHeight.toString()
+            index["sheetCount"] = sheetCount.toString()
+            index["tileCount"] = tiles.size.toString()
+            tiles.forEach { index["tile.${it.index}"] = "${it.rangeStartMicros},${it.timestampMicros},${it.sheet},${it.x},${it.y}" }
+            File(staging, INDEX_FILE).outputStream().use { index.store(it, "Storyboard index") }
+            File(staging, VTT_FILE).writeText(webVtt(tiles, probe))
+
+            // Publish atomically; if another generator got there first, keep its entry.
+            if (!staging.renameTo(directory) && !File(directory, INDEX_FILE).isFile) {
+                throw FrameGrabber.Exception("Could not publish storyboard cache entry ${directory.name}")
+            }
+        } finally {
+            if (staging.exists()) staging.deleteRecursively()
+        }
+        return readIndex(directory).let {
+            Storyboard(it.directory, it.durationMicros, it.thumbnailWidth, it.thumbnailHeight, it.sheets, it.tiles, fromCache = false)
+        }
+    }
+
+    private fun readIndex(directory: File): Storyboard {
+        val index = Properties()
+        File(directory, INDEX_FILE).inputStream().use { index.load(it) }
+        check(index.getProperty("version") == CACHE_VERSION.toString()) { "Cache entry version ${index.getProperty("version")}" }
+        val sheetCount = index.getProperty("sheetCount").toInt()
+        val tiles = (0 until index.getProperty("tileCount").toInt()).map { i ->
+            val (rangeStart, timestamp, sheet, x, y) = index.getProperty("tile.$i").split(',').map { it.toLong() }
+            StoryboardTile(i, rangeStart, timestamp, sheet.toInt(), x.toInt(), y.toInt())
+        }
+        val sheets = (0 until sheetCount).map { File(directory, sheetName(it)) }
+        check(sheets.all { it.isFile }) { "Missing sprite sheet in ${directory.name}" }
+        return Storyboard(
+            directory = directory,
+            durationMicros = index.getProperty("durationMicros").toLong(),
+            thumbnailWidth = index.getProperty("thumbnailWidth").toInt(),
+            thumbnailHeight = index.getProperty("thumbnailHeight").toInt(),
+            sheets = sheets,
+            tiles = tiles,
+            fromCache = true
+        )
+    }
+
+    private fun webVtt(tiles: List<StoryboardTile>, probe: Probe): String = buildString {
+        append("WEBVTT\n\n")
+        tiles.forEachIndexed { i, tile ->
+            val end = if (i + 1 < tiles.size) tiles[i + 1].rangeStartMicros else probe.durationMicros
+            append(vttTime(tile.rangeStartMicros)).append(" --> ").append(vttTime(end)).append('\n')
+            append(sheetName(tile.sheet)).append("#xywh=")
+                .append("${tile.x},${tile.y},${probe.thumbnailWidth},${probe.thumbnailHeight}\n\n")
+        }
+    }
+
+    private fun vttTime(micros: Long): String {
+        val millis = micros.coerceAtLeast(0L) / 1000
+        return String.format("%02d:%02d:%02d.%03d", millis / 3_600_000, millis / 60_000 % 60, millis / 1000 % 60, millis % 1000)
+    }
+
+    private fun writeJpeg(image: BufferedImage, file: File, quality: Float) {
+        val writer = ImageIO.getImageWritersByFormatName("jpeg").next()
+        try {
+            ImageIO.createImageOutputStream(file).use { output ->
+                writer.output = output
+                val param = writer.defaultWriteParam.apply {
+                    compressionMode = ImageWriteParam.MODE_EXPLICIT
+                    compressionQuality = quality
+                }
+                writer.write(null, IIOImage(image, null, null), param)
+            }
+        } finally {
+            writer.dispose()
+        }
+    }
+
+    private fun cacheKey(mediaPath: String, request: StoryboardRequest): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update("v$CACHE_VERSION|$request|".toByteArray())
+        val file = File(mediaPath)
+        digest.update((if (file.isFile) contentKey(file) else "path:$mediaPath").toByteArray())
+        return hex(digest.digest())
+    }
+
+    // Sampled content hash of a local file, memoized per path by size and modification time.
+    private fun contentKey(file: File): String {
+        val memo = File(cacheDirectory, "sources/${hex(sha256(file.canonicalPath.toByteArray())).take(32)}.properties")
+        val size = file.length()
+        val modified = file.lastModified()
+        if (memo.isFile) {
+            val known = Properties().apply { memo.inputStream().use { load(it) } }
+            if (known.getProperty("size") == size.toString() && known.getProperty("modified") == modified.toString()) {
+                known.getProperty("content")?.let { return it }
+            }
+        }
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update(size.toString().toByteArray())
+        RandomAccessFile(file, "r").use { raf ->
+            val buffer = ByteArray(SAMPLE_BYTES)
+            for (offset in listOf(0L, (size - SAMPLE_BYTES) / 2, size - SAMPLE_BYTES).map { it.coerceAtLeast(0L) }.distinct()) {
+                raf.seek(offset)
+                val read = raf.read(buffer, 0, minOf(SAMPLE_BYTES.toLong(), size - offset).toInt())
+                if (read > 0) digest.update(buffer, 0, read)
+            }
+        }
+        val content = "content:" + hex(digest.digest())
+        memo.parentFile.mkdirs()
+        Properties().apply {
+            setProperty("size", size.toString())
+            setProperty("modified", modified.toString())
+            setProperty("content", content)
+            memo.outputStream().use { store(it, file.canonicalPath) }
+        }
+        return content
+    }
+
+    private fun releaseQuietly(grabber: FrameGrabber) {
+        try { grabber.stop(); grabber.release() } catch (e: Exception) { /* ignore */ }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(StoryboardGenerator::class.java.name)
+        private const val CACHE_VERSION = 1
+        private const val INDEX_FILE = "index.properties"
+        private const val VTT_FILE = "storyboard.vtt"
+        private const val SAMPLE_BYTES = 1 shl 20
+        private val WORKER_COUNTER = AtomicInteger()
+        private val WORKER_THREADS = ThreadFactory { r ->
+            Thread(r, "Storyboard-Worker-${WORKER_COUNTER.incrementAndGet()}").apply { isDaemon = true }
+        }
+
+        private fun sheetName(sheet: Int) = String.format("sheet-%03d.jpg", sheet)
+        private fun sha256(bytes: ByteArray): ByteArray = MessageDigest.getInstance("SHA-256").digest(bytes)
+        private fun hex(bytes: ByteArray): String = bytes.joinToString("") { String.format("%02x", it) }
+    }
+}
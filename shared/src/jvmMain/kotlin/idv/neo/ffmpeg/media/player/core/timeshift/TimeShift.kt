@@ -0,0 +1,175 @@
+package idv.neo.ffmpeg.media.player.core.timeshift
+
+import idv.neo.ffmpeg.media.player.core.source.FrameGrabberFactory
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.FrameGrabber
+import java.io.Closeable
+import java.io.File
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Time-shift (DVR) for live streams: the stream is ingested in the background into a
+ * [TimeShiftBuffer] holding the last [windowMicros], and the player reads from that buffer, so it
+ * can pause, rewind and catch up while ingest carries on.
+ *
+ * ```
+ * val timeShift = TimeShift(File("/var/cache/player/dvr"), windowMicros = 30 * 60_000_000L)
+ * val player = UniversalJVMFFmpegPlayer.Builder(onFrame, onEvent).grabberFactory(timeShift.grabberFactory()).build()
+ * player.start("rtsp://camera-7/stream")
+ * timeShift.rewind(60_000_000L)   // one minute back
+ * timeShift.catchUp()             // back to live
+ * ```
+ *
+ * Segments are sized for [maxBitrate]; a stream above it fills segments early and the window
+ * shrinks accordingly. The player sees one continuous timeline across pauses, rewinds and
+ * catch-ups (see [TimeShiftGrabber]). Ingest runs from the first playback until [close], so the
+ * window survives stopping and restarting the player on the same stream.
+ */
+class TimeShift @JvmOverloads constructor(
+    private val directory: File,
+    private val windowMicros: Long = 10 * 60_000_000L,
+    private val maxBitrate: Long = 8_000_000L,
+    private val segmentMicros: Long = 4_000_000L
+) : Closeable {
+
+    private var ingest: Ingest? = null
+    @Volatile private var reader: TimeShiftGrabber? = null
+
+    /** The factory to give the player; every media path is ingested and played through the buffer. */
+    fun grabberFactory(): FrameGrabberFactory = FrameGrabberFactory { mediaPath -> TimeShiftGrabber(this, mediaPath) }
+
+    /** Media time of the oldest buffered key frame, or null before ingest has produced one. */
+    val oldestMicros: Long? get() = ingest?.buffer?.oldestMicros
+
+    /** Media time of the newest ingested packet. */
+    val liveEdgeMicros: Long? get() = ingest?.buffer?.liveEdgeMicros
+
+    /** Media time the player is at, or null if nothing has been played. */
+    val positionMicros: Long? get() = reader?.positionMicros
+
+    /** How far behind live the player is. */
+    val delayMicros: Long
+        get() {
+            val live = liveEdgeMicros ?: return 0L
+            val position = positionMicros ?: return 0L
+            return (live - position).coerceAtLeast(0L)
+        }
+
+    val isPaused: Boolean get() = reader?.isPaused ?: false
+
+    /** Holds the current frame; ingest continues. */
+    fun pause() { reader?.pause() }
+
+    fun resume() { reader?.resume() }
+
+    /** Continues from the key frame at or before [mediaMicros], clamped to the buffered window. */
+    fun seekTo(mediaMicros: Long) { reader?.requestSeek(mediaMicros) }
+
+    /** Jumps [micros] back from the current position. */
+    fun rewind(micros: Long) {
+        val position = positionMicros ?: return
+        seekTo(position - micros)
+    }
+
+    /** Jumps to the newest key frame. */
+    fun catchUp() { reader?.requestSeek(TimeShiftGrabber.LIVE) }
+
+    @Synchronized
+    override fun close() {
+        ingest?.close()
+        ingest = null
+    }
+
+    @Synchronized
+    internal fun ingestFor(mediaPath: String): Ingest {
+        ingest?.let { if (it.mediaPath == mediaPath && !it.failed) return it }
+        ingest?.close()
+        val segmentCount = (windowMicros / segmentMicros + 2).toInt()
+        // 25% headroom for key frames and GOPs longer than the segment target.
+        val segmentBytes = (maxBitrate / 8 * segmentMicros / 1_000_000L * 5 / 4).coerceIn(1L shl 20, Int.MAX_VALUE.toLong()).toInt()
+        return Ingest(mediaPath, TimeShiftBuffer(File(directory, "ring"), segmentCount, segmentBytes, segmentMicros)).also {
+            it.start()
+            ingest = it
+        }
+    }
+
+    internal fun attach(grabber: TimeShiftGrabber) { reader = grabber }
+
+    internal fun detach(grabber: TimeShiftGrabber) { if (reader === grabber) reader = null }
+
+    /** Reads the live stream into the buffer on its own thread. */
+    internal class Ingest(val mediaPath: String, val buffer: TimeShiftBuffer) : Closeable {
+        val source = FFmpegFrameGrabber(mediaPath)
+        private var thread: Thread? = null
+        @Volatile private var closing = false
+        @Volatile var ended = false
+            private set
+        @Volatile var failed = false
+            private set
+
+        fun start() {
+            try {
+                source.start()
+            } catch (e: FrameGrabber.Exception) {
+                failed = true
+                buffer.close()
+                throw e
+            }
+            thread = Thread(::run, "TimeShift-Ingest").apply { isDaemon = true; start() }
+            LOG.info("TimeShift: Ingesting '$mediaPath'")
+        }
+
+        private fun run() {
+            val formatContext = source.getFormatContext()
+            val videoIndex = source.getVideoStream()
+            var lastSeekPointMicros = Long.MIN_VALUE
+            try {
+                while (!closing) {
+                    val packet = source.grabPacket() ?: break
+                    // grabPacket() is a bare av_read_frame(); append() copies the data, so release it here.
+                    try {
+                        val stream = formatContext.streams(packet.stream_index())
+                        val ts = if (packet.dts() != avutil.AV_NOPTS_VALUE) packet.dts() else packet.pts()
+                        if (ts == avutil.AV_NOPTS_VALUE) continue
+                        val micros = avutil.av_rescale_q(ts, stream.time_base(), MICROSECONDS)
+                        // Without video, any packet is a seek point; index them twice a second.
+                        val seekPoint = if (videoIndex >= 0) {
+                            packet.stream_index() == videoIndex && (packet.flags() and avcodec.AV_PKT_FLAG_KEY) != 0
+                        } else {
+                            lastSeekPointMicros == Long.MIN_VALUE || micros - lastSeekPointMicros >= 500_000L
+                        }
+                        if (seekPoint) lastSeekPointMicros = micros
+                        buffer.append(packet, micros, seekPoint)
+                    } finally {
+                        avcodec.av_packet_unref(packet)
+                    }
+                }
+                LOG.info("TimeShift: Ingest of '$mediaPath' reached the end of the stream.")
+            } catch (e: Exception) {
+                if (!closing) {
+                    failed = true
+                    LOG.log(Level.WARNING, "TimeShift: Ingest of '$mediaPath' failed.", e)
+                }
+            } finally {
+                ended = true
+                buffer.wakeReaders()
+            }
+        }
+
+        override fun close() {
+            closing = true
+            thread?.join(5000)
+            if (thread?.isAlive == true) LOG.warning("TimeShift: Ingest thread did not stop; the source is left open.")
+            else try { source.stop(); source.release() } catch (e: Exception) { /* ignore */ }
+            buffer.close()
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(TimeShift::class.java.name)
+        private val MICROSECONDS = avutil.av_make_q(1, 1_000_000)
+    }
+}
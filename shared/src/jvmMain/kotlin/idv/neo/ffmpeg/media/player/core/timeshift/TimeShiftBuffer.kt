@@ -0,0 +1,260 @@
+package idv.neo.ffmpeg.media.player.core.timeshift
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket
+import org.bytedeco.ffmpeg.global.avcodec
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import java.util.logging.Logger
+import kotlin.concurrent.withLock
+
+/**
+ * A ring of preallocated segment files holding the most recent demuxed packets of a stream, with
+ * an in-memory index from media time to seek points.
+ *
+ * One thread appends ([append]); any number of readers follow their own [Cursor] ([read]). When
+ * the writer wraps around onto a segment, that segment's old contents are gone, and a reader still
+ * inside it gets [ReadResult.OVERRUN] and must seek again. A new segment is started at the first
+ * seek point after [segmentMicros], or earlier when the current one is full, so every segment
+ * normally starts with a key frame.
+ *
+ * Records are `[size, stream, flags, pts, dts, duration, micros] + data`, in the stream's own
+ * time base, so a reader can rebuild the AVPacket exactly.
+ */
+class TimeShiftBuffer(
+    private val directory: File,
+    segmentCount: Int,
+    private val segmentBytes: Int,
+    private val segmentMicros: Long
+) : Closeable {
+
+    enum class ReadResult { PACKET, NO_DATA, OVERRUN }
+
+    /** A reader's position: a byte offset in one generation of one segment. */
+    class Cursor internal constructor(internal var segment: Int, internal var sequence: Long, internal var offset: Int) {
+        internal val header: ByteBuffer = ByteBuffer.allocate(HEADER_BYTES)
+
+        /** Media time of the last packet read through this cursor. */
+        var micros: Long = Long.MIN_VALUE
+            internal set
+    }
+
+    private class SeekPoint(val micros: Long, val offset: Int)
+
+    private class Segment(val index: Int, val channel: FileChannel) {
+        var sequence = -1L
+        var writeOffset = 0
+        var startMicros = Long.MIN_VALUE
+        var endMicros = Long.MIN_VALUE
+        val seekPoints = ArrayList<SeekPoint>()
+
+        fun reset(newSequence: Long) {
+            sequence = newSequence
+            writeOffset = 0
+            startMicros = Long.MIN_VALUE
+            endMicros = Long.MIN_VALUE
+            seekPoints.clear()
+        }
+    }
+
+    private val lock = ReentrantLock()
+    private val appended = lock.newCondition()
+    private val segments: List<Segment>
+    private var current: Segment? = null
+    private var nextSequence = 0L
+    private val header = ByteBuffer.allocate(HEADER_BYTES) // writer only
+    @Volatile private var closed = false
+
+    init {
+        require(segmentCount >= 2) { "Need at least two segments, got $segmentCount" }
+        require(segmentBytes > HEADER_BYTES) { "Segment size too small: $segmentBytes" }
+        directory.mkdirs()
+        segments = List(segmentCount) { i ->
+            val file = File(directory, String.format("segment-%03d.dvr", i))
+            val raf = RandomAccessFile(file, "rw")
+            raf.setLength(segmentBytes.toLong())
+            Segment(i, raf.channel)
+        }
+        LOG.info("TimeShiftBuffer: $segmentCount segments of ${segmentBytes / 1024} KiB in ${directory.absolutePath}")
+    }
+
+    /** Media time of the oldest seek point still buffered, or null while empty. */
+    val oldestMicros: Long?
+        get() = lock.withLock { oldestSegment()?.seekPoints?.firstOrNull()?.micros }
+
+    /** Media time of the newest packet, or null while empty. */
+    val liveEdgeMicros: Long?
+        get() = lock.withLock { current?.endMicros?.takeIf { it != Long.MIN_VALUE } }
+
+    /**
+     * Appends a packet. [seekPoint] marks packets a reader can start decoding from (video key
+     * frames). Called from the ingest thread only.
+     */
+    fun append(packet: AVPacket, micros: Long, seekPoint: Boolean) {
+        val size = packet.size()
+        val recordBytes = HEADER_BYTES + size
+        if (recordBytes > segmentBytes) {
+            LOG.warning("TimeShiftBuffer: Dropping a $size byte packet larger than a segment.")
+            return
+        }
+        val segment: Segment
+        val offset: Int
+        lock.withLock {
+            var target = current
+            if (target == null || target.writeOffset + recordBytes > segmentBytes ||
+                (seekPoint && target.startMicros != Long.MIN_VALUE && micros - target.startMicros >= segmentMicros)) {
+                target = segments[if (target == null) 0 else (target.index + 1) % segments.size]
+                target.reset(nextSequence++)
+                current = target
+            }
+            segment = target
+            offset = target.writeOffset
+        }
+
+        // Only this thread writes, and readers never read past writeOffset, so write unlocked.
+        header.clear()
+        header.putInt(size).putInt(packet.stream_index()).putInt(packet.flags())
+            .putLong(packet.pts()).putLong(packet.dts()).putLong(packet.duration()).putLong(micros)
+        header.flip()
+        writeFully(segment.channel, header, offset.toLong())
+        if (size > 0) writeFully(segment.channel, packet.data().capacity(size.toLong()).asBuffer(), (offset + HEADER_BYTES).toLong())
+
+        lock.withLock {
+            segment.writeOffset = offset + recordBytes
+            if (segment.startMicros == Long.MIN_VALUE) segment.startMicros = micros
+            segment.endMicros = maxOf(segment.endMicros, micros)
+            if (seekPoint) segment.seekPoints += SeekPoint(micros, offset)
+            appended.signalAll()
+        }
+    }
+
+    /** A cursor at the newest seek point, or null if there is none yet. */
+    fun liveCursor(): Cursor? = lock.withLock {
+        val segment = segmentsNewestFirst().firstOrNull { it.seekPoints.isNotEmpty() } ?: return null
+        val point = segment.seekPoints.last()
+        Cursor(segment.index, segment.sequence, point.offset).also { it.micros = point.micros }
+    }
+
+    /**
+     * A cursor at the last seek point at or before [micros], clamped to what is buffered, or null
+     * if there is no seek point yet.
+     */
+    fun seek(micros: Long): Cursor? = lock.withLock {
+        var best: Pair<Segment, SeekPoint>? = null
+        for (segment in segmentsOldestFirst()) {
+            for (point in segment.seekPoints) {
+                if (best == null || point.micros <= micros) best = segment to point
+                if (point.micros > micros) break
+            }
+        }
+        best?.let { (segment, point) -> Cursor(segment.index, segment.sequence, point.offset).also { it.micros = point.micros } }
+    }
+
+    /**
+     * Reads the next packet at [cursor] into [packet], waiting up to [timeoutMillis] at the live
+     * edge. Advances the cursor on success.
+     */
+    @Throws(InterruptedException::class)
+    fun read(cursor: Cursor, packet: AVPacket, timeoutMillis: Long): ReadResult {
+        var segment: Segment
+        lock.lock()
+        try {
+            while (true) {
+                segment = segments[cursor.segment]
+                if (segment.sequence != cursor.sequence) return ReadResult.OVERRUN
+                if (cursor.offset < segment.writeOffset) break
+                if (segment !== current) {
+                    // Finished a segment the writer has moved on from; continue in the next one.
+                    if (!advance(cursor)) return ReadResult.OVERRUN
+                } else if (closed || !appended.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    return ReadResult.NO_DATA
+                }
+            }
+        } finally {
+            lock.unlock()
+        }
+
+        val headerBuffer = cursor.header
+        headerBuffer.clear()
+        readFully(segment.channel, headerBuffer, cursor.offset.toLong())
+        headerBuffer.flip()
+        val size = headerBuffer.int
+        val streamIndex = headerBuffer.int
+        val flags = headerBuffer.int
+        val pts = headerBuffer.long
+        val dts = headerBuffer.long
+        val duration = headerBuffer.long
+        val micros = headerBuffer.long
+        if (size < 0 || size > segmentBytes - HEADER_BYTES) return ReadResult.OVERRUN
+
+        avcodec.av_packet_unref(packet)
+        if (avcodec.av_new_packet(packet, size) < 0) throw OutOfMemoryError("av_new_packet($size)")
+        if (size > 0) readFully(segment.channel, packet.data().capacity(size.toLong()).asBuffer(), (cursor.offset + HEADER_BYTES).toLong())
+        packet.stream_index(streamIndex)
+        packet.flags(flags)
+        packet.pts(pts)
+        packet.dts(dts)
+        packet.duration(duration)
+
+        // The writer may have wrapped onto this segment while we were reading it.
+        lock.withLock { if (segment.sequence != cursor.sequence) return ReadResult.OVERRUN }
+        cursor.offset += HEADER_BYTES + size
+        cursor.micros = micros
+        return ReadResult.PACKET
+    }
+
+    /** Wakes readers waiting at the live edge, e.g. when ingest ends. */
+    fun wakeReaders() {
+        lock.withLock { appended.signalAll() }
+    }
+
+    override fun close() {
+        closed = true
+        wakeReaders()
+        lock.withLock {
+            segments.forEach { segment ->
+                try { segment.channel.close() } catch (e: Exception) { /* ignore */ }
+            }
+        }
+        segments.indices.forEach { File(directory, String.format("segment-%03d.dvr", it)).delete() }
+    }
+
+    // Moves the cursor to the start of the following segment, unless that was overwritten; lock held.
+    private fun advance(cursor: Cursor): Boolean {
+        val next = segments[(cursor.segment + 1) % segments.size]
+        if (next.sequence != cursor.sequence + 1) return false
+        cursor.segment = next.index
+        cursor.sequence = next.sequence
+        cursor.offset = 0
+        return true
+    }
+
+    private fun oldestSegment(): Segment? = segmentsOldestFirst().firstOrNull { it.seekPoints.isNotEmpty() }
+
+    private fun segmentsOldestFirst(): List<Segment> = segments.filter { it.sequence >= 0 }.sortedBy { it.sequence }
+
+    private fun segmentsNewestFirst(): List<Segment> = segments.filter { it.sequence >= 0 }.sortedByDescending { it.sequence }
+
+    private fun writeFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+        var at = position
+        while (buffer.hasRemaining()) at += channel.write(buffer, at)
+    }
+
+    private fun readFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+        var at = position
+        while (buffer.hasRemaining()) {
+            val n = channel.read(buffer, at)
+            if (n < 0) break
+            at += n
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(TimeShiftBuffer::class.java.name)
+        private const val HEADER_BYTES = 4 + 4 + 4 + 8 + 8 + 8 + 8
+    }
+}
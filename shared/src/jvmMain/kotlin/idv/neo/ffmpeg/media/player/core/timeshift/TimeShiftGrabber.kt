@@ -0,0 +1,220 @@
+package idv.neo.ffmpeg.media.player.core.timeshift
+
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents
+import idv.neo.ffmpeg.media.player.core.source.PacketDecoder
+import org.bytedeco.ffmpeg.avcodec.AVPacket
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.Frame
+import org.bytedeco.javacv.FrameGrabber
+import java.util.logging.Logger
+
+/**
+ * A [FrameGrabber] that plays from a [TimeShift]'s buffer instead of the network.
+ *
+ * Playback starts at the newest key frame. Seeks, rewinds and catch-ups requested on the
+ * [TimeShift] are applied on the grab thread at the next [grab]. Output timestamps are remapped onto
+ * one continuous timeline, so the player keeps its clock across jumps and needs no seek handling of
+ * its own; [positionMicros] gives the media time actually shown.
+ *
+ * While paused, [grab] blocks. For sources with audio the player's audio clock stops with it; for
+ * video-only sources the paused time is added to the timeline so playback resumes smoothly.
+ *
+ * Created by [TimeShift.grabberFactory].
+ */
+class TimeShiftGrabber internal constructor(
+    private val timeShift: TimeShift,
+    private val mediaPath: String
+) : FrameGrabber() {
+
+    private var ingest: TimeShift.Ingest? = null
+    private var decoder: PacketDecoder? = null
+    private var cursor: TimeShiftBuffer.Cursor? = null
+    private val packet: AVPacket = avcodec.av_packet_alloc()
+    private var endOfInput = false
+
+    // Output timestamp = media timestamp + offset.
+    private var offset = 0L
+    private var lastOutput = Long.MIN_VALUE
+    private var frameInterval = 0L
+
+    @Volatile private var pendingSeek = NO_SEEK
+    @Volatile private var paused = false
+    private val pauseLock = Object()
+
+    /** Media time of the last frame returned, or null before the first. */
+    @Volatile var positionMicros: Long? = null
+        private set
+
+    val isPaused: Boolean get() = paused
+
+    override fun start() {
+        val ingest = timeShift.ingestFor(mediaPath)
+        this.ingest = ingest
+        // This class extends FrameGrabber, so property syntax on source could bind to
+        // FrameGrabber's protected fields; call FFmpegFrameGrabber's getters instead.
+        val source = ingest.source
+        val formatContext = source.getFormatContext()
+        format = source.getFormat()
+        frameRate = source.getFrameRate()
+        if (pixelFormat == -1) pixelFormat = avutil.AV_PIX_FMT_BGR24
+        videoStream = source.getVideoStream()
+        audioStream = source.getAudioStream()
+        if (videoStream >= 0 && (imageWidth <= 0 || imageHeight <= 0)) {
+            imageWidth = source.getImageWidth()
+            imageHeight = source.getImageHeight()
+        }
+        if (audioStream >= 0) {
+            audioChannels = source.getAudioChannels()
+            sampleRate = source.getSampleRate()
+            sampleFormat = avutil.AV_SAMPLE_FMT_S16
+        }
+        frameInterval = if (frameRate > 0) (1_000_000 / frameRate).toLong() else 0L
+        decoder = PacketDecoder(
+            if (videoStream >= 0) formatContext.streams(videoStream) else null,
+            if (audioStream >= 0) formatContext.streams(audioStream) else null
+        )
+        cursor = null
+        endOfInput = false
+        offset = 0L
+        lastOutput = Long.MIN_VALUE
+        positionMicros = null
+        pendingSeek = NO_SEEK
+        paused = false
+        timeShift.attach(this)
+    }
+
+    override fun grab(): Frame? {
+        val decoder = decoder ?: throw Exception("grab() called before start()")
+        val ingest = ingest ?: throw Exception("grab() called before start()")
+        decoder.pixelFormat = pixelFormat
+        decoder.outputWidth = imageWidth
+        decoder.outputHeight = imageHeight
+        try {
+            while (true) {
+                val seek = pendingSeek
+                if (seek != NO_SEEK) {
+                    pendingSeek = NO_SEEK
+                    applySeek(seek, ingest.buffer, decoder)
+                }
+                if (paused) {
+                    awaitResume()
+                    continue
+                }
+
+                decoder.receive()?.let { frame -> return emit(frame) }
+                if (endOfInput) return null
+
+                val cursor = cursor ?: ingest.buffer.liveCursor()?.also { cursor = it }
+                if (cursor == null) {
+                    if (ingest.ended) return null
+                    Thread.sleep(READ_TIMEOUT_MILLIS)
+                    continue
+                }
+                when (ingest.buffer.read(cursor, packet, READ_TIMEOUT_MILLIS)) {
+                    TimeShiftBuffer.ReadResult.PACKET -> decoder.send(packet)
+                    TimeShiftBuffer.ReadResult.NO_DATA -> if (ingest.ended) {
+                        endOfInput = true
+                        decoder.sendEndOfInput()
+                    }
+                    TimeShiftBuffer.ReadResult.OVERRUN -> {
+                        // Paused or behind for longer than the window: continue from the oldest data.
+                        LOG.warning("TimeShiftGrabber: Position fell out of the buffer; jumping to the oldest data.")
+                        if (!applySeek(Long.MIN_VALUE, ingest.buffer, decoder)) {
+                            // No key frame buffered at all (so no live edge either): drop the stale
+                            // cursor; the loop above picks up the live edge once a key frame arrives.
+                            LOG.warning("TimeShiftGrabber: No key frame in the buffer; waiting for the live edge.")
+                            decoder.flush()
+                            this.cursor = null
+                        }
+                    }
+                }
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            return null
+        }
+    }
+
+    /** Continues from the key frame at or before [mediaMicros], or at the live edge for [LIVE]. */
+    internal fun requestSeek(mediaMicros: Long) {
+        pendingSeek = mediaMicros
+        synchronized(pauseLock) { pauseLock.notifyAll() }
+    }
+
+    internal fun pause() {
+        paused = true
+    }
+
+    internal fun resume() {
+        synchronized(pauseLock) {
+            paused = false
+            pauseLock.notifyAll()
+        }
+    }
+
+    override fun setTimestamp(timestamp: Long) {
+        // The player's own timeline maps back onto media time through the current offset.
+        requestSeek(timestamp - offset)
+    }
+
+    override fun getLengthInTime(): Long = 0L
+
+    override fun stop() {
+        timeShift.detach(this)
+        decoder?.close()
+        decoder = null
+        cursor = null
+        ingest = null
+    }
+
+    override fun trigger() {}
+
+    override fun release() {
+        stop()
+        avcodec.av_packet_free(packet)
+    }
+
+    private fun emit(frame: Frame): Frame {
+        val media = frame.timestamp
+        if (frame.type == Frame.Type.VIDEO) {
+            positionMicros = media
+            frameNumber++
+        }
+        frame.timestamp = media + offset
+        if (frame.timestamp > lastOutput) lastOutput = frame.timestamp
+        timestamp = frame.timestamp
+        return frame
+    }
+
+    // Returns false, changing nothing, if the buffer holds no key frame to continue from.
+    private fun applySeek(target: Long, buffer: TimeShiftBuffer, decoder: PacketDecoder): Boolean {
+        val seekEvent = PlaybackEvents.beginSeek()
+        val next = if (target == LIVE) buffer.liveCursor() else buffer.seek(target)
+        PlaybackEvents.endSeek(seekEvent, target, next?.micros ?: -1L, -1, PlaybackEvents.SEEK_KEY_FRAME)
+        if (next == null) return false
+        decoder.flush()
+        cursor = next
+        endOfInput = false
+        // Join the new position right after the last output frame.
+        if (lastOutput != Long.MIN_VALUE) offset = lastOutput + frameInterval - next.micros
+        LOG.info("TimeShiftGrabber: Continuing at media time ${next.micros / 1000} ms")
+        return true
+    }
+
+    @Throws(InterruptedException::class)
+    private fun awaitResume() {
+        val pausedAt = System.nanoTime()
+        synchronized(pauseLock) {
+            while (paused && pendingSeek == NO_SEEK) pauseLock.wait(100)
+        }
+        if (!paused && audioStream < 0) offset += (System.nanoTime() - pausedAt) / 1000
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(TimeShiftGrabber::class.java.name)
+        private const val READ_TIMEOUT_MILLIS = 100L
+        private const val NO_SEEK = Long.MIN_VALUE + 1
+        internal const val LIVE = Long.MAX_VALUE
+    }
+}
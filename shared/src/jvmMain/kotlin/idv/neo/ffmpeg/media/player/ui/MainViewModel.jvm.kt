@@ -5,6 +5,8 @@ import androidx.compose.runtime.remember
 import androidx.compose.ui.graphics.ImageBitmap
 import idv.neo.ffmpeg.media.player.core.JavaFxSwingComposeFFmpegPlayer
 import idv.neo.ffmpeg.media.player.core.PlayerEvent
+import idv.neo.ffmpeg.media.player.core.present.VideoFrameSlot
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -16,9 +18,8 @@ import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
-import org.bytedeco.javacv.Frame
+import idv.neo.ffmpeg.media.player.core.memory.FrameHandle
 
-import idv.neo.ffmpeg.media.player.core.UniversalFrameConverter
 import java.util.logging.Level
 import java.util.logging.Logger
 
@@ -39,15 +40,25 @@ actual class MainViewModel actual constructor(
     private val _countdownValue = MutableStateFlow(10)
     actual val countdownValue: StateFlow<Int> = _countdownValue.asStateFlow()
 
+    // Not updated on the desktop: frames go through videoFrameSlot and are drawn by VideoOutput.
     private val _videoFrameBitmap = MutableStateFlow<ImageBitmap?>(null)
     actual val videoFrameBitmap: StateFlow<ImageBitmap?> = _videoFrameBitmap.asStateFlow()
 
     private val _errorMessage = MutableStateFlow<String?>(null)
     actual val errorMessage: StateFlow<String?> = _errorMessage.asStateFlow()
 
+    /** Newest decoded frame, drawn at display rate by [VideoSurface]. */
+    val videoFrameSlot = VideoFrameSlot()
+
+    /** Latency stats of the current player, where [VideoSurface] records its conversions. */
+    val playerStats: PlayerStats? get() = player?.stats
+
     private var countdownJob: Job? = null
     private var player: JavaFxSwingComposeFFmpegPlayer? = null
-    private var currentActualPixelFormat: Int = -1
+    @Volatile private var currentActualPixelFormat: Int = -1
+    @Volatile private var videoSurfaceVisible: Boolean = true
+    @Volatile private var surfaceWidth = 0
+    @Volatile private var surfaceHeight = 0
 
 
     init {
@@ -74,12 +85,10 @@ actual class MainViewModel actual constructor(
         _errorMessage.value = null
         currentActualPixelFormat = -1
 
-        val videoCallback: (Frame, Long) -> Unit = { frame, _ ->
+        val videoCallback: (FrameHandle, Long) -> Unit = { frame, timestamp ->
             if (currentActualPixelFormat != -1) {
-                val bitmap = UniversalFrameConverter.convertToImageBitmap(frame, currentActualPixelFormat)
-                viewModelScope.launch {
-                    _videoFrameBitmap.value = bitmap
-                }
+                // Only a copy here; conversion happens once per displayed frame in VideoSurface.
+                videoFrameSlot.publish(frame.frame, timestamp, currentActualPixelFormat)
             } else {
                 Log.w(TAG_JVM, "Pixel format not yet known.")
             }
@@ -110,6 +119,8 @@ actual class MainViewModel actual constructor(
         }
         try {
             player = JavaFxSwingComposeFFmpegPlayer(videoCallback, eventCallback, null)
+            player?.setVideoSurfaceVisible(videoSurfaceVisible)
+            player?.setTargetSurfaceSize(surfaceWidth, surfaceHeight)
             player?.start(videoUrl)
         } catch (e: Exception) {
             Log.e(TAG_JVM, "Failed to create or start player", e)
@@ -122,6 +133,19 @@ actual class MainViewModel actual constructor(
         player?.stop()
     }
 
+    actual fun setVideoSurfaceVisible(visible: Boolean) {
+        Log.i(TAG_JVM, "setVideoSurfaceVisible: $visible")
+        videoSurfaceVisible = visible
+        player?.setVideoSurfaceVisible(visible)
+    }
+
+    /** Pixel size of the video surface; the player decodes at this size (see VideoOutput). */
+    fun setVideoSurfaceSize(width: Int, height: Int) {
+        surfaceWidth = width
+        surfaceHeight = height
+        player?.setTargetSurfaceSize(width, height)
+    }
+
     /**
      * This is the JVM's implementation of SharedViewModel.onCleared().
      * It will call super.onCleared() which cancels the JvmSharedViewModelScope.
@@ -0,0 +1,20 @@
+package idv.neo.ffmpeg.media.player.ui
+
+import androidx.compose.runtime.Composable
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.layout.onSizeChanged
+import androidx.compose.ui.graphics.drawscope.DrawScope
+
+/**
+ * Desktop: the player publishes into [MainViewModel.videoFrameSlot] and [VideoSurface] converts at
+ * display rate. The surface size is reported so the player decodes at that size.
+ */
+@Composable
+actual fun VideoOutput(viewModel: MainViewModel, modifier: Modifier, placeholder: DrawScope.() -> Unit) {
+    VideoSurface(
+        viewModel.videoFrameSlot,
+        modifier.onSizeChanged { viewModel.setVideoSurfaceSize(it.width, it.height) },
+        viewModel.playerStats,
+        placeholder
+    )
+}
@@ -0,0 +1,113 @@
+package idv.neo.ffmpeg.media.player.ui
+
+import androidx.compose.foundation.Canvas
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.DisposableEffect
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableLongStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.rememberUpdatedState
+import androidx.compose.runtime.setValue
+import androidx.compose.runtime.withFrameNanos
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.graphics.ImageBitmap
+import androidx.compose.ui.graphics.asComposeImageBitmap
+import androidx.compose.ui.graphics.drawscope.DrawScope
+import androidx.compose.ui.unit.IntOffset
+import androidx.compose.ui.unit.IntSize
+import idv.neo.ffmpeg.media.player.core.jfr.PlaybackEvents
+import idv.neo.ffmpeg.media.player.core.present.VideoFrameSlot
+import idv.neo.ffmpeg.media.player.core.present.ViewScaler
+import idv.neo.ffmpeg.media.player.core.stats.PlaybackStage
+import idv.neo.ffmpeg.media.player.core.stats.PlayerStats
+import org.bytedeco.ffmpeg.global.avutil
+import org.jetbrains.skia.Bitmap
+import org.jetbrains.skia.ColorAlphaType
+import org.jetbrains.skia.ColorInfo
+import org.jetbrains.skia.ColorSpace
+import org.jetbrains.skia.ColorType
+import org.jetbrains.skia.ImageInfo
+import org.jetbrains.skia.impl.BufferUtil
+
+/**
+ * Draws the frames a player publishes into [slot], paced by the display: once per frame,
+ * inside [withFrameNanos], the newest published frame (if any arrived since the last refresh) is
+ * converted straight into a reused Skia bitmap and the canvas is invalidated. Frames the player
+ * published in between are never converted, and playback causes no recomposition, only redraws.
+ *
+ * [placeholder] is drawn until the first frame arrives.
+ */
+@Composable
+fun VideoSurface(
+    slot: VideoFrameSlot,
+    modifier: Modifier = Modifier,
+    stats: PlayerStats? = null,
+    placeholder: DrawScope.() -> Unit = {}
+) {
+    val renderer = remember(slot) { SlotBitmapRenderer() }
+    var drawnSequence by remember(slot) { mutableLongStateOf(0L) }
+    val currentStats by rememberUpdatedState(stats)
+
+    DisposableEffect(renderer) {
+        onDispose { renderer.close() }
+    }
+    LaunchedEffect(slot, renderer) {
+        while (true) {
+            withFrameNanos {
+                val view = slot.acquire() ?: return@withFrameNanos
+                val startNanos = System.nanoTime()
+                val event = PlaybackEvents.beginConvert()
+                val converted = renderer.render(view)
+                currentStats?.record(PlaybackStage.CONVERT, System.nanoTime() - startNanos)
+                PlaybackEvents.endConvert(event, null, "VIDEO_SURFACE", converted)
+                if (converted) drawnSequence = view.sequence
+            }
+        }
+    }
+
+    Canvas(modifier) {
+        // Reading the sequence ties this draw to new frames; a new frame only redraws.
+        val image = if (drawnSequence > 0) renderer.image else null
+        if (image != null) {
+            drawImage(image = image, dstOffset = IntOffset.Zero, dstSize = IntSize(size.width.toInt(), size.height.toInt()))
+        } else {
+            placeholder()
+        }
+    }
+}
+
+/**
+ * Converts [VideoFrameSlot.View]s into one BGRA Skia bitmap that is reused while the size stays
+ * the same. Used on the UI thread only.
+ */
+internal class SlotBitmapRenderer {
+    private var bitmap: Bitmap? = null
+    private val scaler = ViewScaler(avutil.AV_PIX_FMT_BGRA)
+
+    var image: ImageBitmap? = null
+        private set
+
+    fun render(view: VideoFrameSlot.View): Boolean {
+        var target = bitmap
+        if (target == null || target.width != view.width || target.height != view.height) {
+            target?.close()
+            target = Bitmap()
+            target.allocPixels(ImageInfo(ColorInfo(ColorType.BGRA_8888, ColorAlphaType.OPAQUE, ColorSpace.sRGB), view.width, view.height))
+            bitmap = target
+            image = target.asComposeImageBitmap()
+        }
+        val pixels = target.peekPixels() ?: return false
+        val rowBytes = target.rowBytes
+        if (!scaler.scale(view, BufferUtil.getByteBufferFromPointer(pixels.addr, rowBytes * view.height), rowBytes)) return false
+        target.notifyPixelsChanged()
+        return true
+    }
+
+    fun close() {
+        scaler.close()
+        image = null
+        bitmap?.close()
+        bitmap = null
+    }
+}
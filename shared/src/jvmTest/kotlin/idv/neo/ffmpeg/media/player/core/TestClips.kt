@@ -0,0 +1,38 @@
+package idv.neo.ffmpeg.media.player.core
+
+import idv.neo.ffmpeg.media.player.core.source.SyntheticFrameGrabber
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.javacv.FFmpegFrameRecorder
+import java.io.File
+
+/** Small media files generated for tests. */
+object TestClips {
+
+    /**
+     * Encodes [frames] synthetic video frames, without audio, as MPEG-4 in Matroska to [file],
+     * with a key frame every [gop] frames.
+     */
+    fun video(file: File, frames: Int, fps: Int = 30, gop: Int = 10, width: Int = 160, height: Int = 90): File {
+        val source = SyntheticFrameGrabber.fromUri("synthetic:width=$width&height=$height&fps=$fps&channels=0&sampleRate=0&gop=$gop")
+        FFmpegFrameRecorder(file, width, height, 0).apply {
+            format = "matroska"
+            videoCodec = avcodec.AV_CODEC_ID_MPEG4
+            frameRate = fps.toDouble()
+            gopSize = gop
+        }.use { recorder ->
+            source.start()
+            recorder.start()
+            var written = 0
+            while (written < frames) {
+                val frame = source.grab() ?: break
+                if (frame.image == null) continue
+                recorder.record(frame)
+                written++
+            }
+            recorder.stop()
+            source.stop()
+            source.release()
+        }
+        return file
+    }
+}
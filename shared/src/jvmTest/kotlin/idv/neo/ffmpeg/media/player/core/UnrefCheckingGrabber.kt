@@ -0,0 +1,26 @@
+package idv.neo.ffmpeg.media.player.core
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import java.io.File
+
+/**
+ * An FFmpegFrameGrabber that counts the packets read while the previous one still held its data.
+ * grabPacket() is a bare av_read_frame(), so a caller that never unreferences its packets leaks
+ * every one of them; [notUnreferenced] then equals [packets].
+ */
+class UnrefCheckingGrabber(file: File) : FFmpegFrameGrabber(file) {
+    private var previous: AVPacket? = null
+    var packets = 0
+        private set
+    var notUnreferenced = 0
+        private set
+
+    override fun grabPacket(): AVPacket? {
+        previous?.let { if (it.buf() != null || it.size() > 0) notUnreferenced++ }
+        return super.grabPacket()?.also {
+            previous = it
+            packets++
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package idv.neo.ffmpeg.media.player.core.batch
+
+import idv.neo.ffmpeg.media.player.core.TestClips
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import java.io.File
+import java.nio.file.Files
+import java.util.Collections
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class BatchDecoderTest {
+
+    private lateinit var clip: File
+    private lateinit var expected: List<Long>
+
+    @BeforeTest
+    fun createClip() {
+        clip = TestClips.video(Files.createTempFile("batch", ".mkv").toFile(), FRAMES, gop = GOP)
+        expected = sequentialTimestamps()
+        assertEquals(FRAMES, expected.size)
+    }
+
+    @AfterTest
+    fun deleteClip() {
+        clip.delete()
+    }
+
+    private fun sequentialTimestamps(): List<Long> {
+        val grabber = FFmpegFrameGrabber(clip)
+        val timestamps = ArrayList<Long>()
+        grabber.start()
+        try {
+            while (true) timestamps += (grabber.grabImage() ?: break).timestamp
+        } finally {
+            grabber.stop()
+            grabber.release()
+        }
+        return timestamps
+    }
+
+    @Test
+    fun orderedDeliversEveryFrameOnceInPresentationOrder() {
+        val timestamps = ArrayList<Long>()
+        val result = BatchDecoder(WORKERS).use { decoder ->
+            // A small reorder buffer makes the workers wait for the consumer.
+            decoder.decode(clip.path, BatchDecodeOptions(ordered = true, bufferFrames = 2, rangesPerWorker = 2)) { frame ->
+                timestamps += frame.timestamp
+            }
+        }
+
+        assertEquals(FRAMES / GOP, result.keyFrames)
+        assertTrue(result.ranges > 1, "expected the clip to be split, got ${result.ranges} range")
+        assertEquals(FRAMES.toLong(), result.frames)
+        assertEquals(expected, timestamps)
+    }
+
+    @Test
+    fun unorderedDeliversEveryFrameExactlyOnce() {
+        val timestamps = Collections.synchronizedList(ArrayList<Long>())
+        val result = BatchDecoder(WORKERS).use { decoder ->
+            decoder.decode(clip.path, BatchDecodeOptions(ordered = false, rangesPerWorker = 2)) { frame ->
+                timestamps += frame.timestamp
+            }
+        }
+
+        assertEquals(FRAMES.toLong(), result.frames)
+        assertEquals(expected, timestamps.sorted())
+    }
+
+    @Test
+    fun scalesFramesWhenASizeIsSet() {
+        val sizes = Collections.synchronizedSet(HashSet<Pair<Int, Int>>())
+        BatchDecoder(WORKERS).use { decoder ->
+            decoder.decode(clip.path, BatchDecodeOptions(ordered = false, width = 80, height = 44)) { frame ->
+                sizes += frame.imageWidth to frame.imageHeight
+            }
+        }
+
+        assertEquals(setOf(80 to 44), sizes)
+    }
+
+    private companion object {
+        const val FRAMES = 90
+        const val GOP = 10
+        const val WORKERS = 3
+    }
+}
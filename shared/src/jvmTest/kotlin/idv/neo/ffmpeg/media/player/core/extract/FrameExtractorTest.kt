@@ -0,0 +1,83 @@
+package idv.neo.ffmpeg.media.player.core.extract
+
+import idv.neo.ffmpeg.media.player.core.snapshot.SnapshotFormat
+import idv.neo.ffmpeg.media.player.core.source.FrameGrabberFactory
+import org.bytedeco.javacv.FrameGrabber
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class FrameExtractorTest {
+
+    private lateinit var directory: File
+
+    @BeforeTest
+    fun createDirectory() {
+        directory = Files.createTempDirectory("frame-extractor").toFile()
+    }
+
+    @AfterTest
+    fun deleteDirectory() {
+        directory.deleteRecursively()
+    }
+
+    private fun request(writeBatch: Int = 4) = ExtractionRequest(
+        outputDirectory = directory,
+        format = SnapshotFormat.PNG,
+        encoders = 2,
+        maxInFlight = 2,
+        writeBatch = writeBatch
+    )
+
+    @Test
+    fun writesEveryFrameAndTheIndex() {
+        val result = FrameExtractor(FrameGrabberFactory.DEFAULT).extract(SOURCE, request())
+
+        assertEquals(FRAMES, result.decodedFrames)
+        assertEquals(FRAMES.toInt(), result.writtenImages)
+        assertTrue(File(directory, "frame-000001.png").isFile)
+        assertTrue(File(directory, "frame-%06d.png".format(FRAMES)).isFile)
+        assertEquals(FRAMES.toInt() + 1, File(directory, "frames.csv").readLines().size)
+    }
+
+    @Test
+    fun writeFailureFailsTheExtractionInsteadOfHangingIt() {
+        // A directory where the first image should go makes its write fail; the encoders must
+        // not block on the writer after that, and the failure must come out of extract().
+        File(directory, "frame-000001.png").mkdir()
+
+        val extraction = Thread {
+            assertFailsWith<FrameGrabber.Exception> {
+                FrameExtractor(FrameGrabberFactory.DEFAULT).extract(SOURCE, request(writeBatch = 1))
+            }
+        }
+        var error: Throwable? = null
+        extraction.setUncaughtExceptionHandler { _, e -> error = e }
+        extraction.start()
+        extraction.join(TIMEOUT_MILLIS)
+
+        assertTrue(!extraction.isAlive, "extract() did not return within $TIMEOUT_MILLIS ms")
+        error?.let { throw it }
+    }
+
+    @Test
+    fun unwritableIndexFailsBeforeDecoding() {
+        File(directory, "frames.csv").mkdir()
+
+        assertFailsWith<IOException> {
+            FrameExtractor { throw AssertionError("the source must not be opened") }.extract(SOURCE, request())
+        }
+    }
+
+    private companion object {
+        const val FRAMES = 60L
+        const val SOURCE = "synthetic:width=160&height=90&fps=30&duration=2&channels=0&sampleRate=0"
+        const val TIMEOUT_MILLIS = 30_000L
+    }
+}
@@ -0,0 +1,89 @@
+package idv.neo.ffmpeg.media.player.core.recording
+
+import idv.neo.ffmpeg.media.player.core.TestClips
+import idv.neo.ffmpeg.media.player.core.UnrefCheckingGrabber
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+
+class RecordingTapTest {
+
+    private lateinit var directory: File
+    private lateinit var clip: File
+
+    @BeforeTest
+    fun createClip() {
+        directory = Files.createTempDirectory("recording").toFile()
+        clip = TestClips.video(File(directory, "source.mkv"), FRAMES)
+    }
+
+    @AfterTest
+    fun deleteDirectory() {
+        directory.deleteRecursively()
+    }
+
+    private fun videoFrames(file: File): Int {
+        val grabber = FFmpegFrameGrabber(file)
+        var frames = 0
+        grabber.start()
+        try {
+            while (grabber.grabImage() != null) frames++
+        } finally {
+            grabber.stop()
+            grabber.release()
+        }
+        return frames
+    }
+
+    @Test
+    fun recordsEveryPlayedPacketAndUnreferencesThem() {
+        val tap = RecordingTap()
+        val demuxer = UnrefCheckingGrabber(clip)
+        val grabber = PacketTeeGrabber(demuxer, tap)
+        val output = File(directory, "recording.mkv")
+
+        grabber.start()
+        tap.startRecording(output)
+        var played = 0
+        while (true) {
+            val frame = grabber.grab() ?: break
+            if (frame.image != null) played++
+        }
+        val result = assertNotNull(tap.stopRecording())
+        grabber.stop()
+        grabber.release()
+
+        assertEquals(FRAMES, played)
+        assertEquals(0, demuxer.notUnreferenced, "packets kept their data after ${demuxer.packets} reads")
+        assertNull(result.error)
+        assertEquals(demuxer.packets.toLong(), result.packetsWritten)
+        assertEquals(0L, result.packetsDropped)
+        assertEquals(FRAMES, videoFrames(output))
+    }
+
+    @Test
+    fun stopsRecordingWhenThePlaybackStops() {
+        val tap = RecordingTap()
+        val grabber = PacketTeeGrabber(FFmpegFrameGrabber(clip), tap)
+
+        grabber.start()
+        tap.startRecording(File(directory, "stopped.mkv"))
+        repeat(10) { grabber.grab() }
+        grabber.stop()
+        grabber.release()
+
+        assertFalse(tap.isRecording)
+        assertNull(tap.stopRecording())
+    }
+
+    private companion object {
+        const val FRAMES = 45
+    }
+}
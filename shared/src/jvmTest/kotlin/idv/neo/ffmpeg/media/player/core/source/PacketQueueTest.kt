@@ -0,0 +1,139 @@
+package idv.neo.ffmpeg.media.player.core.source
+
+import idv.neo.ffmpeg.media.player.core.memory.NativeMemoryBudget
+import org.bytedeco.ffmpeg.avcodec.AVPacket
+import org.bytedeco.ffmpeg.global.avcodec
+import kotlin.concurrent.thread
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class PacketQueueTest {
+
+    private fun packet(size: Int): AVPacket = avcodec.av_packet_alloc().also { avcodec.av_new_packet(it, size) }
+
+    /** Puts [packet] on another thread and returns it, so the test can see whether the put blocks. */
+    private fun putAsync(queue: PacketQueue, packet: AVPacket, micros: Long): Thread =
+        thread(isDaemon = true) { queue.put(packet, micros) }
+
+    private fun assertBlocked(put: Thread) {
+        put.join(BLOCK_CHECK_MILLIS)
+        assertTrue(put.isAlive, "put() should block while the queue is full")
+    }
+
+    private fun assertCompletes(put: Thread) {
+        put.join(TIMEOUT_MILLIS)
+        assertFalse(put.isAlive, "put() should return once the queue has room")
+    }
+
+    private fun PacketQueue.takeAndFree() {
+        avcodec.av_packet_free(take())
+    }
+
+    @Test
+    fun blocksWhenTheByteBoundIsReached() {
+        val queue = PacketQueue(maxBytes = 1_000, maxMicros = Long.MAX_VALUE)
+        assertTrue(queue.put(packet(400), 0))
+        assertTrue(queue.put(packet(400), 1))
+        assertEquals(800L, queue.sizeBytes)
+
+        val put = putAsync(queue, packet(400), 2)
+        assertBlocked(put)
+        queue.takeAndFree()
+        assertCompletes(put)
+        assertEquals(800L, queue.sizeBytes)
+        queue.close()
+    }
+
+    @Test
+    fun blocksWhenTheDurationBoundIsReached() {
+        val queue = PacketQueue(maxBytes = Long.MAX_VALUE, maxMicros = 100_000)
+        assertTrue(queue.put(packet(10), 0))
+        assertTrue(queue.put(packet(10), 50_000))
+        assertTrue(queue.put(packet(10), 100_000))
+        assertEquals(100_000L, queue.durationMicros)
+
+        val put = putAsync(queue, packet(10), 150_000)
+        assertBlocked(put)
+        queue.takeAndFree()
+        assertCompletes(put)
+        assertEquals(100_000L, queue.durationMicros)
+        queue.close()
+    }
+
+    @Test
+    fun packetsWithoutTimestampsDoNotCountTowardsTheDuration() {
+        val queue = PacketQueue(maxBytes = Long.MAX_VALUE, maxMicros = 100_000)
+        assertTrue(queue.put(packet(10), Long.MIN_VALUE))
+        assertTrue(queue.put(packet(10), 0))
+        assertTrue(queue.put(packet(10), Long.MIN_VALUE))
+        assertEquals(0L, queue.durationMicros)
+        queue.close()
+    }
+
+    @Test
+    fun acceptsAnOversizedPacketWhenEmpty() {
+        val queue = PacketQueue(maxBytes = 100, maxMicros = 100_000)
+        assertTrue(queue.put(packet(1_000), 0))
+        assertEquals(1_000L, queue.sizeBytes)
+        queue.close()
+    }
+
+    @Test
+    fun returnsPacketsInOrderAndNullAfterTheEnd() {
+        val queue = PacketQueue(maxBytes = Long.MAX_VALUE, maxMicros = Long.MAX_VALUE)
+        val first = packet(10)
+        val second = packet(20)
+        queue.put(first, 0)
+        queue.put(second, 1)
+        queue.end()
+
+        assertSame(first, queue.take())
+        assertSame(second, queue.take())
+        assertNull(queue.take())
+        avcodec.av_packet_free(first)
+        avcodec.av_packet_free(second)
+    }
+
+    @Test
+    fun chargesQueuedBytesToTheBudget() {
+        val budget = NativeMemoryBudget("PacketQueueTest", Long.MAX_VALUE)
+        val queue = PacketQueue(maxBytes = Long.MAX_VALUE, maxMicros = Long.MAX_VALUE, budget = budget)
+        queue.put(packet(300), 0)
+        queue.put(packet(500), 1)
+        assertEquals(800L, budget.packetBytesQueued)
+
+        queue.takeAndFree()
+        assertEquals(500L, budget.packetBytesQueued)
+
+        queue.clear()
+        assertEquals(0L, budget.packetBytesQueued)
+
+        queue.put(packet(700), 2)
+        assertEquals(700L, budget.packetBytesQueued)
+        queue.close()
+        assertEquals(0L, budget.packetBytesQueued)
+    }
+
+    @Test
+    fun closeWakesABlockedPutAndRejectsTheRest() {
+        val queue = PacketQueue(maxBytes = 100, maxMicros = Long.MAX_VALUE)
+        queue.put(packet(100), 0)
+        val put = putAsync(queue, packet(100), 1)
+        assertBlocked(put)
+
+        queue.close()
+        assertCompletes(put)
+        assertEquals(0L, queue.sizeBytes)
+        assertFalse(queue.put(packet(10), 2))
+        assertNull(queue.take())
+    }
+
+    private companion object {
+        const val BLOCK_CHECK_MILLIS = 200L
+        const val TIMEOUT_MILLIS = 5_000L
+    }
+}
@@ -0,0 +1,67 @@
+package idv.neo.ffmpeg.media.player.core.source
+
+import idv.neo.ffmpeg.media.player.core.TestClips
+import idv.neo.ffmpeg.media.player.core.UnrefCheckingGrabber
+import idv.neo.ffmpeg.media.player.core.memory.NativeMemoryBudget
+import org.bytedeco.javacv.FFmpegFrameGrabber
+import org.bytedeco.javacv.FrameGrabber
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class PipelinedFrameGrabberTest {
+
+    private lateinit var clip: File
+
+    @BeforeTest
+    fun createClip() {
+        clip = TestClips.video(Files.createTempFile("pipelined", ".mkv").toFile(), FRAMES)
+    }
+
+    @AfterTest
+    fun deleteClip() {
+        clip.delete()
+    }
+
+    private fun timestamps(grabber: FrameGrabber): List<Long> {
+        val timestamps = ArrayList<Long>()
+        grabber.start()
+        try {
+            while (true) {
+                val frame = grabber.grab() ?: break
+                if (frame.image != null) timestamps += frame.timestamp
+            }
+        } finally {
+            grabber.stop()
+            grabber.release()
+        }
+        return timestamps
+    }
+
+    @Test
+    fun deliversTheSameFramesAsFFmpegFrameGrabber() {
+        val expected = timestamps(FFmpegFrameGrabber(clip))
+        assertEquals(FRAMES, expected.size)
+        assertEquals(expected, timestamps(PipelinedFrameGrabber(FFmpegFrameGrabber(clip))))
+    }
+
+    @Test
+    fun unreferencesEveryPacketItReads() {
+        repeat(3) {
+            val demuxer = UnrefCheckingGrabber(clip)
+            val budget = NativeMemoryBudget("PipelinedFrameGrabberTest", Long.MAX_VALUE)
+            val grabber = PipelinedFrameGrabber(demuxer).also { it.memoryBudget = budget }
+
+            assertEquals(FRAMES, timestamps(grabber).size)
+            assertEquals(0, demuxer.notUnreferenced, "packets kept their data after ${demuxer.packets} reads")
+            assertEquals(0L, budget.packetBytesQueued)
+        }
+    }
+
+    private companion object {
+        const val FRAMES = 45
+    }
+}
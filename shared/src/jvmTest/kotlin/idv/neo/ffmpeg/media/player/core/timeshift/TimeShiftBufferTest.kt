@@ -0,0 +1,134 @@
+package idv.neo.ffmpeg.media.player.core.timeshift
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.javacpp.BytePointer
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+
+class TimeShiftBufferTest {
+
+    private lateinit var directory: File
+    private lateinit var buffer: TimeShiftBuffer
+    private val packet: AVPacket = avcodec.av_packet_alloc()
+
+    @BeforeTest
+    fun createBuffer() {
+        directory = Files.createTempDirectory("time-shift").toFile()
+        // Three one-second segments of ten packets each.
+        buffer = TimeShiftBuffer(directory, segmentCount = 3, segmentBytes = 64 * 1024, segmentMicros = 1_000_000)
+    }
+
+    @AfterTest
+    fun closeBuffer() {
+        buffer.close()
+        avcodec.av_packet_free(packet)
+        directory.deleteRecursively()
+    }
+
+    /** Appends packets [from] until [until], one every 100 ms, with a seek point every second. */
+    private fun appendPackets(from: Int, until: Int) {
+        for (i in from until until) {
+            avcodec.av_new_packet(packet, PACKET_BYTES)
+            fillPattern(packet.data(), i)
+            packet.pts(i.toLong())
+            packet.dts(i.toLong())
+            packet.duration(1)
+            packet.stream_index(0)
+            buffer.append(packet, i * STEP_MICROS, seekPoint = i % 10 == 0)
+            avcodec.av_packet_unref(packet)
+        }
+    }
+
+    private fun fillPattern(data: BytePointer, value: Int) {
+        for (j in 0 until PACKET_BYTES) data.put(j.toLong(), (value + j).toByte())
+    }
+
+    /** Reads the packet at [cursor] and checks it is packet [expected], byte for byte. */
+    private fun assertReads(expected: Int, cursor: TimeShiftBuffer.Cursor) {
+        assertEquals(TimeShiftBuffer.ReadResult.PACKET, buffer.read(cursor, packet, 0))
+        assertEquals(expected.toLong(), packet.pts())
+        assertEquals(expected * STEP_MICROS, cursor.micros)
+        assertEquals(PACKET_BYTES, packet.size())
+        for (j in 0 until PACKET_BYTES) assertEquals((expected + j).toByte(), packet.data().get(j.toLong()))
+    }
+
+    @Test
+    fun readsBackWhatWasAppendedUntilTheLiveEdge() {
+        appendPackets(0, 15)
+
+        val cursor = assertNotNull(buffer.seek(0))
+        for (i in 0 until 15) assertReads(i, cursor)
+        assertEquals(TimeShiftBuffer.ReadResult.NO_DATA, buffer.read(cursor, packet, 0))
+
+        appendPackets(15, 16)
+        assertReads(15, cursor)
+    }
+
+    @Test
+    fun evictsTheOldestSegmentWhenTheRingWraps() {
+        assertNull(buffer.oldestMicros)
+        assertNull(buffer.liveEdgeMicros)
+
+        appendPackets(0, 50)
+
+        assertEquals(2_000_000L, buffer.oldestMicros)
+        assertEquals(4_900_000L, buffer.liveEdgeMicros)
+    }
+
+    @Test
+    fun seeksToTheLastSeekPointAtOrBeforeTheTimeClampedToTheBuffer() {
+        appendPackets(0, 50)
+
+        assertEquals(3_000_000L, assertNotNull(buffer.seek(3_500_000)).micros)
+        assertEquals(4_000_000L, assertNotNull(buffer.seek(4_000_000)).micros)
+        assertEquals(2_000_000L, assertNotNull(buffer.seek(0)).micros)
+        assertEquals(4_000_000L, assertNotNull(buffer.seek(60_000_000)).micros)
+        assertEquals(4_000_000L, assertNotNull(buffer.liveCursor()).micros)
+
+        val cursor = assertNotNull(buffer.seek(2_500_000))
+        for (i in 20 until 50) assertReads(i, cursor)
+    }
+
+    @Test
+    fun aReaderOverwrittenByTheWriterIsToldToSeekAgain() {
+        appendPackets(0, 30)
+        val cursor = assertNotNull(buffer.seek(0))
+        assertReads(0, cursor)
+
+        appendPackets(30, 40)
+
+        assertEquals(TimeShiftBuffer.ReadResult.OVERRUN, buffer.read(cursor, packet, 0))
+        val again = assertNotNull(buffer.seek(cursor.micros))
+        assertEquals(1_000_000L, again.micros)
+        assertReads(10, again)
+    }
+
+    @Test
+    fun startsANewSegmentWhenTheCurrentOneIsFull() {
+        buffer.close()
+        // Room for four packets per segment, so a one-second segment cannot hold ten.
+        buffer = TimeShiftBuffer(directory, segmentCount = 3, segmentBytes = 4 * (PACKET_BYTES + HEADER_BYTES), segmentMicros = 1_000_000)
+        appendPackets(0, 15)
+
+        // Segments hold 8-11 and 12-14 now; the seek point at 0 went with 0-3.
+        assertEquals(1_000_000L, buffer.oldestMicros)
+        assertEquals(1_400_000L, buffer.liveEdgeMicros)
+        val cursor = assertNotNull(buffer.seek(0))
+        for (i in 10 until 15) assertReads(i, cursor)
+        assertEquals(TimeShiftBuffer.ReadResult.NO_DATA, buffer.read(cursor, packet, 0))
+    }
+
+    private companion object {
+        const val PACKET_BYTES = 100
+        const val STEP_MICROS = 100_000L
+        // size, stream and flags, then pts, dts, duration and micros.
+        const val HEADER_BYTES = 3 * 4 + 4 * 8
+    }
+}